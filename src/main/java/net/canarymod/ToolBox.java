@@ -1,25 +1,22 @@
 package net.canarymod;
 
 import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.api.world.DimensionType;
 import net.canarymod.api.world.UnknownWorldException;
 import net.canarymod.api.world.World;
 import net.canarymod.config.Configuration;
+import net.canarymod.user.UUIDResolver;
 import net.visualillusionsent.utils.PropertiesFile;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Scanner;
 import java.util.TimeZone;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -37,7 +34,11 @@ public class ToolBox {
     private static TimeZone tz_GMT = TimeZone.getTimeZone("GMT");
     private static Matcher uuidMatcher = Pattern.compile("[0-9a-f]{8}\\-([0-9a-f]{4}\\-){3}[0-9a-f]{12}").matcher("");
     private static Matcher usrMatcher = Pattern.compile("[A-Za-z0-9_]{3,16}").matcher("");
-    protected static final PropertiesFile userLookup = new PropertiesFile("uuidreverselookup.cfg");
+    /**
+     * @deprecated the lookup cache is kept by {@link UUIDResolver}; this is the file it saves to, see {@link UUIDResolver#getLookupFile()}
+     */
+    @Deprecated
+    protected static final PropertiesFile userLookup = UUIDResolver.getLookupFile();
 
     /**
      * Check if an array contains a specified value
@@ -529,7 +530,8 @@ public class ToolBox {
     }
 
     /**
-     * Ask's Mojang's API for a UUID for a give UserName
+     * Ask's Mojang's API for a UUID for a give UserName.
+     * Blocks if the name has to be looked up, see {@link #usernameToUUIDAsync(String)} for a non blocking lookup.
      *
      * @param username
      *         the user name to get a UUID for
@@ -540,6 +542,34 @@ public class ToolBox {
         if (username == null) {
             return null;
         }
+        String uuid = localUUID(username);
+        // Cached, or looked up in a batch with other requests for names
+        return uuid != null ? uuid : UUIDResolver.get().resolve(username);
+    }
+
+    /**
+     * Gets the UUID for a given UserName without blocking.
+     * The future completes once Mojang's API has been asked, if it has to be.
+     *
+     * @param username
+     *         the user name to get a UUID for
+     *
+     * @return a future of the user's uuid, which is null if not found/on error
+     */
+    public static ListenableFuture<String> usernameToUUIDAsync(String username) {
+        if (username == null) {
+            return Futures.immediateFuture(null);
+        }
+        String uuid = localUUID(username);
+        return uuid != null ? Futures.immediateFuture(uuid) : UUIDResolver.get().resolveAsync(username);
+    }
+
+    /**
+     * Gets the UUID for a UserName if it can be told without asking Mojang's API
+     *
+     * @return the uuid, or null if the API has to be asked
+     */
+    private static String localUUID(String username) {
         if (!isValidUsername(username)) {
             if (isUUID(username)) {
                 return username; // shmuck passed in a UUID so pass it back
@@ -559,54 +589,7 @@ public class ToolBox {
         if (!Configuration.getServerConfig().isOnlineMode() && !Configuration.getServerConfig().getBungeecordSupport()) {
             return getOfflineUUID(username).toString(); // username isn't valid, so don't bother checking against the mojang API
         }
-
-        // Check the reverse lookup cache
-        if (userLookup.getPropertiesMap().containsValue(username)) {
-            for (Map.Entry<String, String> entry : userLookup.getPropertiesMap().entrySet()) {
-                if (entry.getValue().equals(username)) {
-                    if (userLookup.getComments(entry.getKey()).length > 0) {
-                        if (!userLookupExpired(userLookup.getComments(entry.getKey())[0].replace(";Verified: ", "").trim())) {
-                            return entry.getKey();
-                        }
-                    }
-                }
-            }
-        }
-
-        String uuid = null;
-        try {
-            URL url = new URL("https://api.mojang.com/users/profiles/minecraft/" + username);
-            HttpURLConnection uc = (HttpURLConnection)url.openConnection();
-            uc.setRequestMethod("POST");
-            uc.setUseCaches(false);
-            uc.setDefaultUseCaches(false);
-            uc.addRequestProperty("User-Agent", "minecraft");
-            uc.addRequestProperty("Cache-Control", "no-cache, no-store, must-revalidate");
-            uc.addRequestProperty("Pragma", "no-cache");
-            uc.setRequestProperty("Content-Type", "application/json");
-
-            // Parse it
-            String json = new Scanner(uc.getInputStream(), "UTF-8").useDelimiter("\\A").next();
-            JSONParser parser = new JSONParser();
-            Object obj = parser.parse(json);
-            uuid = (String)((JSONObject)obj).get("id");
-        }
-        catch (Exception ex) {
-            Canary.log.debug("Failed to translate Username into a UUID.");
-            Canary.log.debug("Debugging Stacktrace of failed UUID lookup", ex);
-        }
-        if (uuid != null && !uuid.contains("-")) {
-            // Add the hyphens back in
-            uuid = uuid.substring(0, 8) + "-" + uuid.substring(8, 12) + "-" + uuid.substring(12, 16) + "-" + uuid.substring(16, 20) + "-" + uuid.substring(20, 32);
-        }
-
-        // Update the userLookup
-        if (uuid != null) {
-            userLookup.setString(uuid, username);
-            userLookup.setComments(uuid, ";Verified: " + System.currentTimeMillis());
-            userLookup.save();
-        }
-        return uuid;
+        return null;
     }
 
     /**
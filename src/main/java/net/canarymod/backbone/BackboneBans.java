@@ -1,6 +1,7 @@
 package net.canarymod.backbone;
 
 import net.canarymod.bansystem.Ban;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
@@ -32,20 +33,6 @@ public class BackboneBans extends Backbone {
         }
     }
 
-    private boolean banExists(Ban ban) {
-        BanDataAccess data = new BanDataAccess();
-
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("uuid", ban.getUUID());
-            Database.get().load(data, filter);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
-        return data.hasData();
-    }
-
     /**
      * Add a new Ban to the list of bans.
      *
@@ -53,10 +40,6 @@ public class BackboneBans extends Backbone {
      *         The ban to add.
      */
     public void addBan(Ban ban) {
-        if (banExists(ban)) {
-            updateBan(ban);
-            return;
-        }
         BanDataAccess data = new BanDataAccess();
 
         data.uuid = ban.getUUID();
@@ -66,12 +49,10 @@ public class BackboneBans extends Backbone {
         data.reason = ban.getReason();
         data.ip = ban.getIp();
         data.issuedDate = ban.getIssuedDate();
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("uuid", data.uuid);
+        // Replaces an existing ban of the same player
+        AsyncDatabase.get().upsert(data, filter);
     }
 
     /**
@@ -81,14 +62,9 @@ public class BackboneBans extends Backbone {
      *         Player uuid to unban.
      */
     public void liftBan(String uuid) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("uuid", uuid);
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("uuid", uuid);
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -98,14 +74,9 @@ public class BackboneBans extends Backbone {
      *         IP Address to unban.
      */
     public void liftIpBan(String subject) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("ip", subject);
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("ip", subject);
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -123,6 +94,7 @@ public class BackboneBans extends Backbone {
         try {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("uuid", uuid);
+            AsyncDatabase.get().flush(schema.getName());
             Database.get().load(data, filter);
         }
         catch (DatabaseReadException e) {
@@ -155,6 +127,7 @@ public class BackboneBans extends Backbone {
         try {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("uuid", ban.getUUID());
+            AsyncDatabase.get().flush(schema.getName());
             Database.get().load(data, filter);
             if (data.hasData()) {
                 data.uuid = ban.getUUID();
@@ -164,15 +137,12 @@ public class BackboneBans extends Backbone {
                 data.reason = ban.getReason();
                 data.unbanDate = ban.getExpiration();
                 data.issuedDate = ban.getIssuedDate();
-                Database.get().update(data, filter);
+                AsyncDatabase.get().update(data, filter);
             }
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
     }
 
     /**
@@ -185,6 +155,7 @@ public class BackboneBans extends Backbone {
         List<DataAccess> dataList = new ArrayList<DataAccess>();
 
         try {
+            AsyncDatabase.get().flush(schema.getName());
             Database.get().loadAll(schema, dataList, new HashMap<String, Object>());
             for (DataAccess da : dataList) {
                 BanDataAccess data = (BanDataAccess)da;
@@ -1,5 +1,6 @@
 package net.canarymod.backbone;
 
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
@@ -33,20 +34,6 @@ public class BackboneKits extends Backbone {
         }
     }
 
-    private boolean kitExists(Kit kit) {
-        KitDataAccess data = new KitDataAccess();
-
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", kit.getName());
-            Database.get().load(data, filter);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
-        return data.hasData();
-    }
-
     /**
      * Add a new Kit to the list of Kits.
      *
@@ -54,25 +41,8 @@ public class BackboneKits extends Backbone {
      *         Adds the kit instance to the list of kits.
      */
     public void addKit(Kit kit) {
-        if (kitExists(kit)) {
-            updateKit(kit);
-            return;
-        }
-        KitDataAccess data = new KitDataAccess();
-
-        data.groups = kit.getGroups() != null ? new ArrayList<String>(Arrays.asList(kit.getGroups())) : new ArrayList<String>();
-        data.items = kit.getItemsAsStringList();
-        data.name = kit.getName();
-        data.owners = kit.getOwner() != null ? new ArrayList<String>(Arrays.asList(kit.getOwner())) : new ArrayList<String>();
-        data.useDelay = kit.getDelay();
-        data.id = 0;
-
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        // Saving inserts kits that are not stored yet
+        updateKit(kit);
     }
 
     /**
@@ -82,14 +52,9 @@ public class BackboneKits extends Backbone {
      *         Removes the kit instance from the list of kits.
      */
     public void removeKit(Kit kit) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", kit.getName());
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("name", kit.getName());
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -106,6 +71,7 @@ public class BackboneKits extends Backbone {
         try {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("name", name);
+            AsyncDatabase.get().flush(schema.getName());
             Database.get().load(data, filter);
             if (!data.hasData()) {
                 return null;
@@ -127,7 +93,7 @@ public class BackboneKits extends Backbone {
     }
 
     /**
-     * Update a Kit
+     * Update a Kit, or add it if it is not in the data source yet
      *
      * @param kit
      *         Update this kit instance to the database.
@@ -140,14 +106,9 @@ public class BackboneKits extends Backbone {
         data.name = kit.getName();
         data.owners = kit.getOwner() != null ? new ArrayList<String>(Arrays.asList(kit.getOwner())) : new ArrayList<String>();
         data.useDelay = kit.getDelay();
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", kit.getName());
-            Database.get().update(data, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("name", kit.getName());
+        AsyncDatabase.get().upsert(data, filter);
     }
 
     /**
@@ -160,6 +121,7 @@ public class BackboneKits extends Backbone {
         List<Kit> kits = new ArrayList<Kit>();
 
         try {
+            AsyncDatabase.get().flush(schema.getName());
             Database.get().loadAll(schema, dataList, new HashMap<String, Object>());
             for (DataAccess da : dataList) {
                 KitDataAccess data = (KitDataAccess)da;
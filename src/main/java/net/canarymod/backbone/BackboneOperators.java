@@ -1,7 +1,8 @@
 package net.canarymod.backbone;
 
-import net.canarymod.database.DataAccess;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.Database;
+import net.canarymod.database.RowVisitor;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 
@@ -54,18 +55,13 @@ public class BackboneOperators extends Backbone {
      *         the name of the player to op
      */
     public void addOpEntry(String player) {
-        if (isOpped(player)) {
-            return;
-        }
         OperatorsDataAccess data = new OperatorsDataAccess();
 
         data.player = player;
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("player", player);
+        // Queued with other ops changes, replaces an existing entry
+        AsyncDatabase.get().upsert(data, filter);
     }
 
     /**
@@ -75,14 +71,9 @@ public class BackboneOperators extends Backbone {
      *         the name of the player to de-op
      */
     public void removeOpEntry(String subject) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("player", subject);
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("player", subject);
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -91,15 +82,17 @@ public class BackboneOperators extends Backbone {
      * @return An array list of all recorded ban instances.
      */
     public List<String> loadOps() {
-        List<String> ops = new ArrayList<String>();
-        List<DataAccess> dataList = new ArrayList<DataAccess>();
+        final List<String> ops = new ArrayList<String>();
 
         try {
-            Database.get().loadAll(schema, dataList, new HashMap<String, Object>());
-            for (DataAccess da : dataList) {
-                OperatorsDataAccess data = (OperatorsDataAccess)da;
-                ops.add(data.player);
-            }
+            AsyncDatabase.get().flush(schema.getName());
+            Database.get().visitAll(schema, new HashMap<String, Object>(), new RowVisitor<OperatorsDataAccess>() {
+                @Override
+                public boolean visit(OperatorsDataAccess data) {
+                    ops.add(data.player);
+                    return true;
+                }
+            });
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
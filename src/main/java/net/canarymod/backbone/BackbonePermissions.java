@@ -4,6 +4,7 @@ import net.canarymod.Canary;
 import net.canarymod.ToolBox;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.api.world.World;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
@@ -14,8 +15,11 @@ import net.canarymod.permissionsystem.PermissionProvider;
 import net.canarymod.user.Group;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static net.canarymod.Canary.log;
 
@@ -29,6 +33,16 @@ public class BackbonePermissions extends Backbone {
 
     private static PermissionDataAccess schema = new PermissionDataAccess(null);
 
+    /**
+     * Version of the player permission rows. 1: owners are UUIDs
+     */
+    private static final int PLAYER_PERMISSIONS_VERSION = 1;
+
+    /**
+     * Permission tables whose player rows are known to be at {@link #PLAYER_PERMISSIONS_VERSION}
+     */
+    private final Set<String> convertedTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     public BackbonePermissions() {
         super(Backbone.System.PERMISSIONS);
         try {
@@ -36,10 +50,17 @@ public class BackbonePermissions extends Backbone {
                 Database.get().updateSchema(new PermissionDataAccess(fqname));
             }
             Database.get().updateSchema(schema);
+            // Holds the conversion markers read by convertPlayerPermissions
+            Database.get().updateSchema(new SchemaVersionDataAccess());
         }
         catch (DatabaseWriteException e) {
             log.error("Failed to update database schema", e);
         }
+        // Convert now rather than on the first join
+        for (String fqname : Canary.getServer().getWorldManager().getExistingWorlds()) {
+            convertPlayerPermissions(fqname);
+        }
+        convertPlayerPermissions(null);
     }
 
     /**
@@ -63,7 +84,9 @@ public class BackbonePermissions extends Backbone {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("owner", name);
             filter.put("type", "group");
-            Database.get().loadAll(new PermissionDataAccess(world), dataList, filter);
+            PermissionDataAccess template = new PermissionDataAccess(world);
+            AsyncDatabase.get().flush(template.getName());
+            Database.get().loadAll(template, dataList, filter);
             for (DataAccess da : dataList) {
                 PermissionDataAccess data = (PermissionDataAccess)da;
 
@@ -91,9 +114,8 @@ public class BackbonePermissions extends Backbone {
         if (world != null && world.isEmpty()) {
             world = null;
         }
-        // Validate player permissions
-        this.validatePlayerPermissions(world);
-        // Database.get().remove("permission", new String[] {"owner", "type"}, new Object[] {group.getName(), "group"});
+        // Only does work for worlds that have not been converted yet
+        convertPlayerPermissions(world);
         PermissionProvider provider = new MultiworldPermissionProvider(world, true, uuid);
         ArrayList<DataAccess> dataList = new ArrayList<DataAccess>();
 
@@ -101,7 +123,9 @@ public class BackbonePermissions extends Backbone {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("owner", uuid);
             filter.put("type", "player");
-            Database.get().loadAll(new PermissionDataAccess(world), dataList, filter);
+            PermissionDataAccess template = new PermissionDataAccess(world);
+            AsyncDatabase.get().flush(template.getName());
+            Database.get().loadAll(template, dataList, filter);
             for (DataAccess da : dataList) {
                 PermissionDataAccess data = (PermissionDataAccess)da;
 
@@ -125,38 +149,21 @@ public class BackbonePermissions extends Backbone {
     public void saveGroupPermissions(Group g) {
         PermissionProvider permissions = g.getPermissionProvider();
         List<PermissionNode> permissionList = permissions.getPermissionMap();
-        HashMap<String, Object> filter = new HashMap<String, Object>();
 
-        try {
-            for (PermissionNode node : permissionList) {
-                ArrayList<PermissionNode> childs = new ArrayList<PermissionNode>();
-
-                for (PermissionNode child : permissions.getChildNodes(node, childs)) {
-                    PermissionDataAccess data = new PermissionDataAccess(g.getWorldName());
-                    filter.clear();
-                    filter.put("id", child.getId());
-                    Database.get().load(data, filter);
-                    if (data.hasData()) {
-                        data.path = child.getFullPath();
-                        data.value = child.getValue();
-                        Database.get().update(data, filter);
-                    }
-                    else {
-                        data.owner = g.getName();
-                        data.path = child.getFullPath();
-                        data.type = "group";
-                        data.value = child.getValue();
-                        Database.get().insert(data);
-                    }
-                }
+        for (PermissionNode node : permissionList) {
+            ArrayList<PermissionNode> childs = new ArrayList<PermissionNode>();
+
+            for (PermissionNode child : permissions.getChildNodes(node, childs)) {
+                PermissionDataAccess data = new PermissionDataAccess(g.getWorldName());
+                HashMap<String, Object> filter = new HashMap<String, Object>();
+                filter.put("id", child.getId());
+                data.owner = g.getName();
+                data.path = child.getFullPath();
+                data.type = "group";
+                data.value = child.getValue();
+                AsyncDatabase.get().upsert(data, filter);
             }
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
     }
 
     /**
@@ -168,38 +175,21 @@ public class BackbonePermissions extends Backbone {
     public void saveUserPermissions(Player p) {
         PermissionProvider permissions = p.getPermissionProvider();
         List<PermissionNode> permissionList = permissions.getPermissionMap();
-        HashMap<String, Object> filter = new HashMap<String, Object>();
 
-        try {
-            for (PermissionNode node : permissionList) {
-                ArrayList<PermissionNode> childs = new ArrayList<PermissionNode>();
-
-                for (PermissionNode child : permissions.getChildNodes(node, childs)) {
-                    PermissionDataAccess data = new PermissionDataAccess(permissions.getWorld());
-                    filter.clear();
-                    filter.put("id", child.getId());
-                    Database.get().load(data, filter);
-                    if (data.hasData()) {
-                        data.path = child.getFullPath();
-                        data.value = child.getValue();
-                        Database.get().update(data, filter);
-                    }
-                    else {
-                        data.owner = p.getUUIDString();
-                        data.path = child.getFullPath();
-                        data.type = "player";
-                        data.value = child.getValue();
-                        Database.get().insert(data);
-                    }
-                }
+        for (PermissionNode node : permissionList) {
+            ArrayList<PermissionNode> childs = new ArrayList<PermissionNode>();
+
+            for (PermissionNode child : permissions.getChildNodes(node, childs)) {
+                PermissionDataAccess data = new PermissionDataAccess(permissions.getWorld());
+                HashMap<String, Object> filter = new HashMap<String, Object>();
+                filter.put("id", child.getId());
+                data.owner = p.getUUIDString();
+                data.path = child.getFullPath();
+                data.type = "player";
+                data.value = child.getValue();
+                AsyncDatabase.get().upsert(data, filter);
             }
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
     }
 
     /**
@@ -213,18 +203,13 @@ public class BackbonePermissions extends Backbone {
      *         Can be null to access the global permissions table.
      */
     public void removePermission(String path, String world) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("path", path);
-            if (world != null) {
-                Database.get().remove(new PermissionDataAccess(world), filter);
-            }
-            else {
-                Database.get().remove(schema, filter);
-            }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("path", path);
+        if (world != null) {
+            AsyncDatabase.get().remove(new PermissionDataAccess(world), filter);
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
+        else {
+            AsyncDatabase.get().remove(schema, filter);
         }
     }
 
@@ -242,31 +227,26 @@ public class BackbonePermissions extends Backbone {
      *         {@code true} if player; {@code false} if not
      */
     public void removePermission(String path, String subject, String world, boolean isPlayer) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("path", path);
-            filter.put("owner", subject);
-            if (isPlayer) {
-                filter.put("type", "player");
-                if (world != null) {
-                    Database.get().remove(new PermissionDataAccess(world), filter);
-                }
-                else {
-                    Database.get().remove(schema, filter);
-                }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("path", path);
+        filter.put("owner", subject);
+        if (isPlayer) {
+            filter.put("type", "player");
+            if (world != null) {
+                AsyncDatabase.get().remove(new PermissionDataAccess(world), filter);
             }
             else {
-                filter.put("type", "group");
-                if (world != null) {
-                    Database.get().remove(new PermissionDataAccess(world), filter);
-                }
-                else {
-                    Database.get().remove(schema, filter);
-                }
+                AsyncDatabase.get().remove(schema, filter);
             }
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
+        else {
+            filter.put("type", "group");
+            if (world != null) {
+                AsyncDatabase.get().remove(new PermissionDataAccess(world), filter);
+            }
+            else {
+                AsyncDatabase.get().remove(schema, filter);
+            }
         }
     }
 
@@ -276,15 +256,10 @@ public class BackbonePermissions extends Backbone {
      * @param group
      */
     public void removePermissions(Group group) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("owner", group.getName());
-            filter.put("type", "group");
-            Database.get().remove(new PermissionDataAccess(group.getWorldName()), filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("owner", group.getName());
+        filter.put("type", "group");
+        AsyncDatabase.get().remove(new PermissionDataAccess(group.getWorldName()), filter);
     }
 
     /**
@@ -317,6 +292,7 @@ public class BackbonePermissions extends Backbone {
         data.owner = owner;
         data.type = type;
 
+        // Callers need the generated id right away, so new permissions are written synchronously (pathExists flushed the queue)
         try {
             Database.get().insert(data);
             HashMap<String, Object> filter = new HashMap<String, Object>();
@@ -361,19 +337,17 @@ public class BackbonePermissions extends Backbone {
             filter.put("path", path);
             filter.put("owner", owner);
             filter.put("type", type);
+            AsyncDatabase.get().flush(data.getName());
             Database.get().load(data, filter);
             if (!data.hasData()) {
                 throw new DatabaseReadException("Could not load a permission path! (" + path + ")");
             }
             data.value = value;
-            Database.get().update(data, filter);
+            AsyncDatabase.get().update(data, filter);
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
         return data.id;
     }
 
@@ -385,6 +359,7 @@ public class BackbonePermissions extends Backbone {
             filter.put("path", path);
             filter.put("owner", owner);
             filter.put("type", type);
+            AsyncDatabase.get().flush(data.getName());
             Database.get().load(data, filter);
         }
         catch (DatabaseReadException e) {
@@ -426,40 +401,86 @@ public class BackbonePermissions extends Backbone {
         }
     }
 
+    /**
+     * Converts the player permissions of a world to the current version, unless that has been done before.
+     * The version is stored in the database, so every table is converted once.
+     *
+     * @param world
+     *         the world name
+     */
+    private void convertPlayerPermissions(String world) {
+        String table = new PermissionDataAccess(world).getName();
+        if (convertedTables.contains(table)) {
+            return;
+        }
+        synchronized (convertedTables) {
+            if (convertedTables.contains(table)) {
+                return;
+            }
+            String component = table + ".player";
+            if (SchemaVersions.get(component) < PLAYER_PERMISSIONS_VERSION) {
+                log.info("Converting player permissions in " + table + " to UUIDs");
+                if (!validatePlayerPermissions(world)) {
+                    // Try again with the next start, nothing needs to wait for it
+                    log.warn("Not all player permissions in " + table + " could be converted to UUIDs");
+                    convertedTables.add(table);
+                    return;
+                }
+                SchemaVersions.set(component, PLAYER_PERMISSIONS_VERSION);
+            }
+            convertedTables.add(table);
+        }
+    }
+
     /**
      * Validate that player permissions have a UUID and not a playername.
+     * This reads all player permissions of the world, it is run once per world by the permission backbone.
+     *
+     * @param world
+     *         the world name
+     *
+     * @return true if all player permissions have a UUID now
      */
-    public void validatePlayerPermissions(String world) {
+    public boolean validatePlayerPermissions(String world) {
         if (world != null && world.isEmpty()) {
             world = null;
         }
-        // Database.get().remove("permission", new String[] {"owner", "type"}, new Object[] {group.getName(), "group"});
         ArrayList<DataAccess> dataList = new ArrayList<DataAccess>();
+        boolean valid = true;
 
         try {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("type", "player");
-            Database.get().loadAll(new PermissionDataAccess(world), dataList, filter);
+            PermissionDataAccess template = new PermissionDataAccess(world);
+            AsyncDatabase.get().flush(template.getName());
+            Database.get().loadAll(template, dataList, filter);
             for (DataAccess da : dataList) {
                 PermissionDataAccess data = (PermissionDataAccess)da;
 
                 if (!ToolBox.isUUID(data.owner)) {
                     HashMap<String, Object> updateFilter = new HashMap<String, Object>();
-                    updateFilter.put("owner", data.owner);
+                    updateFilter.put("id", data.id);
 
                     String uuid = ToolBox.usernameToUUID(data.owner);
+                    if (uuid == null) {
+                        valid = false;
+                        continue;
+                    }
                     data.owner = uuid;
                     try {
                         Database.get().update(data, updateFilter);
                     }
                     catch (DatabaseWriteException ex) {
                         Canary.log.error("Error Validating Player Permissions: ", ex);
+                        valid = false;
                     }
                 }
             }
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
+            valid = false;
         }
+        return valid;
     }
 }
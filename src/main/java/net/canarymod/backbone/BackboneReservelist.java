@@ -1,8 +1,9 @@
 package net.canarymod.backbone;
 
 import net.canarymod.ToolBox;
-import net.canarymod.database.DataAccess;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.Database;
+import net.canarymod.database.RowVisitor;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 
@@ -67,9 +68,6 @@ public class BackboneReservelist extends Backbone {
      *         the player's name or uuid
      */
     public void addSlotReservation(String player) {
-        if (isSlotReserved(player)) {
-            return;
-        }
         ReservelistDataAccess data = new ReservelistDataAccess();
         if (ToolBox.isUUID(player)) {
             data.player = "";
@@ -79,12 +77,10 @@ public class BackboneReservelist extends Backbone {
             data.player = player;
             data.uuid = ToolBox.usernameToUUID(player);
         }
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("uuid", data.uuid);
+        // Queued with other reservelist changes, replaces an existing entry
+        AsyncDatabase.get().upsert(data, filter);
     }
 
     /**
@@ -94,19 +90,14 @@ public class BackboneReservelist extends Backbone {
      *         the player's name or uuid
      */
     public void removeReservelistEntry(String subject) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            if (ToolBox.isUUID(subject)) {
-                filter.put("uuid", subject);
-            }
-            else {
-                filter.put("uuid", ToolBox.usernameToUUID(subject));
-            }
-            Database.get().remove(schema, filter);
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        if (ToolBox.isUUID(subject)) {
+            filter.put("uuid", subject);
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
+        else {
+            filter.put("uuid", ToolBox.usernameToUUID(subject));
         }
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -115,15 +106,17 @@ public class BackboneReservelist extends Backbone {
      * @return An array list of all recorded reserve entries.
      */
     public List<String> loadReservelist() {
-        List<String> reservelist = new ArrayList<String>();
-        List<DataAccess> dataList = new ArrayList<DataAccess>();
+        final List<String> reservelist = new ArrayList<String>();
 
         try {
-            Database.get().loadAll(schema, dataList, new HashMap<String, Object>());
-            for (DataAccess da : dataList) {
-                ReservelistDataAccess data = (ReservelistDataAccess)da;
-                reservelist.add(data.uuid);
-            }
+            AsyncDatabase.get().flush(schema.getName());
+            Database.get().visitAll(schema, new HashMap<String, Object>(), new RowVisitor<ReservelistDataAccess>() {
+                @Override
+                public boolean visit(ReservelistDataAccess data) {
+                    reservelist.add(data.uuid);
+                    return true;
+                }
+            });
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
@@ -137,26 +130,26 @@ public class BackboneReservelist extends Backbone {
      * entry does not, it attempts to retrieve it from Mojang's web service and
      */
     public void validateReserveList() {
-        List<DataAccess> daos = new ArrayList<DataAccess>();
-
         try {
-            Database.get().loadAll(schema, daos, new HashMap<String, Object>());
-            for (DataAccess dao : daos) {
-                ReservelistDataAccess data = (ReservelistDataAccess)dao;
-                if (data.uuid != null && !data.uuid.trim().equals("")) {
-                    continue;
-                }
-                String uuid = ToolBox.usernameToUUID(data.player);
-                HashMap<String, Object> filter = new HashMap<String, Object>();
-                filter.put("player", data.player);
-                data.uuid = uuid == null ? "" : uuid;
-                try {
-                    Database.get().update(data, filter);
+            Database.get().visitAll(schema, new HashMap<String, Object>(), new RowVisitor<ReservelistDataAccess>() {
+                @Override
+                public boolean visit(ReservelistDataAccess data) {
+                    if (data.uuid != null && !data.uuid.trim().equals("")) {
+                        return true;
+                    }
+                    String uuid = ToolBox.usernameToUUID(data.player);
+                    HashMap<String, Object> filter = new HashMap<String, Object>();
+                    filter.put("player", data.player);
+                    data.uuid = uuid == null ? "" : uuid;
+                    try {
+                        Database.get().update(data, filter);
+                    }
+                    catch (DatabaseWriteException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                    return true;
                 }
-                catch (DatabaseWriteException e) {
-                    log.error(e.getMessage(), e);
-                }
-            }
+            });
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
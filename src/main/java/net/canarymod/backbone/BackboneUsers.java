@@ -4,15 +4,14 @@ import net.canarymod.Canary;
 import net.canarymod.ToolBox;
 import net.canarymod.api.PlayerReference;
 import net.canarymod.api.entity.living.humanoid.Player;
-import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
+import net.canarymod.database.RowVisitor;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 import net.canarymod.user.Group;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import static net.canarymod.Canary.log;
@@ -45,36 +44,8 @@ public class BackboneUsers extends Backbone {
      *         Player to add to the data source.
      */
     public void addUser(Player player) {
-        if (userExists(player.getUUIDString())) {
-            log.debug("Player " + player.getName() + " already exists. Updating it instead!");
-            updatePlayer(player);
-            return;
-        }
-        PlayerDataAccess data = new PlayerDataAccess();
-        ArrayList<String> groupNames = new ArrayList<String>();
-        for (Group g : player.getPlayerGroups()) {
-            groupNames.add(g.getName());
-        }
-        data.uuid = player.getUUIDString();
-        data.name = player.getName();
-        data.group = groupNames.get(0);
-        groupNames.remove(0);
-        data.subgroups = groupNames;
-
-        String prefix = player.getPrefix();
-        if (prefix.equals(player.getGroup().getPrefix())) {
-            data.prefix = null;
-        }
-        else {
-            data.prefix = prefix;
-        }
-        data.isMuted = player.isMuted();
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        // Saving inserts players that are not stored yet
+        updatePlayer(player);
     }
 
     /**
@@ -154,7 +125,7 @@ public class BackboneUsers extends Backbone {
     }
 
     /**
-     * Update a Player.
+     * Update a Player, or add it if it is not in the data source yet.
      *
      * @param player
      *         Player to update to the data source.
@@ -188,7 +159,7 @@ public class BackboneUsers extends Backbone {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("uuid", player.getUUIDString());
             // filter.put("name", player.getName()); // Can't update a name if its filtered in...
-            Database.get().update(data, filter);
+            Database.get().upsert(data, filter);
         }
         catch (DatabaseWriteException e) {
             log.error(e.getMessage(), e);
@@ -203,20 +174,21 @@ public class BackboneUsers extends Backbone {
      * a prefix and group for a player, in that order.
      */
     public Map<String, String[]> loadUsers() {
-        Map<String, String[]> players = new HashMap<String, String[]>();
-        List<DataAccess> daos = new ArrayList<DataAccess>();
+        final Map<String, String[]> players = new HashMap<String, String[]>();
 
         try {
-            Database.get().loadAll(schema, daos, new HashMap<String, Object>());
-            for (DataAccess dao : daos) {
-                PlayerDataAccess data = (PlayerDataAccess)dao;
-                String[] row = new String[3];
+            Database.get().visitAll(schema, new HashMap<String, Object>(), new RowVisitor<PlayerDataAccess>() {
+                @Override
+                public boolean visit(PlayerDataAccess data) {
+                    String[] row = new String[3];
 
-                row[0] = data.prefix;
-                row[1] = data.group;
-                row[2] = Boolean.toString(data.isMuted);
-                players.put(data.uuid == null ? "" : data.uuid, row);
-            }
+                    row[0] = data.prefix;
+                    row[1] = data.group;
+                    row[2] = Boolean.toString(data.isMuted);
+                    players.put(data.uuid == null ? "" : data.uuid, row);
+                    return true;
+                }
+            });
             return players;
         }
         catch (DatabaseReadException e) {
@@ -290,26 +262,26 @@ public class BackboneUsers extends Backbone {
      * entry does not, it attempts to retrieve it from Mojang's web service and
      */
     public void validateUsers() {
-        List<DataAccess> daos = new ArrayList<DataAccess>();
-
         try {
-            Database.get().loadAll(schema, daos, new HashMap<String, Object>());
-            for (DataAccess dao : daos) {
-                PlayerDataAccess data = (PlayerDataAccess)dao;
-                if (data.uuid != null && !data.uuid.trim().equals("")) {
-                    continue;
-                }
-                String uuid = ToolBox.usernameToUUID(data.name);
-                data.uuid = uuid == null ? "" : uuid;
-                HashMap<String, Object> filter = new HashMap<String, Object>();
-                filter.put("name", data.name);
-                try {
-                    Database.get().update(data, filter);
-                }
-                catch (DatabaseWriteException e) {
-                    log.error(e.getMessage(), e);
+            Database.get().visitAll(schema, new HashMap<String, Object>(), new RowVisitor<PlayerDataAccess>() {
+                @Override
+                public boolean visit(PlayerDataAccess data) {
+                    if (data.uuid != null && !data.uuid.trim().equals("")) {
+                        return true;
+                    }
+                    String uuid = ToolBox.usernameToUUID(data.name);
+                    data.uuid = uuid == null ? "" : uuid;
+                    HashMap<String, Object> filter = new HashMap<String, Object>();
+                    filter.put("name", data.name);
+                    try {
+                        Database.get().update(data, filter);
+                    }
+                    catch (DatabaseWriteException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                    return true;
                 }
-            }
+            });
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
@@ -4,6 +4,7 @@ import com.google.common.collect.Lists;
 import net.canarymod.Canary;
 import net.canarymod.ToolBox;
 import net.canarymod.api.world.position.Location;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.LocationDataAccess;
@@ -37,20 +38,6 @@ public class BackboneWarps extends Backbone {
         }
     }
 
-    private boolean warpExists(Warp warp) {
-        WarpDataAccess data = schema.getInstance();
-
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", warp.getName());
-            Database.get().load(data, filter);
-        }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
-        return data.hasData();
-    }
-
     /**
      * Creates a groups array.
      * IMPORTANT NOTE: This requires the groups backbone to be loaded already!
@@ -76,27 +63,8 @@ public class BackboneWarps extends Backbone {
      *         Warp instance to add to the data source.
      */
     public void addWarp(Warp warp) {
-        if (warpExists(warp)) {
-            updateWarp(warp);
-            return;
-        }
-        WarpDataAccess data = schema.getInstance();
-
-        data.groups = warp.getGroupsAsString();
-        data.isPlayerHome = warp.isPlayerHome();
-
-        // data.location = warp.getLocation().toString(); deprecated
-        data.location = "N/A";
-        warp.getLocation().toDataAccess(data); // Replacing data.location
-        data.name = warp.getName();
-        data.owner = warp.getOwner();
-
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        // Saving inserts warps that are not stored yet
+        updateWarp(warp);
     }
 
     /**
@@ -106,19 +74,14 @@ public class BackboneWarps extends Backbone {
      *         Warp instance to remove from the data source.
      */
     public void removeWarp(Warp warp) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", warp.getName());
-            // filter.put("location", warp.getLocation().toString()); // Location is a bad filter, mkay
-            Database.get().remove(schema, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("name", warp.getName());
+        // filter.put("location", warp.getLocation().toString()); // Location is a bad filter, mkay
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
-     * Update a Warp
+     * Update a Warp, or add it if it is not in the data source yet
      *
      * @param warp
      *         Warp instance to update to the data source.
@@ -133,14 +96,9 @@ public class BackboneWarps extends Backbone {
         warp.getLocation().toDataAccess(data); // Replacing data.location
         data.name = warp.getName();
         data.owner = warp.getOwner();
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            filter.put("name", warp.getName());
-            Database.get().update(data, filter);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        filter.put("name", warp.getName());
+        AsyncDatabase.get().upsert(data, filter);
     }
 
     /**
@@ -154,6 +112,7 @@ public class BackboneWarps extends Backbone {
         boolean needsUpdate = false;
 
         try {
+            AsyncDatabase.get().flush(schema.getName());
             Database.get().loadAll(schema, daos, new HashMap<String, Object>());
             for (DataAccess dao : daos) {
                 WarpDataAccess data = (WarpDataAccess)dao;
@@ -1,8 +1,11 @@
 package net.canarymod.backbone;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import net.canarymod.ToolBox;
-import net.canarymod.database.DataAccess;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.Database;
+import net.canarymod.database.RowVisitor;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 
@@ -61,32 +64,30 @@ public class BackboneWhitelist extends Backbone {
     }
 
     /**
-     * Add a new whitelist entry
+     * Add a new whitelist entry.
+     * A name that has to be looked up is added once the lookup is done, this never waits for it.
      *
      * @param player
      *         the player's name or uuid
      */
-    public void addWhitelistEntry(String player) {
-        if (isWhitelisted(player)) {
-            return;
-        }
-        WhitelistDataAccess data = new WhitelistDataAccess();
+    public void addWhitelistEntry(final String player) {
+        Futures.addCallback(ToolBox.usernameToUUIDAsync(player), new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String uuid) {
+                WhitelistDataAccess data = new WhitelistDataAccess();
+                data.player = player;
+                data.uuid = uuid;
+                HashMap<String, Object> filter = new HashMap<String, Object>();
+                filter.put("uuid", data.uuid);
+                // Queued with other whitelist changes, replaces an existing entry
+                AsyncDatabase.get().upsert(data, filter);
+            }
 
-        if (ToolBox.isUUID(player)) {
-            data.player = "";
-            data.uuid = player;
-        }
-        else {
-            data.player = player;
-            data.uuid = ToolBox.usernameToUUID(player);
-        }
-        data.player = player;
-        try {
-            Database.get().insert(data);
-        }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
-        }
+            @Override
+            public void onFailure(Throwable thrown) {
+                log.error("Could not add " + player + " to the whitelist", thrown);
+            }
+        });
     }
 
     /**
@@ -96,19 +97,14 @@ public class BackboneWhitelist extends Backbone {
      *         the player's name or uuid
      */
     public void removeWhitelistEntry(String subject) {
-        try {
-            HashMap<String, Object> filter = new HashMap<String, Object>();
-            if (ToolBox.isUUID(subject)) {
-                filter.put("uuid", subject);
-            }
-            else {
-                filter.put("uuid", ToolBox.usernameToUUID(subject));
-            }
-            Database.get().remove(schema, filter);
+        HashMap<String, Object> filter = new HashMap<String, Object>();
+        if (ToolBox.isUUID(subject)) {
+            filter.put("uuid", subject);
         }
-        catch (DatabaseWriteException e) {
-            log.error(e.getMessage(), e);
+        else {
+            filter.put("uuid", ToolBox.usernameToUUID(subject));
         }
+        AsyncDatabase.get().remove(schema, filter);
     }
 
     /**
@@ -117,15 +113,17 @@ public class BackboneWhitelist extends Backbone {
      * @return An array list of all recorded ban instances.
      */
     public List<String> loadWhitelist() {
-        List<String> whiteList = new ArrayList<String>();
-        List<DataAccess> dataList = new ArrayList<DataAccess>();
+        final List<String> whiteList = new ArrayList<String>();
 
         try {
-            Database.get().loadAll(schema, dataList, new HashMap<String, Object>());
-            for (DataAccess da : dataList) {
-                WhitelistDataAccess data = (WhitelistDataAccess)da;
-                whiteList.add(data.uuid);
-            }
+            AsyncDatabase.get().flush(schema.getName());
+            Database.get().visitAll(schema, new HashMap<String, Object>(), new RowVisitor<WhitelistDataAccess>() {
+                @Override
+                public boolean visit(WhitelistDataAccess data) {
+                    whiteList.add(data.uuid);
+                    return true;
+                }
+            });
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
@@ -139,26 +137,26 @@ public class BackboneWhitelist extends Backbone {
      * entry does not, it attempts to retrieve it from Mojang's web service and
      */
     public void validateReserveList() {
-        List<DataAccess> daos = new ArrayList<DataAccess>();
-
         try {
-            Database.get().loadAll(schema, daos, new HashMap<String, Object>());
-            for (DataAccess dao : daos) {
-                WhitelistDataAccess data = (WhitelistDataAccess)dao;
-                if (data.uuid != null && !data.uuid.trim().equals("")) {
-                    continue;
+            Database.get().visitAll(schema, new HashMap<String, Object>(), new RowVisitor<WhitelistDataAccess>() {
+                @Override
+                public boolean visit(WhitelistDataAccess data) {
+                    if (data.uuid != null && !data.uuid.trim().equals("")) {
+                        return true;
+                    }
+                    String uuid = ToolBox.usernameToUUID(data.player);
+                    HashMap<String, Object> filter = new HashMap<String, Object>();
+                    filter.put("player", data.player);
+                    data.uuid = uuid == null ? "" : uuid;
+                    try {
+                        Database.get().update(data, filter);
+                    }
+                    catch (DatabaseWriteException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                    return true;
                 }
-                String uuid = ToolBox.usernameToUUID(data.player);
-                HashMap<String, Object> filter = new HashMap<String, Object>();
-                filter.put("player", data.player);
-                data.uuid = uuid == null ? "" : uuid;
-                try {
-                    Database.get().update(data, filter);
-                }
-                catch (DatabaseWriteException e) {
-                    log.error(e.getMessage(), e);
-                }
-            }
+            });
         }
         catch (DatabaseReadException e) {
             log.error(e.getMessage(), e);
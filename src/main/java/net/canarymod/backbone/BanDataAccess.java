@@ -20,7 +20,7 @@ public class BanDataAccess extends DataAccess {
     /**
      * Player uuid for this ban.
      */
-    @Column(columnName = "uuid", dataType = DataType.STRING)
+    @Column(columnName = "uuid", dataType = DataType.STRING, indexed = true)
     public String uuid;
 
     /**
@@ -32,7 +32,7 @@ public class BanDataAccess extends DataAccess {
     /**
      * IP Address for this ban.
      */
-    @Column(columnName = "ip", dataType = DataType.STRING)
+    @Column(columnName = "ip", dataType = DataType.STRING, indexed = true)
     public String ip;
 
     /**
@@ -19,7 +19,7 @@ public class GroupDataAccess extends DataAccess {
     /**
      * Name of this group.
      */
-    @Column(columnName = "name", dataType = DataType.STRING)
+    @Column(columnName = "name", dataType = DataType.STRING, indexed = true)
     public String name;
 
     /**
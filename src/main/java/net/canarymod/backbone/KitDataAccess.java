@@ -39,7 +39,7 @@ public class KitDataAccess extends DataAccess {
     /**
      * Name of this kit.
      */
-    @Column(columnName = "name", dataType = DataType.STRING)
+    @Column(columnName = "name", dataType = DataType.STRING, indexed = true)
     public String name;
 
     /**
@@ -19,7 +19,7 @@ public class OperatorsDataAccess extends DataAccess {
     /**
      * Playername for this operator entry
      */
-    @Column(columnName = "player", dataType = DataType.STRING)
+    @Column(columnName = "player", dataType = DataType.STRING, indexed = true)
     public String player;
 
     @Override
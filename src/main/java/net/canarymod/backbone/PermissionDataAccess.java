@@ -28,7 +28,7 @@ public class PermissionDataAccess extends DataAccess {
     /**
      * Node for this Permission.
      */
-    @Column(columnName = "path", dataType = DataType.STRING)
+    @Column(columnName = "path", dataType = DataType.STRING, indexed = true)
     public String path;
 
     /**
@@ -40,7 +40,7 @@ public class PermissionDataAccess extends DataAccess {
     /**
      * The name of the owner of this node (group or player uuid )
      */
-    @Column(columnName = "owner", dataType = DataType.STRING)
+    @Column(columnName = "owner", dataType = DataType.STRING, indexed = true)
     public String owner;
 
     /**
@@ -19,7 +19,7 @@ public class ReservelistDataAccess extends DataAccess {
     /**
      * UUID for this reservelist entry
      */
-    @Column(columnName = "uuid", dataType = DataType.STRING)
+    @Column(columnName = "uuid", dataType = DataType.STRING, indexed = true)
     public String uuid;
 
     /**
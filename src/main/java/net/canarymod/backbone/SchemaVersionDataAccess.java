@@ -0,0 +1,35 @@
+package net.canarymod.backbone;
+
+import net.canarymod.config.Configuration;
+import net.canarymod.database.Column;
+import net.canarymod.database.Column.DataType;
+import net.canarymod.database.DataAccess;
+
+/**
+ * Schema Version Data Access
+ *
+ * @author agent
+ */
+public class SchemaVersionDataAccess extends DataAccess {
+
+    public SchemaVersionDataAccess() {
+        super(Configuration.getDbConfig().getSchemaTableName());
+    }
+
+    /**
+     * What the version applies to, usually a table name and the kind of conversion
+     */
+    @Column(columnName = "component", dataType = DataType.STRING, columnType = Column.ColumnType.UNIQUE)
+    public String component;
+
+    /**
+     * The version of the last conversion that has been done
+     */
+    @Column(columnName = "version", dataType = DataType.INTEGER)
+    public Integer version;
+
+    @Override
+    public DataAccess getInstance() {
+        return new SchemaVersionDataAccess();
+    }
+}
@@ -0,0 +1,63 @@
+package net.canarymod.backbone;
+
+import net.canarymod.database.Database;
+import net.canarymod.database.exceptions.DatabaseReadException;
+import net.canarymod.database.exceptions.DatabaseWriteException;
+
+import java.util.HashMap;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Keeps track of one-time data conversions, so they run once instead of every time the data is loaded.
+ *
+ * @author agent
+ */
+final class SchemaVersions {
+
+    private SchemaVersions() {
+    }
+
+    /**
+     * Gets the version of the last conversion of a component
+     *
+     * @param component
+     *         the component
+     *
+     * @return the version, 0 if it has never been converted or the version could not be read
+     */
+    static int get(String component) {
+        SchemaVersionDataAccess data = new SchemaVersionDataAccess();
+        try {
+            HashMap<String, Object> filter = new HashMap<String, Object>();
+            filter.put("component", component);
+            Database.get().load(data, filter);
+        }
+        catch (DatabaseReadException e) {
+            log.error(e.getMessage(), e);
+        }
+        return data.hasData() && data.version != null ? data.version : 0;
+    }
+
+    /**
+     * Records that a component has been converted to the given version
+     *
+     * @param component
+     *         the component
+     * @param version
+     *         the version
+     */
+    static void set(String component, int version) {
+        SchemaVersionDataAccess data = new SchemaVersionDataAccess();
+        data.component = component;
+        data.version = version;
+        try {
+            HashMap<String, Object> filter = new HashMap<String, Object>();
+            filter.put("component", component);
+            Database.get().upsert(data, filter);
+        }
+        catch (DatabaseWriteException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+}
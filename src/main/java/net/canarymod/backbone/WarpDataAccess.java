@@ -22,7 +22,7 @@ public class WarpDataAccess extends LocationDataAccess {
     /**
      * Name of this warp.
      */
-    @Column(columnName = "name", notNull = true, dataType = DataType.STRING)
+    @Column(columnName = "name", notNull = true, dataType = DataType.STRING, indexed = true)
     public String name;
 
     /**
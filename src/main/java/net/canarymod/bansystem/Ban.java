@@ -6,6 +6,9 @@ import net.canarymod.backbone.BackboneBans;
 
 /**
  * Contains information regarding a ban
+ * <p/>
+ * Changes to a ban that has been issued must be passed to {@link BanManager#updateBan(Ban)},
+ * otherwise it is still looked up by its old UUID, name and IP.
  *
  * @author Chris Ksoll (damagefilter)
  * @author Jason Jones (darkdiplomat)
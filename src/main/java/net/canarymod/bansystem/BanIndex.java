@@ -0,0 +1,389 @@
+package net.canarymod.bansystem;
+
+import net.canarymod.ToolBox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The bans known to the {@link BanManager}, indexed for lookups at login.
+ * <p/>
+ * Bans are hashed by lowercase UUID, by lowercase name and by IP. IPv4 bans in CIDR notation
+ * (like 10.0.0.0/8) go into a binary trie over the address bits. Temporary bans are kept in a heap
+ * ordered by expiration, so expired bans can be lifted without scanning all bans.
+ * <p/>
+ * Each ban is indexed by the values its fields had when it was added. A ban whose UUID, name, IP or
+ * ban type is changed afterwards must be passed to {@link #update(Ban)}, or lookups keep using the old values.
+ * <p/>
+ * Lookups don't lock. Changes are made under the monitor of the index.
+ *
+ * @author agent
+ */
+final class BanIndex {
+    private static final Ban[] NONE = new Ban[0];
+
+    /**
+     * A node of the CIDR trie, one level per address bit
+     */
+    private static final class RangeNode {
+        volatile RangeNode zero, one;
+        volatile Ban[] bans = NONE;
+    }
+
+    /**
+     * An entry of the expiration heap. Keeps the expiration the ban had when it was queued,
+     * as {@link Ban#setExpiration(long)} may change the live value while the ban is in the heap.
+     */
+    private static final class Expiry implements Comparable<Expiry> {
+        final Ban ban;
+        final long expiration;
+
+        Expiry(Ban ban, long expiration) {
+            this.ban = ban;
+            this.expiration = expiration;
+        }
+
+        @Override
+        public int compareTo(Expiry other) {
+            return expiration < other.expiration ? -1 : expiration == other.expiration ? 0 : 1;
+        }
+    }
+
+    /**
+     * The keys a ban has been indexed under, so it can be taken out again after its fields were changed
+     */
+    private static final class Keys {
+        final String uuid, name, ip;
+        final boolean ipBan;
+        final long expiration;
+
+        Keys(Ban ban) {
+            uuid = lower(ban.getUUID());
+            name = lower(ban.getSubject());
+            ip = ban.getIp();
+            ipBan = ban.isIpBan();
+            expiration = ban.getExpiration();
+        }
+    }
+
+    private final ConcurrentMap<String, Ban[]> byUuid = new ConcurrentHashMap<String, Ban[]>();
+    private final ConcurrentMap<String, Ban[]> byName = new ConcurrentHashMap<String, Ban[]>();
+    private final ConcurrentMap<String, Ban[]> byIp = new ConcurrentHashMap<String, Ban[]>();
+    private final RangeNode ranges = new RangeNode();
+    private final Map<Ban, Keys> bans = new LinkedHashMap<Ban, Keys>(); // In the order they were issued
+    private final PriorityQueue<Expiry> expirations = new PriorityQueue<Expiry>();
+
+    BanIndex(Collection<Ban> bans) {
+        for (Ban ban : bans) {
+            add(ban);
+        }
+    }
+
+    /**
+     * Adds a ban to the index
+     *
+     * @param ban
+     *         the ban
+     */
+    synchronized void add(Ban ban) {
+        if (!bans.containsKey(ban)) {
+            bans.put(ban, index(ban));
+        }
+    }
+
+    /**
+     * Indexes a ban again by the current values of its fields, after they were changed.
+     * Keeps its place in the order bans were issued. Does nothing if the ban is not in the index.
+     *
+     * @param ban
+     *         the ban
+     */
+    synchronized void update(Ban ban) {
+        Keys keys = bans.get(ban);
+        if (keys != null) {
+            unindex(ban, keys);
+            bans.put(ban, index(ban));
+        }
+    }
+
+    /**
+     * Removes a ban from the index
+     *
+     * @param ban
+     *         the ban
+     */
+    synchronized void remove(Ban ban) {
+        Keys keys = bans.remove(ban);
+        if (keys != null) {
+            unindex(ban, keys);
+        }
+        // The heap drops it when it comes up, see pollExpired
+    }
+
+    private Keys index(Ban ban) {
+        Keys keys = new Keys(ban);
+        put(byUuid, keys.uuid, ban);
+        put(byName, keys.name, ban);
+        put(byIp, keys.ip, ban);
+        if (keys.ipBan) {
+            RangeNode node = rangeNode(keys.ip, true);
+            if (node != null) {
+                node.bans = with(node.bans, ban);
+            }
+        }
+        if (keys.expiration != -1) {
+            expirations.offer(new Expiry(ban, keys.expiration));
+        }
+        return keys;
+    }
+
+    private void unindex(Ban ban, Keys keys) {
+        take(byUuid, keys.uuid, ban);
+        take(byName, keys.name, ban);
+        take(byIp, keys.ip, ban);
+        if (keys.ipBan) {
+            RangeNode node = rangeNode(keys.ip, false);
+            if (node != null) {
+                node.bans = without(node.bans, ban);
+            }
+        }
+    }
+
+    /**
+     * Finds a ban for a UUID, or for an IP, including IP range bans
+     *
+     * @param subject
+     *         the UUID or IP
+     *
+     * @return the ban, or null if there is none
+     */
+    Ban find(String subject) {
+        Ban ban = getByUuid(subject);
+        return ban != null ? ban : getByIp(subject);
+    }
+
+    /**
+     * Gets the first ban issued for a UUID, ignoring case
+     */
+    Ban getByUuid(String uuid) {
+        return first(byUuid, lower(uuid));
+    }
+
+    /**
+     * Gets the first ban issued for a UUID that is not an IP ban, ignoring case
+     */
+    Ban getPlayerBan(String uuid) {
+        Ban[] found = uuid == null ? null : byUuid.get(lower(uuid));
+        if (found != null) {
+            for (Ban ban : found) {
+                if (!ban.isIpBan()) {
+                    return ban;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the first ban issued for a player name, ignoring case
+     */
+    Ban getByName(String name) {
+        return first(byName, lower(name));
+    }
+
+    /**
+     * Gets the first ban issued for an IP, or a range ban containing it
+     */
+    Ban getByIp(String ip) {
+        Ban ban = first(byIp, ip);
+        if (ban != null || ip == null) {
+            return ban;
+        }
+        long address = parseAddress(ip, 0, ip.length());
+        if (address < 0) {
+            return null;
+        }
+        // Walk the address bits, the widest matching range wins
+        RangeNode node = ranges;
+        for (int bit = 31; node != null; bit--) {
+            Ban[] found = node.bans;
+            if (found.length > 0) {
+                return found[0];
+            }
+            if (bit < 0) {
+                break;
+            }
+            node = ((address >>> bit) & 1) == 0 ? node.zero : node.one;
+        }
+        return null;
+    }
+
+    /**
+     * Gets all bans in the order they were issued
+     */
+    synchronized Ban[] getAll() {
+        return bans.keySet().toArray(new Ban[bans.size()]);
+    }
+
+    /**
+     * Removes and returns the temporary bans that have expired
+     *
+     * @return the expired bans
+     */
+    synchronized List<Ban> pollExpired() {
+        List<Ban> expired = new ArrayList<Ban>();
+        long now = ToolBox.getUnixTimestamp();
+        List<Expiry> extended = new ArrayList<Expiry>();
+        while (!expirations.isEmpty() && expirations.peek().expiration <= now) {
+            Ban ban = expirations.poll().ban;
+            if (!bans.containsKey(ban)) {
+                continue; // Lifted before it expired
+            }
+            if (ban.isExpired()) {
+                remove(ban);
+                expired.add(ban);
+            }
+            else if (ban.getExpiration() != -1) {
+                extended.add(new Expiry(ban, ban.getExpiration())); // Expiration was changed after it was issued
+            }
+        }
+        expirations.addAll(extended);
+        return expired;
+    }
+
+    private static void put(ConcurrentMap<String, Ban[]> map, String key, Ban ban) {
+        if (key != null) {
+            Ban[] current = map.get(key);
+            map.put(key, with(current == null ? NONE : current, ban));
+        }
+    }
+
+    private static void take(ConcurrentMap<String, Ban[]> map, String key, Ban ban) {
+        if (key == null) {
+            return;
+        }
+        Ban[] current = map.get(key);
+        if (current != null) {
+            Ban[] remaining = without(current, ban);
+            if (remaining.length == 0) {
+                map.remove(key);
+            }
+            else {
+                map.put(key, remaining);
+            }
+        }
+    }
+
+    private static Ban first(ConcurrentMap<String, Ban[]> map, String key) {
+        if (key == null) {
+            return null;
+        }
+        Ban[] found = map.get(key);
+        return found == null ? null : found[0];
+    }
+
+    private static Ban[] with(Ban[] bans, Ban ban) {
+        Ban[] copy = Arrays.copyOf(bans, bans.length + 1);
+        copy[bans.length] = ban;
+        return copy;
+    }
+
+    private static Ban[] without(Ban[] bans, Ban ban) {
+        for (int i = 0; i < bans.length; i++) {
+            if (bans[i] == ban) {
+                Ban[] copy = new Ban[bans.length - 1];
+                System.arraycopy(bans, 0, copy, 0, i);
+                System.arraycopy(bans, i + 1, copy, i, copy.length - i);
+                return copy;
+            }
+        }
+        return bans;
+    }
+
+    private static String lower(String key) {
+        return key == null ? null : key.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Gets the trie node of a CIDR range
+     *
+     * @param range
+     *         the range, like 10.0.0.0/8
+     * @param create
+     *         whether to create missing nodes
+     *
+     * @return the node, or null if this is not a valid range or the node does not exist
+     */
+    private RangeNode rangeNode(String range, boolean create) {
+        int slash = range == null ? -1 : range.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        long address = parseAddress(range, 0, slash);
+        int prefix;
+        try {
+            prefix = Integer.parseInt(range.substring(slash + 1));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        if (address < 0 || prefix < 0 || prefix > 32) {
+            return null;
+        }
+        RangeNode node = ranges;
+        for (int i = 0; i < prefix && node != null; i++) {
+            boolean one = ((address >>> (31 - i)) & 1) == 1;
+            RangeNode next = one ? node.one : node.zero;
+            if (next == null && create) {
+                next = new RangeNode();
+                if (one) {
+                    node.one = next;
+                }
+                else {
+                    node.zero = next;
+                }
+            }
+            node = next;
+        }
+        return node;
+    }
+
+    /**
+     * Parses a dotted IPv4 address without resolving anything
+     *
+     * @return the address as unsigned 32 bit value, or -1 if this is not an IPv4 address
+     */
+    private static long parseAddress(String ip, int start, int end) {
+        long address = 0;
+        int parts = 0;
+        int value = -1;
+        for (int i = start; i <= end; i++) {
+            char c = i < end ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || ++parts > 4) {
+                    return -1;
+                }
+                address = (address << 8) | value;
+                value = -1;
+            }
+            else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return -1;
+                }
+            }
+            else {
+                return -1;
+            }
+        }
+        return parts == 4 ? address : -1;
+    }
+}
@@ -1,26 +1,44 @@
 package net.canarymod.bansystem;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.canarymod.ToolBox;
 import net.canarymod.api.PlayerReference;
 import net.canarymod.backbone.BackboneBans;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static net.canarymod.Canary.log;
 
 /**
- * Used to issue bans
+ * Used to issue bans.
+ * Bans are indexed by UUID, name and IP, and temporary bans are lifted by a background task once they expire.
  *
  * @author Chris (damagefilter)
  */
 public class BanManager {
     private BackboneBans backbone;
-    private List<Ban> bans = new ArrayList<Ban>();
+    private volatile BanIndex bans;
+    private final ScheduledExecutorService expiry;
 
     public BanManager() {
         backbone = new BackboneBans();
-        bans = backbone.loadBans();
+        bans = new BanIndex(backbone.loadBans());
+        expiry = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("BanManager-Expiry").setDaemon(true).build());
+        expiry.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    liftExpiredBans();
+                }
+                catch (Exception e) {
+                    log.error("Failed to lift expired bans", e);
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
     }
 
     /**
@@ -49,6 +67,17 @@ public class BanManager {
         backbone.addBan(ban);
     }
 
+    /**
+     * Saves the changes made to an issued {@link Ban} and looks it up by its new UUID, name and IP from now on
+     *
+     * @param ban
+     *         the changed {@link Ban}
+     */
+    public void updateBan(Ban ban) {
+        bans.update(ban);
+        backbone.updateBan(ban);
+    }
+
     /**
      * Issue a temporary ban.
      *
@@ -137,29 +166,16 @@ public class BanManager {
      * @return {@code true} if banned; {@code false} if not
      */
     public boolean isBanned(String subject) {
-        Ban test = null;
+        BanIndex index = bans;
+        Ban test = index.find(subject);
 
-        for (Ban b : bans) {
-            if (b.getUUID().equals(subject)) {
-                test = b;
-                break;
-            }
-            else if (b.getIp().equals(subject)) {
-                test = b;
-                break;
-            }
-        }
         if (test == null) {
             return false;
         }
         else if (test.isExpired()) {
-            if (test.isIpBan()) {
-                backbone.liftIpBan(test.getIp());
-            }
-            else {
-                backbone.liftBan(test.getUUID());
-            }
-            bans.remove(test);
+            // The expiry task may not have come around yet
+            index.remove(test);
+            lift(test);
             return false;
         }
         else {
@@ -168,7 +184,7 @@ public class BanManager {
     }
 
     /**
-     * Check if the given IP is banned
+     * Check if the given IP is banned, directly or by an IP range ban
      *
      * @param ip
      *         the IP address
@@ -176,12 +192,7 @@ public class BanManager {
      * @return {@code true} if banned; {@code false} if not
      */
     public boolean isIpBanned(String ip) {
-        for (Ban b : bans) {
-            if (b.getIp().equals(ip)) {
-                return true;
-            }
-        }
-        return false;
+        return bans.getByIp(ip) != null;
     }
 
     /**
@@ -193,12 +204,7 @@ public class BanManager {
      * @return the Ban if exists; {@code null} otherwise
      */
     public Ban getBanFromName(String player) {
-        for (Ban b : bans) {
-            if (b.getSubject().equalsIgnoreCase(player)) {
-                return b;
-            }
-        }
-        return null;
+        return bans.getByName(player);
     }
 
     /**
@@ -210,12 +216,7 @@ public class BanManager {
      * @return the Ban if exists; {@code null} otherwise
      */
     public Ban getBan(String uuid) {
-        for (Ban b : bans) {
-            if (b.getUUID().equalsIgnoreCase(uuid)) {
-                return b;
-            }
-        }
-        return null;
+        return bans.getByUuid(uuid);
     }
 
     /**
@@ -225,28 +226,14 @@ public class BanManager {
      *         the uuid/ip of the subject
      */
     public void unban(String subject) {
-        Ban test = null;
+        BanIndex index = bans;
+        Ban test = index.find(subject);
 
-        for (Ban b : bans) {
-            if (b.getUUID().equals(subject)) {
-                test = b;
-                break;
-            }
-            else if (b.getIp().equals(subject)) {
-                test = b;
-                break;
-            }
-        }
         if (test == null) {
             return;
         }
-        if (test.isIpBan()) {
-            backbone.liftIpBan(test.getIp());
-        }
-        else {
-            backbone.liftBan(test.getUUID());
-        }
-        bans.remove(test);
+        index.remove(test);
+        lift(test);
     }
 
     /**
@@ -256,21 +243,14 @@ public class BanManager {
      *         the {@link PlayerReference} to unban
      */
     public void unban(PlayerReference player) {
-        Ban test = null;
+        BanIndex index = bans;
+        Ban test = index.getPlayerBan(player.getUUIDString());
 
-        for (Ban b : bans) {
-            if (!b.isIpBan()) {
-                if (b.getUUID().equals(player.getUUID())) {
-                    test = b;
-                    break;
-                }
-            }
-        }
         if (test == null) {
             return;
         }
         backbone.liftBan(test.getUUID());
-        bans.remove(test);
+        index.remove(test);
     }
 
     /**
@@ -279,9 +259,7 @@ public class BanManager {
      * @return an Array of {@link Ban}(s)
      */
     public Ban[] getAllBans() {
-        Ban[] retT = {};
-
-        return bans.toArray(retT);
+        return bans.getAll();
     }
 
     /**
@@ -294,7 +272,7 @@ public class BanManager {
     public Ban[] getAllBans(BanType banType) {
         List<Ban> typeBans = new ArrayList<Ban>();
 
-        for (Ban b : bans) {
+        for (Ban b : bans.getAll()) {
             if (b.getBanType() == banType) {
                 typeBans.add(b);
             }
@@ -338,10 +316,35 @@ public class BanManager {
     }
 
     /**
-     * Reloads the bans from datasource
+     * Lifts a ban in the datasource
+     *
+     * @param ban
+     *         the ban
+     */
+    private void lift(Ban ban) {
+        if (ban.isIpBan()) {
+            backbone.liftIpBan(ban.getIp());
+        }
+        else {
+            backbone.liftBan(ban.getUUID());
+        }
+    }
+
+    /**
+     * Lifts all temporary bans that have expired.
+     * Runs every second in the background, but can be called to lift them right away.
+     */
+    public void liftExpiredBans() {
+        for (Ban ban : bans.pollExpired()) {
+            lift(ban);
+        }
+    }
+
+    /**
+     * Reloads the bans from datasource.
+     * The new bans replace the old ones at once, lookups never see a partly loaded list.
      */
     public void reload() {
-        bans.clear();
-        bans = backbone.loadBans();
+        bans = new BanIndex(backbone.loadBans());
     }
 }
@@ -31,6 +31,7 @@ import net.canarymod.commandsys.commands.playermod.PlayerPrefix;
 import net.canarymod.commandsys.commands.playermod.PlayerRemove;
 import net.canarymod.commandsys.commands.playermod.PlayermodBase;
 import net.canarymod.commandsys.commands.system.CreateVanilla;
+import net.canarymod.commandsys.commands.system.DatabaseMigrate;
 import net.canarymod.commandsys.commands.system.HelpCommand;
 import net.canarymod.commandsys.commands.system.Kick;
 import net.canarymod.commandsys.commands.system.ListPlugins;
@@ -46,6 +47,7 @@ import net.canarymod.commandsys.commands.system.bans.IpBanCommand;
 import net.canarymod.commandsys.commands.system.bans.UnbanCommand;
 import net.canarymod.commandsys.commands.system.informational.CanaryModCommand;
 import net.canarymod.commandsys.commands.system.informational.SystemInformation;
+import net.canarymod.commandsys.commands.system.informational.Timings;
 import net.canarymod.commandsys.commands.system.informational.Uptime;
 import net.canarymod.commandsys.commands.system.kits.KitCreate;
 import net.canarymod.commandsys.commands.system.kits.KitDelete;
@@ -139,6 +141,7 @@ import static net.canarymod.commandsys.CanaryCommandPermissions.CLEAR;
 import static net.canarymod.commandsys.CanaryCommandPermissions.CLONE;
 import static net.canarymod.commandsys.CanaryCommandPermissions.COMPASS;
 import static net.canarymod.commandsys.CanaryCommandPermissions.CREATEVANILLA;
+import static net.canarymod.commandsys.CanaryCommandPermissions.DBMIGRATE;
 import static net.canarymod.commandsys.CanaryCommandPermissions.DEBUG;
 import static net.canarymod.commandsys.CanaryCommandPermissions.DEFAULTGAMEMODE;
 import static net.canarymod.commandsys.CanaryCommandPermissions.DIFFICULTY;
@@ -234,6 +237,7 @@ import static net.canarymod.commandsys.CanaryCommandPermissions.TESTFOR;
 import static net.canarymod.commandsys.CanaryCommandPermissions.TESTFORBLOCK;
 import static net.canarymod.commandsys.CanaryCommandPermissions.TESTFORBLOCKS;
 import static net.canarymod.commandsys.CanaryCommandPermissions.TIME;
+import static net.canarymod.commandsys.CanaryCommandPermissions.TIMINGS;
 import static net.canarymod.commandsys.CanaryCommandPermissions.TITLE;
 import static net.canarymod.commandsys.CanaryCommandPermissions.TOGGLEDOWNFALL;
 import static net.canarymod.commandsys.CanaryCommandPermissions.TRIGGER;
@@ -322,6 +326,7 @@ public class CommandList implements CommandListener {
         /* system.informational */
         temp.put("canarymod", new CanaryModCommand());
         temp.put("sysinfo", new SystemInformation());
+        temp.put("timings", new Timings());
         temp.put("uptime", new Uptime());
 
         /* system.kits */
@@ -350,6 +355,7 @@ public class CommandList implements CommandListener {
 
         /* system */
         temp.put("createvanilla", new CreateVanilla());
+        temp.put("dbmigrate", new DatabaseMigrate());
 
         temp.put("help", new HelpCommand());
         temp.put("kick", new Kick());
@@ -979,6 +985,17 @@ public class CommandList implements CommandListener {
         natives.get("createvanilla").execute(caller, parameters);
     }
 
+    @Command(
+            aliases = { "dbmigrate" },
+            description = "dbmigrate info",
+            permissions = { DBMIGRATE },
+            toolTip = "/dbmigrate",
+            version = 2
+    )
+    public void databaseMigrateCommand(MessageReceiver caller, String[] parameters) {
+        natives.get("dbmigrate").execute(caller, parameters);
+    }
+
     @Command(
             aliases = { "deop" },
             description = "Takes Op from a Player",
@@ -1316,6 +1333,17 @@ public class CommandList implements CommandListener {
         natives.get("sysinfo").execute(caller, parameters);
     }
 
+    @Command(
+            aliases = { "timings" },
+            description = "Hook and task timings",
+            permissions = { TIMINGS },
+            toolTip = "/timings [on|off|reset|count]",
+            version = 2
+    )
+    public void timings(MessageReceiver caller, String[] parameters) {
+        natives.get("timings").execute(caller, parameters);
+    }
+
     @Command(
             aliases = { "unban" },
             description = "unban info",
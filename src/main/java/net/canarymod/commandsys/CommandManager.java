@@ -28,6 +28,14 @@ import static net.canarymod.Canary.log;
 public class CommandManager {
 
     private Map<String, CanaryCommand> commands = Maps.newHashMap();
+    private volatile CommandTrie trie = new CommandTrie(commands);
+
+    /**
+     * Rebuilds the command lookup trie after commands or sub commands changed
+     */
+    private void rebuildTrie() {
+        trie = new CommandTrie(commands);
+    }
 
     /**
      * Remove a command from the command list.
@@ -74,14 +82,14 @@ public class CommandManager {
             }
             if (temp.getParent() != null) {
                 temp.getParent().removeSubCommand(temp);
-                return true;
             }
             else {
                 for (int i = 0; i < temp.meta.aliases().length; i++) {
                     commands.remove(temp.meta.aliases()[i].toLowerCase());
                 }
-                return true;
             }
+            rebuildTrie();
+            return true;
         }
     }
 
@@ -105,6 +113,7 @@ public class CommandManager {
                 itr.remove();
             }
         }
+        rebuildTrie();
         Canary.help().unregisterCommands(owner);
     }
 
@@ -117,12 +126,12 @@ public class CommandManager {
      * @return <tt>true</tt> if this manager has <tt>command</tt>, <tt>false</tt> otherwise.
      */
     public boolean hasCommand(String command) {
-        return commands.containsKey(command.toLowerCase());
+        return trie.getCommand(command) != null;
     }
 
     public boolean canUseCommand(MessageReceiver user, String command) {
-        CanaryCommand cmd = commands.get(command);
-        return cmd != null && cmd.canUse(user);
+        CommandTrie.Node node = trie.getCommand(command);
+        return node != null && node.command.canUse(user);
     }
 
     /**
@@ -142,41 +151,14 @@ public class CommandManager {
      * @return true if {@code command} executed successfully, false otherwise
      */
     public boolean parseCommand(MessageReceiver caller, String command, String[] args) {
-        CanaryCommand baseCommand = commands.get(command.toLowerCase());
-        CanaryCommand subCommand = null;
-        if (baseCommand == null) {
+        // Finds the command and the sub command chain named by the arguments in one go
+        CommandTrie.Node node = trie.resolve(command, args);
+        if (node == null) {
             return false;
         }
-        // Parse args to find sub-command if there are any.
-        int argumentIndex = 0; // Index from which we should truncate args array
-        CanaryCommand tmp = null;
-        for (int i = 0; i < args.length; ++i) {
-            if (i + 1 >= args.length) {
-                break;
-            }
-            if (i == 0) {
-                tmp = baseCommand.getSubCommand(args[1]);
-                if (tmp != null) {
-                    subCommand = tmp;
-                    ++argumentIndex;
-                }
-                continue;
-            }
-            if (tmp != null) {
-                if (tmp.hasSubCommand(args[i + 1])) {
-                    tmp = tmp.getSubCommand(args[i + 1]);
-                    ++argumentIndex;
-                }
-                if (argumentIndex >= args.length) {
-                    // Clearly some invalid crazy thing
-                    argumentIndex = args.length - 1;
-                    break;
-                }
-                if (subCommand != tmp) {
-                    subCommand = tmp;
-                }
-            }
-        }
+        CanaryCommand baseCommand = node.base;
+        CanaryCommand subCommand = node.depth > 0 ? node.command : null;
+        int argumentIndex = node.depth; // Index from which we should truncate args array
 
         if (subCommand == null) {
             if (args[args.length - 1].toLowerCase().equals("--help")) {
@@ -224,7 +206,12 @@ public class CommandManager {
     public void registerCommand(CanaryCommand com, CommandOwner owner, boolean force) throws CommandDependencyException {
         // Check for dependencies
         sortDependencies(com, commands.values());
-        updateCommandList(com, owner, force);
+        try {
+            updateCommandList(com, owner, force);
+        }
+        finally {
+            rebuildTrie();
+        }
     }
 
     private void updateCommandList(CanaryCommand com, CommandOwner owner, boolean force) {
@@ -332,19 +319,24 @@ public class CommandManager {
         // Sort load order so dependencies can be resolved properly
         Collections.sort(newCommands);
 
-        for (CanaryCommand cmd : newCommands) {
-            try {
-                // First try local dependency
-                sortDependencies(cmd, newCommands);
-                this.updateCommandList(cmd, owner, force);
-            }
-            catch (CommandDependencyException e) {
-                // Now try existing commands.
-                // If this throws, dependency is definitely unresolved
-                sortDependencies(cmd, commands.values());
-                this.updateCommandList(cmd, owner, force);
+        try {
+            for (CanaryCommand cmd : newCommands) {
+                try {
+                    // First try local dependency
+                    sortDependencies(cmd, newCommands);
+                    this.updateCommandList(cmd, owner, force);
+                }
+                catch (CommandDependencyException e) {
+                    // Now try existing commands.
+                    // If this throws, dependency is definitely unresolved
+                    sortDependencies(cmd, commands.values());
+                    this.updateCommandList(cmd, owner, force);
+                }
             }
         }
+        finally {
+            rebuildTrie();
+        }
     }
 
     /**
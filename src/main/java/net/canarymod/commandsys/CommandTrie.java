@@ -0,0 +1,177 @@
+package net.canarymod.commandsys;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, case insensitive trie over command aliases and sub command aliases.
+ * <p/>
+ * The {@link CommandManager} builds a new one whenever commands are registered or removed
+ * and swaps it in, so lookups never see a half updated command tree and don't lock.
+ * Lookups compare aliases in place and don't allocate.
+ *
+ * @author agent
+ */
+final class CommandTrie {
+    private static final String[] NO_NAMES = new String[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    /**
+     * A command and its sub commands
+     */
+    static final class Node {
+        final CanaryCommand command;
+        final CanaryCommand base; // The root command of the chain
+        final int depth; // Number of sub command aliases after the command name
+        private final String[] names; // Lowercase, sorted
+        private final Node[] children;
+
+        private Node(CanaryCommand command, CanaryCommand base, int depth, Map<String, CanaryCommand> subcommands) {
+            this.command = command;
+            this.base = base;
+            this.depth = depth;
+            if (subcommands.isEmpty()) {
+                names = NO_NAMES;
+                children = NO_NODES;
+                return;
+            }
+            List<String> sorted = new ArrayList<String>(subcommands.keySet());
+            Collections.sort(sorted);
+            names = sorted.toArray(new String[sorted.size()]);
+            children = new Node[names.length];
+            for (int i = 0; i < names.length; i++) {
+                CanaryCommand child = subcommands.get(names[i]);
+                children[i] = new Node(child, base != null ? base : child, depth + 1, aliases(child.getSubCommands(), depth + 1));
+            }
+        }
+
+        /**
+         * Gets the node of a direct sub command
+         *
+         * @param alias
+         *         the alias, in any case
+         *
+         * @return the node, or null if there is no such sub command
+         */
+        Node getChild(String alias) {
+            int low = 0;
+            int high = names.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int compared = compareLower(names[middle], alias);
+                if (compared < 0) {
+                    low = middle + 1;
+                }
+                else if (compared > 0) {
+                    high = middle - 1;
+                }
+                else {
+                    return children[middle];
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Node root;
+
+    /**
+     * Builds the trie
+     *
+     * @param commands
+     *         the root commands, keyed by lowercase alias
+     */
+    CommandTrie(Map<String, CanaryCommand> commands) {
+        Map<String, CanaryCommand> roots = new LinkedHashMap<String, CanaryCommand>();
+        for (Map.Entry<String, CanaryCommand> entry : commands.entrySet()) {
+            roots.put(lower(entry.getKey()), entry.getValue());
+        }
+        root = new Node(null, null, -1, roots);
+    }
+
+    /**
+     * Gets the node of a root command
+     *
+     * @param name
+     *         the command name, in any case
+     *
+     * @return the node, or null if there is no such command
+     */
+    Node getCommand(String name) {
+        return root.getChild(name);
+    }
+
+    /**
+     * Resolves a command and the longest chain of sub commands named by the arguments
+     *
+     * @param name
+     *         the command name, in any case
+     * @param args
+     *         the arguments, including the command name at index 0
+     *
+     * @return the node of the last sub command found, its depth is the number of arguments
+     * that named sub commands. Null if there is no such command.
+     */
+    Node resolve(String name, String[] args) {
+        Node node = root.getChild(name);
+        if (node == null) {
+            return null;
+        }
+        for (int i = 1; i < args.length; i++) {
+            Node sub = node.getChild(args[i]);
+            if (sub == null) {
+                break;
+            }
+            node = sub;
+        }
+        return node;
+    }
+
+    /**
+     * Maps the aliases of sub commands to them. Like {@link CanaryCommand#getSubCommand(String)},
+     * the first sub command with an alias wins.
+     */
+    private static Map<String, CanaryCommand> aliases(List<CanaryCommand> subcommands, int depth) {
+        Map<String, CanaryCommand> aliases = new LinkedHashMap<String, CanaryCommand>();
+        if (depth > 64) {
+            return aliases; // Sub commands that contain themselves
+        }
+        for (CanaryCommand cmd : subcommands) {
+            for (String alias : cmd.meta.aliases()) {
+                String key = lower(alias);
+                if (!aliases.containsKey(key)) {
+                    aliases.put(key, cmd);
+                }
+            }
+        }
+        return aliases;
+    }
+
+    /**
+     * Lowercases char by char, the same way lookups compare
+     */
+    private static String lower(String alias) {
+        char[] chars = alias.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compares a lowercase name to an alias in any case, in {@link String#compareTo(String)} order of the lowercase alias
+     */
+    private static int compareLower(String name, String alias) {
+        int common = Math.min(name.length(), alias.length());
+        for (int i = 0; i < common; i++) {
+            int difference = name.charAt(i) - Character.toLowerCase(alias.charAt(i));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return name.length() - alias.length();
+    }
+}
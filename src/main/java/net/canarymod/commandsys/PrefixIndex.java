@@ -0,0 +1,168 @@
+package net.canarymod.commandsys;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A case insensitive, sorted index of names for tab completion.
+ * <p/>
+ * Matching walks the names from the first one with the given prefix and stops after the limit,
+ * so completing against a large set of names does not copy or filter all of them.
+ * Names can be added and removed one at a time. If the index has a source, it is reloaded
+ * from it when it is older than the refresh interval, to pick up changes nobody told it about.
+ *
+ * @param <T>
+ *         the type of the indexed values
+ *
+ * @author agent
+ */
+public final class PrefixIndex<T> {
+    private final Function<? super T, String> naming;
+    private final Supplier<? extends Iterable<? extends T>> source;
+    private final long refreshNanos;
+    private volatile ConcurrentSkipListMap<String, T> entries = new ConcurrentSkipListMap<String, T>();
+    private volatile long loaded;
+    private volatile boolean stale = true;
+
+    /**
+     * Creates an index that is only changed by {@link #add(Object)} and {@link #remove(Object)}
+     *
+     * @param naming
+     *         gets the name of a value
+     */
+    public PrefixIndex(Function<? super T, String> naming) {
+        this(naming, null, 0, TimeUnit.SECONDS);
+        stale = false;
+    }
+
+    /**
+     * Creates an index that loads its values from a source
+     *
+     * @param naming
+     *         gets the name of a value
+     * @param source
+     *         supplies all values
+     * @param refresh
+     *         how long loaded values are used before they are loaded again
+     * @param unit
+     *         the unit of refresh
+     */
+    public PrefixIndex(Function<? super T, String> naming, Supplier<? extends Iterable<? extends T>> source, long refresh, TimeUnit unit) {
+        this.naming = naming;
+        this.source = source;
+        this.refreshNanos = unit.toNanos(refresh);
+    }
+
+    /**
+     * Adds a value, replacing a value with the same name
+     *
+     * @param value
+     *         the value
+     */
+    public void add(T value) {
+        String name = naming.apply(value);
+        if (name != null) {
+            entries.put(name.toLowerCase(Locale.ENGLISH), value);
+        }
+    }
+
+    /**
+     * Removes the value with the name of the given value
+     *
+     * @param value
+     *         the value
+     */
+    public void remove(T value) {
+        String name = naming.apply(value);
+        if (name != null) {
+            entries.remove(name.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Makes the next match load the values from the source again
+     */
+    public void invalidate() {
+        stale = source != null;
+    }
+
+    /**
+     * Gets the names starting with a prefix, ignoring case, in alphabetical order
+     *
+     * @param prefix
+     *         the prefix, may be empty
+     * @param limit
+     *         the maximum number of names to return
+     *
+     * @return the matching names
+     */
+    public List<String> match(String prefix, int limit) {
+        return match(prefix, limit, null);
+    }
+
+    /**
+     * Gets the names of values accepted by a filter that start with a prefix, ignoring case, in alphabetical order
+     *
+     * @param prefix
+     *         the prefix, may be empty
+     * @param limit
+     *         the maximum number of names to return
+     * @param filter
+     *         decides which values may be returned, null to accept all
+     *
+     * @return the matching names
+     */
+    public List<String> match(String prefix, int limit, Predicate<? super T> filter) {
+        refreshIfStale();
+        String key = prefix.toLowerCase(Locale.ENGLISH);
+        List<String> matches = new ArrayList<String>();
+        if (limit <= 0) {
+            return matches;
+        }
+        for (Map.Entry<String, T> entry : entries.tailMap(key).entrySet()) {
+            if (!entry.getKey().startsWith(key)) {
+                break; // Sorted, no more names with this prefix
+            }
+            if (filter == null || filter.apply(entry.getValue())) {
+                matches.add(naming.apply(entry.getValue()));
+                if (matches.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private void refreshIfStale() {
+        if (source == null || (!stale && System.nanoTime() - loaded < refreshNanos)) {
+            return;
+        }
+        synchronized (this) {
+            if (!stale && System.nanoTime() - loaded < refreshNanos) {
+                return; // Another thread just loaded it
+            }
+            ConcurrentSkipListMap<String, T> fresh = new ConcurrentSkipListMap<String, T>();
+            Iterable<? extends T> values = source.get();
+            if (values != null) {
+                for (T value : values) {
+                    String name = value == null ? null : naming.apply(value);
+                    if (name != null) {
+                        fresh.put(name.toLowerCase(Locale.ENGLISH), value);
+                    }
+                }
+            }
+            // Swap all at once, matches in progress keep using the old entries
+            entries = fresh;
+            loaded = System.nanoTime();
+            stale = false;
+        }
+    }
+}
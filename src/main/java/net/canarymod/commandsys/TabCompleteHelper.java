@@ -1,5 +1,9 @@
 package net.canarymod.commandsys;
 
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
 import net.canarymod.Canary;
 import net.canarymod.ToolBox;
 import net.canarymod.api.PlayerReference;
@@ -15,7 +19,10 @@ import net.canarymod.warp.Warp;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A set of methods to help with doing tab completes
@@ -23,6 +30,85 @@ import java.util.List;
  * @author Jason (darkdiplomat)
  */
 public final class TabCompleteHelper {
+    /**
+     * The maximum number of matches the helpers backed by a {@link PrefixIndex} return
+     */
+    public static final int MATCH_LIMIT = 100;
+
+    private static final PrefixIndex<String> knownPlayers = new PrefixIndex<String>(Functions.<String>identity(), new Supplier<List<String>>() {
+        @Override
+        public List<String> get() {
+            return Arrays.asList(Canary.getServer().getKnownPlayerNames());
+        }
+    }, 5, TimeUnit.MINUTES);
+    private static final PrefixIndex<String> loadedWorlds = new PrefixIndex<String>(Functions.<String>identity(), new Supplier<List<String>>() {
+        @Override
+        public List<String> get() {
+            return Arrays.asList(Canary.getServer().getWorldManager().getLoadedWorldsNames());
+        }
+    }, 5, TimeUnit.SECONDS);
+    private static final PrefixIndex<String> itemTypes = new PrefixIndex<String>(Functions.<String>identity(), new Supplier<List<String>>() {
+        @Override
+        public List<String> get() {
+            return Arrays.asList(itemTypeNames(false));
+        }
+    }, 1, TimeUnit.MINUTES);
+    private static final PrefixIndex<String> itemTypesAndData = new PrefixIndex<String>(Functions.<String>identity(), new Supplier<List<String>>() {
+        @Override
+        public List<String> get() {
+            return Arrays.asList(itemTypeNames(true));
+        }
+    }, 1, TimeUnit.MINUTES);
+    private static final PrefixIndex<Kit> kits = new PrefixIndex<Kit>(new Function<Kit, String>() {
+        @Override
+        public String apply(Kit kit) {
+            return kit.getName();
+        }
+    }, new Supplier<List<Kit>>() {
+        @Override
+        public List<Kit> get() {
+            return Canary.kits().getAllKits();
+        }
+    }, 1, TimeUnit.MINUTES);
+    private static final PrefixIndex<Warp> warps = new PrefixIndex<Warp>(new Function<Warp, String>() {
+        @Override
+        public String apply(Warp warp) {
+            return warp.isPlayerHome() ? null : warp.getName(); // Homes are not completed
+        }
+    }, new Supplier<List<Warp>>() {
+        @Override
+        public List<Warp> get() {
+            return Canary.warps().getAllWarps();
+        }
+    }, 1, TimeUnit.MINUTES);
+
+    /**
+     * Gets the index of known player names.
+     * The server should add players that join for the first time, the index only reloads all names every few minutes.
+     *
+     * @return the index
+     */
+    public static PrefixIndex<String> getKnownPlayerIndex() {
+        return knownPlayers;
+    }
+
+    /**
+     * Gets the index of {@link net.canarymod.kit.Kit} names, the {@link net.canarymod.kit.KitProvider} keeps it up to date
+     *
+     * @return the index
+     */
+    public static PrefixIndex<Kit> getKitIndex() {
+        return kits;
+    }
+
+    /**
+     * Gets the index of {@link net.canarymod.warp.Warp} names, the {@link net.canarymod.warp.WarpProvider} keeps it up to date
+     *
+     * @return the index
+     */
+    public static PrefixIndex<Warp> getWarpIndex() {
+        return warps;
+    }
 
     /**
      * Matches a partial {@link String} to a possible matching {@link String}
@@ -132,7 +218,7 @@ public final class TabCompleteHelper {
      * @return list of matching {@link net.canarymod.api.entity.living.humanoid.Player} names found
      */
     public static List<String> matchToKnownPlayer(String arg) {
-        return matchTo(arg, Canary.getServer().getKnownPlayerNames());
+        return knownPlayers.match(arg, MATCH_LIMIT);
     }
 
     /**
@@ -144,7 +230,7 @@ public final class TabCompleteHelper {
      * @return a list of matching {@link net.canarymod.api.entity.living.humanoid.Player} names found
      */
     public static List<String> matchToKnownPlayer(String[] args) {
-        return matchTo(args, Canary.getServer().getKnownPlayerNames());
+        return knownPlayers.match(args[args.length - 1], MATCH_LIMIT);
     }
 
     /**
@@ -156,7 +242,7 @@ public final class TabCompleteHelper {
      * @return list of matching loaded {@link net.canarymod.api.world.World} names found
      */
     public static List<String> matchToLoadedWorld(String arg) {
-        return matchTo(arg, Canary.getServer().getWorldManager().getLoadedWorldsNames());
+        return loadedWorlds.match(arg, MATCH_LIMIT);
     }
 
     /**
@@ -168,7 +254,7 @@ public final class TabCompleteHelper {
      * @return a list of matching loaded {@link net.canarymod.api.world.World} names found
      */
     public static List<String> matchToLoadedWorld(String[] args) {
-        return matchTo(args, Canary.getServer().getWorldManager().getLoadedWorldsNames());
+        return loadedWorlds.match(args[args.length - 1], MATCH_LIMIT);
     }
 
     /**
@@ -314,15 +400,13 @@ public final class TabCompleteHelper {
      * @return list of matching {@link net.canarymod.kit.Kit} names found
      */
     public static List<String> matchToKitNames(String arg, MessageReceiver caller) {
-        Player subject = caller instanceof Player ? (Player)caller : null;
-        ArrayList<String> kitNames = new ArrayList<String>();
-        for (Kit kit : Canary.kits().getAllKits()) {
-            if (subject != null && !kit.canBeGiven(subject)) {
-                continue;
+        final Player subject = caller instanceof Player ? (Player)caller : null;
+        return kits.match(arg, MATCH_LIMIT, subject == null ? null : new Predicate<Kit>() {
+            @Override
+            public boolean apply(Kit kit) {
+                return kit.canBeGiven(subject);
             }
-            kitNames.add(kit.getName());
-        }
-        return matchTo(arg, kitNames.toArray(new String[kitNames.size()]));
+        });
     }
 
     /**
@@ -336,15 +420,7 @@ public final class TabCompleteHelper {
      * @return a list of matching {@link net.canarymod.kit.Kit} names found
      */
     public static List<String> matchToKitNames(String[] args, MessageReceiver caller) {
-        Player subject = caller instanceof Player ? (Player)caller : null;
-        ArrayList<String> kitNames = new ArrayList<String>();
-        for (Kit kit : Canary.kits().getAllKits()) {
-            if (subject != null && !kit.canBeGiven(subject)) {
-                continue;
-            }
-            kitNames.add(kit.getName());
-        }
-        return matchTo(args, kitNames.toArray(new String[kitNames.size()]));
+        return matchToKitNames(args[args.length - 1], caller);
     }
 
     /**
@@ -358,18 +434,13 @@ public final class TabCompleteHelper {
      * @return list of matching {@link net.canarymod.warp.Warp} names found
      */
     public static List<String> matchToWarpNames(String arg, MessageReceiver caller) {
-        Player subject = caller instanceof Player ? (Player)caller : null;
-        ArrayList<String> warpNames = new ArrayList<String>();
-        for (Warp warp : Canary.warps().getAllWarps()) {
-            if (warp.isPlayerHome()) {
-                continue;
+        final Player subject = caller instanceof Player ? (Player)caller : null;
+        return warps.match(arg, MATCH_LIMIT, subject == null ? null : new Predicate<Warp>() {
+            @Override
+            public boolean apply(Warp warp) {
+                return warp.canWarp(subject);
             }
-            if (subject != null && !warp.canWarp(subject)) {
-                continue;
-            }
-            warpNames.add(warp.getName());
-        }
-        return matchTo(arg, warpNames.toArray(new String[warpNames.size()]));
+        });
     }
 
     /**
@@ -383,18 +454,7 @@ public final class TabCompleteHelper {
      * @return a list of matching {@link net.canarymod.warp.Warp} names found
      */
     public static List<String> matchToWarpNames(String[] args, MessageReceiver caller) {
-        Player subject = caller instanceof Player ? (Player)caller : null;
-        ArrayList<String> warpNames = new ArrayList<String>();
-        for (Warp warp : Canary.warps().getAllWarps()) {
-            if (warp.isPlayerHome()) {
-                continue;
-            }
-            if (subject != null && !warp.canWarp(subject)) {
-                continue;
-            }
-            warpNames.add(warp.getName());
-        }
-        return matchTo(args, warpNames.toArray(new String[warpNames.size()]));
+        return matchToWarpNames(args[args.length - 1], caller);
     }
 
     /**
@@ -406,7 +466,7 @@ public final class TabCompleteHelper {
      * @return list of matching existing {@link net.canarymod.api.inventory.ItemType} machine names
      */
     public static List<String> matchToItemType(String arg) {
-        return matchTo(arg, itemTypeNames(false));
+        return itemTypes.match(arg, MATCH_LIMIT);
     }
 
     /**
@@ -418,7 +478,7 @@ public final class TabCompleteHelper {
      * @return a list of matching existing {@link net.canarymod.api.inventory.ItemType} machine names
      */
     public static List<String> matchToItemType(String[] args) {
-        return matchTo(args, itemTypeNames(false));
+        return itemTypes.match(args[args.length - 1], MATCH_LIMIT);
     }
 
     /**
@@ -430,7 +490,7 @@ public final class TabCompleteHelper {
      * @return list of matching existing {@link net.canarymod.api.inventory.ItemType} machine names with data value
      */
     public static List<String> matchToItemTypeAndData(String arg) {
-        return matchTo(arg, itemTypeNames(true));
+        return itemTypesAndData.match(arg, MATCH_LIMIT);
     }
 
     /**
@@ -442,7 +502,7 @@ public final class TabCompleteHelper {
      * @return a list of matching existing {@link net.canarymod.api.inventory.ItemType} machine names with data value
      */
     public static List<String> matchToItemTypeAndData(String[] args) {
-        return matchTo(args, itemTypeNames(true));
+        return itemTypesAndData.match(args[args.length - 1], MATCH_LIMIT);
     }
 
     /**
@@ -457,14 +517,7 @@ public final class TabCompleteHelper {
      */
     public static List<String> matchToPlayerPermission(Player playerReference, String arg) {
         if (playerReference != null) {
-            List<PermissionNode> nodes = playerReference.getPermissionProvider().getPermissionMap();
-            String[] fullNodes = new String[nodes.size()];
-            for (int index = 0; index < nodes.size(); index++) {
-                fullNodes[index] = nodes.get(index).getFullPath();
-            }
-            if (fullNodes.length > 0) {
-                return matchTo(arg, fullNodes);
-            }
+            return matchToPermission(playerReference.getPermissionProvider().getPermissionMap(), arg);
         }
         return null;
     }
@@ -481,14 +534,7 @@ public final class TabCompleteHelper {
      */
     public static List<String> matchToPlayerPermission(PlayerReference playerReference, String[] args) {
         if (playerReference != null) {
-            List<PermissionNode> nodes = playerReference.getPermissionProvider().getPermissionMap();
-            String[] fullNodes = new String[nodes.size()];
-            for (int index = 0; index < nodes.size(); index++) {
-                fullNodes[index] = nodes.get(index).getFullPath();
-            }
-            if (fullNodes.length > 0) {
-                return matchTo(args, fullNodes);
-            }
+            return matchToPermission(playerReference.getPermissionProvider().getPermissionMap(), args[args.length - 1]);
         }
         return null;
     }
@@ -536,17 +582,32 @@ public final class TabCompleteHelper {
         return null;
     }
 
+    /**
+     * Matches permission nodes without copying all their paths first
+     */
+    private static List<String> matchToPermission(List<PermissionNode> nodes, String arg) {
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        ArrayList<String> matches = new ArrayList<String>();
+        for (PermissionNode node : nodes) {
+            String path = node.getFullPath();
+            if (startsWith(arg, path)) {
+                matches.add(path);
+                if (matches.size() >= MATCH_LIMIT) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
     private static String[] itemTypeNames(boolean appendData) {
         ItemType[] types = ItemType.values();
-        ArrayList<String> names = new ArrayList<String>();
+        LinkedHashSet<String> names = new LinkedHashSet<String>();
         for (ItemType type : types) {
             String name = type.getMachineName();
-            if (!appendData) {
-                names.add(name);
-            }
-            else if (!names.contains(name + ":" + type.getData())) {
-                names.add(name + ":" + type.getData());
-            }
+            names.add(appendData ? name + ":" + type.getData() : name);
         }
         return names.toArray(new String[names.size()]);
     }
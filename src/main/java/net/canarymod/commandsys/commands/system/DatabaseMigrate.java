@@ -0,0 +1,93 @@
+package net.canarymod.commandsys.commands.system;
+
+import net.canarymod.Canary;
+import net.canarymod.backbone.BanDataAccess;
+import net.canarymod.backbone.GroupDataAccess;
+import net.canarymod.backbone.KitDataAccess;
+import net.canarymod.backbone.OperatorsDataAccess;
+import net.canarymod.backbone.PermissionDataAccess;
+import net.canarymod.backbone.PlayerDataAccess;
+import net.canarymod.backbone.ReservelistDataAccess;
+import net.canarymod.backbone.SchemaVersionDataAccess;
+import net.canarymod.backbone.WarpDataAccess;
+import net.canarymod.backbone.WhitelistDataAccess;
+import net.canarymod.chat.ChatFormat;
+import net.canarymod.chat.MessageReceiver;
+import net.canarymod.commandsys.NativeCommand;
+import net.canarymod.database.AsyncDatabase;
+import net.canarymod.database.DataAccess;
+import net.canarymod.database.Database;
+import net.canarymod.database.exceptions.DatabaseReadException;
+import net.canarymod.database.exceptions.DatabaseWriteException;
+import net.canarymod.database.kv.KvDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.canarymod.Canary.log;
+import static net.canarymod.Translator.sendTranslatedMessage;
+import static net.canarymod.Translator.sendTranslatedNotice;
+
+/**
+ * Command to copy the Canary tables of the current datasource (xml, sqlite or mysql) into the kv database
+ *
+ * @author agent
+ */
+public class DatabaseMigrate implements NativeCommand {
+
+    public void execute(MessageReceiver caller, String[] parameters) {
+        Database source = Database.get();
+        KvDatabase target = KvDatabase.getInstance();
+
+        if (source == target) {
+            sendTranslatedNotice(caller, "dbmigrate already kv");
+            return;
+        }
+        // Queued writes must be in the source before it is read
+        AsyncDatabase.get().flush();
+
+        boolean failed = false;
+        for (DataAccess template : getTables()) {
+            try {
+                int rows = target.importTable(source, template);
+                sendTranslatedMessage(caller, ChatFormat.GRAY, "dbmigrate copied", rows, template.getName());
+            }
+            catch (DatabaseReadException e) {
+                log.error("Failed to read table " + template.getName(), e);
+                sendTranslatedNotice(caller, "dbmigrate read failed", template.getName(), e.getMessage());
+                failed = true;
+            }
+            catch (DatabaseWriteException e) {
+                log.error("Failed to copy table " + template.getName(), e);
+                sendTranslatedNotice(caller, "dbmigrate copy failed", template.getName(), e.getMessage());
+                failed = true;
+            }
+        }
+
+        if (failed) {
+            sendTranslatedNotice(caller, "dbmigrate failed");
+        }
+        else {
+            sendTranslatedMessage(caller, ChatFormat.YELLOW, "dbmigrate done");
+        }
+    }
+
+    private List<DataAccess> getTables() {
+        List<DataAccess> tables = new ArrayList<DataAccess>();
+        tables.add(new PlayerDataAccess());
+        tables.add(new GroupDataAccess());
+        tables.add(new PermissionDataAccess(null));
+        for (String world : Canary.getServer().getWorldManager().getExistingWorlds()) {
+            tables.add(new PermissionDataAccess(world));
+        }
+        tables.add(new BanDataAccess());
+        tables.add(new WarpDataAccess());
+        tables.add(new KitDataAccess());
+        tables.add(new OperatorsDataAccess());
+        tables.add(new ReservelistDataAccess());
+        tables.add(new WhitelistDataAccess());
+        // Conversion markers, so one-time conversions don't run again on the new datasource
+        tables.add(new SchemaVersionDataAccess());
+        return tables;
+    }
+}
@@ -0,0 +1,91 @@
+package net.canarymod.commandsys.commands.system.informational;
+
+import net.canarymod.Canary;
+import net.canarymod.chat.ChatFormat;
+import net.canarymod.chat.MessageReceiver;
+import net.canarymod.commandsys.NativeCommand;
+import net.canarymod.hook.AsyncHookLane;
+import net.canarymod.hook.HandlerTiming;
+import net.canarymod.hook.HookExecutor;
+import net.canarymod.hook.HookTimings;
+import net.canarymod.tasks.ServerTaskManager;
+import net.canarymod.tasks.TaskOwnerTiming;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Hook and task timings read-out command
+ * <p/>
+ * /timings [on|off|reset|count]
+ *
+ * @author agent
+ */
+public class Timings implements NativeCommand {
+    private static final int defaultCount = 10;
+
+    @Override
+    public void execute(MessageReceiver caller, String[] parameters) {
+        HookExecutor hooks = Canary.hooks();
+        int count = defaultCount;
+        if (parameters.length > 0) {
+            if (parameters[0].equalsIgnoreCase("on")) {
+                hooks.getTimings().setEnabled(true);
+                caller.notice("Hook timings enabled.");
+                return;
+            }
+            else if (parameters[0].equalsIgnoreCase("off")) {
+                hooks.getTimings().setEnabled(false);
+                caller.notice("Hook timings disabled.");
+                return;
+            }
+            else if (parameters[0].equalsIgnoreCase("reset")) {
+                hooks.resetTimings();
+                ServerTaskManager.resetOwnerTimings();
+                caller.notice("Hook and task timings reset.");
+                return;
+            }
+            try {
+                count = Math.max(1, Integer.parseInt(parameters[0]));
+            }
+            catch (NumberFormatException nfex) {
+                caller.notice("Usage: /timings [on|off|reset|count]");
+                return;
+            }
+        }
+        caller.message(ChatFormat.GOLD + "   *** " + ChatFormat.RED + "HOOK TIMINGS" + ChatFormat.GOLD + " *** " + ChatFormat.WHITE + (hooks.getTimings().isEnabled() ? "(enabled)" : "(disabled)"));
+        for (HandlerTiming timing : HookTimings.topOffenders(hooks.getHandlerTimings(), count)) {
+            if (timing.getCount() == 0) {
+                break;
+            }
+            caller.message(String.format(ChatFormat.GOLD + "%s " + ChatFormat.WHITE + "%s#%s" + ChatFormat.GOLD + ": \u00A7F%d calls, %.2fms total, %.3fms avg, %.2fms max",
+                                         timing.getPluginName(), timing.getHookName(), timing.getHandlerName(), timing.getCount(),
+                                         timing.getTotalNanos() / 1000000.0D, timing.getTotalNanos() / 1000000.0D / timing.getCount(), timing.getMaxNanos() / 1000000.0D
+                                        ));
+        }
+        AsyncHookLane lane = hooks.getAsyncLane();
+        caller.message(String.format(ChatFormat.GOLD + "Async hooks:\u00A7F %d queued (peak %d), %d submitted, %d dropped (queue full)",
+                                     lane.getQueueDepth(), lane.getPeakQueueDepth(), lane.getSubmittedCount(), lane.getOverflowCount()
+                                    ));
+        caller.message(ChatFormat.GOLD + "   *** " + ChatFormat.RED + "TASK TIMINGS" + ChatFormat.GOLD + " ***");
+        List<TaskOwnerTiming> owners = ServerTaskManager.getOwnerTimings();
+        Collections.sort(owners, new Comparator<TaskOwnerTiming>() {
+            @Override
+            public int compare(TaskOwnerTiming o1, TaskOwnerTiming o2) {
+                long t1 = o1.getTotalNanos();
+                long t2 = o2.getTotalNanos();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        for (TaskOwnerTiming timing : owners.subList(0, Math.min(count, owners.size()))) {
+            if (timing.getCount() == 0) {
+                break;
+            }
+            caller.message(String.format(ChatFormat.GOLD + "%s: \u00A7F%d runs, %.2fms total, %.3fms avg, %.2fms max, %d deferred",
+                                         timing.getOwnerName(), timing.getCount(), timing.getTotalNanos() / 1000000.0D,
+                                         timing.getTotalNanos() / 1000000.0D / timing.getCount(), timing.getMaxNanos() / 1000000.0D, timing.getDeferredCount()
+                                        ));
+        }
+    }
+}
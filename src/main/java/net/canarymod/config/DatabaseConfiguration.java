@@ -95,6 +95,18 @@ public class DatabaseConfiguration implements ConfigurationContainer {
         cfg.getInt("statement-cache-close-threads", 1);
         cfg.setComments("statement-cache-close-threads", "Number of threads to use when closing statements is deferred (happens when parent connection is still in use)");
 
+        cfg.getInt("xml-flush-interval", 30);
+        cfg.setComments("xml-flush-interval", "XML only: Seconds between writing cached tables back to their XML files. Changes in between are kept in a journal (db/<table>.journal) that is replayed after a crash.");
+
+        cfg.getInt("kv-compact-interval", 300);
+        cfg.setComments("kv-compact-interval", "kv only: Seconds between checks whether a table file has collected enough superseded rows to be rewritten.");
+
+        cfg.getInt("fetch-size", 500);
+        cfg.setComments("fetch-size", "MySQL and SQLite only: Rows read per query when whole tables are scanned. Higher is faster, lower uses less memory.");
+
+        cfg.getInt("async-io-threads", 2);
+        cfg.setComments("async-io-threads", "Number of threads that run queued database operations. Operations on the same table always run in order.");
+
         // Table Naming Schemes...
         cfg.getString("bans-table-name", "ban");
         cfg.setComments("bans-table-name", "The name to use for the Bans table. NOTE: Changing this here will require you to manually change the name of the table in the database (if present)");
@@ -117,6 +129,9 @@ public class DatabaseConfiguration implements ConfigurationContainer {
         cfg.getString("reservelist-table-name", "reservelist");
         cfg.setComments("reservelist-table-name", "The name to use for the ReserveList table. NOTE: Changing this here will require you to manually change the name of the table in the database (if present)");
 
+        cfg.getString("schema-table-name", "schema_version");
+        cfg.setComments("schema-table-name", "The name to use for the table that records which data conversions have been done. NOTE: Changing this here will require you to manually change the name of the table in the database (if present)");
+
         cfg.getString("warps-table-name", "warp");
         cfg.setComments("warps-table-name", "The name to use for the Warps table. NOTE: Changing this here will require you to manually change the name of the table in the database (if present)");
 
@@ -304,6 +319,42 @@ public class DatabaseConfiguration implements ConfigurationContainer {
         return cfg.getInt("max-connection-idle-time", 900);
     }
 
+    /**
+     * Defines how often the XML database writes its cached tables back to disk.
+     *
+     * @return seconds between XML table flushes
+     */
+    public int getXmlFlushInterval() {
+        return cfg.getInt("xml-flush-interval", 30);
+    }
+
+    /**
+     * Defines how often the key-value database checks its tables for compaction.
+     *
+     * @return seconds between compaction checks
+     */
+    public int getKvCompactInterval() {
+        return cfg.getInt("kv-compact-interval", 300);
+    }
+
+    /**
+     * Defines how many rows are read per query when whole tables are scanned
+     *
+     * @return rows per page
+     */
+    public int getFetchSize() {
+        return cfg.getInt("fetch-size", 500);
+    }
+
+    /**
+     * Defines the amount of threads that run queued database operations
+     *
+     * @return num of threads for queued database operations
+     */
+    public int getAsyncIoThreads() {
+        return cfg.getInt("async-io-threads", 2);
+    }
+
     public String getBansTableName() {
         return cfg.getString("bans-table-name", "ban");
     }
@@ -332,6 +383,10 @@ public class DatabaseConfiguration implements ConfigurationContainer {
         return cfg.getString("reservelist-table-name", "reservelist");
     }
 
+    public String getSchemaTableName() {
+        return cfg.getString("schema-table-name", "schema_version");
+    }
+
     public String getWarpsTableName() {
         return cfg.getString("warps-table-name", "warp");
     }
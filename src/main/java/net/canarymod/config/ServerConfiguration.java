@@ -64,6 +64,10 @@ public class ServerConfiguration implements ConfigurationContainer {
         cfg.setComments("announce-player-achievements", "Sets whether to inform all of a Player's Achievement");
         cfg.getBoolean("allow-enchantment-stacking", false);
         cfg.setComments("allow-enchantment-stacking", "Sets whether to allow items with enchantments to stack with non-enchanted items");
+        cfg.getInt("async-hook-threads", 2);
+        cfg.setComments("async-hook-threads", "Number of worker threads running plugin hook handlers declared as async");
+        cfg.getInt("async-hook-queue-size", 1024);
+        cfg.setComments("async-hook-queue-size", "Maximum number of async hook handler calls queued per worker. Once full, further calls are dropped");
         cfg.getString("ban-default-message", "You are banned from this server.");
         cfg.setComments("ban-default-message", "The default message to use for user bans");
         cfg.getString("ban-expiration-date-message", "Your Ban will be lifted at ");
@@ -83,7 +87,7 @@ public class ServerConfiguration implements ConfigurationContainer {
         cfg.getBoolean("command-block-silent", false);
         cfg.setComments("command-block-silent", "Sets whether the Command Block logs command output (set to true to 'silence' CommandBlocks)");
         cfg.getString("data-source", "xml");
-        cfg.setComments("data-source", "The Datasource type to use (Default available: xml, mysql, sqlite");
+        cfg.setComments("data-source", "The Datasource type to use (Default available: xml, mysql, sqlite, kv");
         cfg.getString("date-format", "yyyy.MM.dd, hh:mm:ss");
         cfg.setComments("date-format", "A formatting to display timestamps");
         cfg.getBoolean("death-messages", true);
@@ -105,6 +109,10 @@ public class ServerConfiguration implements ConfigurationContainer {
         if (cfg.containsKey("logging")) { // Remove old key
             cfg.removeKey("logging");
         }
+        cfg.getBoolean("hook-timings-enabled", false);
+        cfg.setComments("hook-timings-enabled", "Sets whether to record the execution time of every plugin hook handler (see /timings)");
+        cfg.getInt("hook-timings-slow-threshold", 50);
+        cfg.setComments("hook-timings-slow-threshold", "Number of milliseconds a single hook handler may take before it is logged while hook timings are enabled. Setting to 0 disables the log.");
         cfg.getString("logger-level", "INFO");
         cfg.setComments("logger-level", "Sets the level of logging.", "Acceptable Values: OFF FATAL ERROR WARN INFO DEBUG TRACE ALL");
 
@@ -121,6 +129,8 @@ public class ServerConfiguration implements ConfigurationContainer {
         cfg.setComments("online-mode", "Sets whether to authenticate connecting users.",
                         "WARNING: Setting to false is INSECURE and should not be done in a production environment."
                        );
+        cfg.getInt("permission-cache-size", 256);
+        cfg.setComments("permission-cache-size", "Maximum number of permission check results cached per group or permission provider. 0 disables the cache");
         cfg.getInt("player-idle-timeout", 1);
         cfg.setComments("player-idle-timeout", "Timeout in minutes before kicking an idle player");
         cfg.getBoolean("playerlist-enabled", true);
@@ -164,6 +174,8 @@ public class ServerConfiguration implements ConfigurationContainer {
         cfg.setComments("spam-protection", "Level of protection against Spam. Options: default - on for all but ignorerestiction users; off - no protections; all - on for all");
         cfg.getBoolean("strict-sign-characters", true);
         cfg.setComments("strict-sign-characters", "Sets whether to strictly check characters on signs for invalid chat characters. Set to false to disable (and allow more characters)");
+        cfg.getInt("task-tick-budget", 20);
+        cfg.setComments("task-tick-budget", "Number of milliseconds plugin tasks may use per tick before low priority repeating tasks are pushed to the next tick. Setting to 0 disables deferring.");
         cfg.getString("texture-pack", "");
         cfg.setComments("texture-pack", "The name of the Server's texture/resource pack");
         cfg.getBoolean("update-lang-files", true);
@@ -324,6 +336,42 @@ public class ServerConfiguration implements ConfigurationContainer {
         return cfg.getInt("flight-detect-ticks", 80);
     }
 
+    /**
+     * Gets the number of threads running async hook handlers
+     *
+     * @return async hook threads
+     */
+    public int getAsyncHookThreads() {
+        return cfg.getInt("async-hook-threads", 2);
+    }
+
+    /**
+     * Gets the maximum number of queued async hook handler calls per worker
+     *
+     * @return async hook queue size
+     */
+    public int getAsyncHookQueueSize() {
+        return cfg.getInt("async-hook-queue-size", 1024);
+    }
+
+    /**
+     * Checks if hook timings are enabled
+     *
+     * @return {@code true} if enabled; {@code false} if not
+     */
+    public boolean isHookTimingsEnabled() {
+        return cfg.getBoolean("hook-timings-enabled", false);
+    }
+
+    /**
+     * Gets the number of milliseconds a hook handler may take before it is logged as slow
+     *
+     * @return slow hook threshold
+     */
+    public int getSlowHookThreshold() {
+        return cfg.getInt("hook-timings-slow-threshold", 50);
+    }
+
     /**
      * Gets the Level of message to log
      *
@@ -369,6 +417,15 @@ public class ServerConfiguration implements ConfigurationContainer {
         return cfg.getBoolean("online-mode", true);
     }
 
+    /**
+     * Gets the maximum number of permission check results cached per group or permission provider
+     *
+     * @return the cache size, 0 if results are not cached
+     */
+    public int getPermissionCacheSize() {
+        return Math.max(0, cfg.getInt("permission-cache-size", 256));
+    }
+
     /**
      * Gets the time in minutes before a player is kicked for idling
      *
@@ -582,6 +639,15 @@ public class ServerConfiguration implements ConfigurationContainer {
         return cfg.getBoolean("strict-sign-characters");
     }
 
+    /**
+     * Gets the number of milliseconds server tasks may use per tick before low priority tasks are deferred
+     *
+     * @return task tick budget
+     */
+    public int getTaskTickBudget() {
+        return cfg.getInt("task-tick-budget", 20);
+    }
+
     /**
      * Server Texture/Resource Pack name
      *
@@ -0,0 +1,684 @@
+package net.canarymod.database;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.canarymod.config.Configuration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Runs {@link Database} operations off the calling thread.
+ * <p/>
+ * Operations are queued per table and run in the order they were queued, so a read sees every write
+ * to its table that was queued before it. Different tables are worked off in parallel by a small pool
+ * of I/O threads.
+ * <p/>
+ * An update or upsert of a row that is still waiting in the queue replaces the waiting one instead of
+ * running on its own, as long as only writes to other rows were queued in between. Both futures complete
+ * when the merged write is done.
+ * <p/>
+ * Failed operations are logged and fail their future. {@link DataAccess} objects and filter maps must not
+ * be changed after they were handed to this class.
+ *
+ * @author agent
+ */
+public final class AsyncDatabase {
+    /**
+     * How far back the queue of a table is searched for a write to coalesce with
+     */
+    private static final int COALESCE_DEPTH = 64;
+    /**
+     * Operations a worker runs for one table before giving other tables a turn
+     */
+    private static final int BATCH_SIZE = 32;
+
+    private static AsyncDatabase instance;
+
+    private final Database database;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, TableQueue> queues = new ConcurrentHashMap<String, TableQueue>();
+
+    /**
+     * Creates an AsyncDatabase. Use {@link #get()} for the one backed by the configured database.
+     *
+     * @param database
+     *         the database to run operations on
+     * @param threads
+     *         the number of I/O threads
+     */
+    public AsyncDatabase(Database database, int threads) {
+        this.database = database;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactoryBuilder().setNameFormat("Canary Database IO-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Gets the AsyncDatabase backed by {@link Database#get()}
+     *
+     * @return the AsyncDatabase
+     */
+    public static synchronized AsyncDatabase get() {
+        if (instance == null) {
+            instance = new AsyncDatabase(Database.get(), Configuration.getDbConfig().getAsyncIoThreads());
+            // The I/O threads are daemons, queued writes must not die with them.
+            // The JVM runs shutdown hooks in no particular order, so backends that close their
+            // files on exit call shutdownInstance() from their own hook before doing so.
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    shutdownInstance();
+                }
+            }, "AsyncDatabase-Shutdown"));
+        }
+        return instance;
+    }
+
+    /**
+     * Runs everything queued on the AsyncDatabase from {@link #get()} and stops its I/O threads.
+     * Does nothing if it was never created.
+     * <p/>
+     * Must be called on shutdown before the {@link Database} closes its tables.
+     * Operations queued afterwards run on the calling thread.
+     */
+    public static synchronized void shutdownInstance() {
+        if (instance != null) {
+            instance.shutdown();
+        }
+    }
+
+    /**
+     * Gets the database operations are run on
+     *
+     * @return the database
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Queues {@link Database#insert(DataAccess)}
+     *
+     * @param data
+     *         the data to insert
+     *
+     * @return a future that completes when the data has been inserted
+     */
+    public ListenableFuture<Void> insert(final DataAccess data) {
+        return queue(data.getName(), new Operation<Void>() {
+            @Override
+            Void run() throws Exception {
+                database.insert(data);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues {@link Database#insertAll(List)}. All entries must belong to the same table.
+     *
+     * @param data
+     *         the data to insert
+     *
+     * @return a future that completes when the data has been inserted
+     */
+    public ListenableFuture<Void> insertAll(List<DataAccess> data) {
+        if (data.isEmpty()) {
+            return Futures.immediateFuture(null);
+        }
+        final List<DataAccess> copy = new ArrayList<DataAccess>(data);
+        return queue(copy.get(0).getName(), new Operation<Void>() {
+            @Override
+            Void run() throws Exception {
+                database.insertAll(copy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues {@link Database#update(DataAccess, Map)}
+     *
+     * @param data
+     *         the new data
+     * @param filters
+     *         FieldName->Value map to filter which rows should be updated
+     *
+     * @return a future that completes when the data has been updated
+     */
+    public ListenableFuture<Void> update(DataAccess data, Map<String, Object> filters) {
+        return queue(data.getName(), new RowWrite(false, data, filters));
+    }
+
+    /**
+     * Queues {@link Database#upsert(DataAccess, Map)}
+     *
+     * @param data
+     *         the data to save
+     * @param filters
+     *         FieldName->Value map to filter which row should be updated
+     *
+     * @return a future that completes when the data has been saved
+     */
+    public ListenableFuture<Void> upsert(DataAccess data, Map<String, Object> filters) {
+        return queue(data.getName(), new RowWrite(true, data, filters));
+    }
+
+    /**
+     * Queues {@link Database#updateAll(DataAccess, Map)}
+     *
+     * @param template
+     *         the template data access used for verification.
+     * @param data
+     *         a map of data access objects to insert and the filters to apply them with
+     *
+     * @return a future that completes when the data has been updated
+     */
+    public ListenableFuture<Void> updateAll(final DataAccess template, Map<DataAccess, Map<String, Object>> data) {
+        final Map<DataAccess, Map<String, Object>> copy = new HashMap<DataAccess, Map<String, Object>>(data.size() * 2);
+        for (Map.Entry<DataAccess, Map<String, Object>> entry : data.entrySet()) {
+            copy.put(entry.getKey(), new HashMap<String, Object>(entry.getValue()));
+        }
+        return queue(template.getName(), new Operation<Void>() {
+            @Override
+            Void run() throws Exception {
+                database.updateAll(template, copy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues {@link Database#remove(DataAccess, Map)}
+     *
+     * @param data
+     *         the DataAccess object that specifies the table
+     * @param filters
+     *         FieldName->Value map to filter which row should be deleted
+     *
+     * @return a future that completes when the row has been removed
+     */
+    public ListenableFuture<Void> remove(final DataAccess data, Map<String, Object> filters) {
+        final Map<String, Object> copy = new HashMap<String, Object>(filters);
+        return queue(data.getName(), new Operation<Void>() {
+            @Override
+            Void run() throws Exception {
+                database.remove(data, copy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues {@link Database#removeAll(DataAccess, Map)}
+     *
+     * @param data
+     *         the DataAccess object that specifies the table
+     * @param filters
+     *         FieldName->Value map to filter which rows should be deleted
+     *
+     * @return a future that completes when the rows have been removed
+     */
+    public ListenableFuture<Void> removeAll(final DataAccess data, Map<String, Object> filters) {
+        final Map<String, Object> copy = new HashMap<String, Object>(filters);
+        return queue(data.getName(), new Operation<Void>() {
+            @Override
+            Void run() throws Exception {
+                database.removeAll(data, copy);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Queues {@link Database#load(DataAccess, Map)}
+     *
+     * @param dataset
+     *         the DataAccess to fill
+     * @param filters
+     *         FieldName->Value map to filter which row should be loaded
+     *
+     * @return a future of the given dataset, filled once it completes
+     */
+    public <T extends DataAccess> ListenableFuture<T> load(final T dataset, Map<String, Object> filters) {
+        final Map<String, Object> copy = new HashMap<String, Object>(filters);
+        return queue(dataset.getName(), new Operation<T>() {
+            @Override
+            T run() throws Exception {
+                database.load(dataset, copy);
+                return dataset;
+            }
+        });
+    }
+
+    /**
+     * Queues {@link Database#loadAll(DataAccess, List, Map)}
+     *
+     * @param typeTemplate
+     *         an instance of the DataAccess type to load
+     * @param filters
+     *         FieldName->Value map to filter which rows should be loaded
+     *
+     * @return a future of the loaded data sets
+     */
+    public ListenableFuture<List<DataAccess>> loadAll(final DataAccess typeTemplate, Map<String, Object> filters) {
+        final Map<String, Object> copy = new HashMap<String, Object>(filters);
+        return queue(typeTemplate.getName(), new Operation<List<DataAccess>>() {
+            @Override
+            List<DataAccess> run() throws Exception {
+                List<DataAccess> datasets = new ArrayList<DataAccess>();
+                database.loadAll(typeTemplate, datasets, copy);
+                return datasets;
+            }
+        });
+    }
+
+    /**
+     * Waits until everything queued on the given table so far has been run.
+     * Must not be called from the I/O threads.
+     *
+     * @param table
+     *         the table name
+     */
+    public void flush(String table) {
+        TableQueue queue = queues.get(table);
+        if (queue != null) {
+            ListenableFuture<Void> barrier = queue.barrier();
+            if (barrier != null) {
+                await(barrier);
+            }
+        }
+    }
+
+    /**
+     * Waits until everything queued so far has been run.
+     * Must not be called from the I/O threads.
+     */
+    public void flush() {
+        List<ListenableFuture<Void>> barriers = new ArrayList<ListenableFuture<Void>>();
+        for (TableQueue queue : queues.values()) {
+            ListenableFuture<Void> barrier = queue.barrier();
+            if (barrier != null) {
+                barriers.add(barrier);
+            }
+        }
+        if (!barriers.isEmpty()) {
+            await(Futures.successfulAsList(barriers));
+        }
+    }
+
+    /**
+     * Runs everything that is queued and stops the I/O threads
+     */
+    public void shutdown() {
+        flush();
+        executor.shutdown();
+    }
+
+    /**
+     * Gets the current statistics of all table queues
+     *
+     * @return the statistics, one per table that had operations queued
+     */
+    public List<QueueStats> getQueueStats() {
+        List<QueueStats> stats = new ArrayList<QueueStats>(queues.size());
+        for (TableQueue queue : queues.values()) {
+            stats.add(queue.stats());
+        }
+        return Collections.unmodifiableList(stats);
+    }
+
+    private <V> ListenableFuture<V> queue(String table, Operation<V> operation) {
+        TableQueue queue = queues.get(table);
+        if (queue == null) {
+            queue = new TableQueue(table);
+            TableQueue existing = queues.putIfAbsent(table, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        queue.submit(operation);
+        return operation.future;
+    }
+
+    private void await(ListenableFuture<?> future) {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            // Already logged by the operation
+        }
+    }
+
+    /**
+     * Statistics of the queue of one table
+     */
+    public static final class QueueStats {
+        private final String table;
+        private final int depth;
+        private final long completed;
+        private final long coalesced;
+        private final long totalLatency;
+        private final long maxLatency;
+
+        QueueStats(String table, int depth, long completed, long coalesced, long totalLatency, long maxLatency) {
+            this.table = table;
+            this.depth = depth;
+            this.completed = completed;
+            this.coalesced = coalesced;
+            this.totalLatency = totalLatency;
+            this.maxLatency = maxLatency;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        /**
+         * Gets the number of operations waiting in the queue
+         *
+         * @return queue depth
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Gets the number of operations that have been run
+         *
+         * @return completed operations
+         */
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * Gets the number of writes that were merged into a queued write of the same row
+         *
+         * @return coalesced writes
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        /**
+         * Gets the average time from queueing an operation until it was done
+         *
+         * @param unit
+         *         the unit to return
+         *
+         * @return average latency
+         */
+        public long getAverageLatency(TimeUnit unit) {
+            return completed == 0 ? 0 : unit.convert(totalLatency / completed, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Gets the longest time from queueing an operation until it was done
+         *
+         * @param unit
+         *         the unit to return
+         *
+         * @return maximum latency
+         */
+        public long getMaxLatency(TimeUnit unit) {
+            return unit.convert(maxLatency, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private abstract static class Operation<V> {
+        final SettableFuture<V> future = SettableFuture.create();
+        final long queued = System.nanoTime();
+
+        abstract V run() throws Exception;
+
+        void complete(V result) {
+            future.set(result);
+        }
+
+        void fail(Throwable thrown) {
+            future.setException(thrown);
+        }
+    }
+
+    /**
+     * An update or upsert of a whole row, which later writes of the same row may replace
+     */
+    private final class RowWrite extends Operation<Void> {
+        private final boolean upsert;
+        private final Map<String, Object> filters;
+        private final boolean keepsRow;
+        private DataAccess data;
+        private List<SettableFuture<Void>> merged;
+
+        RowWrite(boolean upsert, DataAccess data, Map<String, Object> filters) {
+            this.upsert = upsert;
+            this.data = data;
+            this.filters = new HashMap<String, Object>(filters);
+            this.keepsRow = keepsRow(data, this.filters);
+        }
+
+        @Override
+        Void run() throws Exception {
+            if (upsert) {
+                database.upsert(data, filters);
+            }
+            else {
+                database.update(data, filters);
+            }
+            return null;
+        }
+
+        /**
+         * Checks if this write and the given later one can be merged, the later one replacing this
+         */
+        boolean canMerge(RowWrite later) {
+            return upsert == later.upsert && keepsRow && later.keepsRow && data.getClass() == later.data.getClass() && filters.equals(later.filters);
+        }
+
+        /**
+         * Checks if this write surely touches other rows than the given later one, without moving rows into its filters.
+         * Filter values only tell rows apart if their text differs ignoring case, since backends may compare
+         * 5 and 5L or "Spawn" and "spawn" as the same value.
+         */
+        boolean isDisjoint(RowWrite later) {
+            if (!keepsRow || !filters.keySet().equals(later.filters.keySet())) {
+                return false;
+            }
+            for (Map.Entry<String, Object> filter : filters.entrySet()) {
+                if (!String.valueOf(filter.getValue()).equalsIgnoreCase(String.valueOf(later.filters.get(filter.getKey())))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void merge(RowWrite later) {
+            data = later.data;
+            if (merged == null) {
+                merged = new ArrayList<SettableFuture<Void>>(2);
+            }
+            merged.add(later.future);
+        }
+
+        @Override
+        void complete(Void result) {
+            super.complete(result);
+            if (merged != null) {
+                for (SettableFuture<Void> future : merged) {
+                    future.set(result);
+                }
+            }
+        }
+
+        @Override
+        void fail(Throwable thrown) {
+            super.fail(thrown);
+            if (merged != null) {
+                for (SettableFuture<Void> future : merged) {
+                    future.setException(thrown);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the data keeps the values of the filter columns, so the write leaves the row where the filters found it
+     */
+    private static boolean keepsRow(DataAccess data, Map<String, Object> filters) {
+        try {
+            TableSchema schema = data.getSchema();
+            for (Map.Entry<String, Object> filter : filters.entrySet()) {
+                int index = schema.indexOf(filter.getKey());
+                if (index < 0) {
+                    return false;
+                }
+                Object value = schema.getValue(data, index);
+                if (value == null ? filter.getValue() != null : !value.equals(filter.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private final class TableQueue implements Runnable {
+        private final String table;
+        private final ArrayDeque<Operation<?>> pending = new ArrayDeque<Operation<?>>();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+        private boolean running;
+
+        TableQueue(String table) {
+            this.table = table;
+        }
+
+        void submit(Operation<?> operation) {
+            synchronized (this) {
+                if (operation instanceof RowWrite && coalesce((RowWrite)operation)) {
+                    coalesced.incrementAndGet();
+                    return;
+                }
+                pending.add(operation);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            }
+            catch (RejectedExecutionException e) {
+                // Shut down already, run what is left on the calling thread
+                run();
+            }
+        }
+
+        /**
+         * Merges the write into a queued write of the same row, if only writes to other rows were queued after that.
+         * Must hold the lock of this queue.
+         */
+        private boolean coalesce(RowWrite write) {
+            Iterator<Operation<?>> it = pending.descendingIterator();
+            for (int i = 0; i < COALESCE_DEPTH && it.hasNext(); i++) {
+                Operation<?> queued = it.next();
+                if (!(queued instanceof RowWrite)) {
+                    return false;
+                }
+                RowWrite other = (RowWrite)queued;
+                if (other.canMerge(write)) {
+                    other.merge(write);
+                    return true;
+                }
+                if (!other.isDisjoint(write)) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Queues an empty operation, to wait for the ones before it
+         *
+         * @return the future of the barrier, or null if the queue is idle
+         */
+        ListenableFuture<Void> barrier() {
+            Operation<Void> barrier = new Operation<Void>() {
+                @Override
+                Void run() {
+                    return null;
+                }
+            };
+            synchronized (this) {
+                if (!running) {
+                    return null;
+                }
+                pending.add(barrier);
+            }
+            return barrier.future;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Operation<Object> operation;
+                synchronized (this) {
+                    operation = (Operation<Object>)pending.poll();
+                    if (operation == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    operation.complete(operation.run());
+                }
+                catch (Throwable thrown) {
+                    log.error("Queued database operation on table " + table + " failed", thrown);
+                    operation.fail(thrown);
+                }
+                long latency = System.nanoTime() - operation.queued;
+                completed.incrementAndGet();
+                totalLatency.addAndGet(latency);
+                long max = maxLatency.get();
+                while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+                    max = maxLatency.get();
+                }
+            }
+            // Give the other tables a turn, this queue stays marked as running
+            schedule();
+        }
+
+        synchronized QueueStats stats() {
+            return new QueueStats(table, pending.size(), completed.get(), coalesced.get(), totalLatency.get(), maxLatency.get());
+        }
+    }
+}
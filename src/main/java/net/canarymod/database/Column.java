@@ -71,4 +71,10 @@ public @interface Column {
     boolean isList() default false;
 
     boolean notNull() default false;
+
+    /**
+     * Should backends keep a lookup index for this field?
+     * UNIQUE and PRIMARY fields are always indexed.
+     */
+    boolean indexed() default false;
 }
@@ -1,15 +1,11 @@
 package net.canarymod.database;
 
-import net.canarymod.ToolBox;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
 
-import java.lang.reflect.Field;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -80,6 +76,58 @@ public abstract class DataAccess {
         isLoaded = true;
     }
 
+    /**
+     * Load a row into this DataAccess object.
+     * Cheaper than {@link #load(HashMap)} for backends that read whole rows.
+     *
+     * @param row
+     *         the column values, in the order of {@link #getSchema()}
+     *
+     * @throws DatabaseAccessException
+     */
+    public final void load(Object[] row) throws DatabaseAccessException {
+        try {
+            TableSchema schema = getSchema();
+            if (row.length != schema.size()) {
+                isInconsistent = true;
+                throw new DatabaseAccessException("Supplied row cannot be applied to this DataAccess(" + getClass().getSimpleName() + "). Column count mismatches!");
+            }
+            for (int i = 0; i < row.length; i++) {
+                schema.setValue(this, i, row[i]);
+            }
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
+        catch (IllegalArgumentException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
+        if (row.length > 0) {
+            hasData = true;
+        }
+        isLoaded = true;
+    }
+
+    /**
+     * Gets the cached column layout of this DataAccess class
+     *
+     * @return the schema
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    public final TableSchema getSchema() throws DatabaseTableInconsistencyException {
+        try {
+            return TableSchema.of(getClass());
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            isInconsistent = true;
+            throw e;
+        }
+    }
+
     /**
      * Creates a HashMap containing all relevant fields for the database, which will then
      * be saved into the database along with their values
@@ -89,55 +137,42 @@ public abstract class DataAccess {
      * @throws DatabaseTableInconsistencyException
      */
     public final HashMap<Column, Object> toDatabaseEntryList() throws DatabaseTableInconsistencyException {
-        List<Field> fields = Arrays.asList(ToolBox.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]));
-        HashMap<Column, Object> fieldMap = new HashMap<Column, Object>();
-        for (Field field : fields) {
-            Column colInfo = field.getAnnotation(Column.class);
-
-            if (colInfo == null) {
-                // Not what we're looking for
-                continue;
-            }
-            if (fieldMap.containsKey(colInfo)) {
-                // Seriously ...
-                isInconsistent = true;
-                throw new DatabaseTableInconsistencyException("Found duplicate column field: " + colInfo.columnName());
-            }
+        TableSchema schema = getSchema();
+        HashMap<Column, Object> fieldMap = new HashMap<Column, Object>(schema.size() * 2);
+        for (int i = 0; i < schema.size(); i++) {
             try {
-                fieldMap.put(colInfo, field.get(this));
-            }
-            catch (IllegalArgumentException e) {
-                log.error(e.getMessage(), e);
+                fieldMap.put(schema.getColumn(i), schema.getValue(this, i));
             }
             catch (IllegalAccessException e) {
                 isInconsistent = true;
-                throw new DatabaseTableInconsistencyException("Could not access an annotated column field: " + field.getName());
+                throw new DatabaseTableInconsistencyException("Could not access an annotated column field: " + schema.getColumn(i).columnName());
             }
         }
         return fieldMap;
     }
 
     public final void applyDataSet(HashMap<String, Object> dataSet) throws DatabaseAccessException, IllegalArgumentException, IllegalAccessException {
-        Field[] fields = ToolBox.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]);
-        int columnFields = 0;
+        TableSchema schema;
+        try {
+            schema = getSchema();
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
 
-        for (Field field : fields) {
-            Column col = field.getAnnotation(Column.class);
+        for (int i = 0; i < schema.size(); i++) {
+            Column col = schema.getColumn(i);
 
-            if (col == null) {
-                continue;
-            }
             if (!dataSet.containsKey(col.columnName())) {
                 isInconsistent = true;
                 throw new DatabaseAccessException("Cannot apply data to " + getClass().getSimpleName() + ". Column name mismatches! (" + col.columnName() + " does not exist) - " + dataSet.keySet().toString());
             }
-            field.set(this, dataSet.get(col.columnName())); // TODO: Fix null value to use field default
-            columnFields++;
+            schema.setValue(this, i, dataSet.get(col.columnName())); // TODO: Fix null value to use field default
         }
-        // If the columnFields is not the size of the dataSet,
+        // If the column count is not the size of the dataSet,
         // There is either excess data or data that has not been put in the AccessObject.
         // This causes inconsistency and therefore must throw an exception
-        if (columnFields != dataSet.size()) {
+        if (schema.size() != dataSet.size()) {
             isInconsistent = true;
             throw new DatabaseAccessException("Supplied Data set cannot be applied to this DataAccess(" + getClass().getSimpleName() + "). Column count mismatches!");
         }
@@ -151,27 +186,7 @@ public abstract class DataAccess {
      * @throws DatabaseTableInconsistencyException
      */
     public final HashSet<Column> getTableLayout() throws DatabaseTableInconsistencyException {
-        Field[] fields = ToolBox.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]);
-        HashSet<Column> layout = new HashSet<Column>(fields.length);
-
-        for (Field field : fields) {
-            if (field == null) {
-                throw new DatabaseTableInconsistencyException("A field of " + getClass().getSimpleName() + " is not initialized, check your DataAccess!");
-            }
-            Column colInfo = field.getAnnotation(Column.class);
-
-            if (colInfo == null) {
-                // Not what we're looking for
-                continue;
-            }
-            if (layout.contains(colInfo)) {
-                // Dude!
-                isInconsistent = true;
-                throw new DatabaseTableInconsistencyException("Found duplicate column field: " + colInfo.columnName());
-            }
-            layout.add(colInfo);
-        }
-        return layout;
+        return new HashSet<Column>(getSchema().getLayout());
     }
 
     /**
@@ -225,12 +240,7 @@ public abstract class DataAccess {
      */
     public final boolean hasColumn(String name) {
         try {
-            for (Column col : getTableLayout()) {
-                if (col.columnName().equals(name)) {
-                    return true;
-                }
-            }
-            return false;
+            return getSchema().hasColumn(name);
         }
         catch (DatabaseTableInconsistencyException e) {
             log.error("Could not finish column name lookup in database for " + tableName, e);
@@ -248,12 +258,7 @@ public abstract class DataAccess {
      */
     public final Column getColumnForName(String name) {
         try {
-            for (Column col : getTableLayout()) {
-                if (col.columnName().equals(name)) {
-                    return col;
-                }
-            }
-            return null;
+            return getSchema().getColumn(name);
         }
         catch (DatabaseTableInconsistencyException e) {
             log.error("Could not finish column name lookup in database for " + tableName, e);
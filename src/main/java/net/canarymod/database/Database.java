@@ -4,10 +4,12 @@ import net.canarymod.config.Configuration;
 import net.canarymod.database.exceptions.DatabaseException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseWriteException;
+import net.canarymod.database.kv.KvDatabase;
 import net.canarymod.database.mysql.MySQLDatabase;
 import net.canarymod.database.sqlite.SQLiteDatabase;
 import net.canarymod.database.xml.XmlDatabase;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +55,9 @@ public abstract class Database {
                 else if ("sqlite".equalsIgnoreCase(dbname)) {
                     Database.Type.registerDatabase("sqlite", SQLiteDatabase.getInstance());
                 }
+                else if ("kv".equalsIgnoreCase(dbname)) {
+                    Database.Type.registerDatabase("kv", KvDatabase.getInstance());
+                }
             }
             catch (Exception e) {
                 log.error("Exception occurred while trying to prepare databases!", e);
@@ -84,6 +89,8 @@ public abstract class Database {
 
     /**
      * Insert a range of DataAccess objects at once.
+     * Unlike {@link #insert(DataAccess)}, rows are not checked against existing entries first;
+     * every element of the list is written as a new row.
      *
      * @param data
      *         the list of data to insert
@@ -107,6 +114,37 @@ public abstract class Database {
      */
     public abstract void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException;
 
+    /**
+     * Updates the first record in the database that fits to your fields and values given,
+     * or inserts the DataAccess as a new record if there is none.
+     * Use this to save data that may or may not have been stored before,
+     * instead of loading it first to decide between {@link #update(DataAccess, Map)} and {@link #insert(DataAccess)}.
+     * <p/>
+     * The default implementation does exactly that, the built in databases do it in as few steps as they can.
+     *
+     * @param data
+     *         the data to be saved. Additionally this acts as information about the table schema
+     * @param filters
+     *         FieldName->Value map to filter which row should be updated
+     *
+     * @throws DatabaseWriteException
+     */
+    public void upsert(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        DataAccess existing = data.getInstance();
+        try {
+            load(existing, filters);
+        }
+        catch (DatabaseReadException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        if (existing.hasData()) {
+            update(data, filters);
+        }
+        else {
+            insert(data);
+        }
+    }
+
     /**
      * Updates the records in the database that fits to your fields and values given.
      * Those are NOT the values and fields to update. Those are values and fields to identify
@@ -176,6 +214,34 @@ public abstract class Database {
      */
     public abstract void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException;
 
+    /**
+     * Visits all results that match the field - values given, one at a time.
+     * Unlike {@link #loadAll(DataAccess, List, Map)} this does not need to hold the whole result in memory,
+     * use it to scan large tables.
+     * <p/>
+     * The default implementation loads everything first, the built in databases read in pages.
+     * Rows written while the visit is running may or may not be visited.
+     *
+     * @param typeTemplate
+     *         The type template (an instance of the dataaccess type you want to load)
+     * @param filters
+     *         FieldName->Value map to filter which rows should be visited
+     * @param visitor
+     *         receives the rows
+     *
+     * @throws DatabaseReadException
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends DataAccess> void visitAll(T typeTemplate, Map<String, Object> filters, RowVisitor<? super T> visitor) throws DatabaseReadException {
+        List<DataAccess> datasets = new ArrayList<DataAccess>();
+        loadAll(typeTemplate, datasets, filters);
+        for (DataAccess data : datasets) {
+            if (!visitor.visit((T)data)) {
+                return;
+            }
+        }
+    }
+
     /**
      * Updates the database table fields for the given DataAccess object.
      * This method will remove fields that aren't there anymore and add new ones if applicable.
@@ -0,0 +1,23 @@
+package net.canarymod.database;
+
+/**
+ * Receives the rows of a table one at a time.
+ * See {@link Database#visitAll(DataAccess, java.util.Map, RowVisitor)}
+ *
+ * @param <T>
+ *         the DataAccess type of the table
+ *
+ * @author agent
+ */
+public interface RowVisitor<T extends DataAccess> {
+
+    /**
+     * Called for each row. The DataAccess is a new instance for every row and may be kept.
+     *
+     * @param data
+     *         the loaded row
+     *
+     * @return true to continue with the next row, false to stop
+     */
+    boolean visit(T data);
+}
@@ -0,0 +1,196 @@
+package net.canarymod.database;
+
+import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the SQL the JDBC backends run, keyed by table, operation and filter columns.
+ * <p/>
+ * Filter columns are bound in sorted order, so equal filters always produce the same SQL text,
+ * whatever the iteration order of the filter map. That keeps the statement cache of the
+ * connection pool effective. Lookups use the key set of the filter map as it is, so a hit
+ * does not allocate.
+ *
+ * @author agent
+ */
+public final class SqlTemplateCache {
+
+    /**
+     * The kinds of statement that are cached
+     */
+    public enum Operation {
+        /**
+         * Insert all columns but auto increment ones
+         */
+        INSERT,
+        /**
+         * Update all columns but auto increment ones of the first row matching the filters
+         */
+        UPDATE,
+        /**
+         * Select all rows matching the filters
+         */
+        SELECT,
+        /**
+         * Select the first row matching the filters
+         */
+        SELECT_ONE,
+        /**
+         * Select the next page of rows matching the filters, in id order.
+         * The id to continue after and the page size are bound after the filters.
+         */
+        SELECT_PAGE,
+        /**
+         * Delete all rows matching the filters
+         */
+        DELETE,
+        /**
+         * Delete the first row matching the filters
+         */
+        DELETE_ONE
+    }
+
+    /**
+     * Writes the SQL of a template on a cache miss
+     */
+    public interface Builder {
+        /**
+         * Builds the SQL for the given operation
+         *
+         * @param data
+         *         a DataAccess of the table
+         * @param operation
+         *         the operation
+         * @param filterColumns
+         *         the filter columns, in the order their parameters must appear
+         *
+         * @return the SQL
+         *
+         * @throws DatabaseTableInconsistencyException
+         */
+        String build(DataAccess data, Operation operation, String[] filterColumns) throws DatabaseTableInconsistencyException;
+    }
+
+    /**
+     * A cached statement and the order its filter parameters are bound in
+     */
+    public static final class Template {
+        private final String sql;
+        private final String[] filterColumns;
+
+        Template(String sql, String[] filterColumns) {
+            this.sql = sql;
+            this.filterColumns = filterColumns;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Gets the number of filter columns
+         *
+         * @return the filter column count
+         */
+        public int getFilterCount() {
+            return filterColumns.length;
+        }
+
+        /**
+         * Gets the filter column bound at the given position, counting from 0 for the first filter parameter
+         *
+         * @param index
+         *         the filter position
+         *
+         * @return the column name
+         */
+        public String getFilterColumn(int index) {
+            return filterColumns[index];
+        }
+    }
+
+    private final ConcurrentMap<String, Map<Operation, ConcurrentMap<Set<String>, Template>>> tables = new ConcurrentHashMap<String, Map<Operation, ConcurrentMap<Set<String>, Template>>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Gets the template for the given table, operation and filter columns, building it on the first request
+     *
+     * @param data
+     *         a DataAccess of the table
+     * @param operation
+     *         the operation
+     * @param filterColumns
+     *         the filter column names, usually the key set of the filter map
+     * @param builder
+     *         writes the SQL on a miss
+     *
+     * @return the template
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if the builder could not read the table layout
+     */
+    public Template get(DataAccess data, Operation operation, Set<String> filterColumns, Builder builder) throws DatabaseTableInconsistencyException {
+        Map<Operation, ConcurrentMap<Set<String>, Template>> table = tables.get(data.getName());
+        if (table == null) {
+            table = new EnumMap<Operation, ConcurrentMap<Set<String>, Template>>(Operation.class);
+            for (Operation op : Operation.values()) {
+                table.put(op, new ConcurrentHashMap<Set<String>, Template>());
+            }
+            Map<Operation, ConcurrentMap<Set<String>, Template>> existing = tables.putIfAbsent(data.getName(), table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        ConcurrentMap<Set<String>, Template> templates = table.get(operation);
+        Template template = templates.get(filterColumns);
+        if (template != null) {
+            hits.incrementAndGet();
+            return template;
+        }
+        misses.incrementAndGet();
+
+        String[] columns = filterColumns.toArray(new String[filterColumns.size()]);
+        Arrays.sort(columns);
+        template = new Template(builder.build(data, operation, columns), columns);
+        // Copy the key, the caller's set may be a live view of its filter map
+        Template existing = templates.putIfAbsent(Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(columns))), template);
+        return existing != null ? existing : template;
+    }
+
+    /**
+     * Gets the number of lookups that found a cached template
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that had to build a template
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Drops all templates and resets the counters
+     */
+    public void clear() {
+        tables.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+}
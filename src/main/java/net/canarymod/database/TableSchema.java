@@ -0,0 +1,240 @@
+package net.canarymod.database;
+
+import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable column layout of a {@link DataAccess} class.
+ * <p/>
+ * The layout is read from the {@link Column} annotations once per class and shared
+ * by all instances, so backends can read and write rows by column index instead of
+ * walking the class with reflection for every row.
+ * Columns are ordered by declaration, super classes first.
+ *
+ * @author agent
+ */
+public final class TableSchema {
+    private static final ClassValue<Object> schemas = new ClassValue<Object>() {
+        @Override
+        protected Object computeValue(Class<?> type) {
+            try {
+                return new TableSchema(type);
+            }
+            catch (DatabaseTableInconsistencyException e) {
+                return e;
+            }
+        }
+    };
+
+    private final Column[] columns;
+    private final Field[] fields;
+    private final Map<String, Integer> indices;
+    private final List<Column> columnList;
+    private final Set<Column> layout;
+
+    private TableSchema(Class<?> type) throws DatabaseTableInconsistencyException {
+        List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+        for (Class<?> cls = type; cls != null && cls != Object.class; cls = cls.getSuperclass()) {
+            hierarchy.add(0, cls);
+        }
+        List<Column> cols = new ArrayList<Column>();
+        List<Field> flds = new ArrayList<Field>();
+        Map<String, Integer> idx = new HashMap<String, Integer>();
+
+        for (Class<?> cls : hierarchy) {
+            for (Field field : cls.getDeclaredFields()) {
+                // Inherited columns need to be public, those of the class itself may be anything
+                if (cls != type && !Modifier.isPublic(field.getModifiers())) {
+                    continue;
+                }
+                Column column = field.getAnnotation(Column.class);
+                if (column == null) {
+                    continue;
+                }
+                if (idx.containsKey(column.columnName())) {
+                    throw new DatabaseTableInconsistencyException("Found duplicate column field: " + column.columnName());
+                }
+                field.setAccessible(true);
+                idx.put(column.columnName(), cols.size());
+                cols.add(column);
+                flds.add(field);
+            }
+        }
+        this.columns = cols.toArray(new Column[cols.size()]);
+        this.fields = flds.toArray(new Field[flds.size()]);
+        this.indices = idx;
+        this.columnList = Collections.unmodifiableList(Arrays.asList(columns));
+        this.layout = Collections.unmodifiableSet(new LinkedHashSet<Column>(columnList));
+    }
+
+    /**
+     * Gets the schema for the given {@link DataAccess} class
+     *
+     * @param type
+     *         the DataAccess class
+     *
+     * @return the schema
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if the class declares a column more than once
+     */
+    public static TableSchema of(Class<? extends DataAccess> type) throws DatabaseTableInconsistencyException {
+        Object schema = schemas.get(type);
+        if (schema instanceof DatabaseTableInconsistencyException) {
+            throw new DatabaseTableInconsistencyException(((DatabaseTableInconsistencyException)schema).getMessage());
+        }
+        return (TableSchema)schema;
+    }
+
+    /**
+     * Gets the schema for the class of the given {@link DataAccess}
+     *
+     * @param data
+     *         the DataAccess
+     *
+     * @return the schema
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if the class declares a column more than once
+     */
+    public static TableSchema of(DataAccess data) throws DatabaseTableInconsistencyException {
+        return of(data.getClass());
+    }
+
+    /**
+     * Gets the number of columns
+     *
+     * @return the column count
+     */
+    public int size() {
+        return columns.length;
+    }
+
+    /**
+     * Gets the columns in schema order
+     *
+     * @return an unmodifiable list of the columns
+     */
+    public List<Column> getColumns() {
+        return columnList;
+    }
+
+    /**
+     * Gets the columns in schema order as a set
+     *
+     * @return an unmodifiable set of the columns
+     */
+    public Set<Column> getLayout() {
+        return layout;
+    }
+
+    /**
+     * Gets the column at the given index
+     *
+     * @param index
+     *         the column index
+     *
+     * @return the column
+     */
+    public Column getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * Gets the column with the given name
+     *
+     * @param name
+     *         the column name
+     *
+     * @return the column or null if there is no column with that name
+     */
+    public Column getColumn(String name) {
+        Integer index = indices.get(name);
+        return index == null ? null : columns[index];
+    }
+
+    /**
+     * Gets the index of the column with the given name
+     *
+     * @param name
+     *         the column name
+     *
+     * @return the column index or -1 if there is no column with that name
+     */
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Checks if there is a column with the given name
+     *
+     * @param name
+     *         the column name
+     *
+     * @return true if the column exists, false otherwise
+     */
+    public boolean hasColumn(String name) {
+        return indices.containsKey(name);
+    }
+
+    /**
+     * Reads the value of a column from the given {@link DataAccess}
+     *
+     * @param data
+     *         the DataAccess to read from
+     * @param index
+     *         the column index
+     *
+     * @return the field value
+     *
+     * @throws IllegalAccessException
+     */
+    public Object getValue(DataAccess data, int index) throws IllegalAccessException {
+        return fields[index].get(data);
+    }
+
+    /**
+     * Writes the value of a column to the given {@link DataAccess}
+     *
+     * @param data
+     *         the DataAccess to write to
+     * @param index
+     *         the column index
+     * @param value
+     *         the new field value
+     *
+     * @throws IllegalAccessException
+     */
+    public void setValue(DataAccess data, int index, Object value) throws IllegalAccessException {
+        fields[index].set(data, value);
+    }
+
+    /**
+     * Reads all column values from the given {@link DataAccess}
+     *
+     * @param data
+     *         the DataAccess to read from
+     *
+     * @return the values in schema order
+     *
+     * @throws IllegalAccessException
+     */
+    public Object[] read(DataAccess data) throws IllegalAccessException {
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = fields[i].get(data);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,641 @@
+package net.canarymod.database.kv;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.canarymod.Canary;
+import net.canarymod.config.Configuration;
+import net.canarymod.database.AsyncDatabase;
+import net.canarymod.database.Column;
+import net.canarymod.database.DataAccess;
+import net.canarymod.database.Database;
+import net.canarymod.database.RowVisitor;
+import net.canarymod.database.TableSchema;
+import net.canarymod.database.exceptions.DatabaseAccessException;
+import net.canarymod.database.exceptions.DatabaseReadException;
+import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
+import net.canarymod.database.exceptions.DatabaseWriteException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An embedded key-value database. Needs no server and keeps every table in a single append-only file (db/&lt;table&gt;.kvs).
+ * <p/>
+ * Row ids and the columns that are UNIQUE, PRIMARY or marked as indexed are kept in memory,
+ * so looking rows up by them does not touch the disk but to read the rows themselves.
+ * Tables are compacted in the background once more than half of their file is made up of superseded rows.
+ *
+ * @author agent
+ */
+public class KvDatabase extends Database {
+
+    /**
+     * Tables smaller than this are never compacted
+     */
+    private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+    private KvDatabase() {
+        this(new File("db/"), Configuration.getDbConfig().getKvCompactInterval());
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Hooks run in no particular order, queued writes must be in before the tables close
+                AsyncDatabase.shutdownInstance();
+                shutdown();
+            }
+        }, "KvDatabase-Shutdown"));
+    }
+
+    /**
+     * Creates a database that keeps its tables in the given directory.
+     * Unlike the shared instance it is not closed on exit, call {@link #shutdown()} when done.
+     *
+     * @param directory
+     *         the directory of the segment files
+     * @param compactInterval
+     *         seconds between background compaction runs
+     */
+    KvDatabase(File directory, int compactInterval) {
+        this.directory = directory;
+        if (!directory.exists()) {
+            if (!directory.mkdirs()) {
+                throw new ExceptionInInitializerError("Unable to create database directories... Please check your read/write permissions and try again");
+            }
+        }
+        int interval = Math.max(1, compactInterval);
+        compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("KvDatabase-Compactor").setDaemon(true).build());
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private static KvDatabase instance;
+
+    public static synchronized KvDatabase getInstance() {
+        if (instance == null) {
+            instance = new KvDatabase();
+        }
+        return instance;
+    }
+
+    /**
+     * Tables that have been opened, by name
+     */
+    private final Map<String, KvTable> tables = Maps.newConcurrentMap();
+
+    /**
+     * Rewrites tables with many superseded rows
+     */
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * Where the segment files are kept
+     */
+    private final File directory;
+
+    @Override
+    public void insert(DataAccess data) throws DatabaseWriteException {
+        try {
+            KvTable table = getTable(data);
+            synchronized (table) {
+                int id = table.nextId();
+                table.put(id, toRow(data, id));
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void insertAll(List<DataAccess> data) throws DatabaseWriteException {
+        if (data.isEmpty()) {
+            return;
+        }
+        try {
+            KvTable table = getTable(data.get(0));
+            synchronized (table) {
+                for (DataAccess da : data) {
+                    int id = table.nextId();
+                    table.put(id, toRow(da, id));
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        try {
+            KvTable table = getTable(data);
+            synchronized (table) {
+                Integer id = findFirst(table, filters);
+                if (id != null) {
+                    table.put(id, toRow(data, id));
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void upsert(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        try {
+            KvTable table = getTable(data);
+            synchronized (table) {
+                Integer id = findFirst(table, filters);
+                if (id == null) {
+                    id = table.nextId();
+                }
+                table.put(id, toRow(data, id));
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void updateAll(DataAccess template, Map<DataAccess, Map<String, Object>> list) throws DatabaseWriteException {
+        try {
+            KvTable table = getTable(template);
+            synchronized (table) {
+                for (Map.Entry<DataAccess, Map<String, Object>> entry : list.entrySet()) {
+                    Integer id = findFirst(table, entry.getValue());
+                    if (id != null) {
+                        table.put(id, toRow(entry.getKey(), id));
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void remove(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        try {
+            KvTable table = getTable(data);
+            synchronized (table) {
+                Integer id = findFirst(table, filters);
+                if (id != null) {
+                    table.delete(id);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void removeAll(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        try {
+            KvTable table = getTable(data);
+            synchronized (table) {
+                for (Integer id : table.candidates(filters)) {
+                    if (matches(table.get(id), filters)) {
+                        table.delete(id);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void load(DataAccess data, Map<String, Object> filters) throws DatabaseReadException {
+        if (!tableExists(data.getName())) {
+            throw new DatabaseReadException("Table " + data.getName() + " does not exist!");
+        }
+
+        try {
+            KvTable table = getTable(data);
+            Map<String, Object> row = null;
+            synchronized (table) {
+                Integer id = findFirst(table, filters);
+                if (id != null) {
+                    row = table.get(id);
+                }
+            }
+            if (row != null) {
+                TableSchema schema = data.getSchema();
+                data.load(toValues(row, schema, schema.read(data.getInstance())));
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseAccessException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
+        if (!tableExists(typeTemplate.getName())) {
+            throw new DatabaseReadException("Table " + typeTemplate.getName() + " does not exist!");
+        }
+
+        try {
+            KvTable table = getTable(typeTemplate);
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+            synchronized (table) {
+                for (Integer id : table.candidates(filters)) {
+                    Map<String, Object> row = table.get(id);
+                    if (matches(row, filters)) {
+                        rows.add(row);
+                    }
+                }
+            }
+            TableSchema schema = typeTemplate.getSchema();
+            Object[] defaults = schema.read(typeTemplate.getInstance());
+            for (Map<String, Object> row : rows) {
+                DataAccess da = typeTemplate.getInstance();
+                da.load(toValues(row, schema, defaults));
+                datasets.add(da);
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseAccessException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends DataAccess> void visitAll(T typeTemplate, Map<String, Object> filters, RowVisitor<? super T> visitor) throws DatabaseReadException {
+        if (!tableExists(typeTemplate.getName())) {
+            throw new DatabaseReadException("Table " + typeTemplate.getName() + " does not exist!");
+        }
+
+        try {
+            KvTable table = getTable(typeTemplate);
+            TableSchema schema = typeTemplate.getSchema();
+            Object[] defaults = schema.read(typeTemplate.getInstance());
+            List<Integer> candidates;
+            synchronized (table) {
+                candidates = table.candidates(filters);
+            }
+            // Only the row being read holds the table lock, so the visitor may write to the table
+            for (Integer id : candidates) {
+                Map<String, Object> row;
+                synchronized (table) {
+                    row = table.get(id);
+                }
+                if (row == null || !matches(row, filters)) {
+                    continue; // Removed or changed since the snapshot
+                }
+                T data = (T)typeTemplate.getInstance();
+                data.load(toValues(row, schema, defaults));
+                if (!visitor.visit(data)) {
+                    return;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseAccessException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Rows carry their column names, so added columns read as their field defaults and removed ones are
+     * dropped on the next compaction. Only the indexes need to follow the schema.
+     */
+    @Override
+    public void updateSchema(DataAccess data) throws DatabaseWriteException {
+        try {
+            KvTable table = getTable(data);
+            synchronized (table) {
+                table.setIndexedColumns(getIndexedColumns(data));
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Copies a table from another database, replacing everything this database has stored for it.
+     * Row ids are kept.
+     *
+     * @param source
+     *         the database to copy from
+     * @param template
+     *         a DataAccess of the table
+     *
+     * @return the number of copied rows
+     *
+     * @throws DatabaseReadException
+     *         if the source table could not be read
+     * @throws DatabaseWriteException
+     *         if the rows could not be stored
+     */
+    public int importTable(Database source, DataAccess template) throws DatabaseReadException, DatabaseWriteException {
+        final KvTable table;
+        try {
+            table = getTable(template);
+            synchronized (table) {
+                table.clear();
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+
+        final int[] copied = new int[1];
+        final Exception[] failure = new Exception[1];
+        source.visitAll(template, new HashMap<String, Object>(), new RowVisitor<DataAccess>() {
+            @Override
+            public boolean visit(DataAccess data) {
+                try {
+                    synchronized (table) {
+                        int id = data.id != null && !table.contains(data.id) ? data.id : table.nextId();
+                        table.put(id, toRow(data, id));
+                    }
+                    copied[0]++;
+                    return true;
+                }
+                catch (IOException e) {
+                    failure[0] = e;
+                }
+                catch (DatabaseTableInconsistencyException e) {
+                    failure[0] = e;
+                }
+                return false;
+            }
+        });
+        if (failure[0] != null) {
+            throw new DatabaseWriteException(failure[0].getMessage(), failure[0]);
+        }
+        try {
+            synchronized (table) {
+                table.sync();
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+        return copied[0];
+    }
+
+    /**
+     * Rewrites all tables of which more than half is made up of superseded rows.
+     * This runs periodically in the background.
+     */
+    public void compact() {
+        for (KvTable table : tables.values()) {
+            long garbage;
+            synchronized (table) {
+                garbage = table.getGarbage();
+                if (table.getSegmentSize() < MIN_COMPACT_SIZE || garbage * 2 < table.getSegmentSize()) {
+                    continue;
+                }
+            }
+            try {
+                table.compact();
+                Canary.log.debug("Compacted key-value table " + table.getName() + ", reclaimed about " + garbage / 1024 + " KiB");
+            }
+            catch (IOException e) {
+                Canary.log.error("Failed to compact key-value table " + table.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Compacts a table no matter how much of it is superseded rows
+     *
+     * @param name
+     *         the table name
+     *
+     * @throws IOException
+     */
+    void compact(String name) throws IOException {
+        KvTable table = tables.get(name);
+        if (table != null) {
+            table.compact();
+        }
+    }
+
+    /**
+     * Stops the background compaction and closes all tables.
+     */
+    public void shutdown() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (KvTable table : tables.values()) {
+            synchronized (table) {
+                try {
+                    table.close();
+                }
+                catch (IOException e) {
+                    Canary.log.error("Failed to close key-value table " + table.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the table of the given DataAccess, reading its indexes from disk on first access.
+     *
+     * @param data
+     *         the DataAccess of the table
+     *
+     * @return the table
+     *
+     * @throws IOException
+     */
+    private KvTable getTable(DataAccess data) throws IOException {
+        String name = data.getName();
+        KvTable table = tables.get(name);
+        if (table == null) {
+            synchronized (tables) {
+                table = tables.get(name);
+                if (table == null) {
+                    table = KvTable.open(name, new File(directory, name + ".kvs"), getIndexedColumns(data));
+                    tables.put(name, table);
+                }
+            }
+        }
+        return table;
+    }
+
+    private boolean tableExists(String name) {
+        return tables.containsKey(name) || new File(directory, name + ".kvs").exists();
+    }
+
+    /**
+     * Gets the columns to index: UNIQUE and PRIMARY columns and those marked as indexed.
+     * List columns are never indexed.
+     *
+     * @param data
+     *         the DataAccess of the table
+     *
+     * @return the column names
+     */
+    private List<String> getIndexedColumns(DataAccess data) {
+        List<String> columns = new ArrayList<String>();
+        try {
+            for (Column column : data.getSchema().getColumns()) {
+                if (!column.isList() && (column.indexed() || column.columnType() != Column.ColumnType.NORMAL)) {
+                    columns.add(column.columnName());
+                }
+            }
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            Canary.log.warn("Not indexing key-value table " + data.getName() + ": " + e.getMessage());
+        }
+        return columns;
+    }
+
+    /**
+     * Gets the id of the first row that matches all filters
+     *
+     * @param table
+     * @param filters
+     *
+     * @return the row id or null if no row matches
+     *
+     * @throws IOException
+     */
+    private Integer findFirst(KvTable table, Map<String, Object> filters) throws IOException {
+        for (Integer id : table.candidates(filters)) {
+            if (matches(table.get(id), filters)) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a row matches all filters. Values are compared by their text, like the other databases do.
+     *
+     * @param row
+     * @param filters
+     *
+     * @return true if the row has the filtered values
+     */
+    private boolean matches(Map<String, Object> row, Map<String, Object> filters) {
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            if (!row.containsKey(filter.getKey())) {
+                return false;
+            }
+            Object value = row.get(filter.getKey());
+            if (value == null ? filter.getValue() != null : filter.getValue() == null || !String.valueOf(value).equals(String.valueOf(filter.getValue()))) {
+                return false; // Not the row we're looking for
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts a DataAccess into a row, with auto increment columns set to the row id
+     *
+     * @param data
+     * @param id
+     *         the row id
+     *
+     * @return the values by column name
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    private Map<String, Object> toRow(DataAccess data, int id) throws DatabaseTableInconsistencyException {
+        TableSchema schema = data.getSchema();
+        if (data.isInconsistent()) {
+            // Just an extra precaution
+            throw new DatabaseTableInconsistencyException("DataAccess is marked inconsistent!");
+        }
+        Map<String, Object> row = new LinkedHashMap<String, Object>(schema.size() * 2);
+        for (int i = 0; i < schema.size(); i++) {
+            Column column = schema.getColumn(i);
+            try {
+                row.put(column.columnName(), column.autoIncrement() ? Integer.valueOf(id) : schema.getValue(data, i));
+            }
+            catch (IllegalAccessException e) {
+                throw new DatabaseTableInconsistencyException("Could not access an annotated column field: " + column.columnName());
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Converts a row into column values in schema order.
+     * Columns the row was written without get the default value of their field.
+     *
+     * @param row
+     * @param schema
+     * @param defaults
+     *         the column values of an empty instance
+     *
+     * @return the values
+     */
+    private Object[] toValues(Map<String, Object> row, TableSchema schema, Object[] defaults) {
+        Object[] values = new Object[schema.size()];
+        for (int i = 0; i < values.length; i++) {
+            String name = schema.getColumn(i).columnName();
+            values[i] = row.containsKey(name) ? row.get(name) : defaults[i];
+        }
+        return values;
+    }
+}
@@ -0,0 +1,711 @@
+package net.canarymod.database.kv;
+
+import net.canarymod.Canary;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * A table of the {@link KvDatabase}: an append-only segment file and in-memory indexes over it.
+ * <p/>
+ * Every insert, update and removal appends one record to the segment. Records are checksummed,
+ * a torn record at the end of the file (the server died while writing it) is cut off on open.
+ * The primary index maps row ids to the position of their latest record, secondary indexes map the
+ * text of indexed columns to row ids. Rows themselves are read from the segment when they are requested.
+ * <p/>
+ * Superseded records stay in the segment until it is compacted, see {@link #compact()}.
+ * <p/>
+ * All access but {@link #compact()} must be synchronized on the table.
+ *
+ * @author agent
+ */
+final class KvTable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_SIZE = 8; // body length and checksum
+    private static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    // Value tags
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte SHORT = 4;
+    private static final byte BYTE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte LIST = 9;
+
+    /**
+     * Where the latest record of a row is and what it is indexed under
+     */
+    private static final class Location {
+        final long offset;
+        final int size;
+        final String[] keys;
+
+        Location(long offset, int size, String[] keys) {
+            this.offset = offset;
+            this.size = size;
+            this.keys = keys;
+        }
+    }
+
+    private final String name;
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long end;
+    private long liveBytes;
+    private int maxId;
+    private int generation;
+    private final TreeMap<Integer, Location> rows = new TreeMap<Integer, Location>();
+    private final Map<String, Map<String, TreeSet<Integer>>> indexes = new HashMap<String, Map<String, TreeSet<Integer>>>();
+    private String[] indexedColumns;
+
+    private KvTable(String name, File file, String[] indexedColumns) {
+        this.name = name;
+        this.file = file;
+        this.indexedColumns = indexedColumns;
+    }
+
+    /**
+     * Opens a table, creating its segment file if needed, and builds the indexes from the segment
+     *
+     * @param name
+     *         the table name
+     * @param file
+     *         the segment file
+     * @param indexedColumns
+     *         the names of the columns to index
+     *
+     * @return the table
+     *
+     * @throws IOException
+     */
+    static KvTable open(String name, File file, Collection<String> indexedColumns) throws IOException {
+        KvTable table = new KvTable(name, file, indexedColumns.toArray(new String[indexedColumns.size()]));
+        table.load();
+        return table;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the columns to keep an index for and rebuilds the indexes if they changed
+     *
+     * @param columns
+     *         the names of the indexed columns
+     *
+     * @throws IOException
+     */
+    void setIndexedColumns(Collection<String> columns) throws IOException {
+        String[] updated = columns.toArray(new String[columns.size()]);
+        if (Arrays.equals(updated, indexedColumns)) {
+            return;
+        }
+        indexedColumns = updated;
+        initIndexes();
+        for (Map.Entry<Integer, Location> row : rows.entrySet()) {
+            Location old = row.getValue();
+            Location location = new Location(old.offset, old.size, indexKeys(read(old)));
+            row.setValue(location);
+            index(row.getKey(), location.keys);
+        }
+    }
+
+    /**
+     * Gets the number of live rows
+     *
+     * @return the row count
+     */
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * Reserves the next row id
+     *
+     * @return the id
+     */
+    int nextId() {
+        return ++maxId;
+    }
+
+    /**
+     * Checks if there is a row with the given id
+     *
+     * @param id
+     *         the row id
+     *
+     * @return true if the row exists
+     */
+    boolean contains(int id) {
+        return rows.containsKey(id);
+    }
+
+    /**
+     * Gets the ids of the rows that can match the given filters, in id order.
+     * Uses the index of the most selective indexed filter column.
+     *
+     * @param filters
+     *         the filters
+     *
+     * @return a copy of the candidate ids
+     */
+    List<Integer> candidates(Map<String, Object> filters) {
+        Object id = filters.get("id");
+        if (id != null) {
+            Integer key = toId(id);
+            List<Integer> result = new ArrayList<Integer>(1);
+            if (key != null && rows.containsKey(key)) {
+                result.add(key);
+            }
+            return result;
+        }
+        Set<Integer> best = null;
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            Map<String, TreeSet<Integer>> index = indexes.get(filter.getKey());
+            if (index == null) {
+                continue;
+            }
+            TreeSet<Integer> ids = index.get(String.valueOf(filter.getValue()));
+            if (ids == null) {
+                return new ArrayList<Integer>(0);
+            }
+            if (best == null || ids.size() < best.size()) {
+                best = ids;
+            }
+        }
+        return new ArrayList<Integer>(best != null ? best : rows.keySet());
+    }
+
+    /**
+     * Reads the latest version of a row
+     *
+     * @param id
+     *         the row id
+     *
+     * @return the column values by column name, or null if there is no such row
+     *
+     * @throws IOException
+     */
+    Map<String, Object> get(int id) throws IOException {
+        Location location = rows.get(id);
+        return location == null ? null : read(location);
+    }
+
+    /**
+     * Appends a new version of a row
+     *
+     * @param id
+     *         the row id
+     * @param row
+     *         the column values by column name
+     *
+     * @throws IOException
+     */
+    void put(int id, Map<String, Object> row) throws IOException {
+        byte[] record = encodePut(id, row);
+        long offset = append(record);
+        Location location = new Location(offset, record.length, indexKeys(row));
+        Location old = rows.put(id, location);
+        if (old != null) {
+            liveBytes -= old.size;
+            unindex(id, old.keys);
+        }
+        liveBytes += record.length;
+        index(id, location.keys);
+        maxId = Math.max(maxId, id);
+    }
+
+    /**
+     * Removes a row
+     *
+     * @param id
+     *         the row id
+     *
+     * @throws IOException
+     */
+    void delete(int id) throws IOException {
+        Location old = rows.get(id);
+        if (old == null) {
+            return;
+        }
+        append(encodeDelete(id));
+        rows.remove(id);
+        liveBytes -= old.size;
+        unindex(id, old.keys);
+    }
+
+    /**
+     * Removes all rows and truncates the segment
+     *
+     * @throws IOException
+     */
+    void clear() throws IOException {
+        channel.truncate(0);
+        end = 0;
+        liveBytes = 0;
+        maxId = 0;
+        rows.clear();
+        initIndexes();
+        generation++;
+    }
+
+    /**
+     * Gets the number of bytes in the segment that belong to superseded records
+     *
+     * @return the garbage size
+     */
+    long getGarbage() {
+        return end - liveBytes;
+    }
+
+    /**
+     * Gets the size of the segment
+     *
+     * @return the size in bytes
+     */
+    long getSegmentSize() {
+        return end;
+    }
+
+    /**
+     * Hands all appended records to the storage device
+     *
+     * @throws IOException
+     */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Syncs and closes the segment. The table must not be used afterwards.
+     *
+     * @throws IOException
+     */
+    void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            raf.close();
+        }
+    }
+
+    /**
+     * Rewrites the segment with only the latest record of every live row.
+     * Must be called without holding the table lock: the live records are copied without it,
+     * only the records appended meanwhile are copied and the files swapped while holding it.
+     *
+     * @throws IOException
+     */
+    void compact() throws IOException {
+        Map<Integer, Location> snapshot;
+        long snapshotEnd;
+        int snapshotGeneration;
+        FileChannel source;
+        synchronized (this) {
+            snapshot = new TreeMap<Integer, Location>(rows);
+            snapshotEnd = end;
+            snapshotGeneration = generation;
+            source = channel;
+        }
+
+        File temp = new File(file.getParentFile(), file.getName() + ".compact");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        boolean swapped = false;
+        try {
+            out.setLength(0);
+            FileChannel target = out.getChannel();
+            Map<Long, Long> moved = new HashMap<Long, Long>(snapshot.size() * 2);
+            long position = 0;
+            for (Location location : snapshot.values()) {
+                ByteBuffer record = ByteBuffer.allocate(location.size);
+                readFully(source, record, location.offset);
+                record.flip();
+                moved.put(location.offset, position);
+                position += writeFully(target, record, position);
+            }
+
+            synchronized (this) {
+                if (generation != snapshotGeneration) {
+                    return; // Cleared meanwhile, nothing to keep
+                }
+                long tailStart = position;
+                long tailLength = end - snapshotEnd;
+                if (tailLength > 0) {
+                    ByteBuffer tail = ByteBuffer.allocate((int)tailLength);
+                    readFully(channel, tail, snapshotEnd);
+                    tail.flip();
+                    position += writeFully(target, tail, position);
+                }
+                target.force(false);
+                out.close();
+                raf.close();
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                swapped = true;
+                openChannel();
+                for (Map.Entry<Integer, Location> row : rows.entrySet()) {
+                    Location old = row.getValue();
+                    long offset = old.offset >= snapshotEnd ? old.offset - snapshotEnd + tailStart : moved.get(old.offset);
+                    row.setValue(new Location(offset, old.size, old.keys));
+                }
+                end = position;
+            }
+        }
+        finally {
+            if (!swapped) {
+                out.close();
+                if (temp.exists() && !temp.delete()) {
+                    Canary.log.warn("Failed to delete " + temp.getPath());
+                }
+                synchronized (this) {
+                    if (!channel.isOpen()) {
+                        // Lost the segment while swapping, it must be there again for the next write
+                        openChannel();
+                    }
+                }
+            }
+        }
+    }
+
+    private void openChannel() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+    }
+
+    private void initIndexes() {
+        indexes.clear();
+        for (String column : indexedColumns) {
+            indexes.put(column, new HashMap<String, TreeSet<Integer>>());
+        }
+    }
+
+    /**
+     * Reads the segment from the start, building the indexes and cutting off a torn last record
+     */
+    private void load() throws IOException {
+        openChannel();
+        initIndexes();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        long position = 0;
+        try {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_BODY_SIZE) {
+                    Canary.log.warn("Dropping damaged end of key-value table " + name + " at byte " + position);
+                    break;
+                }
+                byte[] body = new byte[length];
+                int checksum;
+                try {
+                    checksum = in.readInt();
+                    in.readFully(body);
+                }
+                catch (EOFException e) {
+                    Canary.log.warn("Dropping torn last record of key-value table " + name + " at byte " + position);
+                    break;
+                }
+                crc.reset();
+                crc.update(body);
+                if ((int)crc.getValue() != checksum) {
+                    Canary.log.warn("Dropping damaged end of key-value table " + name + " at byte " + position);
+                    break;
+                }
+                int size = HEADER_SIZE + length;
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte op = record.readByte();
+                int id = record.readInt();
+                Location old = rows.remove(id);
+                if (old != null) {
+                    // Before indexing the new keys, they may be the same
+                    liveBytes -= old.size;
+                    unindex(id, old.keys);
+                }
+                if (op == PUT) {
+                    Location location = new Location(position, size, indexKeys(decodeRow(record)));
+                    rows.put(id, location);
+                    liveBytes += size;
+                    index(id, location.keys);
+                    maxId = Math.max(maxId, id);
+                }
+                position += size;
+            }
+        }
+        finally {
+            in.close();
+        }
+        if (position < channel.size()) {
+            channel.truncate(position);
+        }
+        end = position;
+    }
+
+    private Map<String, Object> read(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.size);
+        readFully(channel, buffer, location.offset);
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(buffer.array(), HEADER_SIZE, location.size - HEADER_SIZE));
+        record.readByte(); // op
+        record.readInt(); // id
+        return decodeRow(record);
+    }
+
+    private long append(byte[] record) throws IOException {
+        long offset = end;
+        end += writeFully(channel, ByteBuffer.wrap(record), offset);
+        return offset;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of key-value segment");
+            }
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int length = buffer.remaining();
+        int written = 0;
+        while (written < length) {
+            written += channel.write(buffer, position + written);
+        }
+        return length;
+    }
+
+    private String[] indexKeys(Map<String, Object> row) {
+        String[] keys = new String[indexedColumns.length];
+        for (int i = 0; i < keys.length; i++) {
+            Object value = row.get(indexedColumns[i]);
+            keys[i] = value == null ? null : String.valueOf(value);
+        }
+        return keys;
+    }
+
+    private void index(int id, String[] keys) {
+        for (int i = 0; i < indexedColumns.length; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            Map<String, TreeSet<Integer>> index = indexes.get(indexedColumns[i]);
+            TreeSet<Integer> ids = index.get(keys[i]);
+            if (ids == null) {
+                ids = new TreeSet<Integer>();
+                index.put(keys[i], ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    private void unindex(int id, String[] keys) {
+        for (int i = 0; i < indexedColumns.length; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            Map<String, TreeSet<Integer>> index = indexes.get(indexedColumns[i]);
+            TreeSet<Integer> ids = index.get(keys[i]);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    index.remove(keys[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a filter or column value to a row id
+     *
+     * @param value
+     *         the value
+     *
+     * @return the id or null if the value is no id
+     */
+    static Integer toId(Object value) {
+        if (value instanceof Number) {
+            return ((Number)value).intValue();
+        }
+        try {
+            return Integer.valueOf(String.valueOf(value));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encodePut(int id, Map<String, Object> row) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeaderPlaceholder(out);
+        out.writeByte(PUT);
+        out.writeInt(id);
+        out.writeShort(row.size());
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            out.writeUTF(column.getKey());
+            writeValue(out, column.getValue());
+        }
+        return seal(bytes.toByteArray());
+    }
+
+    private static byte[] encodeDelete(int id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + 5);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeaderPlaceholder(out);
+        out.writeByte(DELETE);
+        out.writeInt(id);
+        return seal(bytes.toByteArray());
+    }
+
+    private static void writeHeaderPlaceholder(DataOutputStream out) throws IOException {
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    private static byte[] seal(byte[] record) throws IOException {
+        int length = record.length - HEADER_SIZE;
+        if (length > MAX_BODY_SIZE) {
+            throw new IOException("Row is too large for a key-value table (" + length + " bytes)");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, length);
+        ByteBuffer.wrap(record).putInt(length).putInt((int)crc.getValue());
+        return record;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof String) {
+            byte[] text = ((String)value).getBytes(UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+        else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)value);
+        }
+        else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long)value);
+        }
+        else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short)value);
+        }
+        else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte)value);
+        }
+        else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float)value);
+        }
+        else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)value);
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>)value;
+            out.writeByte(LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        }
+        else {
+            throw new IOException("Cannot store values of type " + value.getClass().getName() + " in a key-value table");
+        }
+    }
+
+    private static Map<String, Object> decodeRow(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Map<String, Object> row = new LinkedHashMap<String, Object>(count * 2);
+        for (int i = 0; i < count; i++) {
+            row.put(in.readUTF(), readValue(in));
+        }
+        return row;
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                return new String(text, UTF_8);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case LIST:
+                int size = in.readInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            default:
+                throw new IOException("Unknown value type " + tag + " in key-value table");
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package net.canarymod.database.mysql;
 
+import net.canarymod.config.Configuration;
 import net.canarymod.database.Column;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.RowVisitor;
 import net.canarymod.database.SQLType;
+import net.canarymod.database.SqlTemplateCache;
+import net.canarymod.database.SqlTemplateCache.Operation;
+import net.canarymod.database.TableSchema;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
@@ -18,11 +23,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static net.canarymod.Canary.log;
 
@@ -38,6 +47,14 @@ public class MySQLDatabase extends Database {
     private static MySQLDatabase instance;
     private final String LIST_REGEX = "\u00B6";
     private final String NULL_STRING = "NULL";
+    private static final Set<String> NO_FILTERS = Collections.emptySet();
+    private final SqlTemplateCache templates = new SqlTemplateCache();
+    private final SqlTemplateCache.Builder sqlBuilder = new SqlTemplateCache.Builder() {
+        @Override
+        public String build(DataAccess data, Operation operation, String[] filterColumns) throws DatabaseTableInconsistencyException {
+            return buildSql(data, operation, filterColumns);
+        }
+    };
 
     private MySQLDatabase() {
         // one does not simply instantiate MySQLDatabase!
@@ -57,41 +74,9 @@ public class MySQLDatabase extends Database {
             return;
         }
         Connection conn = JdbcConnectionManager.getConnection();
-        PreparedStatement ps = null;
 
         try {
-            StringBuilder fields = new StringBuilder();
-            StringBuilder values = new StringBuilder();
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            Iterator<Column> it = columns.keySet().iterator();
-
-            Column column;
-            while (it.hasNext()) {
-                column = it.next();
-                if (!column.autoIncrement()) {
-                    fields.append("`").append(column.columnName()).append("`").append(",");
-                    values.append("?").append(",");
-                }
-            }
-            if (fields.length() > 0) {
-                fields.deleteCharAt(fields.length() - 1);
-            }
-            if (values.length() > 0) {
-                values.deleteCharAt(values.length() - 1);
-            }
-            ps = conn.prepareStatement("INSERT INTO `" + data.getName() + "` (" + fields.toString() + ") VALUES(" + values.toString() + ")");
-
-            int i = 1;
-            for (Column c : columns.keySet()) {
-                if (!c.autoIncrement()) {
-                    setToStatement(i, columns.get(c), ps, c);
-                    i++;
-                }
-            }
-
-            if (ps.executeUpdate() == 0) {
-                throw new DatabaseWriteException("Error inserting MySQL: no rows updated!");
-            }
+            insertRow(conn, data);
         }
         catch (SQLException ex) {
             log.error(ex.getMessage(), ex);
@@ -100,51 +85,52 @@ public class MySQLDatabase extends Database {
             log.error(dtie.getMessage(), dtie);
         }
         finally {
-            close(conn, ps, null);
+            close(conn, null, null);
         }
     }
 
     @Override
     public void insertAll(List<DataAccess> data) throws DatabaseWriteException {
-        for (DataAccess da : data) {
-            insert(da);
+        if (data.isEmpty()) {
+            return;
+        }
+        Connection conn = JdbcConnectionManager.getConnection();
+        Map<String, PreparedStatement> batches = new LinkedHashMap<String, PreparedStatement>();
+        boolean autoCommit = true;
+
+        try {
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            for (DataAccess da : data) {
+                PreparedStatement ps = getBatchStatement(conn, batches, getTemplate(da, Operation.INSERT, NO_FILTERS).getSql());
+                bindColumns(ps, da, 1);
+                ps.addBatch();
+            }
+            executeBatches(conn, batches);
+        }
+        catch (SQLException ex) {
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch inserting into MySQL: " + ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch inserting into MySQL: " + dtie.getMessage(), dtie);
+        }
+        catch (DatabaseWriteException dwe) {
+            rollback(conn);
+            throw dwe;
+        }
+        finally {
+            finishBatch(conn, batches, autoCommit);
         }
     }
 
     @Override
     public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        if (!this.doesEntryExist(data)) {
-            return;
-        }
         Connection conn = JdbcConnectionManager.getConnection();
-        ResultSet rs = null;
 
         try {
-            rs = this.getResultSet(conn, data, filters, true);
-            if (rs != null) {
-                if (rs.next()) {
-                    HashMap<Column, Object> columns = data.toDatabaseEntryList();
-                    Iterator<Column> it = columns.keySet().iterator();
-                    Column column;
-                    while (it.hasNext()) {
-                        column = it.next();
-                        if (column.columnName().equals("id")) {
-                            // Don't update it
-                            continue;
-                        }
-                        if (column.isList()) {
-                            rs.updateObject(column.columnName(), this.getString((List<?>)columns.get(column)));
-                        }
-                        else {
-                            rs.updateObject(column.columnName(), columns.get(column));
-                        }
-                    }
-                    rs.updateRow();
-                }
-                else {
-                    throw new DatabaseWriteException("Error updating DataAccess to MySQL, no such entry: " + data.toString());
-                }
-            }
+            updateRow(conn, data, filters);
         }
         catch (SQLException ex) {
             log.error(ex.getMessage(), ex);
@@ -152,27 +138,67 @@ public class MySQLDatabase extends Database {
         catch (DatabaseTableInconsistencyException dtie) {
             log.error(dtie.getMessage(), dtie);
         }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
-        }
         finally {
-            PreparedStatement st = null;
-            try {
-                st = rs != null && rs.getStatement() instanceof PreparedStatement ? (PreparedStatement)rs.getStatement() : null;
-            }
-            catch (SQLException e) {
-                log.error(e.getMessage(), e);
+            close(conn, null, null);
+        }
+    }
+
+    @Override
+    public void upsert(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        Connection conn = JdbcConnectionManager.getConnection();
+
+        try {
+            if (updateRow(conn, data, filters) == 0) {
+                insertRow(conn, data);
             }
-            close(conn, st, rs);
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error saving to MySQL: " + ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            throw new DatabaseWriteException("Error saving to MySQL: " + dtie.getMessage(), dtie);
+        }
+        finally {
+            close(conn, null, null);
         }
     }
 
     @Override
     public void updateAll(DataAccess template, Map<DataAccess, Map<String, Object>> list) throws DatabaseWriteException {
-        // FIXME: Might be worthwhile collecting all queries into one statement?
-        // But then if something errors out it's hard to find what it was
-        for (DataAccess da : list.keySet()) {
-            update(da, list.get(da));
+        if (list.isEmpty()) {
+            return;
+        }
+        Connection conn = JdbcConnectionManager.getConnection();
+        Map<String, PreparedStatement> batches = new LinkedHashMap<String, PreparedStatement>();
+        boolean autoCommit = true;
+
+        try {
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            for (Map.Entry<DataAccess, Map<String, Object>> update : list.entrySet()) {
+                DataAccess da = update.getKey();
+                Map<String, Object> filters = update.getValue();
+                SqlTemplateCache.Template sql = getTemplate(da, Operation.UPDATE, filters.keySet());
+                PreparedStatement ps = getBatchStatement(conn, batches, sql.getSql());
+                bindFilters(ps, da, sql, filters, bindColumns(ps, da, 1));
+                ps.addBatch();
+            }
+            executeBatches(conn, batches);
+        }
+        catch (SQLException ex) {
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch updating MySQL: " + ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch updating MySQL: " + dtie.getMessage(), dtie);
+        }
+        catch (DatabaseWriteException dwe) {
+            rollback(conn);
+            throw dwe;
+        }
+        finally {
+            finishBatch(conn, batches, autoCommit);
         }
     }
 
@@ -183,35 +209,17 @@ public class MySQLDatabase extends Database {
 
         try {
             if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-
-                ps = conn.prepareStatement("DELETE FROM `" + dataAccess.getName() + "` WHERE " + sb.toString() + "LIMIT 1");
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = dataAccess.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error deleting MySQL row in " + dataAccess.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col);
-                }
+                SqlTemplateCache.Template template = getTemplate(dataAccess, Operation.DELETE_ONE, filters.keySet());
+                ps = conn.prepareStatement(template.getSql());
+                bindFilters(ps, dataAccess, template, filters, 1);
 
                 if (ps.executeUpdate() == 0) {
                     throw new DatabaseWriteException("Error removing from MySQL: no rows updated!");
                 }
             }
         }
-        catch (DatabaseReadException dre) {
-            log.error(dre.getMessage(), dre);
+        catch (DatabaseTableInconsistencyException dtie) {
+            log.error(dtie.getMessage(), dtie);
         }
         catch (SQLException ex) {
             log.error(ex.getMessage(), ex);
@@ -228,35 +236,17 @@ public class MySQLDatabase extends Database {
 
         try {
             if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-
-                ps = conn.prepareStatement("DELETE FROM `" + dataAccess.getName() + "` WHERE " + sb.toString());
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = dataAccess.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error deleting MySQL row in " + dataAccess.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col);
-                }
+                SqlTemplateCache.Template template = getTemplate(dataAccess, Operation.DELETE, filters.keySet());
+                ps = conn.prepareStatement(template.getSql());
+                bindFilters(ps, dataAccess, template, filters, 1);
 
                 if (ps.executeUpdate() == 0) {
                     throw new DatabaseWriteException("Error removing from MySQL: no rows updated!");
                 }
             }
         }
-        catch (DatabaseReadException dre) {
-            log.error(dre.getMessage(), dre);
+        catch (DatabaseTableInconsistencyException dtie) {
+            log.error(dtie.getMessage(), dtie);
         }
         catch (SQLException ex) {
             log.error(ex.getMessage(), ex);
@@ -270,23 +260,12 @@ public class MySQLDatabase extends Database {
     public void load(DataAccess da, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
         Connection conn = JdbcConnectionManager.getConnection();
-        HashMap<String, Object> dataSet = new HashMap<String, Object>();
         try {
             rs = this.getResultSet(conn, da, filters, true);
             if (rs != null) {
                 if (rs.next()) {
-                    for (Column column : da.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), this.getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (rs.getObject(column.columnName()) instanceof Boolean) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
-                    da.load(dataSet);
+                    TableSchema schema = da.getSchema();
+                    da.load(readRow(rs, schema, findColumns(rs, schema)));
                 }
             }
         }
@@ -317,24 +296,14 @@ public class MySQLDatabase extends Database {
     public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
         Connection conn = JdbcConnectionManager.getConnection();
-        List<HashMap<String, Object>> stuff = new ArrayList<HashMap<String, Object>>();
+        List<Object[]> rows = new ArrayList<Object[]>();
         try {
             rs = this.getResultSet(conn, typeTemplate, filters, false);
             if (rs != null) {
+                TableSchema schema = typeTemplate.getSchema();
+                int[] positions = findColumns(rs, schema);
                 while (rs.next()) {
-                    HashMap<String, Object> dataSet = new HashMap<String, Object>();
-                    for (Column column : typeTemplate.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), this.getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (rs.getObject(column.columnName()) instanceof Boolean) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
-                    stuff.add(dataSet);
+                    rows.add(readRow(rs, schema, positions));
                 }
             }
         }
@@ -357,9 +326,9 @@ public class MySQLDatabase extends Database {
             }
         }
         try {
-            for (HashMap<String, Object> temp : stuff) {
+            for (Object[] row : rows) {
                 DataAccess newData = typeTemplate.getInstance();
-                newData.load(temp);
+                newData.load(row);
                 datasets.add(newData);
             }
         }
@@ -368,6 +337,39 @@ public class MySQLDatabase extends Database {
         }
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends DataAccess> void visitAll(T typeTemplate, Map<String, Object> filters, RowVisitor<? super T> visitor) throws DatabaseReadException {
+        int pageSize = Math.max(1, Configuration.getDbConfig().getFetchSize());
+        List<Object[]> page = new ArrayList<Object[]>(pageSize);
+        long lastId = Long.MIN_VALUE;
+
+        try {
+            TableSchema schema = typeTemplate.getSchema();
+            int idIndex = schema.indexOf("id");
+            do {
+                page.clear();
+                readPage(typeTemplate, schema, filters, lastId, pageSize, page);
+                for (Object[] row : page) {
+                    T data = (T)typeTemplate.getInstance();
+                    data.load(row);
+                    if (!visitor.visit(data)) {
+                        return;
+                    }
+                }
+                if (!page.isEmpty()) {
+                    lastId = ((Number)page.get(page.size() - 1)[idIndex]).longValue();
+                }
+            } while (page.size() == pageSize);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            throw new DatabaseReadException("Error visiting MySQL table " + typeTemplate.getName(), dtie);
+        }
+        catch (DatabaseAccessException dae) {
+            throw new DatabaseReadException("Error visiting MySQL table " + typeTemplate.getName(), dae);
+        }
+    }
+
     @Override
     public void updateSchema(DataAccess schemaTemplate) throws DatabaseWriteException {
         Connection conn = JdbcConnectionManager.getConnection();
@@ -419,6 +421,7 @@ public class MySQLDatabase extends Database {
                     }
                 }
             }
+            createIndexes(schemaTemplate);
         }
         catch (SQLException sqle) {
             throw new DatabaseWriteException("Error updating MySQL schema: " + sqle.getMessage());
@@ -492,6 +495,48 @@ public class MySQLDatabase extends Database {
         }
     }
 
+    /**
+     * Creates an index for every NORMAL column that is marked as indexed, if it does not exist yet.
+     * UNIQUE and PRIMARY columns are indexed by their constraint already.
+     *
+     * @param data
+     *         a DataAccess of the table
+     *
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private void createIndexes(DataAccess data) throws DatabaseWriteException, DatabaseTableInconsistencyException {
+        Connection conn = JdbcConnectionManager.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            Set<String> existing = new HashSet<String>();
+            rs = conn.getMetaData().getIndexInfo(null, null, data.getName(), false, false);
+            while (rs.next()) {
+                existing.add(rs.getString("INDEX_NAME"));
+            }
+            for (Column column : data.getSchema().getColumns()) {
+                String index = data.getName() + "_" + column.columnName() + "_idx";
+                if (!column.indexed() || column.isList() || column.columnType() != Column.ColumnType.NORMAL || existing.contains(index)) {
+                    continue;
+                }
+                // TEXT columns can only be indexed by a prefix
+                String key = "`" + column.columnName() + "`" + (column.dataType() == Column.DataType.STRING ? "(191)" : "");
+                ps = conn.prepareStatement("CREATE INDEX `" + index + "` ON `" + data.getName() + "` (" + key + ")");
+                ps.execute();
+                ps.close();
+                ps = null;
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error creating MySQL indexes on " + data.getName(), ex);
+        }
+        finally {
+            close(conn, ps, rs);
+        }
+    }
+
     public void insertColumn(String tableName, Column column, Object defVal) throws DatabaseWriteException {
         Connection conn = JdbcConnectionManager.getConnection();
         PreparedStatement ps = null;
@@ -539,59 +584,35 @@ public class MySQLDatabase extends Database {
         boolean toRet = false;
 
         try {
-            StringBuilder sb = new StringBuilder();
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            Iterator<Column> it = columns.keySet().iterator();
-
-            Column column;
-            while (it.hasNext()) {
-                column = it.next();
-                if (!column.autoIncrement()) {
-                    Object o = columns.get(column);
-                    if (o == null) {
-                        continue;
-                    }
-                    if (sb.length() > 0) {
-                        sb.append(" AND `").append(column.columnName()).append("`");
-                    }
-                    else {
-                        sb.append("`").append(column.columnName()).append("`");
-                    }
-                    sb.append(" = ?");
-                    // if (it.hasNext()) {
-                    // sb.append("' = ? AND ");
-                    // } else {
-                    // sb.append("' = ?");
-                    // }
+            // Match on all columns that are set, except for the auto increment ones
+            TableSchema schema = data.getSchema();
+            HashMap<String, Object> filters = new HashMap<String, Object>(schema.size() * 2);
+            for (int i = 0; i < schema.size(); i++) {
+                Column column = schema.getColumn(i);
+                Object o = schema.getValue(data, i);
+                if (!column.autoIncrement() && o != null) {
+                    filters.put(column.columnName(), o);
                 }
             }
-            ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` WHERE " + sb.toString());
-            it = columns.keySet().iterator();
-
-            int index = 1;
-
-            while (it.hasNext()) {
-                column = it.next();
-                if (!column.autoIncrement()) {
-                    Object o = columns.get(column);
-                    if (o == null) {
-                        continue;
-                    }
-                    setToStatement(index, columns.get(column), ps, column);
-//                    ps.setObject(index, this.convert(columns.get(column)));
-                    index++;
-                }
+            if (filters.isEmpty()) {
+                return false;
             }
+            SqlTemplateCache.Template template = getTemplate(data, Operation.SELECT_ONE, filters.keySet());
+            ps = conn.prepareStatement(template.getSql());
+            bindFilters(ps, data, template, filters, 1);
             rs = ps.executeQuery();
-            if (rs != null) {
-                toRet = rs.next();
-            }
+            toRet = rs.next();
         }
         catch (SQLException ex) {
             throw new DatabaseWriteException(ex.getMessage() + " Error checking MySQL Entry Key in "
                                                      + data.toString()
             );
         }
+        catch (IllegalAccessException ex) {
+            throw new DatabaseWriteException(ex.getMessage() + " Error checking MySQL Entry Key in "
+                                                     + data.toString()
+            );
+        }
         catch (DatabaseTableInconsistencyException ex) {
             LogManager.getLogger().error("", ex);
         }
@@ -607,39 +628,9 @@ public class MySQLDatabase extends Database {
 
         try {
 
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-                if (limitOne) {
-                    sb.append(" LIMIT 1");
-                }
-                ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` WHERE " + sb.toString(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = data.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error fetching MySQL ResultSet in " + data.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col);
-                }
-            }
-            else {
-                if (limitOne) {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` LIMIT 1", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-                }
-                else {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "`", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-                }
-            }
+            SqlTemplateCache.Template template = getTemplate(data, limitOne ? Operation.SELECT_ONE : Operation.SELECT, filters.keySet());
+            ps = conn.prepareStatement(template.getSql(), ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
+            bindFilters(ps, data, template, filters, 1);
             toRet = ps.executeQuery();
         }
         catch (SQLException ex) {
@@ -896,6 +887,376 @@ public class MySQLDatabase extends Database {
         return sb.toString();
     }
 
+    /**
+     * Gets the cache of the SQL statements this database runs
+     *
+     * @return the template cache
+     */
+    public SqlTemplateCache getTemplateCache() {
+        return templates;
+    }
+
+    private SqlTemplateCache.Template getTemplate(DataAccess data, Operation operation, Set<String> filterColumns) throws DatabaseTableInconsistencyException {
+        return templates.get(data, operation, filterColumns, sqlBuilder);
+    }
+
+    /**
+     * Writes the SQL of a template. Auto increment columns are left out of INSERT and UPDATE
+     * for the database to handle. UPDATE and the single row operations touch at most one row.
+     *
+     * @param data
+     *         a DataAccess of the table
+     * @param operation
+     *         the operation
+     * @param filterColumns
+     *         the filter columns, in binding order
+     *
+     * @return the SQL
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    private String buildSql(DataAccess data, Operation operation, String[] filterColumns) throws DatabaseTableInconsistencyException {
+        StringBuilder sb = new StringBuilder();
+        switch (operation) {
+            case INSERT:
+                StringBuilder values = new StringBuilder();
+                for (Column column : data.getSchema().getColumns()) {
+                    if (!column.autoIncrement()) {
+                        if (values.length() > 0) {
+                            sb.append(",");
+                            values.append(",");
+                        }
+                        sb.append("`").append(column.columnName()).append("`");
+                        values.append("?");
+                    }
+                }
+                return "INSERT INTO `" + data.getName() + "` (" + sb.toString() + ") VALUES(" + values.toString() + ")";
+            case UPDATE:
+                sb.append("UPDATE `").append(data.getName()).append("` SET ");
+                boolean first = true;
+                for (Column column : data.getSchema().getColumns()) {
+                    if (!column.autoIncrement()) {
+                        if (!first) {
+                            sb.append(", ");
+                        }
+                        sb.append("`").append(column.columnName()).append("`=?");
+                        first = false;
+                    }
+                }
+                break;
+            case SELECT:
+            case SELECT_ONE:
+            case SELECT_PAGE:
+                sb.append("SELECT * FROM `").append(data.getName()).append("`");
+                break;
+            case DELETE:
+            case DELETE_ONE:
+                sb.append("DELETE FROM `").append(data.getName()).append("`");
+                break;
+        }
+        for (int i = 0; i < filterColumns.length; i++) {
+            sb.append(i == 0 ? " WHERE `" : " AND `").append(filterColumns[i]).append("`=?");
+        }
+        if (operation == Operation.UPDATE || operation == Operation.SELECT_ONE || operation == Operation.DELETE_ONE) {
+            sb.append(" LIMIT 1");
+        }
+        else if (operation == Operation.SELECT_PAGE) {
+            sb.append(filterColumns.length == 0 ? " WHERE" : " AND").append(" `id`>? ORDER BY `id` LIMIT ?");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the next page of rows of a table, in id order.
+     * Every page is a short forward only query of its own, so no cursor stays open while the rows are visited.
+     *
+     * @param data
+     *         a DataAccess of the table
+     * @param schema
+     *         the schema of the table
+     * @param filters
+     *         the filters
+     * @param afterId
+     *         the id of the last row of the previous page
+     * @param pageSize
+     *         the maximum number of rows to read
+     * @param page
+     *         receives the rows
+     *
+     * @throws DatabaseReadException
+     */
+    private void readPage(DataAccess data, TableSchema schema, Map<String, Object> filters, long afterId, int pageSize, List<Object[]> page) throws DatabaseReadException {
+        Connection conn = JdbcConnectionManager.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            SqlTemplateCache.Template template = getTemplate(data, Operation.SELECT_PAGE, filters.keySet());
+            ps = conn.prepareStatement(template.getSql());
+            ps.setFetchSize(pageSize);
+            bindFilters(ps, data, template, filters, 1);
+            ps.setLong(template.getFilterCount() + 1, afterId);
+            ps.setInt(template.getFilterCount() + 2, pageSize);
+            rs = ps.executeQuery();
+            int[] positions = findColumns(rs, schema);
+            while (rs.next()) {
+                page.add(readRow(rs, schema, positions));
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error reading MySQL table " + data.getName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseReadException("Error reading MySQL table " + data.getName(), ex);
+        }
+        catch (DatabaseWriteException ex) {
+            throw new DatabaseReadException("Error reading MySQL table " + data.getName(), ex);
+        }
+        finally {
+            close(conn, ps, rs);
+        }
+    }
+
+    /**
+     * Inserts the DataAccess as a new row
+     *
+     * @param conn
+     *         the connection to use
+     * @param data
+     *         the data to insert
+     *
+     * @throws SQLException
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private void insertRow(Connection conn, DataAccess data) throws SQLException, DatabaseWriteException, DatabaseTableInconsistencyException {
+        PreparedStatement ps = null;
+
+        try {
+            ps = conn.prepareStatement(getTemplate(data, Operation.INSERT, NO_FILTERS).getSql());
+            bindColumns(ps, data, 1);
+            if (ps.executeUpdate() == 0) {
+                throw new DatabaseWriteException("Error inserting MySQL: no rows updated!");
+            }
+        }
+        finally {
+            close(null, ps, null);
+        }
+    }
+
+    /**
+     * Updates the first row matching the filters with a single statement
+     *
+     * @param conn
+     *         the connection to use
+     * @param data
+     *         the new data of the row
+     * @param filters
+     *         the filters
+     *
+     * @return the number of matched rows, 0 or 1
+     *
+     * @throws SQLException
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private int updateRow(Connection conn, DataAccess data, Map<String, Object> filters) throws SQLException, DatabaseWriteException, DatabaseTableInconsistencyException {
+        PreparedStatement ps = null;
+
+        try {
+            SqlTemplateCache.Template template = getTemplate(data, Operation.UPDATE, filters.keySet());
+            ps = conn.prepareStatement(template.getSql());
+            bindFilters(ps, data, template, filters, bindColumns(ps, data, 1));
+            // Connector/J reports found rows, not changed ones, so a row saved without changes still counts
+            return ps.executeUpdate();
+        }
+        finally {
+            close(null, ps, null);
+        }
+    }
+
+    /**
+     * Binds the values of all columns but auto increment ones, in schema order.
+     *
+     * @param ps
+     *         the prepared statement
+     * @param data
+     *         the DataAccess to read the values from
+     * @param index
+     *         the first parameter index to bind to
+     *
+     * @return the next free parameter index
+     *
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private int bindColumns(PreparedStatement ps, DataAccess data, int index) throws DatabaseWriteException, DatabaseTableInconsistencyException {
+        TableSchema schema = data.getSchema();
+        try {
+            for (int i = 0; i < schema.size(); i++) {
+                Column column = schema.getColumn(i);
+                if (!column.autoIncrement()) {
+                    setToStatement(index++, schema.getValue(data, i), ps, column);
+                }
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseWriteException("Could not read a column field of " + data.getName(), e);
+        }
+        return index;
+    }
+
+    /**
+     * Binds the filter values in the order of the template.
+     *
+     * @param ps
+     *         the prepared statement
+     * @param data
+     *         a DataAccess of the table
+     * @param template
+     *         the template the statement was prepared from
+     * @param filters
+     *         the filters
+     * @param index
+     *         the first parameter index to bind to
+     *
+     * @throws DatabaseWriteException
+     *         if a filter column does not exist or its value can't be set
+     */
+    private void bindFilters(PreparedStatement ps, DataAccess data, SqlTemplateCache.Template template, Map<String, Object> filters, int index) throws DatabaseWriteException {
+        for (int i = 0; i < template.getFilterCount(); i++) {
+            String fieldName = template.getFilterColumn(i);
+            Column col = data.getColumnForName(fieldName);
+            if (col == null) {
+                throw new DatabaseWriteException("Error binding MySQL filter in " + data.getName() + ". Column " + fieldName + " does not exist!");
+            }
+            setToStatement(index + i, filters.get(fieldName), ps, col);
+        }
+    }
+
+    /**
+     * Gets the batch statement for the given SQL, preparing it on first use.
+     *
+     * @param conn
+     *         the connection the batch runs on
+     * @param batches
+     *         the statements prepared so far, by SQL
+     * @param sql
+     *         the SQL of the statement
+     *
+     * @return the prepared statement
+     *
+     * @throws SQLException
+     */
+    private PreparedStatement getBatchStatement(Connection conn, Map<String, PreparedStatement> batches, String sql) throws SQLException {
+        PreparedStatement ps = batches.get(sql);
+        if (ps == null) {
+            ps = conn.prepareStatement(sql);
+            batches.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Executes all batched statements and commits them as one transaction.
+     *
+     * @param conn
+     *         the connection the batch runs on
+     * @param batches
+     *         the batched statements
+     *
+     * @throws SQLException
+     */
+    private void executeBatches(Connection conn, Map<String, PreparedStatement> batches) throws SQLException {
+        for (PreparedStatement ps : batches.values()) {
+            ps.executeBatch();
+        }
+        conn.commit();
+    }
+
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        }
+        catch (SQLException e) {
+            log.error("Failed to roll back MySQL batch", e);
+        }
+    }
+
+    /**
+     * Closes the batched statements and hands the connection back to the pool
+     * with its previous auto commit mode.
+     *
+     * @param conn
+     *         the connection the batch ran on
+     * @param batches
+     *         the batched statements
+     * @param autoCommit
+     *         the auto commit mode to restore
+     */
+    private void finishBatch(Connection conn, Map<String, PreparedStatement> batches, boolean autoCommit) {
+        for (PreparedStatement ps : batches.values()) {
+            close(null, ps, null);
+        }
+        try {
+            conn.setAutoCommit(autoCommit);
+        }
+        catch (SQLException e) {
+            log.error(e.getMessage(), e);
+        }
+        close(conn, null, null);
+    }
+
+    /**
+     * Resolves the result set positions of the schema columns,
+     * so rows can be read by index instead of by name.
+     *
+     * @param rs
+     *         the result set
+     * @param schema
+     *         the schema of the table
+     *
+     * @return the result set position of each column, in schema order
+     *
+     * @throws SQLException
+     *         if a column is missing from the result set
+     */
+    private int[] findColumns(ResultSet rs, TableSchema schema) throws SQLException {
+        int[] positions = new int[schema.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = rs.findColumn(schema.getColumn(i).columnName());
+        }
+        return positions;
+    }
+
+    /**
+     * Reads the current row of the result set.
+     *
+     * @param rs
+     *         the result set
+     * @param schema
+     *         the schema of the table
+     * @param positions
+     *         the result set positions from {@link #findColumns(ResultSet, TableSchema)}
+     *
+     * @return the column values, in schema order
+     *
+     * @throws SQLException
+     */
+    private Object[] readRow(ResultSet rs, TableSchema schema, int[] positions) throws SQLException {
+        Object[] row = new Object[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            Column column = schema.getColumn(i);
+            if (column.isList()) {
+                row[i] = getList(column.dataType(), rs.getString(positions[i]));
+            }
+            else {
+                row[i] = rs.getObject(positions[i]);
+            }
+        }
+        return row;
+    }
+
     /**
      * Close a set of working data.
      * This will return all the data to the connection pool.
@@ -1,11 +1,16 @@
 package net.canarymod.database.sqlite;
 
 import net.canarymod.Canary;
+import net.canarymod.config.Configuration;
 import net.canarymod.database.Column;
 import net.canarymod.database.Column.DataType;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.JdbcConnectionManager;
+import net.canarymod.database.RowVisitor;
+import net.canarymod.database.SqlTemplateCache;
+import net.canarymod.database.SqlTemplateCache.Operation;
+import net.canarymod.database.TableSchema;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
@@ -22,16 +27,23 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static net.canarymod.Canary.log;
 
 /**
  * SQLite Database
+ * <p/>
+ * SQLite runs on a single shared, non-pooled connection. Every method that issues statements on it
+ * holds this instance's monitor, so statements from other threads cannot end up inside (and be rolled
+ * back with) a batch transaction of {@link #insertAll(List)} or {@link #updateAll(DataAccess, Map)}.
  *
  * @author Jason (darkdiplomat)
  */
@@ -40,6 +52,14 @@ public class SQLiteDatabase extends Database {
     private static SQLiteDatabase instance;
     private final String LIST_REGEX = "\u00B6";
     private final String NULL_STRING = "NULL";
+    private static final Set<String> NO_FILTERS = Collections.emptySet();
+    private final SqlTemplateCache templates = new SqlTemplateCache();
+    private final SqlTemplateCache.Builder sqlBuilder = new SqlTemplateCache.Builder() {
+        @Override
+        public String build(DataAccess data, Operation operation, String[] filterColumns) throws DatabaseTableInconsistencyException {
+            return buildSql(data, operation, filterColumns);
+        }
+    };
 
     private SQLiteDatabase() {
         File path = new File("db/");
@@ -65,143 +85,151 @@ public class SQLiteDatabase extends Database {
     }
 
     @Override
-    public void insert(DataAccess data) throws DatabaseWriteException {
+    public synchronized void insert(DataAccess data) throws DatabaseWriteException {
         if (doesEntryExist(data)) {
             return;
         }
-        PreparedStatement ps = null;
 
         try {
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            ps = JdbcConnectionManager.getConnection().prepareStatement(generateQuery(data));
+            insertRow(JdbcConnectionManager.getConnection(), data);
+        }
+        catch (SQLException ex) {
+            log.error(ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            log.error(dtie.getMessage(), dtie);
+        }
+    }
 
-            int i = 1;
-            for (Column c : columns.keySet()) {
-                if (!c.autoIncrement()) {
-                    if (c.isList()) {
-                        ps.setString(i, getString((List<?>)columns.get(c)));
-                    }
-                    ps.setObject(i, columns.get(c));
-                    i++;
-                }
-            }
+    @Override
+    public synchronized void insertAll(List<DataAccess> data) throws DatabaseWriteException {
+        if (data.isEmpty()) {
+            return;
+        }
+        Connection conn = JdbcConnectionManager.getConnection();
+        Map<String, PreparedStatement> batches = new LinkedHashMap<String, PreparedStatement>();
+        boolean autoCommit = true;
 
-            if (ps.executeUpdate() == 0) {
-                throw new DatabaseWriteException("Error inserting SQLite: no rows updated!");
+        try {
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            for (DataAccess da : data) {
+                PreparedStatement ps = getBatchStatement(conn, batches, getTemplate(da, Operation.INSERT, NO_FILTERS).getSql());
+                bindColumns(ps, da, 1);
+                ps.addBatch();
             }
+            executeBatches(conn, batches);
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch inserting into SQLite: " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            log.error(dtie.getMessage(), dtie);
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch inserting into SQLite: " + dtie.getMessage(), dtie);
+        }
+        catch (DatabaseWriteException dwe) {
+            rollback(conn);
+            throw dwe;
         }
         finally {
-            close(null, ps, null);
+            finishBatch(conn, batches, autoCommit);
         }
     }
 
     @Override
-    public void insertAll(List<DataAccess> data) throws DatabaseWriteException {
-        for (DataAccess da : data) {
-            insert(da);
+    public synchronized void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        try {
+            updateRow(JdbcConnectionManager.getConnection(), data, filters);
+        }
+        catch (SQLException ex) {
+            log.error(ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            log.error(dtie.getMessage(), dtie);
         }
     }
 
     @Override
-    public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        if (!doesEntryExist(data)) {
+    public synchronized void upsert(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        Connection conn = JdbcConnectionManager.getConnection();
+
+        try {
+            if (updateRow(conn, data, filters) == 0) {
+                insertRow(conn, data);
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error saving to SQLite: " + ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            throw new DatabaseWriteException("Error saving to SQLite: " + dtie.getMessage(), dtie);
+        }
+    }
+
+    @Override
+    public synchronized void updateAll(DataAccess template, Map<DataAccess, Map<String, Object>> list) throws DatabaseWriteException {
+        if (list.isEmpty()) {
             return;
         }
         Connection conn = JdbcConnectionManager.getConnection();
-        ResultSet rs = null;
+        Map<String, PreparedStatement> batches = new LinkedHashMap<String, PreparedStatement>();
+        boolean autoCommit = true;
 
         try {
-            rs = this.getResultSet(conn, data, filters, true);
-            if (rs != null) {
-                if (rs.next()) {
-                    HashMap<Column, Object> columns = data.toDatabaseEntryList();
-                    Iterator<Column> it = columns.keySet().iterator();
-                    Column column;
-                    while (it.hasNext()) {
-                        column = it.next();
-                        if (column.isList()) {
-                            rs.updateObject(column.columnName(), this.getString((List<?>)columns.get(column)));
-                        }
-                        else {
-                            rs.updateObject(column.columnName(), columns.get(column));
-                        }
-                    }
-                    rs.updateRow();
-                }
-                else {
-                    throw new DatabaseWriteException("Error updating DataAccess to SQLite, no such entry: " + data.toString());
-                }
+            autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            for (Map.Entry<DataAccess, Map<String, Object>> update : list.entrySet()) {
+                DataAccess da = update.getKey();
+                Map<String, Object> filters = update.getValue();
+                SqlTemplateCache.Template sql = getTemplate(da, Operation.UPDATE, filters.keySet());
+                PreparedStatement ps = getBatchStatement(conn, batches, sql.getSql());
+                bindFilters(ps, da, sql, filters, bindColumns(ps, da, 1));
+                ps.addBatch();
             }
+            executeBatches(conn, batches);
         }
         catch (SQLException ex) {
-            log.error(ex.getMessage(), ex);
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch updating SQLite: " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            log.error(dtie.getMessage(), dtie);
+            rollback(conn);
+            throw new DatabaseWriteException("Error batch updating SQLite: " + dtie.getMessage(), dtie);
         }
-        catch (DatabaseReadException e) {
-            log.error(e.getMessage(), e);
+        catch (DatabaseWriteException dwe) {
+            rollback(conn);
+            throw dwe;
         }
         finally {
-            PreparedStatement st = null;
-            try {
-                st = rs != null && rs.getStatement() instanceof PreparedStatement ? (PreparedStatement)rs.getStatement() : null;
-            }
-            catch (SQLException e) {
-                log.error(e.getMessage(), e);
-            }
-            close(conn, st, rs);
-        }
-    }
-
-    @Override
-    public void updateAll(DataAccess template, Map<DataAccess, Map<String, Object>> list) throws DatabaseWriteException {
-        // FIXME: Might be worthwhile collecting all queries into one statement?
-        // But then if something errors out it's hard to find what it was
-        for (DataAccess da : list.keySet()) {
-            update(da, list.get(da));
+            finishBatch(conn, batches, autoCommit);
         }
     }
 
     @Override
-    public void remove(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
+    public synchronized void remove(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
         Connection conn = JdbcConnectionManager.getConnection();
 
         this.deleteRows(conn, dataAccess, filters);
     }
 
     @Override
-    public void removeAll(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
+    public synchronized void removeAll(DataAccess dataAccess, Map<String, Object> filters) throws DatabaseWriteException {
         Connection conn = JdbcConnectionManager.getConnection();
 
         this.deleteRows(conn, dataAccess, filters);
     }
 
     @Override
-    public void load(DataAccess dataset, Map<String, Object> filters) throws DatabaseReadException {
+    public synchronized void load(DataAccess dataset, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
-        HashMap<String, Object> dataSet = new HashMap<String, Object>();
+        Object[] row = null;
         try {
             rs = this.getResultSet(JdbcConnectionManager.getConnection(), dataset, filters, true);
             if (rs != null) {
                 if (rs.next()) {
-                    for (Column column : dataset.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (column.dataType() == DataType.BOOLEAN) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
+                    TableSchema schema = dataset.getSchema();
+                    row = readRow(rs, schema, findColumns(rs, schema));
                 }
             }
         }
@@ -226,8 +254,8 @@ public class SQLiteDatabase extends Database {
             }
         }
         try {
-            if (!dataSet.isEmpty()) {
-                dataset.load(dataSet);
+            if (row != null) {
+                dataset.load(row);
             }
         }
         catch (DatabaseAccessException ex) {
@@ -236,26 +264,16 @@ public class SQLiteDatabase extends Database {
     }
 
     @Override
-    public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
+    public synchronized void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
         ResultSet rs = null;
-        List<HashMap<String, Object>> stuff = new ArrayList<HashMap<String, Object>>();
+        List<Object[]> rows = new ArrayList<Object[]>();
         try {
             rs = this.getResultSet(JdbcConnectionManager.getConnection(), typeTemplate, filters, false);
             if (rs != null) {
+                TableSchema schema = typeTemplate.getSchema();
+                int[] positions = findColumns(rs, schema);
                 while (rs.next()) {
-                    HashMap<String, Object> dataSet = new HashMap<String, Object>();
-                    for (Column column : typeTemplate.getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (column.dataType() == DataType.BOOLEAN) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
-                    stuff.add(dataSet);
+                    rows.add(readRow(rs, schema, positions));
                 }
             }
         }
@@ -280,9 +298,9 @@ public class SQLiteDatabase extends Database {
             }
         }
         try {
-            for (HashMap<String, Object> temp : stuff) {
+            for (Object[] row : rows) {
                 DataAccess newData = typeTemplate.getInstance();
-                newData.load(temp);
+                newData.load(row);
                 datasets.add(newData);
             }
         }
@@ -292,7 +310,40 @@ public class SQLiteDatabase extends Database {
     }
 
     @Override
-    public void updateSchema(DataAccess schemaTemplate) throws DatabaseWriteException {
+    @SuppressWarnings("unchecked")
+    public <T extends DataAccess> void visitAll(T typeTemplate, Map<String, Object> filters, RowVisitor<? super T> visitor) throws DatabaseReadException {
+        int pageSize = Math.max(1, Configuration.getDbConfig().getFetchSize());
+        List<Object[]> page = new ArrayList<Object[]>(pageSize);
+        long lastId = Long.MIN_VALUE;
+
+        try {
+            TableSchema schema = typeTemplate.getSchema();
+            int idIndex = schema.indexOf("id");
+            do {
+                page.clear();
+                readPage(typeTemplate, schema, filters, lastId, pageSize, page);
+                for (Object[] row : page) {
+                    T data = (T)typeTemplate.getInstance();
+                    data.load(row);
+                    if (!visitor.visit(data)) {
+                        return;
+                    }
+                }
+                if (!page.isEmpty()) {
+                    lastId = ((Number)page.get(page.size() - 1)[idIndex]).longValue();
+                }
+            } while (page.size() == pageSize);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            throw new DatabaseReadException("Error visiting SQLite table " + typeTemplate.getName(), dtie);
+        }
+        catch (DatabaseAccessException dae) {
+            throw new DatabaseReadException("Error visiting SQLite table " + typeTemplate.getName(), dae);
+        }
+    }
+
+    @Override
+    public synchronized void updateSchema(DataAccess schemaTemplate) throws DatabaseWriteException {
         ResultSet rs = null;
 
         try {
@@ -345,6 +396,7 @@ public class SQLiteDatabase extends Database {
                     }
                 }
             }
+            createIndexes(schemaTemplate);
         }
         catch (SQLException sqle) {
             throw new DatabaseWriteException("Error updating SQLite schema: " + sqle.getMessage(), sqle);
@@ -357,7 +409,36 @@ public class SQLiteDatabase extends Database {
         }
     }
 
-    public void createTable(DataAccess data) throws DatabaseWriteException {
+    /**
+     * Creates an index for every NORMAL column that is marked as indexed, if it does not exist yet.
+     * UNIQUE and PRIMARY columns are indexed by their constraint already.
+     *
+     * @param data
+     *         a DataAccess of the table
+     *
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private synchronized void createIndexes(DataAccess data) throws DatabaseWriteException, DatabaseTableInconsistencyException {
+        for (Column column : data.getSchema().getColumns()) {
+            if (!column.indexed() || column.isList() || column.columnType() != Column.ColumnType.NORMAL) {
+                continue;
+            }
+            PreparedStatement ps = null;
+            try {
+                ps = JdbcConnectionManager.getConnection().prepareStatement("CREATE INDEX IF NOT EXISTS `" + data.getName() + "_" + column.columnName() + "_idx` ON `" + data.getName() + "` (`" + column.columnName() + "`)");
+                ps.execute();
+            }
+            catch (SQLException ex) {
+                throw new DatabaseWriteException("Error creating SQLite index on " + data.getName() + "." + column.columnName(), ex);
+            }
+            finally {
+                close(null, ps, null);
+            }
+        }
+    }
+
+    public synchronized void createTable(DataAccess data) throws DatabaseWriteException {
         PreparedStatement ps = null;
 
         try {
@@ -431,7 +512,7 @@ public class SQLiteDatabase extends Database {
         }
     }
 
-    public void insertColumn(String tableName, Column column, Object defVal) throws DatabaseWriteException {
+    public synchronized void insertColumn(String tableName, Column column, Object defVal) throws DatabaseWriteException {
         PreparedStatement ps = null;
 
         try {
@@ -455,7 +536,7 @@ public class SQLiteDatabase extends Database {
 
     // SQLite sucks.
     // precondition: toRetain is not null and not empty.
-    public void retainColumns(DataAccess table, List<String> toRetain) throws DatabaseWriteException {
+    public synchronized void retainColumns(DataAccess table, List<String> toRetain) throws DatabaseWriteException {
         Statement stmt = null;
 
         try {
@@ -494,50 +575,44 @@ public class SQLiteDatabase extends Database {
         }
     }
 
-    public boolean doesEntryExist(DataAccess data) throws DatabaseWriteException {
+    public synchronized boolean doesEntryExist(DataAccess data) throws DatabaseWriteException {
         PreparedStatement ps = null;
         ResultSet rs = null;
         boolean toRet = false;
 
         try {
-            StringBuilder sb = new StringBuilder();
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            Iterator<Column> it = columns.keySet().iterator();
-
-            Column column;
-            while (it.hasNext()) {
-                column = it.next();
-                if (!column.autoIncrement()) {
-                    if (sb.length() > 0) {
-                        sb.append(" AND '").append(column.columnName());
-                    }
-                    else {
-                        sb.append("'").append(column.columnName());
-                    }
-                    sb.append("' = ?");
+            // Match on all columns that are set, except for the auto increment ones
+            TableSchema schema = data.getSchema();
+            HashMap<String, Object> values = new HashMap<String, Object>(schema.size() * 2);
+            for (int i = 0; i < schema.size(); i++) {
+                Column column = schema.getColumn(i);
+                Object o = schema.getValue(data, i);
+                if (!column.autoIncrement() && o != null) {
+                    values.put(column.columnName(), o);
                 }
             }
-            ps = JdbcConnectionManager.getConnection().prepareStatement("SELECT * FROM `" + data.getName() + "` WHERE " + sb.toString());
-            it = columns.keySet().iterator();
-
-            int index = 1;
-            while (it.hasNext()) {
-                column = it.next();
-                if (!column.autoIncrement()) {
-                    ps.setObject(index, columns.get(column));
-                    index++;
-                }
+            if (values.isEmpty()) {
+                return false;
             }
-            rs = ps.executeQuery();
-            if (rs != null) {
-                toRet = rs.next();
+            SqlTemplateCache.Template template = getTemplate(data, Operation.SELECT_ONE, values.keySet());
+            ps = JdbcConnectionManager.getConnection().prepareStatement(template.getSql());
+            for (int i = 0; i < template.getFilterCount(); i++) {
+                String name = template.getFilterColumn(i);
+                bindValue(i + 1, values.get(name), ps, schema.getColumn(name));
             }
+            rs = ps.executeQuery();
+            toRet = rs.next();
         }
         catch (SQLException ex) {
             throw new DatabaseWriteException(ex.getMessage() + " Error checking SQLite Entry Key in "
                                                      + data.toString()
             );
         }
+        catch (IllegalAccessException ex) {
+            throw new DatabaseWriteException(ex.getMessage() + " Error checking SQLite Entry Key in "
+                                                     + data.toString()
+            );
+        }
         catch (DatabaseTableInconsistencyException ex) {
             LogManager.getLogger().error("", ex);
         }
@@ -547,6 +622,59 @@ public class SQLiteDatabase extends Database {
         return toRet;
     }
 
+    /**
+     * Resolves the result set positions of the schema columns,
+     * so rows can be read by index instead of by name.
+     *
+     * @param rs
+     *         the result set
+     * @param schema
+     *         the schema of the table
+     *
+     * @return the result set position of each column, in schema order
+     *
+     * @throws SQLException
+     *         if a column is missing from the result set
+     */
+    private int[] findColumns(ResultSet rs, TableSchema schema) throws SQLException {
+        int[] positions = new int[schema.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = rs.findColumn(schema.getColumn(i).columnName());
+        }
+        return positions;
+    }
+
+    /**
+     * Reads the current row of the result set.
+     *
+     * @param rs
+     *         the result set
+     * @param schema
+     *         the schema of the table
+     * @param positions
+     *         the result set positions from {@link #findColumns(ResultSet, TableSchema)}
+     *
+     * @return the column values, in schema order
+     *
+     * @throws SQLException
+     */
+    private Object[] readRow(ResultSet rs, TableSchema schema, int[] positions) throws SQLException {
+        Object[] row = new Object[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            Column column = schema.getColumn(i);
+            if (column.isList()) {
+                row[i] = getList(column.dataType(), rs.getString(positions[i]));
+            }
+            else if (column.dataType() == DataType.BOOLEAN) {
+                row[i] = rs.getBoolean(positions[i]);
+            }
+            else {
+                row[i] = rs.getObject(positions[i]);
+            }
+        }
+        return row;
+    }
+
     /**
      * Close a set of working data.
      * This will return all the data to the connection pool.
@@ -576,51 +704,21 @@ public class SQLiteDatabase extends Database {
         }
     }
 
-    public ResultSet getResultSet(Connection conn, DataAccess data, Map<String, Object> filters, boolean limitOne) throws DatabaseReadException {
+    public synchronized ResultSet getResultSet(Connection conn, DataAccess data, Map<String, Object> filters, boolean limitOne) throws DatabaseReadException {
         PreparedStatement ps;
         ResultSet toRet;
 
         try {
 
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-                if (limitOne) {
-                    sb.append(" LIMIT 1");
-                }
-                ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` WHERE " + sb.toString());
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = data.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error fetching SQLite ResultSet in " + data.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col.dataType());
-                }
-            }
-            else {
-                if (limitOne) {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "` LIMIT 1");
-                }
-                else {
-                    ps = conn.prepareStatement("SELECT * FROM `" + data.getName() + "`");
-                }
-            }
+            SqlTemplateCache.Template template = getTemplate(data, limitOne ? Operation.SELECT_ONE : Operation.SELECT, filters.keySet());
+            ps = conn.prepareStatement(template.getSql());
+            bindFilters(ps, data, template, filters, 1);
             toRet = ps.executeQuery();
         }
         catch (SQLException ex) {
             throw new DatabaseReadException("Error fetching SQLite ResultSet in " + data.getName(), ex);
         }
-        catch (DatabaseReadException ex) {
+        catch (DatabaseTableInconsistencyException ex) {
             throw new DatabaseReadException("Error fetching SQLite ResultSet in " + data.getName(), ex);
         }
         catch (DatabaseWriteException ex) {
@@ -630,40 +728,18 @@ public class SQLiteDatabase extends Database {
         return toRet;
     }
 
-    public void deleteRows(Connection conn, DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+    public synchronized void deleteRows(Connection conn, DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
         PreparedStatement ps;
         try {
-            if (filters.size() > 0) {
-                StringBuilder sb = new StringBuilder();
-                Object[] fieldNames = filters.keySet().toArray();
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    sb.append("`").append(fieldNames[i]);
-                    if (i + 1 < fieldNames.length) {
-                        sb.append("`=? AND ");
-                    }
-                    else {
-                        sb.append("`=?");
-                    }
-                }
-                ps = conn.prepareStatement("DELETE FROM `" + data.getName() + "` WHERE " + sb.toString());
-                for (int i = 0; i < fieldNames.length && i < fieldNames.length; i++) {
-                    String fieldName = String.valueOf(fieldNames[i]);
-                    Column col = data.getColumnForName(fieldName);
-                    if (col == null) {
-                        throw new DatabaseReadException("Error deleting from SQLite table " + data.getName() + ". Column " + fieldNames[i] + " does not exist!");
-                    }
-                    setToStatement(i + 1, filters.get(fieldName), ps, col.dataType());
-                }
-            }
-            else {
-                ps = conn.prepareStatement("DELETE FROM `" + data.getName() + "`");
-            }
+            SqlTemplateCache.Template template = getTemplate(data, Operation.DELETE, filters.keySet());
+            ps = conn.prepareStatement(template.getSql());
+            bindFilters(ps, data, template, filters, 1);
             ps.execute();
         }
         catch (SQLException ex) {
             throw new DatabaseWriteException("Error deleting from SQLite table " + data.getName(), ex);
         }
-        catch (DatabaseReadException ex) {
+        catch (DatabaseTableInconsistencyException ex) {
             throw new DatabaseWriteException("Error deleting from SQLite table " + data.getName(), ex);
         }
         catch (DatabaseWriteException ex) {
@@ -713,7 +789,7 @@ public class SQLiteDatabase extends Database {
         }
     }
 
-    public List<String> getColumnNames(DataAccess data) {
+    public synchronized List<String> getColumnNames(DataAccess data) {
         Statement s = null;
         ResultSet rs = null;
 
@@ -845,27 +921,358 @@ public class SQLiteDatabase extends Database {
         return list;
     }
 
-    private String generateQuery(DataAccess data) throws DatabaseTableInconsistencyException {
-        StringBuilder fields = new StringBuilder();
-        StringBuilder values = new StringBuilder();
-        HashMap<Column, Object> columns = data.toDatabaseEntryList();
-        Iterator<Column> it = columns.keySet().iterator();
+    /**
+     * Gets the cache of the SQL statements this database runs
+     *
+     * @return the template cache
+     */
+    public SqlTemplateCache getTemplateCache() {
+        return templates;
+    }
 
-        Column column;
-        while (it.hasNext()) {
-            column = it.next();
-            if (!column.autoIncrement()) {
-                fields.append("`").append(column.columnName()).append("`").append(",");
-                values.append("?").append(",");
+    private SqlTemplateCache.Template getTemplate(DataAccess data, Operation operation, Set<String> filterColumns) throws DatabaseTableInconsistencyException {
+        return templates.get(data, operation, filterColumns, sqlBuilder);
+    }
+
+    /**
+     * Writes the SQL of a template. Auto increment columns are left out of INSERT and UPDATE
+     * for the database to handle.
+     * SQLite has no UPDATE ... LIMIT or DELETE ... LIMIT, so the single row operations
+     * pick the row by rowid to touch at most one row like {@link #update(DataAccess, Map)} does.
+     *
+     * @param data
+     *         a DataAccess of the table
+     * @param operation
+     *         the operation
+     * @param filterColumns
+     *         the filter columns, in binding order
+     *
+     * @return the SQL
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    private String buildSql(DataAccess data, Operation operation, String[] filterColumns) throws DatabaseTableInconsistencyException {
+        StringBuilder sb = new StringBuilder();
+        switch (operation) {
+            case INSERT:
+                StringBuilder values = new StringBuilder();
+                for (Column column : data.getSchema().getColumns()) {
+                    if (!column.autoIncrement()) {
+                        if (values.length() > 0) {
+                            sb.append(",");
+                            values.append(",");
+                        }
+                        sb.append("`").append(column.columnName()).append("`");
+                        values.append("?");
+                    }
+                }
+                return "INSERT INTO `" + data.getName() + "` (" + sb.toString() + ") VALUES(" + values.toString() + ")";
+            case UPDATE:
+                sb.append("UPDATE `").append(data.getName()).append("` SET ");
+                boolean first = true;
+                for (Column column : data.getSchema().getColumns()) {
+                    if (!column.autoIncrement()) {
+                        if (!first) {
+                            sb.append(", ");
+                        }
+                        sb.append("`").append(column.columnName()).append("`=?");
+                        first = false;
+                    }
+                }
+                sb.append(" WHERE rowid IN (SELECT rowid FROM `").append(data.getName()).append("`");
+                appendWhere(sb, filterColumns);
+                return sb.append(" LIMIT 1)").toString();
+            case SELECT:
+            case SELECT_ONE:
+            case SELECT_PAGE:
+                sb.append("SELECT * FROM `").append(data.getName()).append("`");
+                break;
+            case DELETE:
+                sb.append("DELETE FROM `").append(data.getName()).append("`");
+                break;
+            case DELETE_ONE:
+                sb.append("DELETE FROM `").append(data.getName()).append("` WHERE rowid IN (SELECT rowid FROM `").append(data.getName()).append("`");
+                appendWhere(sb, filterColumns);
+                return sb.append(" LIMIT 1)").toString();
+        }
+        appendWhere(sb, filterColumns);
+        if (operation == Operation.SELECT_ONE) {
+            sb.append(" LIMIT 1");
+        }
+        else if (operation == Operation.SELECT_PAGE) {
+            sb.append(filterColumns.length == 0 ? " WHERE" : " AND").append(" `id`>? ORDER BY `id` LIMIT ?");
+        }
+        return sb.toString();
+    }
+
+    private void appendWhere(StringBuilder sb, String[] filterColumns) {
+        for (int i = 0; i < filterColumns.length; i++) {
+            sb.append(i == 0 ? " WHERE `" : " AND `").append(filterColumns[i]).append("`=?");
+        }
+    }
+
+    /**
+     * Reads the next page of rows of a table, in id order.
+     * Every page is a short forward only query of its own, so no cursor stays open while the rows are visited.
+     *
+     * @param data
+     *         a DataAccess of the table
+     * @param schema
+     *         the schema of the table
+     * @param filters
+     *         the filters
+     * @param afterId
+     *         the id of the last row of the previous page
+     * @param pageSize
+     *         the maximum number of rows to read
+     * @param page
+     *         receives the rows
+     *
+     * @throws DatabaseReadException
+     */
+    private synchronized void readPage(DataAccess data, TableSchema schema, Map<String, Object> filters, long afterId, int pageSize, List<Object[]> page) throws DatabaseReadException {
+        Connection conn = JdbcConnectionManager.getConnection();
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+
+        try {
+            SqlTemplateCache.Template template = getTemplate(data, Operation.SELECT_PAGE, filters.keySet());
+            ps = conn.prepareStatement(template.getSql());
+            ps.setFetchSize(pageSize);
+            bindFilters(ps, data, template, filters, 1);
+            ps.setLong(template.getFilterCount() + 1, afterId);
+            ps.setInt(template.getFilterCount() + 2, pageSize);
+            rs = ps.executeQuery();
+            int[] positions = findColumns(rs, schema);
+            while (rs.next()) {
+                page.add(readRow(rs, schema, positions));
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error reading SQLite table " + data.getName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseReadException("Error reading SQLite table " + data.getName(), ex);
+        }
+        catch (DatabaseWriteException ex) {
+            throw new DatabaseReadException("Error reading SQLite table " + data.getName(), ex);
+        }
+        finally {
+            close(null, ps, rs);
+        }
+    }
+
+    /**
+     * Inserts the DataAccess as a new row
+     *
+     * @param conn
+     *         the connection to use
+     * @param data
+     *         the data to insert
+     *
+     * @throws SQLException
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private void insertRow(Connection conn, DataAccess data) throws SQLException, DatabaseWriteException, DatabaseTableInconsistencyException {
+        PreparedStatement ps = null;
+
+        try {
+            ps = conn.prepareStatement(getTemplate(data, Operation.INSERT, NO_FILTERS).getSql());
+            bindColumns(ps, data, 1);
+            if (ps.executeUpdate() == 0) {
+                throw new DatabaseWriteException("Error inserting SQLite: no rows updated!");
             }
         }
-        if (fields.length() > 0) {
-            fields.deleteCharAt(fields.length() - 1);
+        finally {
+            close(null, ps, null);
         }
-        if (values.length() > 0) {
-            values.deleteCharAt(values.length() - 1);
+    }
+
+    /**
+     * Updates the first row matching the filters with a single statement
+     *
+     * @param conn
+     *         the connection to use
+     * @param data
+     *         the new data of the row
+     * @param filters
+     *         the filters
+     *
+     * @return the number of updated rows, 0 or 1
+     *
+     * @throws SQLException
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private int updateRow(Connection conn, DataAccess data, Map<String, Object> filters) throws SQLException, DatabaseWriteException, DatabaseTableInconsistencyException {
+        PreparedStatement ps = null;
+
+        try {
+            SqlTemplateCache.Template template = getTemplate(data, Operation.UPDATE, filters.keySet());
+            ps = conn.prepareStatement(template.getSql());
+            bindFilters(ps, data, template, filters, bindColumns(ps, data, 1));
+            return ps.executeUpdate();
+        }
+        finally {
+            close(null, ps, null);
+        }
+    }
+
+    /**
+     * Binds the values of all columns but auto increment ones, in schema order.
+     *
+     * @param ps
+     *         the prepared statement
+     * @param data
+     *         the DataAccess to read the values from
+     * @param index
+     *         the first parameter index to bind to
+     *
+     * @return the next free parameter index
+     *
+     * @throws SQLException
+     * @throws DatabaseWriteException
+     * @throws DatabaseTableInconsistencyException
+     */
+    private int bindColumns(PreparedStatement ps, DataAccess data, int index) throws SQLException, DatabaseWriteException, DatabaseTableInconsistencyException {
+        TableSchema schema = data.getSchema();
+        try {
+            for (int i = 0; i < schema.size(); i++) {
+                Column column = schema.getColumn(i);
+                if (!column.autoIncrement()) {
+                    bindValue(index++, schema.getValue(data, i), ps, column);
+                }
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseWriteException("Could not read a column field of " + data.getName(), e);
+        }
+        return index;
+    }
+
+    /**
+     * Binds the filter values in the order of the template.
+     *
+     * @param ps
+     *         the prepared statement
+     * @param data
+     *         a DataAccess of the table
+     * @param template
+     *         the template the statement was prepared from
+     * @param filters
+     *         the filters
+     * @param index
+     *         the first parameter index to bind to
+     *
+     * @throws DatabaseWriteException
+     *         if a filter column does not exist or its value can't be set
+     */
+    private void bindFilters(PreparedStatement ps, DataAccess data, SqlTemplateCache.Template template, Map<String, Object> filters, int index) throws DatabaseWriteException {
+        for (int i = 0; i < template.getFilterCount(); i++) {
+            String fieldName = template.getFilterColumn(i);
+            Column col = data.getColumnForName(fieldName);
+            if (col == null) {
+                throw new DatabaseWriteException("Error binding SQLite filter in " + data.getName() + ". Column " + fieldName + " does not exist!");
+            }
+            setToStatement(index + i, filters.get(fieldName), ps, col.dataType());
+        }
+    }
+
+    /**
+     * Sets a column value to the given index of the given PreparedStatement,
+     * serializing lists the same way {@link #getList(DataType, String)} reads them back.
+     *
+     * @param index
+     *         the index to set to
+     * @param o
+     *         the object to set
+     * @param ps
+     *         the prepared statement
+     * @param column
+     *         the column the value belongs to
+     *
+     * @throws SQLException
+     */
+    private void bindValue(int index, Object o, PreparedStatement ps, Column column) throws SQLException {
+        if (column.isList()) {
+            ps.setString(index, getString((List<?>)o));
+        }
+        else {
+            ps.setObject(index, o);
+        }
+    }
+
+    /**
+     * Gets the batch statement for the given SQL, preparing it on first use.
+     *
+     * @param conn
+     *         the connection the batch runs on
+     * @param batches
+     *         the statements prepared so far, by SQL
+     * @param sql
+     *         the SQL of the statement
+     *
+     * @return the prepared statement
+     *
+     * @throws SQLException
+     */
+    private PreparedStatement getBatchStatement(Connection conn, Map<String, PreparedStatement> batches, String sql) throws SQLException {
+        PreparedStatement ps = batches.get(sql);
+        if (ps == null) {
+            ps = conn.prepareStatement(sql);
+            batches.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * Executes all batched statements and commits them as one transaction.
+     *
+     * @param conn
+     *         the connection the batch runs on
+     * @param batches
+     *         the batched statements
+     *
+     * @throws SQLException
+     */
+    private void executeBatches(Connection conn, Map<String, PreparedStatement> batches) throws SQLException {
+        for (PreparedStatement ps : batches.values()) {
+            ps.executeBatch();
+        }
+        conn.commit();
+    }
+
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        }
+        catch (SQLException e) {
+            log.error("Failed to roll back SQLite batch", e);
+        }
+    }
+
+    /**
+     * Closes the batched statements and restores the auto commit mode of the shared connection.
+     * The connection itself stays open, it is not pooled for SQLite.
+     *
+     * @param conn
+     *         the connection the batch ran on
+     * @param batches
+     *         the batched statements
+     * @param autoCommit
+     *         the auto commit mode to restore
+     */
+    private void finishBatch(Connection conn, Map<String, PreparedStatement> batches, boolean autoCommit) {
+        for (PreparedStatement ps : batches.values()) {
+            close(null, ps, null);
+        }
+        try {
+            conn.setAutoCommit(autoCommit);
+        }
+        catch (SQLException e) {
+            log.error(e.getMessage(), e);
         }
-        return "INSERT INTO `" + data.getName() + "` (" + fields.toString() + ") VALUES(" + values.toString() + ")";
     }
 
     /**
@@ -2,12 +2,16 @@ package net.canarymod.database.xml;
 
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.mchange.v1.lang.BooleanUtils;
 import net.canarymod.Canary;
+import net.canarymod.config.Configuration;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.Column;
 import net.canarymod.database.Column.DataType;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
+import net.canarymod.database.RowVisitor;
 import net.canarymod.database.exceptions.DatabaseAccessException;
 import net.canarymod.database.exceptions.DatabaseReadException;
 import net.canarymod.database.exceptions.DatabaseTableInconsistencyException;
@@ -29,12 +33,16 @@ import java.io.RandomAccessFile;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.nio.charset.Charset;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represent access to an XML database
@@ -44,13 +52,42 @@ import java.util.Map;
 public class XmlDatabase extends Database {
 
     private XmlDatabase() {
-        File path = new File("db/");
+        this(new File("db/"), Configuration.getDbConfig().getXmlFlushInterval());
+        // Journals survive a crash, but a clean exit should leave the XML files up to date
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Hooks run in no particular order, make sure queued writes are in before flushing
+                AsyncDatabase.shutdownInstance();
+                flush();
+            }
+        }, "XmlDatabase-Shutdown"));
+    }
 
-        if (!path.exists()) {
-            if (!path.mkdirs()) {
+    /**
+     * Creates a database that keeps its tables in the given directory.
+     * Unlike the shared instance it is not flushed on exit, call {@link #shutdown()} when done.
+     *
+     * @param directory
+     *         the directory of the XML files
+     * @param flushInterval
+     *         seconds between background flushes
+     */
+    XmlDatabase(File directory, int flushInterval) {
+        this.directory = directory;
+        if (!directory.exists()) {
+            if (!directory.mkdirs()) {
                 throw new ExceptionInInitializerError("Unable to create database directories... Please check your read/write permissions and try again");
             }
         }
+        int interval = Math.max(1, flushInterval);
+        flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("XmlDatabase-Flusher").setDaemon(true).build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
     }
 
     private static XmlDatabase instance;
@@ -74,25 +111,31 @@ public class XmlDatabase extends Database {
      */
     private Map<String, Element> tableProperties = Maps.newConcurrentMap();
 
+    /**
+     * Tables that have been read from disk, by name
+     */
+    private final Map<String, XmlTable> tables = Maps.newConcurrentMap();
+
+    /**
+     * Writes journaled changes back to the XML files
+     */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Where the XML files and their journals are kept
+     */
+    private final File directory;
+
     @Override
     public void insert(DataAccess data) throws DatabaseWriteException {
-        File file = new File("db/" + data.getName() + ".xml");
-
-        if (!file.exists()) {
-            try {
-                if (!file.createNewFile()) {
-                    throw new DatabaseWriteException("Failed to create database XML file: " + data.getName());
-                }
-            }
-            catch (IOException e) {
-                throw new DatabaseWriteException(e.getMessage());
-            }
-        }
-        Document dbTable;
+        createFile(data.getName());
 
         try {
-            dbTable = verifyTable(file, data.getName());
-            insertData(file, data, dbTable, true);
+            XmlTable table = getTable(data);
+            synchronized (table) {
+                insertData(table, data);
+                table.sync();
+            }
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -107,27 +150,20 @@ public class XmlDatabase extends Database {
 
     @Override
     public void insertAll(List<DataAccess> data) throws DatabaseWriteException {
-        DataAccess first = data.get(0);
-        File file = new File("db/" + first.getName() + ".xml");
-
-        if (!file.exists()) {
-            try {
-                if (!file.createNewFile()) {
-                    throw new DatabaseWriteException("Failed to create database XML file: " + first.getName());
-                }
-            }
-            catch (IOException e) {
-                throw new DatabaseWriteException(e.getMessage());
-            }
+        if (data.isEmpty()) {
+            return;
         }
-        Document dbTable;
+        DataAccess first = data.get(0);
+        createFile(first.getName());
 
         try {
-            dbTable = verifyTable(file, first.getName());
-            for (DataAccess da : data) {
-                insertData(file, da, dbTable, false);
+            XmlTable table = getTable(first);
+            synchronized (table) {
+                for (DataAccess da : data) {
+                    insertData(table, da);
+                }
+                table.sync();
             }
-            write(file, dbTable);
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -142,15 +178,15 @@ public class XmlDatabase extends Database {
 
     @Override
     public void load(DataAccess data, Map<String, Object> filters) throws DatabaseReadException {
-        File file = new File("db/" + data.getName() + ".xml");
-
-        if (!file.exists()) {
+        if (!tableExists(data.getName())) {
             throw new DatabaseReadException("Table " + data.getName() + " does not exist!");
         }
 
         try {
-            Document table = verifyTable(file, data.getName());
-            loadData(data, table, filters);
+            XmlTable table = getTable(data);
+            synchronized (table) {
+                loadData(data, table, filters);
+            }
         }
         catch (JDOMException e) {
             throw new DatabaseReadException(e.getMessage(), e);
@@ -165,15 +201,58 @@ public class XmlDatabase extends Database {
 
     @Override
     public void loadAll(DataAccess typeTemplate, List<DataAccess> datasets, Map<String, Object> filters) throws DatabaseReadException {
-        File file = new File("db/" + typeTemplate.getName() + ".xml");
+        if (!tableExists(typeTemplate.getName())) {
+            throw new DatabaseReadException("Table " + typeTemplate.getName() + " does not exist!");
+        }
+
+        try {
+            XmlTable table = getTable(typeTemplate);
+            synchronized (table) {
+                loadAllData(typeTemplate, datasets, table, filters);
+            }
+        }
+        catch (JDOMException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseAccessException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+    }
 
-        if (!file.exists()) {
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends DataAccess> void visitAll(T typeTemplate, Map<String, Object> filters, RowVisitor<? super T> visitor) throws DatabaseReadException {
+        if (!tableExists(typeTemplate.getName())) {
             throw new DatabaseReadException("Table " + typeTemplate.getName() + " does not exist!");
         }
 
         try {
-            Document table = verifyTable(file, typeTemplate.getName());
-            loadAllData(typeTemplate, datasets, table, filters);
+            XmlTable table = getTable(typeTemplate);
+            Element properties;
+            List<Element> candidates;
+            DataAccess defaults = typeTemplate.getInstance();
+            synchronized (table) {
+                properties = getTableProperties(table.getDocument(), typeTemplate.getName(), typeTemplate);
+                candidates = new ArrayList<Element>(getCandidates(table, filters));
+            }
+            // Only the entry being read holds the table lock, so the visitor may write to the table
+            for (Element element : candidates) {
+                HashMap<String, Object> dataSet;
+                synchronized (table) {
+                    if (element.getParent() == null || !matches(element, filters)) {
+                        continue; // Removed or changed since the snapshot
+                    }
+                    dataSet = readEntry(element, properties, defaults);
+                }
+                T data = (T)typeTemplate.getInstance();
+                data.load(dataSet);
+                if (!visitor.visit(data)) {
+                    return;
+                }
+            }
         }
         catch (JDOMException e) {
             throw new DatabaseReadException(e.getMessage(), e);
@@ -188,15 +267,16 @@ public class XmlDatabase extends Database {
 
     @Override
     public void update(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        File file = new File("db/" + data.getName() + ".xml");
-
-        if (!file.exists()) {
+        if (!tableExists(data.getName())) {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
 
         try {
-            Document table = verifyTable(file, data.getName());
-            updateData(file, table, data, filters, true);
+            XmlTable table = getTable(data);
+            synchronized (table) {
+                updateData(table, data, filters, true);
+                table.sync();
+            }
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -210,20 +290,25 @@ public class XmlDatabase extends Database {
     }
 
     @Override
-    public void updateAll(DataAccess data, Map<DataAccess, Map<String, Object>> list) throws DatabaseWriteException {
-
-        File file = new File("db/" + data.getName() + ".xml");
+    public void upsert(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
+        // Updates already insert entries that don't exist yet, in the same pass over the table
+        update(data, filters);
+    }
 
-        if (!file.exists()) {
+    @Override
+    public void updateAll(DataAccess data, Map<DataAccess, Map<String, Object>> list) throws DatabaseWriteException {
+        if (!tableExists(data.getName())) {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
 
         try {
-            Document table = verifyTable(file, data.getName());
-            for (DataAccess da : list.keySet()) {
-                updateData(file, table, da, list.get(da), false);
+            XmlTable table = getTable(data);
+            synchronized (table) {
+                for (DataAccess da : list.keySet()) {
+                    updateData(table, da, list.get(da), false);
+                }
+                table.sync();
             }
-            write(file, table);
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -238,15 +323,16 @@ public class XmlDatabase extends Database {
 
     @Override
     public void remove(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        File file = new File("db/" + data.getName() + ".xml");
-
-        if (!file.exists()) {
+        if (!tableExists(data.getName())) {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
 
         try {
-            Document table = verifyTable(file, data.getName());
-            removeData(file, table, filters, false);
+            XmlTable table = getTable(data);
+            synchronized (table) {
+                removeData(table, filters, false);
+                table.sync();
+            }
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -258,15 +344,16 @@ public class XmlDatabase extends Database {
 
     @Override
     public void removeAll(DataAccess data, Map<String, Object> filters) throws DatabaseWriteException {
-        File file = new File("db/" + data.getName() + ".xml");
-
-        if (!file.exists()) {
+        if (!tableExists(data.getName())) {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
 
         try {
-            Document table = verifyTable(file, data.getName());
-            removeData(file, table, filters, true);
+            XmlTable table = getTable(data);
+            synchronized (table) {
+                removeData(table, filters, true);
+                table.sync();
+            }
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -278,44 +365,39 @@ public class XmlDatabase extends Database {
 
     @Override
     public void updateSchema(DataAccess data) throws DatabaseWriteException {
-        File file = new File("db/" + data.getName() + ".xml");
+        createFile(data.getName());
 
-        if (!file.exists()) {
-            try {
-                if (!file.createNewFile()) {
-                    throw new DatabaseWriteException("Failed to create database XML file: " + data.getName());
-                }
-            }
-            catch (IOException e) {
-                throw new DatabaseWriteException(e.getMessage(), e);
-            }
-        }
         try {
-            Document table = verifyTable(file, data.getName());
+            XmlTable xmlTable = getTable(data);
+            synchronized (xmlTable) {
+                Document table = xmlTable.getDocument();
 
-            if (table.getRootElement().getChild("tableProperties") == null) {
-                table.getRootElement().addContent(generateProperties(data));
-            }
+                if (table.getRootElement().getChild("tableProperties") == null) {
+                    table.getRootElement().addContent(0, generateProperties(data));
+                }
 
-            HashSet<Column> tableLayout = data.getTableLayout();
+                HashSet<Column> tableLayout = data.getTableLayout();
 
-            for (Column column : tableLayout) {
-                if (table.getRootElement().getChild("tableProperties").getChild(column.columnName()) == null) {
-                    setPropertyFor(column, table.getRootElement().getChild("tableProperties"));
+                for (Column column : tableLayout) {
+                    if (table.getRootElement().getChild("tableProperties").getChild(column.columnName()) == null) {
+                        setPropertyFor(column, table.getRootElement().getChild("tableProperties"));
+                    }
                 }
-            }
-            for (Element element : table.getRootElement().getChildren()) {
-                if (!element.getName().equals("tableProperties")) {
-                    addFields(element, tableLayout);
-                    removeFields(element, tableLayout);
-
-                    // Clean out the old attribute data
-                    for (Element child : element.getChildren()) {
-                        child.getAttributes().clear();
+                for (Element element : table.getRootElement().getChildren()) {
+                    if (!element.getName().equals("tableProperties")) {
+                        addFields(element, tableLayout);
+                        removeFields(element, tableLayout);
+
+                        // Clean out the old attribute data
+                        for (Element child : element.getChildren()) {
+                            child.getAttributes().clear();
+                        }
                     }
                 }
+                xmlTable.setIndexedColumns(getIndexedColumns(data));
+                // Schema changes are rare, write them out right away instead of journaling every entry
+                compact(xmlTable);
             }
-            write(file, table);
         }
         catch (JDOMException e) {
             throw new DatabaseWriteException(e.getMessage(), e);
@@ -328,6 +410,150 @@ public class XmlDatabase extends Database {
         }
     }
 
+    /**
+     * Writes all tables with journaled changes back to their XML files and clears their journals.
+     * This runs periodically in the background and on shutdown.
+     */
+    public void flush() {
+        for (XmlTable table : tables.values()) {
+            synchronized (table) {
+                if (!table.isDirty()) {
+                    continue;
+                }
+                try {
+                    compact(table);
+                }
+                catch (IOException e) {
+                    Canary.log.error("Failed to write XML table " + table.getName() + ", changes remain journaled", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes all pending changes to disk.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private void compact(XmlTable table) throws IOException {
+        write(table.getFile(), table.getDocument());
+        table.clearJournal();
+    }
+
+    /**
+     * Gets the cached table of the given DataAccess, reading it from disk and replaying its journal on first access.
+     *
+     * @param data
+     *         the DataAccess of the table
+     *
+     * @return the table
+     *
+     * @throws IOException
+     * @throws JDOMException
+     */
+    private XmlTable getTable(DataAccess data) throws IOException, JDOMException {
+        String name = data.getName();
+        XmlTable table = tables.get(name);
+        if (table == null) {
+            synchronized (tables) {
+                table = tables.get(name);
+                if (table == null) {
+                    File file = new File(directory, name + ".xml");
+                    table = new XmlTable(name, file, verifyTable(file, name));
+                    int replayed = table.replay(fileBuilder);
+                    if (replayed > 0) {
+                        Canary.log.info("Replayed " + replayed + " journaled changes to XML table " + name);
+                        compact(table);
+                    }
+                    table.setIndexedColumns(getIndexedColumns(data));
+                    tables.put(name, table);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Gets the columns to index: UNIQUE and PRIMARY columns and those marked as indexed.
+     * List columns are never indexed.
+     *
+     * @param data
+     *         the DataAccess of the table
+     *
+     * @return the column names
+     */
+    private List<String> getIndexedColumns(DataAccess data) {
+        List<String> columns = new ArrayList<String>();
+        try {
+            for (Column column : data.getSchema().getColumns()) {
+                if (!column.isList() && (column.indexed() || column.columnType() != Column.ColumnType.NORMAL)) {
+                    columns.add(column.columnName());
+                }
+            }
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            Canary.log.warn("Not indexing XML table " + data.getName() + ": " + e.getMessage());
+        }
+        return columns;
+    }
+
+    /**
+     * Gets the entries that may match the given filters, through an index if possible
+     *
+     * @param table
+     * @param filters
+     *
+     * @return the candidate entries, check them with {@link #matches(Element, Map)}
+     */
+    private List<Element> getCandidates(XmlTable table, Map<String, Object> filters) {
+        List<Element> candidates = table.candidates(filters);
+        return candidates != null ? candidates : table.getDocument().getRootElement().getChildren();
+    }
+
+    /**
+     * Checks if an entry matches all filters
+     *
+     * @param element
+     * @param filters
+     *
+     * @return true if the element is an entry with the filtered values
+     */
+    private boolean matches(Element element, Map<String, Object> filters) {
+        if (element.getName().equals("tableProperties")) {
+            return false;
+        }
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            Element child = element.getChild(filter.getKey());
+
+            if (child == null || !child.getText().equals(String.valueOf(filter.getValue()))) {
+                return false; // Not the entry we're looking for
+            }
+        }
+        return true;
+    }
+
+    private boolean tableExists(String name) {
+        return tables.containsKey(name) || new File(directory, name + ".xml").exists();
+    }
+
+    private void createFile(String name) throws DatabaseWriteException {
+        File file = new File(directory, name + ".xml");
+
+        if (!tables.containsKey(name) && !file.exists()) {
+            try {
+                if (!file.createNewFile()) {
+                    throw new DatabaseWriteException("Failed to create database XML file: " + name);
+                }
+            }
+            catch (IOException e) {
+                throw new DatabaseWriteException(e.getMessage(), e);
+            }
+        }
+    }
+
     private Document initFile(File file, String rootName) throws IOException {
         Document doc = new Document(new Element(rootName));
         write(file, doc);
@@ -377,17 +603,16 @@ public class XmlDatabase extends Database {
     }
 
     /**
-     * Inserts data into the XML file. This does NOT update data.
+     * Inserts data into the table. This does NOT update data.
      * It will create a new entry if there isn't the exact same already present
      *
-     * @param file
+     * @param table
      * @param data
-     * @param dbTable
      *
      * @throws IOException
      * @throws DatabaseTableInconsistencyException
      */
-    private void insertData(File file, DataAccess data, Document dbTable, boolean write) throws IOException, DatabaseTableInconsistencyException {
+    private void insertData(XmlTable table, DataAccess data) throws IOException, DatabaseTableInconsistencyException {
         HashMap<Column, Object> entry = data.toDatabaseEntryList();
 
         if (data.isInconsistent()) {
@@ -399,45 +624,33 @@ public class XmlDatabase extends Database {
         for (Column column : entry.keySet()) {
 
             Element col = new Element(column.columnName());
-            addToElement(dbTable, col, entry.get(column), column);
+            addToElement(table.getDocument(), col, entry.get(column), column);
             set.addContent(col);
         }
-        dbTable.getRootElement().addContent(set);
-        if (write) {
-            write(file, dbTable);
-        }
+        table.getDocument().getRootElement().addContent(set);
+        table.index(set);
+        table.journalPut(set);
     }
 
     /**
      * Updates an already existing element in the document.
      * IMPORTANT: the lengths of fields and content array must have been checked before this method is called!
      *
-     * @param file
      * @param table
+     * @param data
      * @param filters
+     * @param insertIfMissing
+     *         true to insert the data if no entry matches the filters
      *
      * @throws IOException
      * @throws DatabaseTableInconsistencyException
      * @throws DatabaseWriteException
      */
-    private void updateData(File file, Document table, DataAccess data, Map<String, Object> filters, boolean write) throws IOException, DatabaseTableInconsistencyException, DatabaseWriteException {
+    private void updateData(XmlTable table, DataAccess data, Map<String, Object> filters, boolean insertIfMissing) throws IOException, DatabaseTableInconsistencyException {
         boolean hasUpdated = false;
-        String[] fields = new String[filters.size()];
-        filters.keySet().toArray(fields); // We know those are strings
-        for (Element element : table.getRootElement().getChildren()) {
-            int equalFields = 0;
-
-            for (String field : fields) {
-                Element child = element.getChild(field);
-
-                if (child != null) {
-                    if (child.getText().equals(String.valueOf(filters.get(field)))) {
-                        equalFields++;
-                    }
-                }
-            }
-            if (equalFields != fields.length) {
-                continue; // Not the entry we're looking for
+        for (Element element : getCandidates(table, filters)) {
+            if (!matches(element, filters)) {
+                continue;
             }
 
             if (data.isInconsistent()) {
@@ -446,6 +659,8 @@ public class XmlDatabase extends Database {
             }
 
             HashMap<Column, Object> dataSet = data.toDatabaseEntryList();
+            String[] indexKeys = table.indexKeys(element);
+            boolean changed = false;
             for (Column column : dataSet.keySet()) {
                 Element child = element.getChild(column.columnName());
 
@@ -456,41 +671,27 @@ public class XmlDatabase extends Database {
                 if (column.autoIncrement()) {
                     continue;
                 }
-                addToElement(table, child, dataSet.get(column), column);
+                addToElement(table.getDocument(), child, dataSet.get(column), column);
+                changed = true;
+            }
+            if (changed) {
+                table.reindex(element, indexKeys);
+                table.journalPut(element);
                 hasUpdated = true;
             }
         }
-        if (hasUpdated && write) {
-            write(file, table);
-        }
-        else {
+        if (!hasUpdated && insertIfMissing) {
             // No fields found, that means it is a new entry
-            if (write) {
-                insertData(file, data, table, true);
-            }
+            insertData(table, data);
         }
     }
 
-    private void removeData(File file, Document table, Map<String, Object> filters, boolean removeAll) throws IOException {
+    private void removeData(XmlTable table, Map<String, Object> filters, boolean removeAll) throws IOException {
         ArrayList<Element> toremove = new ArrayList<Element>();
-        String[] fields = new String[filters.size()];
-        filters.keySet().toArray(fields); // We know those are strings
-        for (Element element : table.getRootElement().getChildren()) {
-            int equalFields = 0;
-
-            for (String field : fields) {
-                Element child = element.getChild(field);
-
-                if (child != null) {
-                    if (child.getText().equals(String.valueOf(filters.get(field)))) {
-                        equalFields++;
-                    }
-                }
+        for (Element element : getCandidates(table, filters)) {
+            if (!matches(element, filters)) {
+                continue;
             }
-            if (equalFields != fields.length) {
-                continue; // Not the entry we're looking for
-            }
-            // table.getRootElement().removeContent(element);
             toremove.add(element);
             if (!removeAll) {
                 // Just remove one row
@@ -499,77 +700,65 @@ public class XmlDatabase extends Database {
         }
         for (Element e : toremove) {
             e.detach();
+            table.unindex(e);
+            table.journalDelete(e);
         }
-        write(file, table);
     }
 
-    private void loadData(DataAccess data, Document table, Map<String, Object> filters) throws DatabaseAccessException {
-        String[] fields = new String[filters.size()];
-        filters.keySet().toArray(fields); // We know those are strings
-        for (Element element : table.getRootElement().getChildren()) {
-            int equalFields = 0;
-
-            for (String field : fields) {
-                Element child = element.getChild(field);
-
-                if (child != null) {
-                    if (child.getText().equals(String.valueOf(filters.get(field)))) {
-                        equalFields++;
-                    }
-                }
-            }
-            if (equalFields != fields.length) {
-                continue; // Not the entry we're looking for
+    private void loadData(DataAccess data, XmlTable table, Map<String, Object> filters) throws DatabaseAccessException {
+        for (Element element : getCandidates(table, filters)) {
+            if (!matches(element, filters)) {
+                continue;
             }
             HashMap<String, Object> dataSet = new HashMap<String, Object>();
+            DataAccess defaults = data.getInstance();
+            Element properties = getTableProperties(table.getDocument(), data.getName(), defaults);
             for (Element child : element.getChildren()) {
-                DataType type = DataType.fromString(getTableProperties(table, data.getName(), data.getInstance()).getChild(child.getName()).getAttributeValue("data-type"));
-                addTypeToMap(child, dataSet, type, data.getInstance());
+                DataType type = DataType.fromString(properties.getChild(child.getName()).getAttributeValue("data-type"));
+                addTypeToMap(child, dataSet, type, defaults);
             }
             data.load(dataSet);
             return;
         }
     }
 
-    private void loadAllData(DataAccess template, List<DataAccess> datasets, Document table, Map<String, Object> filters) throws DatabaseAccessException {
-        String[] fields = new String[filters.size()];
-        filters.keySet().toArray(fields); // We know those are strings
+    private void loadAllData(DataAccess template, List<DataAccess> datasets, XmlTable table, Map<String, Object> filters) throws DatabaseAccessException {
+        Element properties = getTableProperties(table.getDocument(), template.getName(), template);
+        DataAccess defaults = template.getInstance();
 
-        sortElements(table); // pre-sort so if tableProperties is moved from the top it will be returned
-
-        Element properties = getTableProperties(table, template.getName(), template);
-
-        for (Element element : table.getRootElement().getChildren()) {
-            if (!element.getName().equals("tableProperties")) {
-                int equalFields = 0;
-
-                for (String field : fields) {
-                    Element child = element.getChild(field);
-
-                    if (child != null) {
-                        if (child.getText().equals(String.valueOf(filters.get(field)))) {
-                            equalFields++;
-                        }
-                    }
-                }
-                if (equalFields != fields.length) {
-                    continue; // Not the entry we're looking for
-                }
-                HashMap<String, Object> dataSet = new HashMap<String, Object>();
-
-                for (Element child : element.getChildren()) {
-                    DataType type = DataType.fromString(properties.getChild(child.getName()).getAttributeValue("data-type"));
-
-                    addTypeToMap(child, dataSet, type, template.getInstance());
-                }
+        for (Element element : getCandidates(table, filters)) {
+            if (matches(element, filters)) {
                 DataAccess da = template.getInstance();
 
-                da.load(dataSet);
+                da.load(readEntry(element, properties, defaults));
                 datasets.add(da);
             }
         }
     }
 
+    /**
+     * Reads the column values of an entry
+     *
+     * @param element
+     *         the entry
+     * @param properties
+     *         the table properties
+     * @param defaults
+     *         an empty instance of the table, for default values
+     *
+     * @return the data set
+     */
+    private HashMap<String, Object> readEntry(Element element, Element properties, DataAccess defaults) {
+        HashMap<String, Object> dataSet = new HashMap<String, Object>(element.getContentSize() * 2);
+
+        for (Element child : element.getChildren()) {
+            DataType type = DataType.fromString(properties.getChild(child.getName()).getAttributeValue("data-type"));
+
+            addTypeToMap(child, dataSet, type, defaults);
+        }
+        return dataSet;
+    }
+
     /**
      * Performs a field-by-field comparison for the two given Contents.
      * First they must be of type Element and then the fields are checked against each other.
@@ -672,7 +861,7 @@ public class XmlDatabase extends Database {
 
                     for (Element el : child.getChildren()) {
                         try {
-                            values.add((Byte)typeParse(el.getValue(), child.getName(), type, template.getInstance()));
+                            values.add((Byte)typeParse(el.getValue(), child.getName(), type, template));
                         }
                         catch (IllegalAccessException e) {
                             Canary.log.debug("XML Database - Byte - List", e);
@@ -685,7 +874,7 @@ public class XmlDatabase extends Database {
                 }
                 else {
                     try {
-                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template.getInstance()));
+                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template));
                     }
                     catch (IllegalAccessException e) {
                         Canary.log.debug("XML Database - Byte - NonList", e);
@@ -702,7 +891,7 @@ public class XmlDatabase extends Database {
 
                     for (Element el : child.getChildren()) {
                         try {
-                            values.add((Short)typeParse(el.getValue(), child.getName(), type, template.getInstance()));
+                            values.add((Short)typeParse(el.getValue(), child.getName(), type, template));
                         }
                         catch (IllegalAccessException e) {
                             Canary.log.debug("XML Database - Short - List", e);
@@ -715,7 +904,7 @@ public class XmlDatabase extends Database {
                 }
                 else {
                     try {
-                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template.getInstance()));
+                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template));
                     }
                     catch (IllegalAccessException e) {
                         Canary.log.debug("XML Database - Short - NonList", e);
@@ -732,7 +921,7 @@ public class XmlDatabase extends Database {
 
                     for (Element el : child.getChildren()) {
                         try {
-                            values.add((Integer)typeParse(el.getValue(), child.getName(), type, template.getInstance()));
+                            values.add((Integer)typeParse(el.getValue(), child.getName(), type, template));
                         }
                         catch (IllegalAccessException e) {
                             Canary.log.debug("XML Database - Integer - List", e);
@@ -745,7 +934,7 @@ public class XmlDatabase extends Database {
                 }
                 else {
                     try {
-                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template.getInstance()));
+                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template));
                     }
                     catch (IllegalAccessException e) {
                         Canary.log.debug("XML Database - Integer - NonList", e);
@@ -762,7 +951,7 @@ public class XmlDatabase extends Database {
 
                     for (Element el : child.getChildren()) {
                         try {
-                            values.add((Long)typeParse(el.getValue(), child.getName(), type, template.getInstance()));
+                            values.add((Long)typeParse(el.getValue(), child.getName(), type, template));
                         }
                         catch (IllegalAccessException e) {
                             Canary.log.debug("XML Database - Long - List", e);
@@ -775,7 +964,7 @@ public class XmlDatabase extends Database {
                 }
                 else {
                     try {
-                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template.getInstance()));
+                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template));
                     }
                     catch (IllegalAccessException e) {
                         Canary.log.debug("XML Database - Long - NonList", e);
@@ -792,7 +981,7 @@ public class XmlDatabase extends Database {
 
                     for (Element el : child.getChildren()) {
                         try {
-                            values.add((Float)typeParse(el.getValue(), child.getName(), type, template.getInstance()));
+                            values.add((Float)typeParse(el.getValue(), child.getName(), type, template));
                         }
                         catch (IllegalAccessException e) {
                             Canary.log.debug("XML Database - Float - List", e);
@@ -805,7 +994,7 @@ public class XmlDatabase extends Database {
                 }
                 else {
                     try {
-                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template.getInstance()));
+                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template));
                     }
                     catch (IllegalAccessException e) {
                         Canary.log.debug("XML Database - Float - NonList", e);
@@ -822,7 +1011,7 @@ public class XmlDatabase extends Database {
 
                     for (Element el : child.getChildren()) {
                         try {
-                            values.add((Double)typeParse(el.getValue(), child.getName(), type, template.getInstance()));
+                            values.add((Double)typeParse(el.getValue(), child.getName(), type, template));
                         }
                         catch (IllegalAccessException e) {
                             Canary.log.debug("XML Database - Double - List", e);
@@ -835,7 +1024,7 @@ public class XmlDatabase extends Database {
                 }
                 else {
                     try {
-                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template.getInstance()));
+                        dataSet.put(child.getName(), typeParse(child.getValue(), child.getName(), type, template));
                     }
                     catch (IllegalAccessException e) {
                         Canary.log.debug("XML Database - Double - NonList", e);
@@ -912,11 +1101,20 @@ public class XmlDatabase extends Database {
 
     private void write(File file, Document doc) throws IOException {
         sortElements(doc);
-        RandomAccessFile f = new RandomAccessFile(file.getPath(), "rw");
-        f.getChannel().lock();
-        f.setLength(0);
-        f.write(xmlSerializer.outputString(doc).getBytes(Charset.forName("UTF-8")));
-        f.close();
+        // Write next to the table first, so a crash while writing can't leave a half written table behind
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile f = new RandomAccessFile(temp.getPath(), "rw");
+        try {
+            f.getChannel().lock();
+            f.setLength(0);
+            f.write(xmlSerializer.outputString(doc).getBytes(Charset.forName("UTF-8")));
+            // The journal is deleted after this, so the table must be on disk before we return
+            f.getChannel().force(true);
+        }
+        finally {
+            f.close();
+        }
+        java.nio.file.Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 
     private void sortElements(Document doc) {
@@ -963,7 +1161,7 @@ public class XmlDatabase extends Database {
         }
         catch (JDOMParseException e) {
             // Assume the file is damaged. Make a backup, and do it again.
-            File dir = new File("db/damaged_db/" + System.currentTimeMillis() + "/");
+            File dir = new File(directory, "damaged_db/" + System.currentTimeMillis() + "/");
             if (dir.mkdirs()) {
                 Files.move(file, new File(dir, file.getName()));
             }
@@ -1060,7 +1258,7 @@ public class XmlDatabase extends Database {
     private Element getTableProperties(Document table, String tableName, DataAccess template) {
         if (!tableProperties.containsKey(tableName)) {
             if (table.getRootElement().getChild("tableProperties") == null) {
-                table.getRootElement().addContent(generateProperties(template));
+                table.getRootElement().addContent(0, generateProperties(template));
             }
             else {
                 tableProperties.put(tableName, table.getRootElement().getChild("tableProperties"));
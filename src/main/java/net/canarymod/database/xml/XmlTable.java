@@ -0,0 +1,366 @@
+package net.canarymod.database.xml;
+
+import net.canarymod.Canary;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A table of the {@link XmlDatabase}, kept in memory after it has been read once.
+ * <p/>
+ * Changes are made to the in-memory Document and appended to a journal next to the XML file,
+ * one entry per line. The XML file itself is only rewritten when the table is compacted.
+ * A journal that is still present on load means the server went down before compacting,
+ * so it is replayed over the XML file. Replaying is idempotent, entries are keyed by their id.
+ * <p/>
+ * Entries can be indexed by the text of their columns, so equality filters on indexed
+ * columns don't have to scan the whole table. Callers keep the indexes current through
+ * {@link #index(Element)}, {@link #unindex(Element)} and {@link #reindex(Element, String[])}.
+ * <p/>
+ * All access must be synchronized on the table.
+ *
+ * @author agent
+ */
+final class XmlTable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final XMLOutputter journalSerializer = new XMLOutputter(Format.getRawFormat().setOmitDeclaration(true).setOmitEncoding(true).setLineSeparator("\n"));
+
+    private final String name;
+    private final File file;
+    private final File journalFile;
+    private final Document document;
+    private final Map<String, Map<String, Set<Element>>> indexes = new HashMap<String, Map<String, Set<Element>>>();
+    private String[] indexedColumns = new String[0];
+    private FileOutputStream journalStream;
+    private Writer journal;
+    private boolean dirty;
+
+    XmlTable(String name, File file, Document document) {
+        this.name = name;
+        this.file = file;
+        this.journalFile = new File(file.getParentFile(), name + ".journal");
+        this.document = document;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Sets the columns to keep an index for and (re)builds the indexes.
+     * Indexes map the text of a column to the entries holding it, in insertion order.
+     *
+     * @param columns
+     *         the names of the indexed columns
+     */
+    void setIndexedColumns(Collection<String> columns) {
+        indexedColumns = columns.toArray(new String[columns.size()]);
+        rebuildIndexes();
+    }
+
+    /**
+     * Rebuilds the indexes from the Document, after changes that bypassed them
+     */
+    void rebuildIndexes() {
+        indexes.clear();
+        for (String column : indexedColumns) {
+            indexes.put(column, new HashMap<String, Set<Element>>());
+        }
+        for (Element element : document.getRootElement().getChildren()) {
+            if (!element.getName().equals("tableProperties")) {
+                index(element);
+            }
+        }
+    }
+
+    /**
+     * Gets the entries that can match the given filters.
+     * Uses the index of the most selective indexed filter column.
+     *
+     * @param filters
+     *         the filters
+     *
+     * @return a copy of the candidate entries, or null if no filter column is indexed
+     */
+    List<Element> candidates(Map<String, Object> filters) {
+        Set<Element> best = null;
+        for (Map.Entry<String, Object> filter : filters.entrySet()) {
+            Map<String, Set<Element>> index = indexes.get(filter.getKey());
+            if (index == null) {
+                continue;
+            }
+            Set<Element> entries = index.get(String.valueOf(filter.getValue()));
+            if (entries == null) {
+                return new ArrayList<Element>(0);
+            }
+            if (best == null || entries.size() < best.size()) {
+                best = entries;
+            }
+        }
+        return best == null ? null : new ArrayList<Element>(best);
+    }
+
+    /**
+     * Adds an entry to the indexes
+     *
+     * @param entry
+     *         the entry element
+     */
+    void index(Element entry) {
+        for (String column : indexedColumns) {
+            String key = entry.getChildText(column);
+            if (key == null) {
+                continue;
+            }
+            Set<Element> entries = indexes.get(column).get(key);
+            if (entries == null) {
+                entries = new LinkedHashSet<Element>();
+                indexes.get(column).put(key, entries);
+            }
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Removes an entry from the indexes
+     *
+     * @param entry
+     *         the entry element
+     */
+    void unindex(Element entry) {
+        unindex(entry, indexKeys(entry));
+    }
+
+    /**
+     * Gets the current index keys of an entry, to pass to {@link #reindex(Element, String[])} after changing it
+     *
+     * @param entry
+     *         the entry element
+     *
+     * @return the keys, one per indexed column
+     */
+    String[] indexKeys(Element entry) {
+        String[] keys = new String[indexedColumns.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = entry.getChildText(indexedColumns[i]);
+        }
+        return keys;
+    }
+
+    /**
+     * Moves a changed entry to its new index buckets.
+     * Buckets of columns that did not change keep their order.
+     *
+     * @param entry
+     *         the entry element
+     * @param oldKeys
+     *         the keys from {@link #indexKeys(Element)} before the change
+     */
+    void reindex(Element entry, String[] oldKeys) {
+        for (int i = 0; i < indexedColumns.length; i++) {
+            String key = entry.getChildText(indexedColumns[i]);
+            if (key == null ? oldKeys[i] == null : key.equals(oldKeys[i])) {
+                continue;
+            }
+            Map<String, Set<Element>> index = indexes.get(indexedColumns[i]);
+            removeFromBucket(index, oldKeys[i], entry);
+            if (key != null) {
+                Set<Element> entries = index.get(key);
+                if (entries == null) {
+                    entries = new LinkedHashSet<Element>();
+                    index.put(key, entries);
+                }
+                entries.add(entry);
+            }
+        }
+    }
+
+    private void unindex(Element entry, String[] keys) {
+        for (int i = 0; i < indexedColumns.length; i++) {
+            removeFromBucket(indexes.get(indexedColumns[i]), keys[i], entry);
+        }
+    }
+
+    private void removeFromBucket(Map<String, Set<Element>> index, String key, Element entry) {
+        if (key == null) {
+            return;
+        }
+        Set<Element> entries = index.get(key);
+        if (entries == null) {
+            return;
+        }
+        // Elements hash and compare by identity, which is what we want here
+        entries.remove(entry);
+        if (entries.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Checks if there are changes that have not been compacted into the XML file yet
+     *
+     * @return true if the table has journaled changes
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Journals the current state of an inserted or updated entry
+     *
+     * @param entry
+     *         the entry element
+     *
+     * @throws IOException
+     */
+    void journalPut(Element entry) throws IOException {
+        appendRecord(journalSerializer.outputString(entry));
+    }
+
+    /**
+     * Journals the removal of an entry
+     *
+     * @param entry
+     *         the removed entry element
+     *
+     * @throws IOException
+     */
+    void journalDelete(Element entry) throws IOException {
+        appendRecord(journalSerializer.outputString(new Element("delete").setAttribute("id", String.valueOf(entry.getChildText("id")))));
+    }
+
+    private void appendRecord(String record) throws IOException {
+        if (journal == null) {
+            journalStream = new FileOutputStream(journalFile, true);
+            journal = new BufferedWriter(new OutputStreamWriter(journalStream, UTF_8));
+        }
+        // One record per line, so line breaks in values must not reach the journal as is
+        journal.write(record.replace("\r", "&#13;").replace("\n", "&#10;"));
+        journal.write('\n');
+        dirty = true;
+    }
+
+    /**
+     * Writes the journaled records of the current operation through to the disk,
+     * so they survive a power loss as well as a process crash
+     *
+     * @throws IOException
+     */
+    void sync() throws IOException {
+        if (journal != null) {
+            journal.flush();
+            journalStream.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Closes and deletes the journal. Must only be called after the XML file has been written.
+     *
+     * @throws IOException
+     */
+    void clearJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalStream = null;
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new IOException("Failed to delete XML journal " + journalFile.getPath());
+        }
+        dirty = false;
+    }
+
+    /**
+     * Replays a journal left behind by an unclean shutdown onto the Document.
+     * A torn last record is dropped.
+     *
+     * @param builder
+     *         the builder to parse records with
+     *
+     * @return the number of replayed records
+     *
+     * @throws IOException
+     */
+    int replay(SAXBuilder builder) throws IOException {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        // Entries by id in document order; tableProperties and entries without (or with a duplicate) id keep their place under a key of their own
+        Map<Object, Element> entries = new LinkedHashMap<Object, Element>();
+        for (Element element : document.getRootElement().getChildren()) {
+            String id = element.getName().equals("tableProperties") ? null : element.getChildText("id");
+            entries.put(id == null || entries.containsKey(id) ? new Object() : id, element);
+        }
+        int replayed = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Element record;
+                try {
+                    record = builder.build(new StringReader(line)).detachRootElement();
+                }
+                catch (JDOMException e) {
+                    Canary.log.warn("Dropping unreadable record from XML journal of " + name + " (record " + (replayed + 1) + ")");
+                    break;
+                }
+                if (record.getName().equals("delete")) {
+                    String id = record.getAttributeValue("id");
+                    if (id != null) {
+                        entries.remove(id);
+                    }
+                }
+                else {
+                    String id = record.getChildText("id");
+                    // Replacing keeps the position of the entry, new entries go last
+                    entries.put(id == null ? new Object() : id, record);
+                }
+                replayed++;
+            }
+        }
+        finally {
+            reader.close();
+        }
+        if (replayed > 0) {
+            Element root = document.getRootElement();
+            root.removeContent();
+            root.addContent(entries.values());
+        }
+        dirty = replayed > 0;
+        return replayed;
+    }
+}
@@ -0,0 +1,162 @@
+package net.canarymod.hook;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.canarymod.plugin.Plugin;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker lane for {@link HookHandler}s declared with {@code async = true}.
+ * <p/>
+ * Each {@link Plugin} is bound to one single-threaded worker, so the async handlers of a plugin
+ * run in the order their hooks were fired. Worker queues are bounded; once a queue is full
+ * {@link #submit(Plugin, Runnable)} rejects the task and counts it as overflowed. The submitting
+ * thread (usually the tick thread) never waits for queue space.
+ *
+ * @author agent
+ */
+public class AsyncHookLane {
+    private final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("Canary Async Hook Worker-%d").setDaemon(true).build();
+    private final int workerCount;
+    private final int queueSize;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong peakDepth = new AtomicLong();
+    private volatile ThreadPoolExecutor[] workers;
+
+    public AsyncHookLane(int workerCount, int queueSize) {
+        this.workerCount = Math.max(1, workerCount);
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * Queues a task on the worker bound to the given plugin
+     *
+     * @param plugin
+     *         the {@link Plugin} owning the handler
+     * @param task
+     *         the handler invocation
+     *
+     * @throws RejectedExecutionException
+     *         if the plugin's queue is full or the lane has been shut down
+     */
+    public void submit(Plugin plugin, Runnable task) {
+        ThreadPoolExecutor[] current = getWorkers();
+        ThreadPoolExecutor worker = current[(plugin.getName().hashCode() & Integer.MAX_VALUE) % current.length];
+        submitted.incrementAndGet();
+        worker.execute(task);
+        long depth = worker.getQueue().size();
+        long peak = peakDepth.get();
+        while (depth > peak && !peakDepth.compareAndSet(peak, depth)) {
+            peak = peakDepth.get();
+        }
+    }
+
+    /**
+     * Gets the number of hook invocations currently waiting in all worker queues
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        ThreadPoolExecutor[] current = workers;
+        if (current == null) {
+            return 0;
+        }
+        int depth = 0;
+        for (ThreadPoolExecutor worker : current) {
+            depth += worker.getQueue().size();
+        }
+        return depth;
+    }
+
+    /**
+     * Gets the deepest single worker queue seen since startup
+     *
+     * @return peak queue depth
+     */
+    public long getPeakQueueDepth() {
+        return peakDepth.get();
+    }
+
+    /**
+     * Gets the number of hook invocations handed to the lane
+     *
+     * @return submitted count
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Gets the number of hook invocations rejected because their worker queue was full
+     *
+     * @return overflow count
+     */
+    public long getOverflowCount() {
+        return overflowed.get();
+    }
+
+    /**
+     * Stops accepting new work and waits for queued hooks to finish
+     *
+     * @param timeout
+     *         the maximum time to wait
+     * @param unit
+     *         the {@link TimeUnit} of the timeout
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        ThreadPoolExecutor[] current;
+        synchronized (this) {
+            current = workers;
+            workers = null;
+        }
+        if (current == null) {
+            return;
+        }
+        for (ThreadPoolExecutor worker : current) {
+            worker.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor worker : current) {
+                worker.awaitTermination(timeout, unit);
+            }
+        }
+        catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ThreadPoolExecutor[] getWorkers() {
+        ThreadPoolExecutor[] current = workers;
+        if (current == null) {
+            synchronized (this) {
+                current = workers;
+                if (current == null) {
+                    current = new ThreadPoolExecutor[workerCount];
+                    for (int i = 0; i < workerCount; i++) {
+                        current[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, new RejectWhenFull());
+                    }
+                    workers = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private class RejectWhenFull implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Async hook lane has been shut down");
+            }
+            overflowed.incrementAndGet();
+            throw new RejectedExecutionException("Async hook queue is full");
+        }
+    }
+}
@@ -4,12 +4,22 @@ import net.canarymod.plugin.PluginListener;
 
 /**
  * This class invokes a method on a listener.
- * It is inline-implemented in HookExecutor.registerHook, for each hook seperately
+ * Instances are created by {@link DispatcherFactory} for each hook handler seperately
  *
  * @author Chris (damagefilter)
  */
 public abstract class Dispatcher {
     public boolean ignoreCanceled;
+    public boolean async;
 
     public abstract void execute(PluginListener listener, Hook hook);
+
+    /**
+     * Gets a name identifying the handler this dispatcher calls, used for timings
+     *
+     * @return the handler name
+     */
+    public String getHandlerName() {
+        return getClass().getName();
+    }
 }
@@ -0,0 +1,48 @@
+package net.canarymod.hook;
+
+import java.lang.reflect.Method;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Creates the {@link Dispatcher} used to invoke a {@link HookHandler} method.
+ * <p/>
+ * By default a direct-call {@link MethodHandleDispatcher} is built for every handler.
+ * Should that not be possible for a method, the {@link ReflectionDispatcher} is used instead.
+ * Setting the system property {@code canary.hooks.reflectiveDispatch} to {@code true} forces reflection for all handlers.
+ *
+ * @author agent
+ */
+public final class DispatcherFactory {
+    private static final boolean forceReflection = Boolean.getBoolean("canary.hooks.reflectiveDispatch");
+
+    private DispatcherFactory() {
+    }
+
+    /**
+     * Creates a {@link Dispatcher} for the given handler method
+     *
+     * @param method
+     *         the hook handler {@link Method}
+     * @param ignoreCanceled
+     *         whether the handler should receive canceled hooks
+     *
+     * @return the {@link Dispatcher}
+     */
+    public static Dispatcher createDispatcher(Method method, boolean ignoreCanceled) {
+        Dispatcher dispatcher = null;
+        if (!forceReflection) {
+            try {
+                dispatcher = new MethodHandleDispatcher(method);
+            }
+            catch (Exception ex) {
+                log.debug("Falling back to reflective dispatch for " + method.getDeclaringClass().getName() + "." + method.getName(), ex);
+            }
+        }
+        if (dispatcher == null) {
+            dispatcher = new ReflectionDispatcher(method);
+        }
+        dispatcher.ignoreCanceled = ignoreCanceled;
+        return dispatcher;
+    }
+}
@@ -0,0 +1,105 @@
+package net.canarymod.hook;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call count, total and maximum execution time of a single hook handler.
+ * <p/>
+ * Count and total are kept in per-thread stripes so concurrent callers do not contend on one counter.
+ *
+ * @author agent
+ */
+public final class HandlerTiming {
+    private static final int stripes = Math.max(2, Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2);
+    private static final int stride = 8; // Keep stripes on separate cache lines
+    private final String pluginName;
+    private final String hookName;
+    private final String handlerName;
+    private final AtomicLongArray cells = new AtomicLongArray(stripes * stride);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public HandlerTiming(String pluginName, String hookName, String handlerName) {
+        this.pluginName = pluginName;
+        this.hookName = hookName;
+        this.handlerName = handlerName;
+    }
+
+    /**
+     * Records one execution of the handler
+     *
+     * @param nanos
+     *         the execution time in nanoseconds
+     */
+    public void record(long nanos) {
+        int cell = (int)(Thread.currentThread().getId() & (stripes - 1)) * stride;
+        cells.incrementAndGet(cell);
+        cells.addAndGet(cell + 1, nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Resets all counters
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+        maxNanos.set(0);
+    }
+
+    public String getPluginName() {
+        return pluginName;
+    }
+
+    public String getHookName() {
+        return hookName;
+    }
+
+    public String getHandlerName() {
+        return handlerName;
+    }
+
+    /**
+     * Gets the number of recorded executions
+     *
+     * @return call count
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < stripes; i++) {
+            count += cells.get(i * stride);
+        }
+        return count;
+    }
+
+    /**
+     * Gets the total recorded execution time
+     *
+     * @return total nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            total += cells.get(i * stride + 1);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the longest recorded execution time
+     *
+     * @return maximum nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s#%s", pluginName, hookName, handlerName);
+    }
+}
@@ -1,21 +1,37 @@
 package net.canarymod.hook;
 
-import com.google.common.collect.ArrayListMultimap;
+import net.canarymod.Canary;
 import net.canarymod.ToolBox;
+import net.canarymod.config.Configuration;
 import net.canarymod.plugin.Plugin;
 import net.canarymod.plugin.PluginListener;
 import net.canarymod.plugin.Priority;
 import net.canarymod.plugin.RegisteredPluginListener;
 
 import java.lang.reflect.Method;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.canarymod.Canary.log;
 
 /**
  * Stores registered listeners and performs hook dispatches.
+ * <p/>
+ * Listeners are kept as an immutable, pre-sorted array per hook class. Registering or unregistering
+ * builds new arrays and publishes them through a volatile table reference, so {@link #callHook(Hook)}
+ * can walk them without locking from any thread.
+ * <p/>
+ * The table is indexed by a dense id assigned to each hook class on first use (see {@link #getHookId(Class)}),
+ * which also backs the constant-time {@link #hasListeners(Class)} check.
+ * <p/>
+ * Handlers declared with {@code async = true} are handed to the {@link AsyncHookLane} and
+ * {@link #callHook(Hook)} returns without waiting for them. Should the plugin's lane queue be full,
+ * the hook is dropped for that handler.
  *
  * @author Chris (damagefilter)
  * @author Jos Kuijpers
@@ -23,7 +39,30 @@ import static net.canarymod.Canary.log;
  */
 public class HookExecutor implements HookExecutorInterface {
     private final PluginComparator listener_comp = new PluginComparator();
-    final ArrayListMultimap<Class<? extends Hook>, RegisteredPluginListener> listeners = ArrayListMultimap.create();
+    private static final RegisteredPluginListener[] noListeners = new RegisteredPluginListener[0];
+    private static final AtomicInteger nextHookId = new AtomicInteger();
+    private static final ClassValue<Integer> hookIds = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return nextHookId.getAndIncrement();
+        }
+    };
+    private final Object writeLock = new Object();
+    private volatile RegisteredPluginListener[][] listeners = new RegisteredPluginListener[0][];
+    private final HookTimings timings = new HookTimings(Configuration.getServerConfig().isHookTimingsEnabled(), Configuration.getServerConfig().getSlowHookThreshold());
+    private final AsyncHookLane asyncLane = new AsyncHookLane(Configuration.getServerConfig().getAsyncHookThreads(), Configuration.getServerConfig().getAsyncHookQueueSize());
+
+    /**
+     * Gets the dense id of a hook class. Ids are assigned on first use and stay the same for the lifetime of the class.
+     *
+     * @param hookCls
+     *         the {@link Hook} class
+     *
+     * @return the hook id
+     */
+    public static int getHookId(Class<? extends Hook> hookCls) {
+        return hookIds.get(hookCls);
+    }
 
     /**
      * Register a {@link PluginListener} for a system hook
@@ -51,23 +90,12 @@ public class HookExecutor implements HookExecutorInterface {
                 throw new HookConsistencyException("Hook is not assignable from " + hookCls.getName());
             }
 
-            Dispatcher dispatcher = new Dispatcher() {
+            if (handler.async() && CancelableHook.class.isAssignableFrom(hookCls)) {
+                throw new HookConsistencyException("Handler " + method.getName() + " for cancelable hook " + hookCls.getSimpleName() + " cannot be async");
+            }
 
-                @Override
-                public void execute(PluginListener listener, Hook hook) {
-                    try {
-                        method.invoke(listener, hook);
-                    }
-                    catch (Throwable thrown) {
-                        if (thrown.getCause() != null) {
-                            // Skip past wrapper exceptions and cut straight to the point
-                            throw new HookExecutionException(thrown.getCause().getMessage(), thrown.getCause());
-                        }
-                        throw new HookExecutionException(thrown.getMessage(), thrown);
-                    }
-                }
-            };
-            dispatcher.ignoreCanceled = handler.ignoreCanceled();
+            Dispatcher dispatcher = DispatcherFactory.createDispatcher(method, handler.ignoreCanceled());
+            dispatcher.async = handler.async();
 
             registerHook(listener, plugin, hookCls, dispatcher, handler.priority());
         }
@@ -78,8 +106,13 @@ public class HookExecutor implements HookExecutorInterface {
      */
     public void registerHook(PluginListener listener, Plugin plugin, Class<?> hookCls, Dispatcher dispatcher, Priority priority) {
         // Caller is assumed to check class (this is an internal API)
-        listeners.put((Class<? extends Hook>)hookCls, new RegisteredPluginListener(listener, plugin, dispatcher, priority));
-        Collections.sort(listeners.get((Class<? extends Hook>)hookCls), listener_comp);
+        RegisteredPluginListener registered = new RegisteredPluginListener(listener, plugin, dispatcher, priority, (Class<? extends Hook>)hookCls);
+        int hookId = getHookId((Class<? extends Hook>)hookCls);
+        synchronized (writeLock) {
+            RegisteredPluginListener[][] copy = Arrays.copyOf(listeners, Math.max(listeners.length, hookId + 1));
+            copy[hookId] = insertSorted(copy[hookId] == null ? noListeners : copy[hookId], registered);
+            listeners = copy;
+        }
     }
 
     /**
@@ -90,26 +123,70 @@ public class HookExecutor implements HookExecutorInterface {
      */
     @Override
     public void unregisterPluginListeners(Plugin plugin) {
-        Iterator<RegisteredPluginListener> iter = listeners.values().iterator();
-        while (iter.hasNext()) {
-            RegisteredPluginListener listener = iter.next();
-            if (listener.getPlugin().equals(plugin)) {
-                iter.remove();
-            }
-        }
+        removeListeners(plugin, null);
     }
 
     @Override
     public void unregisterPluginListener(PluginListener listener) {
-        Iterator<RegisteredPluginListener> iter = listeners.values().iterator();
-        while (iter.hasNext()) {
-            RegisteredPluginListener rListener = iter.next();
-            if (rListener.getListener().equals(listener)) {
-                iter.remove();
+        removeListeners(null, listener);
+    }
+
+    /**
+     * Publishes new listener arrays without the entries belonging to the given plugin or listener
+     */
+    private void removeListeners(Plugin plugin, PluginListener listener) {
+        synchronized (writeLock) {
+            RegisteredPluginListener[][] copy = new RegisteredPluginListener[listeners.length][];
+            for (int hookId = 0; hookId < copy.length; hookId++) {
+                if (listeners[hookId] == null) {
+                    continue;
+                }
+                RegisteredPluginListener[] remaining = new RegisteredPluginListener[listeners[hookId].length];
+                int count = 0;
+                for (RegisteredPluginListener rListener : listeners[hookId]) {
+                    if (plugin != null && rListener.getPlugin().equals(plugin)) {
+                        continue;
+                    }
+                    if (listener != null && rListener.getListener().equals(listener)) {
+                        continue;
+                    }
+                    remaining[count++] = rListener;
+                }
+                if (count > 0) {
+                    copy[hookId] = Arrays.copyOf(remaining, count);
+                }
             }
+            listeners = copy;
         }
     }
 
+    /**
+     * Checks whether any listener is registered for the given hook class on the server's executor.
+     * Callers can use this to skip building a hook nobody listens to, e.g.
+     * {@code if (HookExecutor.hasListeners(PlayerMoveHook.class)) { ... }}
+     *
+     * @param hookCls
+     *         the {@link Hook} class
+     *
+     * @return {@code true} if at least one listener is registered; {@code false} otherwise
+     */
+    public static boolean hasListeners(Class<? extends Hook> hookCls) {
+        return Canary.hooks().hasListeners(getHookId(hookCls));
+    }
+
+    /**
+     * Checks whether any listener is registered for the hook class with the given id
+     *
+     * @param hookId
+     *         the id as returned by {@link #getHookId(Class)}
+     *
+     * @return {@code true} if at least one listener is registered; {@code false} otherwise
+     */
+    public boolean hasListeners(int hookId) {
+        RegisteredPluginListener[][] table = listeners;
+        return hookId < table.length && table[hookId] != null;
+    }
+
     /**
      * Call a system hook
      */
@@ -119,21 +196,124 @@ public class HookExecutor implements HookExecutorInterface {
             return;
         }
         hook.hasExecuted();
-        if (!this.listeners.containsKey(hook.getClass())) {
+        int hookId = getHookId(hook.getClass());
+        RegisteredPluginListener[][] table = this.listeners;
+        if (hookId >= table.length || table[hookId] == null) {
             return;
         }
-        Iterator<RegisteredPluginListener> iter = this.listeners.get(hook.getClass()).iterator();
-        while (iter.hasNext()) {
-            RegisteredPluginListener listener = iter.next();
-            try {
-                listener.execute(hook);
+        RegisteredPluginListener[] registered = table[hookId];
+        HookTimings timed = timings.isEnabled() ? timings : null;
+        for (RegisteredPluginListener listener : registered) {
+            if (listener.isAsync()) {
+                submitAsync(listener, hook, timed);
+            }
+            else {
+                executeListener(listener, hook, timed);
+            }
+        }
+    }
+
+    private void submitAsync(final RegisteredPluginListener listener, final Hook hook, final HookTimings timed) {
+        try {
+            asyncLane.submit(listener.getPlugin(), new Runnable() {
+                @Override
+                public void run() {
+                    if (!listener.getPlugin().isDisabled()) {
+                        executeListener(listener, hook, timed);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException rejected) {
+            // Running it here would overtake the plugin's queued hooks and stall the caller, so the hook is dropped (and counted by the lane)
+            log.debug("Dropped async " + hook.getHookName() + " for plugin " + listener.getPlugin().getName() + ": " + rejected.getMessage());
+        }
+    }
+
+    private void executeListener(RegisteredPluginListener listener, Hook hook, HookTimings timed) {
+        try {
+            listener.execute(hook, timed);
+        }
+        catch (HookExecutionException hexex) {
+            log.error("Exception while executing Hook: " + hook.getHookName() + " in PluginListener: " +
+                              listener.getListener().getClass().getSimpleName() + " (Plugin: " + listener.getPlugin().getName() + ")", hexex.getCause()
+                     );
+        }
+    }
+
+    /**
+     * Gets the lane running async hook handlers
+     *
+     * @return the {@link AsyncHookLane}
+     */
+    public AsyncHookLane getAsyncLane() {
+        return asyncLane;
+    }
+
+    /**
+     * Waits for queued async hook handlers to finish. Intended for server shutdown.
+     *
+     * @param timeout
+     *         the maximum time to wait
+     * @param unit
+     *         the {@link TimeUnit} of the timeout
+     */
+    public void shutdownAsyncLane(long timeout, TimeUnit unit) {
+        asyncLane.shutdown(timeout, unit);
+    }
+
+    /**
+     * Gets the hook timings of this executor
+     *
+     * @return the {@link HookTimings}
+     */
+    public HookTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Gets the {@link HandlerTiming}s of all currently registered listeners
+     *
+     * @return list of handler timings
+     */
+    public List<HandlerTiming> getHandlerTimings() {
+        List<HandlerTiming> result = new ArrayList<HandlerTiming>();
+        for (RegisteredPluginListener[] registered : listeners) {
+            if (registered == null) {
+                continue;
+            }
+            for (RegisteredPluginListener listener : registered) {
+                result.add(listener.getTiming());
             }
-            catch (HookExecutionException hexex) {
-                log.error("Exception while executing Hook: " + hook.getHookName() + " in PluginListener: " +
-                                  listener.getListener().getClass().getSimpleName() + " (Plugin: " + listener.getPlugin().getName() + ")", hexex.getCause()
-                         );
+        }
+        return result;
+    }
+
+    /**
+     * Resets the {@link HandlerTiming}s of all currently registered listeners
+     */
+    public void resetTimings() {
+        for (HandlerTiming timing : getHandlerTimings()) {
+            timing.reset();
+        }
+    }
+
+    /**
+     * Returns a copy of the given sorted array with the listener inserted after all listeners of equal or higher priority
+     */
+    private RegisteredPluginListener[] insertSorted(RegisteredPluginListener[] current, RegisteredPluginListener listener) {
+        int index = current.length;
+        for (int i = 0; i < current.length; i++) {
+            if (listener_comp.compare(listener, current[i]) < 0) {
+                index = i;
+                break;
             }
         }
+        RegisteredPluginListener[] sorted = new RegisteredPluginListener[current.length + 1];
+        System.arraycopy(current, 0, sorted, 0, index);
+        sorted[index] = listener;
+        System.arraycopy(current, index, sorted, index + 1, current.length - index);
+        return sorted;
     }
 
     class PluginComparator implements Comparator<RegisteredPluginListener> {
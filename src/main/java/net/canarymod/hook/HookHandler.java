@@ -17,4 +17,11 @@ public @interface HookHandler {
     Priority priority() default Priority.NORMAL;
 
     boolean ignoreCanceled() default false;
+
+    /**
+     * Run this handler on the async hook lane instead of the calling thread.
+     * If the plugin's lane queue is full the hook is dropped for this handler.
+     * Only allowed for hooks that are not a {@link CancelableHook}.
+     */
+    boolean async() default false;
 }
@@ -0,0 +1,84 @@
+package net.canarymod.hook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Optional per-handler timing of hook dispatches.
+ * <p/>
+ * While disabled, {@link HookExecutor} only reads the enabled flag once per hook call.
+ * While enabled, every handler execution is recorded in its {@link HandlerTiming} and
+ * executions above the slow threshold are logged.
+ *
+ * @author agent
+ */
+public class HookTimings {
+    private volatile boolean enabled;
+    private volatile long slowThresholdNanos;
+
+    public HookTimings(boolean enabled, long slowThresholdMillis) {
+        this.enabled = enabled;
+        setSlowThreshold(slowThresholdMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the execution time above which a handler call is logged
+     *
+     * @param millis
+     *         the threshold in milliseconds; 0 or less disables the slow-handler log
+     */
+    public void setSlowThreshold(long millis) {
+        this.slowThresholdNanos = millis > 0 ? TimeUnit.MILLISECONDS.toNanos(millis) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Records a handler execution and logs it if it exceeded the slow threshold
+     *
+     * @param timing
+     *         the {@link HandlerTiming} of the handler
+     * @param nanos
+     *         the execution time in nanoseconds
+     */
+    public void record(HandlerTiming timing, long nanos) {
+        timing.record(nanos);
+        if (nanos >= slowThresholdNanos) {
+            log.warn(String.format("Slow hook handler: %s took %.2fms", timing, nanos / 1000000.0D));
+        }
+    }
+
+    /**
+     * Sorts the given timings by total execution time and returns the top entries
+     *
+     * @param timings
+     *         the {@link HandlerTiming}s to rank
+     * @param count
+     *         the maximum number of entries to return
+     *
+     * @return the slowest handlers, slowest first
+     */
+    public static List<HandlerTiming> topOffenders(List<HandlerTiming> timings, int count) {
+        List<HandlerTiming> sorted = new ArrayList<HandlerTiming>(timings);
+        Collections.sort(sorted, new Comparator<HandlerTiming>() {
+            @Override
+            public int compare(HandlerTiming o1, HandlerTiming o2) {
+                long t1 = o1.getTotalNanos();
+                long t2 = o2.getTotalNanos();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        return sorted.subList(0, Math.min(count, sorted.size()));
+    }
+}
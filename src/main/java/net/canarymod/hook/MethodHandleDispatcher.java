@@ -0,0 +1,42 @@
+package net.canarymod.hook;
+
+import net.canarymod.plugin.PluginListener;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * {@link Dispatcher} that calls its handler through a {@link MethodHandle} adapted to
+ * {@code (PluginListener, Hook)void}, avoiding the argument array and the
+ * {@link java.lang.reflect.InvocationTargetException} wrapping of {@link Method#invoke}
+ *
+ * @author agent
+ */
+final class MethodHandleDispatcher extends Dispatcher {
+    private static final MethodType dispatchType = MethodType.methodType(void.class, PluginListener.class, Hook.class);
+    private final MethodHandle handle;
+    private final String handlerName;
+
+    MethodHandleDispatcher(Method method) throws IllegalAccessException {
+        this.handlerName = method.getName();
+        method.setAccessible(true);
+        this.handle = MethodHandles.lookup().unreflect(method).asType(dispatchType);
+    }
+
+    @Override
+    public void execute(PluginListener listener, Hook hook) {
+        try {
+            handle.invokeExact(listener, hook);
+        }
+        catch (Throwable thrown) {
+            throw new HookExecutionException(thrown.getMessage(), thrown);
+        }
+    }
+
+    @Override
+    public String getHandlerName() {
+        return handlerName;
+    }
+}
@@ -0,0 +1,38 @@
+package net.canarymod.hook;
+
+import net.canarymod.plugin.PluginListener;
+
+import java.lang.reflect.Method;
+
+/**
+ * {@link Dispatcher} that calls its handler through {@link Method#invoke}.
+ * Used when no direct-call dispatcher can be built for a handler.
+ *
+ * @author agent
+ */
+final class ReflectionDispatcher extends Dispatcher {
+    private final Method method;
+
+    ReflectionDispatcher(Method method) {
+        this.method = method;
+    }
+
+    @Override
+    public void execute(PluginListener listener, Hook hook) {
+        try {
+            method.invoke(listener, hook);
+        }
+        catch (Throwable thrown) {
+            if (thrown.getCause() != null) {
+                // Skip past wrapper exceptions and cut straight to the point
+                throw new HookExecutionException(thrown.getCause().getMessage(), thrown.getCause());
+            }
+            throw new HookExecutionException(thrown.getMessage(), thrown);
+        }
+    }
+
+    @Override
+    public String getHandlerName() {
+        return method.getName();
+    }
+}
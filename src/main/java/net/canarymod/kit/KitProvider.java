@@ -1,6 +1,7 @@
 package net.canarymod.kit;
 
 import net.canarymod.backbone.BackboneKits;
+import net.canarymod.commandsys.TabCompleteHelper;
 
 import java.util.Collections;
 import java.util.List;
@@ -32,6 +33,7 @@ public class KitProvider {
         }
         backbone.addKit(kit);
         kits.add(kit);
+        TabCompleteHelper.getKitIndex().add(kit);
     }
 
     /**
@@ -42,6 +44,7 @@ public class KitProvider {
     public void removeKit(Kit kit) {
         backbone.removeKit(kit);
         kits.remove(kit);
+        TabCompleteHelper.getKitIndex().remove(kit);
     }
 
     public void updateKit(Kit kit) {
@@ -52,6 +55,7 @@ public class KitProvider {
         }
         kits.add(kit);
         backbone.updateKit(kit);
+        TabCompleteHelper.getKitIndex().add(kit);
     }
 
     /**
@@ -82,5 +86,6 @@ public class KitProvider {
     public void reload() {
         kits.clear();
         kits = backbone.loadKits();
+        TabCompleteHelper.getKitIndex().invalidate();
     }
 }
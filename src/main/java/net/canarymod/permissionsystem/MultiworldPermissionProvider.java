@@ -6,16 +6,15 @@ import net.canarymod.Translator;
 import net.canarymod.backbone.PermissionDataAccess;
 import net.canarymod.chat.ChatFormat;
 import net.canarymod.chat.MessageReceiver;
+import net.canarymod.database.AsyncDatabase;
 import net.canarymod.database.DataAccess;
 import net.canarymod.database.Database;
 import net.canarymod.database.exceptions.DatabaseReadException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * A PermissionProvider implementation based on PermissionNode objects,
@@ -25,7 +24,9 @@ import java.util.Map.Entry;
  */
 public class MultiworldPermissionProvider implements PermissionProvider {
     private List<PermissionNode> permissions;
-    private Map<String, Boolean> permissionCache = new HashMap<String, Boolean>(35);
+    private volatile int version;
+    private volatile PermissionIndex.Tree compiled;
+    private volatile PermissionIndex index;
     private boolean isPlayerProvider;
     private String owner; // This can either be a player uuid or group name
     private String world;
@@ -79,33 +80,42 @@ public class MultiworldPermissionProvider implements PermissionProvider {
     }
 
     /**
-     * Add a given permission to the permissions cache. The cache is limited and
-     * will prune itself if it gets too big.
+     * Gets the number of changes made to this provider.
+     * Compiled indexes compare it to see if they are outdated.
      *
-     * @param path
-     * @param value
+     * @return the version
      */
-    private void addPermissionToCache(String path, boolean value) {
-        if (permissionCache.size() > 35) {
-            Iterator<Entry<String, Boolean>> it = permissionCache.entrySet().iterator();
+    int getVersion() {
+        return version;
+    }
 
-            while (it.hasNext() && permissionCache.size() > 10) {
-                it.next();
-                it.remove();
-            }
+    /**
+     * Gets the compiled permissions of this provider alone, compiling them if they changed
+     *
+     * @return the compiled permissions
+     */
+    PermissionIndex.Tree getCompiledTree() {
+        int current = version;
+        PermissionIndex.Tree tree = compiled;
+        if (tree == null || tree.getVersion() != current) {
+            tree = new PermissionIndex.Tree(permissions, current);
+            compiled = tree;
         }
-        permissionCache.put(path, value);
+        return tree;
     }
 
     /**
-     * Check the permission cache if we have something already
+     * Gets the compiled permissions of this provider and its parents
      *
-     * @param permission
-     *
-     * @return
+     * @return the index
      */
-    private Boolean checkCached(String permission) {
-        return permissionCache.get(permission);
+    private PermissionIndex getIndex() {
+        PermissionIndex current = index;
+        if (current == null || !current.isCurrent()) {
+            current = PermissionIndex.compile(Collections.<PermissionProvider>singletonList(this));
+            index = current;
+        }
+        return current;
     }
 
     @Override
@@ -154,30 +164,6 @@ public class MultiworldPermissionProvider implements PermissionProvider {
         return node;
     }
 
-    /**
-     * Resolve the string path and return the result
-     *
-     * @param path
-     *
-     * @return
-     */
-    private boolean resolvePath(String[] path) {
-        PermissionNode node = getRootNode(path[0]);
-        return node != null && node.resolveToValue(path, 1);
-    }
-
-    /**
-     * Checks if this permission provider actually has the given path loaded.
-     *
-     * @param path
-     *
-     * @return
-     */
-    private boolean hasPath(String[] path) {
-        PermissionNode node = getRootNode(path[0]);
-        return node != null && node.resolvePath(path, 1);
-    }
-
     @Override
     public void addPermission(String path, boolean value, int id) {
         String[] paths = path.split("\\.");
@@ -200,39 +186,23 @@ public class MultiworldPermissionProvider implements PermissionProvider {
 
     @Override
     public boolean queryPermission(String permission) {
-        if (permission.isEmpty() || permission.equals(" ")) {
-            return true;
-        }
-        Boolean b = checkCached(permission);
-        if (b != null) {
-            return b;
-        }
-        String[] path = permission.split("\\.");
-        if (!this.hasPath(path)) {
-            if (parent != null) {
-                return parent.queryPermission(permission);
-            }
-        }
-        boolean result = resolvePath(permission.split("\\."));
-        addPermissionToCache(permission, result);
-
-        return result;
+        return getIndex().queryPermission(permission);
     }
 
     @Override
     public boolean pathExists(String permission) {
-        return permission.trim().isEmpty() || hasPath(permission.split("\\.")) || (parent != null && parent.pathExists(permission));
+        return getIndex().pathExists(permission);
     }
 
     @Override
     public void flushCache() {
-        permissionCache.clear();
+        // Nodes may have been changed directly, the compiled permissions are outdated
+        version++;
     }
 
     @Override
     public void reload() {
         permissions.clear();
-        permissionCache.clear();
         if (isPlayerProvider) {
             PermissionProvider p = Canary.permissionManager().getPlayerProvider(owner, world);
             permissions = p.getPermissionMap();
@@ -241,6 +211,7 @@ public class MultiworldPermissionProvider implements PermissionProvider {
             PermissionProvider p = Canary.permissionManager().getGroupsProvider(owner, world);
             permissions = p.getPermissionMap();
         }
+        flushCache();
     }
 
     @Override
@@ -276,6 +247,7 @@ public class MultiworldPermissionProvider implements PermissionProvider {
             HashMap<String, Object> filter = new HashMap<String, Object>();
             filter.put("owner", this.owner);
             filter.put("type", isPlayerProvider ? "player" : "group");
+            AsyncDatabase.get().flush(data.getName());
             Database.get().loadAll(data, list, filter);
         }
         catch (DatabaseReadException e) {
@@ -0,0 +1,477 @@
+package net.canarymod.permissionsystem;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import net.canarymod.user.Group;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A compiled, immutable view of a chain of permission providers, for example a group,
+ * its global permissions and the permissions of all its parent groups.
+ * <p/>
+ * A permission is resolved by the first provider in the chain that has a path for it,
+ * which is what {@link Group#hasPermission(String)} and the parent lookup of
+ * {@link MultiworldPermissionProvider} do. Resolving walks the permission string in place,
+ * so it doesn't split it and doesn't allocate.
+ * <p/>
+ * The compiled tree of each {@link MultiworldPermissionProvider} is reused until that provider changes,
+ * so building a new index after a change only compiles the changed provider.
+ * Other providers are asked directly.
+ * <p/>
+ * Each index keeps a bounded cache of query results, when all of its providers are compiled. A change to any provider in the chain
+ * or to group inheritance outdates the index, and with it the cache, so results are never stale.
+ *
+ * @author agent
+ */
+public final class PermissionIndex {
+
+    /**
+     * Bumped whenever group inheritance changes
+     */
+    private static final AtomicInteger inheritanceVersion = new AtomicInteger();
+
+    private static final Interner<String> segments = Interners.newWeakInterner();
+
+    private static volatile int resultCacheSize = 256;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A compiled permission node
+     */
+    static final class Node {
+        private static final Node[] NONE = new Node[0];
+
+        final String name;
+        final boolean value;
+        final boolean wildcard;
+        final Node[] children; // Sorted by name
+        final Node wildcardChild;
+
+        private Node(String name, boolean value, Node[] children) {
+            this.name = name;
+            this.value = value;
+            this.wildcard = name.equals("*");
+            this.children = children;
+            Node found = null;
+            for (Node child : children) {
+                if (child.wildcard) {
+                    found = child;
+                }
+            }
+            this.wildcardChild = found;
+        }
+
+        Node getChild(String path, int start, int end) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int compared = compare(children[middle].name, path, start, end);
+                if (compared < 0) {
+                    low = middle + 1;
+                }
+                else if (compared > 0) {
+                    high = middle - 1;
+                }
+                else {
+                    return children[middle];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The compiled permissions of one provider
+     */
+    static final class Tree {
+        private final Node[] roots; // In provider order, the first match wins
+        private final int version;
+
+        Tree(List<PermissionNode> roots, int version) {
+            this.roots = compileRoots(roots);
+            this.version = version;
+        }
+
+        /**
+         * Gets the provider version this tree was compiled from
+         *
+         * @return the version
+         */
+        int getVersion() {
+            return version;
+        }
+
+        /**
+         * Same as resolving the path from the first matching root with {@link PermissionNode#resolvePath(String[], int)}
+         */
+        boolean hasPath(String path, int limit) {
+            int end = segmentEnd(path, 0, limit);
+            Node node = getRoot(path, end);
+            if (node == null) {
+                return false;
+            }
+            int start = end + 1;
+            while (start <= limit) {
+                end = segmentEnd(path, start, limit);
+                Node child = node.getChild(path, start, end);
+                if (child == null) {
+                    return node.wildcardChild != null || node.wildcard;
+                }
+                node = child;
+                start = end + 1;
+            }
+            return true;
+        }
+
+        /**
+         * Same as resolving the path from the first matching root with {@link PermissionNode#resolveToValue(String[], int)}
+         */
+        boolean resolve(String path, int limit) {
+            int end = segmentEnd(path, 0, limit);
+            Node node = getRoot(path, end);
+            if (node == null) {
+                return false;
+            }
+            int start = end + 1;
+            while (true) {
+                // Denied and no wildcard: nothing below can be granted
+                if (!node.value && !node.wildcard) {
+                    return false;
+                }
+                if (start > limit) {
+                    return node.value;
+                }
+                end = segmentEnd(path, start, limit);
+                Node child = node.getChild(path, start, end);
+                if (child == null) {
+                    if (node.wildcardChild != null) {
+                        return node.wildcardChild.value;
+                    }
+                    return node.wildcard && node.value;
+                }
+                node = child;
+                start = end + 1;
+            }
+        }
+
+        private Node getRoot(String path, int end) {
+            for (Node root : roots) {
+                if (root.wildcard || compare(root.name, path, 0, end) == 0) {
+                    return root;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final PermissionProvider[] providers;
+    private final int[] versions;
+    private final Tree[] trees; // null where the provider is asked directly
+    private final int inheritance;
+    private final Cache<String, Boolean> results; // null if results are not cached
+
+    private PermissionIndex(List<PermissionProvider> chain, int inheritance) {
+        this.inheritance = inheritance;
+        List<PermissionProvider> flat = new ArrayList<PermissionProvider>(chain.size() * 2);
+        for (PermissionProvider provider : chain) {
+            // Only our own providers can be compiled, others resolve their parents themselves
+            while (provider instanceof MultiworldPermissionProvider) {
+                flat.add(provider);
+                provider = provider.getParent();
+            }
+            if (provider != null) {
+                flat.add(provider);
+            }
+        }
+        providers = flat.toArray(new PermissionProvider[flat.size()]);
+        versions = new int[providers.length];
+        trees = new Tree[providers.length];
+        for (int i = 0; i < providers.length; i++) {
+            if (providers[i] instanceof MultiworldPermissionProvider) {
+                MultiworldPermissionProvider provider = (MultiworldPermissionProvider)providers[i];
+                trees[i] = provider.getCompiledTree();
+                versions[i] = trees[i].getVersion();
+            }
+        }
+        // Results of providers we can't track changes of can't be cached
+        boolean compiledOnly = true;
+        for (Tree tree : trees) {
+            compiledOnly &= tree != null;
+        }
+        int cacheSize = resultCacheSize;
+        results = cacheSize > 0 && compiledOnly ? CacheBuilder.newBuilder().maximumSize(cacheSize).<String, Boolean>build() : null;
+    }
+
+    /**
+     * Compiles an index over the given providers and their parents
+     *
+     * @param chain
+     *         the providers, the first one that has a path for a permission decides it
+     *
+     * @return the index
+     */
+    public static PermissionIndex compile(List<PermissionProvider> chain) {
+        return new PermissionIndex(chain, inheritanceVersion.get());
+    }
+
+    /**
+     * Compiles an index over a group and its parent groups, resolving like {@link Group#hasPermission(String)}
+     *
+     * @param group
+     *         the group
+     *
+     * @return the index
+     */
+    public static PermissionIndex forGroup(Group group) {
+        int inheritance = inheritanceVersion.get();
+        return new PermissionIndex(groupChain(null, group), inheritance);
+    }
+
+    /**
+     * Compiles an index for a player in a world: the permissions of the player first, then those of its group
+     *
+     * @param player
+     *         the permission provider of the player in that world
+     * @param group
+     *         the group of the player
+     *
+     * @return the index
+     */
+    public static PermissionIndex forPlayer(PermissionProvider player, Group group) {
+        int inheritance = inheritanceVersion.get();
+        return new PermissionIndex(groupChain(player, group), inheritance);
+    }
+
+    private static List<PermissionProvider> groupChain(PermissionProvider player, Group group) {
+        List<PermissionProvider> chain = new ArrayList<PermissionProvider>();
+        if (player != null) {
+            chain.add(player);
+        }
+        if (group != null) {
+            chain.add(group.getPermissionProvider());
+            for (Group parent : group.parentsToList()) {
+                chain.add(parent.getPermissionProvider());
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Marks all indexes built over groups as outdated.
+     * Called when the parent or the permission provider of a group changes.
+     */
+    public static void inheritanceChanged() {
+        inheritanceVersion.incrementAndGet();
+    }
+
+    /**
+     * Sets the maximum number of query results each index caches. Applies to indexes built afterwards.
+     *
+     * @param size
+     *         the cache size, 0 to not cache results
+     */
+    public static void setResultCacheSize(int size) {
+        resultCacheSize = Math.max(0, size);
+    }
+
+    /**
+     * Gets the number of queries answered from a result cache
+     *
+     * @return the hit count
+     */
+    public static long getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of queries that had to be resolved
+     *
+     * @return the miss count
+     */
+    public static long getCacheMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the share of queries answered from a result cache
+     *
+     * @return the hit rate between 0 and 1, 0 if nothing was queried yet
+     */
+    public static double getCacheHitRate() {
+        long hit = hits.get();
+        long total = hit + misses.get();
+        return total == 0 ? 0 : (double)hit / total;
+    }
+
+    /**
+     * Resets the cache hit and miss counters
+     */
+    public static void resetCacheStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Checks if this index still reflects the permissions of its providers and the group inheritance.
+     * Rebuild it with the same factory method if it does not.
+     *
+     * @return true if the index is up to date
+     */
+    public boolean isCurrent() {
+        if (inheritance != inheritanceVersion.get()) {
+            return false;
+        }
+        for (int i = 0; i < providers.length; i++) {
+            if (trees[i] != null && versions[i] != ((MultiworldPermissionProvider)providers[i]).getVersion()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolves a permission with the first provider that has a path for it
+     *
+     * @param permission
+     *         the permission
+     *
+     * @return true if the permission is granted, false if it is denied or no provider knows it
+     */
+    public boolean queryPermission(String permission) {
+        if (permission.isEmpty() || permission.equals(" ")) {
+            return true;
+        }
+        if (results == null) {
+            return resolve(permission);
+        }
+        Boolean cached = results.getIfPresent(permission);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        boolean result = resolve(permission);
+        results.put(permission, result);
+        return result;
+    }
+
+    private boolean resolve(String permission) {
+        int limit = limit(permission);
+        if (limit < 0) {
+            return false;
+        }
+        for (int i = 0; i < providers.length; i++) {
+            if (trees[i] == null) {
+                if (providers[i].pathExists(permission)) {
+                    return providers[i].queryPermission(permission);
+                }
+            }
+            else if (trees[i].hasPath(permission, limit)) {
+                return trees[i].resolve(permission, limit);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any provider has a path for the permission
+     *
+     * @param permission
+     *         the permission
+     *
+     * @return true if the permission can be resolved
+     */
+    public boolean pathExists(String permission) {
+        if (permission.trim().isEmpty()) {
+            return true;
+        }
+        int limit = limit(permission);
+        if (limit < 0) {
+            return false;
+        }
+        for (int i = 0; i < providers.length; i++) {
+            if (trees[i] == null ? providers[i].pathExists(permission) : trees[i].hasPath(permission, limit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the given root nodes of a provider
+     *
+     * @param roots
+     *         the root nodes
+     *
+     * @return the compiled roots, in the same order
+     */
+    static Node[] compileRoots(List<PermissionNode> roots) {
+        Node[] compiled = new Node[roots.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compile(roots.get(i));
+        }
+        return compiled;
+    }
+
+    private static Node compile(PermissionNode node) {
+        Node[] children = Node.NONE;
+        if (!node.getChilds().isEmpty()) {
+            children = new Node[node.getChilds().size()];
+            int i = 0;
+            for (PermissionNode child : node.getChilds().values()) {
+                children[i++] = compile(child);
+            }
+            Arrays.sort(children, new Comparator<Node>() {
+                @Override
+                public int compare(Node a, Node b) {
+                    return a.name.compareTo(b.name);
+                }
+            });
+        }
+        return new Node(segments.intern(node.getName()), node.getValue(), children);
+    }
+
+    /**
+     * Gets the end of the part of a permission that String.split("\\.") would turn into segments,
+     * it drops trailing empty segments
+     *
+     * @return the end index, or -1 if there are no segments
+     */
+    private static int limit(String path) {
+        int limit = path.length();
+        while (limit > 0 && path.charAt(limit - 1) == '.') {
+            limit--;
+        }
+        return limit == 0 ? -1 : limit;
+    }
+
+    private static int segmentEnd(String path, int start, int limit) {
+        int end = path.indexOf('.', start);
+        return end < 0 || end > limit ? limit : end;
+    }
+
+    /**
+     * Compares a name to a part of a path, in {@link String#compareTo(String)} order
+     */
+    private static int compare(String name, String path, int start, int end) {
+        int length = end - start;
+        int common = Math.min(name.length(), length);
+        for (int i = 0; i < common; i++) {
+            int difference = name.charAt(i) - path.charAt(start + i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return name.length() - length;
+    }
+}
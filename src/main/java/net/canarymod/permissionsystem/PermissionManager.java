@@ -3,6 +3,7 @@ package net.canarymod.permissionsystem;
 import net.canarymod.api.PlayerReference;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.backbone.BackbonePermissions;
+import net.canarymod.config.Configuration;
 import net.canarymod.user.Group;
 
 /**
@@ -14,6 +15,7 @@ public class PermissionManager {
     BackbonePermissions backbone;
 
     public PermissionManager() {
+        PermissionIndex.setResultCacheSize(Configuration.getServerConfig().getPermissionCacheSize());
         backbone = new BackbonePermissions();
     }
 
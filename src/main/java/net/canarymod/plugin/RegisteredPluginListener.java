@@ -2,7 +2,9 @@ package net.canarymod.plugin;
 
 import net.canarymod.hook.CancelableHook;
 import net.canarymod.hook.Dispatcher;
+import net.canarymod.hook.HandlerTiming;
 import net.canarymod.hook.Hook;
+import net.canarymod.hook.HookTimings;
 
 /**
  * Container for registered plugin listeners
@@ -15,13 +17,19 @@ public class RegisteredPluginListener {
     private Priority methodPriority;
     private int basePriority;
     private Dispatcher executor;
+    private HandlerTiming timing;
 
     public RegisteredPluginListener(PluginListener l, Plugin plugin, Dispatcher executor, Priority priority) {
+        this(l, plugin, executor, priority, null);
+    }
+
+    public RegisteredPluginListener(PluginListener l, Plugin plugin, Dispatcher executor, Priority priority, Class<? extends Hook> hookCls) {
         this.listener = l;
         this.plugin = plugin;
         this.basePriority = plugin.getPriority();
         this.executor = executor;
         methodPriority = priority;
+        this.timing = new HandlerTiming(plugin.getName(), hookCls != null ? hookCls.getSimpleName() : "Hook", executor.getHandlerName());
     }
 
     public PluginListener getListener() {
@@ -42,6 +50,18 @@ public class RegisteredPluginListener {
      * @param hook
      */
     public void execute(Hook hook) {
+        execute(hook, null);
+    }
+
+    /**
+     * Execute the event on the listener registered, recording the execution time if timings are given
+     *
+     * @param hook
+     *         the {@link Hook} to execute
+     * @param timings
+     *         the {@link HookTimings} to record to, or {@code null} to skip timing
+     */
+    public void execute(Hook hook, HookTimings timings) {
         if (hook instanceof CancelableHook) {
             if (((CancelableHook)hook).isCanceled()) {
                 if (!executor.ignoreCanceled) {
@@ -49,7 +69,35 @@ public class RegisteredPluginListener {
                 }
             }
         }
-        executor.execute(listener, hook);
+        if (timings == null) {
+            executor.execute(listener, hook);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            executor.execute(listener, hook);
+        }
+        finally {
+            timings.record(timing, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gets the recorded execution times of this listener
+     *
+     * @return the {@link HandlerTiming}
+     */
+    public HandlerTiming getTiming() {
+        return timing;
+    }
+
+    /**
+     * Checks whether this listener runs on the async hook lane
+     *
+     * @return {@code true} if async; {@code false} otherwise
+     */
+    public boolean isAsync() {
+        return executor.async;
     }
 
     public Priority getMethodPriority() {
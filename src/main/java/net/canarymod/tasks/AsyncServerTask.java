@@ -0,0 +1,78 @@
+package net.canarymod.tasks;
+
+import net.canarymod.plugin.Plugin;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Async Server Task
+ * <p/>
+ * Extend this class to run work such as database or HTTP calls off the Server's main thread.<br>
+ * {@link #call()} runs on a shared worker pool; {@link #onComplete(Object)} or {@link #onFailure(Throwable)}
+ * is then called on the Server's main thread with the next tick.
+ *
+ * @param <V>
+ *         the result type
+ *
+ * @author agent
+ * @see ServerTaskManager#addAsyncTask(AsyncServerTask)
+ */
+public abstract class AsyncServerTask<V> {
+    private final TaskOwner owner;
+
+    /**
+     * Constructs an AsyncServerTask
+     *
+     * @param owner
+     *         the {@link TaskOwner} of the task, typically a {@link Plugin}
+     *
+     * @throws IllegalArgumentException
+     *         if owner is null
+     */
+    public AsyncServerTask(TaskOwner owner) {
+        if (owner == null) {
+            throw new IllegalArgumentException("An AsyncServerTask requires an owner.");
+        }
+        this.owner = owner;
+    }
+
+    /**
+     * Gets the {@link TaskOwner} that owns this task
+     *
+     * @return the {@link TaskOwner} owner
+     */
+    public final TaskOwner getOwner() {
+        return owner;
+    }
+
+    /**
+     * Execution method, called off the main thread. Override and insert your logic here.
+     *
+     * @return the result handed to {@link #onComplete(Object)}
+     *
+     * @throws Exception
+     *         handed to {@link #onFailure(Throwable)}
+     */
+    public abstract V call() throws Exception;
+
+    /**
+     * Called on the main thread after {@link #call()} returned.<br>
+     * Not called if the task was canceled.
+     *
+     * @param result
+     *         the value returned by {@link #call()}
+     */
+    public void onComplete(V result) {
+    }
+
+    /**
+     * Called on the main thread after {@link #call()} threw or the task could not be queued.<br>
+     * Not called if the task was canceled.
+     *
+     * @param thrown
+     *         the cause of the failure
+     */
+    public void onFailure(Throwable thrown) {
+        log.error("An Exception occurred while executing AsyncServerTask: " + getClass().getSimpleName(), thrown);
+    }
+}
@@ -0,0 +1,94 @@
+package net.canarymod.tasks;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Handle to a queued {@link AsyncServerTask}
+ *
+ * @param <V>
+ *         the result type
+ *
+ * @author agent
+ */
+public final class AsyncTaskHandle<V> implements Future<V> {
+    private final AsyncServerTask<V> task;
+    private final ListenableFuture<V> future;
+    private volatile boolean discarded;
+
+    AsyncTaskHandle(AsyncServerTask<V> task, ListenableFuture<V> future) {
+        this.task = task;
+        this.future = future;
+    }
+
+    /**
+     * Gets the {@link AsyncServerTask} this handle belongs to
+     *
+     * @return the task
+     */
+    public AsyncServerTask<V> getTask() {
+        return task;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        discarded = true;
+        return future.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        return future.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        return future.get(timeout, unit);
+    }
+
+    /**
+     * Internal use method to run the task's continuation on the main thread
+     */
+    void runContinuation() {
+        if (discarded) {
+            return;
+        }
+        try {
+            V result;
+            try {
+                result = future.get();
+            }
+            catch (ExecutionException eex) {
+                task.onFailure(eex.getCause());
+                return;
+            }
+            task.onComplete(result);
+        }
+        catch (CancellationException cex) {
+            // Canceled between the check and get
+        }
+        catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Throwable thrown) {
+            log.error("An Exception occurred while completing AsyncServerTask: " + task.getClass().getSimpleName(), thrown);
+        }
+    }
+}
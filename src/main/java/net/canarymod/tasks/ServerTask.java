@@ -96,6 +96,16 @@ public abstract class ServerTask {
         return owner;
     }
 
+    /**
+     * Gets whether this task may be pushed to the next tick once the per-tick task budget is used up.<br>
+     * Only continuous tasks are ever deferred. Override and return {@code true} for work that can wait.
+     *
+     * @return {@code true} if low priority; {@code false} if not
+     */
+    public boolean isLowPriority() {
+        return false;
+    }
+
     /**
      * Execution method. Override and insert your logic here.
      */
@@ -109,19 +119,12 @@ public abstract class ServerTask {
     }
 
     /**
-     * Internal use method to decrease the delay
-     */
-    final void decrementDelay() {
-        --delay;
-    }
-
-    /**
-     * Internal use method to check if it is time to run the task
+     * Internal use method to get the number of ticks before the next execution
      *
-     * @return {@code true} for execute; {@code false} for not
+     * @return the delay
      */
-    final boolean shouldExecute() {
-        return delay <= 0;
+    final long getDelay() {
+        return delay;
     }
 
     /**
@@ -1,12 +1,27 @@
 package net.canarymod.tasks;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.canarymod.config.Configuration;
 import net.canarymod.plugin.Plugin;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static net.canarymod.Canary.log;
 
@@ -15,19 +30,48 @@ import static net.canarymod.Canary.log;
  * <p/>
  * The Manager for {@link ServerTask}<br>
  * If an exception occurs while running a task, it gets removed from the queue, regardless of continuous status
+ * <p/>
+ * Queued tasks are kept in a min-heap ordered by the tick they are due on, so a tick only touches the tasks that run in it.
+ * Adding and removing tasks does not lock and may be done from any thread; new tasks are moved into the heap by the next
+ * {@link #runTasks()} and removed tasks are dropped from the heap once they come up.
+ * <p/>
+ * {@link AsyncServerTask}s run on a shared, bounded worker pool. Their continuations are handed back to
+ * the main thread through the same {@link #runTasks()} pump.
+ * <p/>
+ * Main thread time spent in tasks is accounted per {@link TaskOwner}. Once a tick has spent its task budget,
+ * continuous tasks that are {@link ServerTask#isLowPriority() low priority} are pushed to the next tick.
  *
  * @author Jason (darkdiplomat)
  */
 public final class ServerTaskManager {
     private final static ServerTaskManager $;
-    private final ConcurrentHashMap<ServerTask, TaskOwner> tasks;
+    private final ConcurrentHashMap<ServerTask, ScheduledTask> tasks;
+    private final ConcurrentLinkedQueue<ScheduledTask> incoming;
+    private final PriorityQueue<ScheduledTask> schedule; // Only touched by runTasks
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger removed = new AtomicInteger();
+    private final ConcurrentHashMap<AsyncTaskHandle<?>, TaskOwner> asyncTasks;
+    private final ConcurrentLinkedQueue<AsyncTaskHandle<?>> completed;
+    private final ListeningExecutorService asyncPool;
+    private final ConcurrentHashMap<TaskOwner, TaskOwnerTiming> timings;
+    private volatile long tickBudgetNanos;
+    private long tick;
 
     static {
         $ = new ServerTaskManager();
     }
 
     private ServerTaskManager() {
-        tasks = new ConcurrentHashMap<ServerTask, TaskOwner>();
+        tasks = new ConcurrentHashMap<ServerTask, ScheduledTask>();
+        incoming = new ConcurrentLinkedQueue<ScheduledTask>();
+        schedule = new PriorityQueue<ScheduledTask>();
+        asyncTasks = new ConcurrentHashMap<AsyncTaskHandle<?>, TaskOwner>();
+        completed = new ConcurrentLinkedQueue<AsyncTaskHandle<?>>();
+        timings = new ConcurrentHashMap<TaskOwner, TaskOwnerTiming>();
+        tickBudgetNanos = toBudgetNanos(Configuration.getServerConfig().getTaskTickBudget());
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        asyncPool = MoreExecutors.listeningDecorator(new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(4096),
+                                                                            new ThreadFactoryBuilder().setNameFormat("Canary Async Task-%d").setDaemon(true).build()));
     }
 
     /**
@@ -39,10 +83,48 @@ public final class ServerTaskManager {
      * @return {@code true} if successfully added; {@code false} if not
      */
     public static boolean addTask(ServerTask task) {
-        synchronized ($.tasks) {
-            $.tasks.put(task, task.getOwner());
-            return true;
+        ScheduledTask scheduled = new ScheduledTask(task, $.sequence.getAndIncrement());
+        if ($.tasks.put(task, scheduled) != null) {
+            $.removed.incrementAndGet(); // The previous entry is now stale
+        }
+        $.incoming.add(scheduled);
+        return true;
+    }
+
+    /**
+     * Runs an {@link AsyncServerTask} on the shared async worker pool.<br>
+     * Its continuation is called on the main thread with the first tick after it finished.
+     *
+     * @param task
+     *         the {@link AsyncServerTask} to run
+     * @param <V>
+     *         the result type
+     *
+     * @return the {@link AsyncTaskHandle} of the task
+     */
+    public static <V> AsyncTaskHandle<V> addAsyncTask(final AsyncServerTask<V> task) {
+        ListenableFuture<V> future;
+        try {
+            future = $.asyncPool.submit(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    return task.call();
+                }
+            });
+        }
+        catch (RejectedExecutionException rejected) {
+            future = Futures.immediateFailedFuture(rejected);
         }
+        final AsyncTaskHandle<V> handle = new AsyncTaskHandle<V>(task, future);
+        $.asyncTasks.put(handle, task.getOwner());
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                // Stays in asyncTasks until the continuation runs, so removeTasks can still discard it
+                $.completed.add(handle);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return handle;
     }
 
     /**
@@ -55,26 +137,37 @@ public final class ServerTaskManager {
      * @return {@code true} if removed; {@code false} if not found or unable to be removed
      */
     public static boolean removeTask(ServerTask task) {
-        synchronized ($.tasks) {
-            return $.tasks.remove(task) != null;
+        if ($.tasks.remove(task) != null) {
+            $.removed.incrementAndGet();
+            return true;
         }
+        return false;
     }
 
     /**
-     * Removes all the tasks for a specified {@link TaskOwner}
+     * Removes all the tasks for a specified {@link TaskOwner}, canceling its running {@link AsyncServerTask}s
+     * and discarding the continuations of those that finished but have not been completed on the main thread yet
      *
      * @param owner
      *         the {@link TaskOwner} to remove tasks for
      */
     public static void removeTasks(TaskOwner owner) {
-        synchronized ($.tasks) {
-            Iterator<Entry<ServerTask, TaskOwner>> taskIter = $.tasks.entrySet().iterator();
-            while (taskIter.hasNext()) {
-                if (taskIter.next().getValue().equals(owner)) {
-                    taskIter.remove();
-                }
+        Iterator<Entry<ServerTask, ScheduledTask>> taskIter = $.tasks.entrySet().iterator();
+        while (taskIter.hasNext()) {
+            if (taskIter.next().getKey().getOwner().equals(owner)) {
+                taskIter.remove();
+                $.removed.incrementAndGet();
             }
         }
+        Iterator<Entry<AsyncTaskHandle<?>, TaskOwner>> asyncIter = $.asyncTasks.entrySet().iterator();
+        while (asyncIter.hasNext()) {
+            Entry<AsyncTaskHandle<?>, TaskOwner> entry = asyncIter.next();
+            if (entry.getValue().equals(owner)) {
+                asyncIter.remove();
+                entry.getKey().cancel(true);
+            }
+        }
+        $.timings.remove(owner);
     }
 
     /**
@@ -86,9 +179,7 @@ public final class ServerTaskManager {
      *         {@code true} if the given {@code task} is queued; {@code false} otherwise
      */
     public static boolean isQueued(ServerTask task) {
-        synchronized ($.tasks) {
-            return $.tasks.containsValue(task);
-        }
+        return $.tasks.containsKey(task);
     }
 
     /**
@@ -101,14 +192,44 @@ public final class ServerTaskManager {
      *         will return an empty {@link ArrayList} if no {@link ServerTask}s are found
      */
     public static List<ServerTask> getServerTasksForTaskOwner(TaskOwner owner) {
-        synchronized ($.tasks) {
-            ArrayList<ServerTask> tasks = new ArrayList<ServerTask>();
-            for (Entry<ServerTask, TaskOwner> serverTaskTaskOwnerEntry : $.tasks.entrySet()) {
-                if (serverTaskTaskOwnerEntry.getValue().equals(owner)) {
-                    tasks.add(serverTaskTaskOwnerEntry.getKey());
-                }
+        ArrayList<ServerTask> tasks = new ArrayList<ServerTask>();
+        for (ServerTask task : $.tasks.keySet()) {
+            if (task.getOwner().equals(owner)) {
+                tasks.add(task);
             }
-            return tasks;
+        }
+        return tasks;
+    }
+
+    /**
+     * Sets the main thread time tasks may use per tick before low priority tasks are deferred
+     *
+     * @param millis
+     *         the budget in milliseconds; 0 or less disables deferring
+     */
+    public static void setTickBudget(long millis) {
+        $.tickBudgetNanos = toBudgetNanos(millis);
+    }
+
+    private static long toBudgetNanos(long millis) {
+        return millis > 0 ? TimeUnit.MILLISECONDS.toNanos(millis) : 0;
+    }
+
+    /**
+     * Gets the main thread time accounting of every {@link TaskOwner} that ran tasks
+     *
+     * @return list of {@link TaskOwnerTiming}s
+     */
+    public static List<TaskOwnerTiming> getOwnerTimings() {
+        return new ArrayList<TaskOwnerTiming>($.timings.values());
+    }
+
+    /**
+     * Resets the main thread time accounting of all {@link TaskOwner}s
+     */
+    public static void resetOwnerTimings() {
+        for (TaskOwnerTiming timing : $.timings.values()) {
+            timing.reset();
         }
     }
 
@@ -116,32 +237,118 @@ public final class ServerTaskManager {
      * Internal method called to run the tasks or decrease timers.
      */
     public static void runTasks() {
-        if ($.tasks.isEmpty()) {
-            // No tasks? no execution needed
-            return;
-        }
-        synchronized ($.tasks) {
-            Iterator<Entry<ServerTask, TaskOwner>> taskIter = $.tasks.entrySet().iterator();
-            while (taskIter.hasNext()) {
-                ServerTask task = taskIter.next().getKey();
-                task.decrementDelay();
-                if (task.shouldExecute()) {
-                    try {
-                        task.run();
-                    }
-                    catch (Throwable thrown) {
-                        log.error("An Exception occurred while executing ServerTask: " + task.getClass().getSimpleName(), thrown);
-                        taskIter.remove();
-                        continue;
-                    }
-                    if (!task.isContinuous()) {
-                        taskIter.remove();
-                    }
-                    else {
-                        task.reset();
-                    }
-                }
+        long tickStart = System.nanoTime();
+        AsyncTaskHandle<?> finished;
+        while ((finished = $.completed.poll()) != null) {
+            if ($.asyncTasks.remove(finished) == null) {
+                continue; // Canceled through removeTasks
+            }
+            long start = System.nanoTime();
+            finished.runContinuation();
+            $.record(finished.getTask().getOwner(), System.nanoTime() - start);
+        }
+        $.tick++;
+        $.drainIncoming();
+        if ($.removed.get() > $.schedule.size() / 2 + 16) {
+            $.purgeRemoved();
+        }
+        ScheduledTask next;
+        while ((next = $.schedule.peek()) != null && next.due <= $.tick) {
+            $.schedule.poll();
+            ServerTask task = next.task;
+            if ($.tasks.get(task) != next) {
+                // Removed or replaced since it was scheduled
+                $.removed.decrementAndGet();
+                continue;
+            }
+            if ($.tickBudgetNanos > 0 && task.isContinuous() && task.isLowPriority() && System.nanoTime() - tickStart >= $.tickBudgetNanos) {
+                next.due = $.tick + 1;
+                $.schedule.add(next);
+                $.timingFor(task.getOwner()).recordDeferred();
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+            }
+            catch (Throwable thrown) {
+                $.record(task.getOwner(), System.nanoTime() - start);
+                log.error("An Exception occurred while executing ServerTask: " + task.getClass().getSimpleName(), thrown);
+                $.tasks.remove(task, next);
+                continue;
+            }
+            $.record(task.getOwner(), System.nanoTime() - start);
+            if (!task.isContinuous()) {
+                $.tasks.remove(task, next);
+            }
+            else if ($.tasks.get(task) == next) {
+                task.reset();
+                next.due = $.tick + Math.max(task.getDelay(), 1);
+                $.schedule.add(next);
+            }
+            else {
+                // Removed while running
+                $.removed.decrementAndGet();
+            }
+        }
+    }
+
+    private TaskOwnerTiming timingFor(TaskOwner owner) {
+        TaskOwnerTiming timing = timings.get(owner);
+        if (timing == null) {
+            timing = new TaskOwnerTiming(owner);
+            TaskOwnerTiming existing = timings.putIfAbsent(owner, timing);
+            if (existing != null) {
+                timing = existing;
+            }
+        }
+        return timing;
+    }
+
+    private void record(TaskOwner owner, long nanos) {
+        timingFor(owner).record(nanos);
+    }
+
+    private void drainIncoming() {
+        ScheduledTask scheduled;
+        while ((scheduled = incoming.poll()) != null) {
+            // A delay of 0 or less runs with the next tick, same as a delay of 1
+            scheduled.due = tick - 1 + Math.max(scheduled.task.getDelay(), 1);
+            schedule.add(scheduled);
+        }
+    }
+
+    private void purgeRemoved() {
+        Iterator<ScheduledTask> scheduleIter = schedule.iterator();
+        while (scheduleIter.hasNext()) {
+            ScheduledTask scheduled = scheduleIter.next();
+            if (tasks.get(scheduled.task) != scheduled) {
+                scheduleIter.remove();
+            }
+        }
+        removed.set(0);
+    }
+
+    /**
+     * Heap entry of a queued task. A task that is removed and added again gets a new entry,
+     * which leaves the old one stale until it is dropped.
+     */
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+        private final ServerTask task;
+        private final long sequence;
+        private long due;
+
+        ScheduledTask(ServerTask task, long sequence) {
+            this.task = task;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            if (due != other.due) {
+                return due < other.due ? -1 : 1;
             }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
         }
     }
 }
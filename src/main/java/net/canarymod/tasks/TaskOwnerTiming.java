@@ -0,0 +1,95 @@
+package net.canarymod.tasks;
+
+import net.canarymod.plugin.Plugin;
+
+/**
+ * Main thread time spent in the tasks of one {@link TaskOwner}
+ * <p/>
+ * Only written by the Server's main thread while it runs tasks.
+ *
+ * @author agent
+ */
+public final class TaskOwnerTiming {
+    private final TaskOwner owner;
+    private volatile long count;
+    private volatile long totalNanos;
+    private volatile long maxNanos;
+    private volatile long deferred;
+
+    TaskOwnerTiming(TaskOwner owner) {
+        this.owner = owner;
+    }
+
+    void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+    }
+
+    void recordDeferred() {
+        deferred++;
+    }
+
+    void reset() {
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        deferred = 0;
+    }
+
+    /**
+     * Gets the {@link TaskOwner}
+     *
+     * @return the owner
+     */
+    public TaskOwner getOwner() {
+        return owner;
+    }
+
+    /**
+     * Gets a display name for the owner
+     *
+     * @return the plugin name, or the owner's class name for other owners
+     */
+    public String getOwnerName() {
+        return owner instanceof Plugin ? ((Plugin)owner).getName() : owner.getClass().getSimpleName();
+    }
+
+    /**
+     * Gets the number of task executions
+     *
+     * @return execution count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the total main thread time spent in the owner's tasks
+     *
+     * @return total nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets the longest single task execution
+     *
+     * @return maximum nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Gets the number of times a low priority task was pushed to the next tick because the tick budget was used up
+     *
+     * @return deferred count
+     */
+    public long getDeferredCount() {
+        return deferred;
+    }
+}
@@ -2,6 +2,7 @@ package net.canarymod.user;
 
 import net.canarymod.backbone.GroupDataAccess;
 import net.canarymod.chat.ChatFormat;
+import net.canarymod.permissionsystem.PermissionIndex;
 import net.canarymod.permissionsystem.PermissionProvider;
 
 import java.util.ArrayList;
@@ -56,6 +57,11 @@ public class Group {
      */
     private boolean defaultGroup = false;
 
+    /**
+     * Compiled permissions of this group and its parents, rebuilt when outdated
+     */
+    private volatile PermissionIndex permissionIndex;
+
     /**
      * Check if this group can ignore restrictions
      *
@@ -118,19 +124,12 @@ public class Group {
         // NOTE: to whoever comes by and thinks, hey a permission check hook is missing:
         // Permission check hooks are fired in all MessageReceivers.
         // Doing it here too would fire a hook for the same request twice.
-        if (permissions.pathExists(permission)) {
-            return permissions.queryPermission(permission);
+        PermissionIndex index = permissionIndex;
+        if (index == null || !index.isCurrent()) {
+            index = PermissionIndex.forGroup(this);
+            permissionIndex = index;
         }
-        // if(permissions.queryPermission(permission)) {
-        // return true;
-        // }
-
-        for (Group g : parentsToList()) {
-            if (g.permissions.pathExists(permission)) {
-                return g.permissions.queryPermission(permission);
-            }
-        }
-        return false;
+        return index.queryPermission(permission);
     }
 
     /**
@@ -210,6 +209,7 @@ public class Group {
 
     public void setPermissionProvider(PermissionProvider provider) {
         this.permissions = provider;
+        PermissionIndex.inheritanceChanged();
     }
 
     public String getName() {
@@ -252,6 +252,7 @@ public class Group {
             group.addChild(this);
         }
         parent = group;
+        PermissionIndex.inheritanceChanged();
     }
 
     public void addChild(Group g) {
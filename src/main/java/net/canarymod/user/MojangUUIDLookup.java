@@ -0,0 +1,96 @@
+package net.canarymod.user;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Looks up UUIDs through the bulk profile endpoint of the Mojang API
+ *
+ * @author agent
+ */
+public class MojangUUIDLookup implements UUIDLookupEndpoint {
+    public static final String PROFILES_URL = "https://api.mojang.com/profiles/minecraft";
+
+    private final String url;
+
+    public MojangUUIDLookup() {
+        this(PROFILES_URL);
+    }
+
+    /**
+     * Uses another server that speaks the same protocol
+     *
+     * @param url
+     *         the URL to post the names to
+     */
+    public MojangUUIDLookup(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return 10; // Limit of the Mojang API
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, String> lookup(List<String> names) throws Exception {
+        JSONArray request = new JSONArray();
+        request.addAll(names);
+
+        HttpURLConnection uc = (HttpURLConnection)new URL(url).openConnection();
+        uc.setRequestMethod("POST");
+        uc.setConnectTimeout(5000);
+        uc.setReadTimeout(5000);
+        uc.setDoOutput(true);
+        uc.setUseCaches(false);
+        uc.setDefaultUseCaches(false);
+        uc.addRequestProperty("User-Agent", "minecraft");
+        uc.addRequestProperty("Cache-Control", "no-cache, no-store, must-revalidate");
+        uc.addRequestProperty("Pragma", "no-cache");
+        uc.setRequestProperty("Content-Type", "application/json");
+        OutputStream out = uc.getOutputStream();
+        try {
+            out.write(request.toJSONString().getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+
+        Scanner scanner = new Scanner(uc.getInputStream(), "UTF-8");
+        Map<String, String> result = new HashMap<String, String>();
+        try {
+            if (!scanner.useDelimiter("\\A").hasNext()) {
+                return result;
+            }
+            for (Object entry : (JSONArray)new JSONParser().parse(scanner.next())) {
+                JSONObject profile = (JSONObject)entry;
+                String id = (String)profile.get("id");
+                String name = (String)profile.get("name");
+                if (id != null && name != null) {
+                    result.put(name, withHyphens(id));
+                }
+            }
+        }
+        finally {
+            scanner.close();
+        }
+        return result;
+    }
+
+    private static String withHyphens(String uuid) {
+        if (uuid.contains("-") || uuid.length() != 32) {
+            return uuid;
+        }
+        return uuid.substring(0, 8) + "-" + uuid.substring(8, 12) + "-" + uuid.substring(12, 16) + "-" + uuid.substring(16, 20) + "-" + uuid.substring(20, 32);
+    }
+}
@@ -1,5 +1,7 @@
 package net.canarymod.user;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import net.canarymod.ToolBox;
 import net.canarymod.api.PlayerReference;
 import net.canarymod.backbone.BackboneOperators;
@@ -11,7 +13,6 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.List;
 
 import static net.canarymod.Canary.log;
 
@@ -22,11 +23,11 @@ import static net.canarymod.Canary.log;
  */
 public class OperatorsProvider {
     private BackboneOperators backboneOps;
-    private List<String> ops;
+    private final SnapshotSet ops;
 
     public OperatorsProvider() {
         backboneOps = new BackboneOperators();
-        ops = backboneOps.loadOps();
+        ops = new SnapshotSet(backboneOps.loadOps());
         readOpsCfg();
     }
 
@@ -34,7 +35,7 @@ public class OperatorsProvider {
      * Reload the ops from database
      */
     public void reload() {
-        ops = backboneOps.loadOps();
+        ops.replaceAll(backboneOps.loadOps());
         readOpsCfg();
     }
 
@@ -114,44 +115,68 @@ public class OperatorsProvider {
     }
 
     /**
-     * Adds a new operators entry
+     * Adds a new operators entry.
+     * A name that has to be looked up is added once the lookup is done, this never waits for it.
      *
      * @param entry
      *         the player uuid/name you want to add
      */
-    public void addPlayer(String entry) {
-        if (!ops.contains(entry)) {
-            if (!ToolBox.isUUID(entry)) {
-                String uuid = ToolBox.usernameToUUID(entry);
-                if (!ops.contains(uuid)) {
-                    ops.add(uuid);
-                    backboneOps.addOpEntry(uuid);
+    public void addPlayer(final String entry) {
+        if (ops.contains(entry)) {
+            return;
+        }
+        Futures.addCallback(ToolBox.usernameToUUIDAsync(entry), new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String uuid) {
+                if (uuid == null) {
+                    log.warn("Could not add " + entry + " to the ops, no UUID was found");
+                    return;
+                }
+                synchronized (ops) {
+                    if (ops.add(uuid)) {
+                        backboneOps.addOpEntry(uuid);
+                    }
                 }
             }
-            else {
-                ops.add(entry);
-                backboneOps.addOpEntry(entry);
+
+            @Override
+            public void onFailure(Throwable thrown) {
+                log.error("Could not add " + entry + " to the ops", thrown);
             }
-        }
+        });
     }
 
     /**
-     * Removes the given player from the ops list
+     * Removes the given player from the ops list.
+     * A name that has to be looked up is removed once the lookup is done, this never waits for it.
      *
      * @param entry
      *         the player uuid/name you want to remove
      */
-    public void removePlayer(String entry) {
+    public void removePlayer(final String entry) {
         if (ops.contains(entry)) {
-            ops.remove(entry);
-            backboneOps.removeOpEntry(entry);
+            synchronized (ops) {
+                if (ops.remove(entry)) {
+                    backboneOps.removeOpEntry(entry);
+                }
+            }
         }
         else if (!ToolBox.isUUID(entry)) {
-            String uuid = ToolBox.usernameToUUID(entry);
-            if (ops.contains(uuid)) {
-                ops.remove(uuid);
-                backboneOps.removeOpEntry(uuid);
-            }
+            Futures.addCallback(ToolBox.usernameToUUIDAsync(entry), new FutureCallback<String>() {
+                @Override
+                public void onSuccess(String uuid) {
+                    synchronized (ops) {
+                        if (uuid != null && ops.remove(uuid)) {
+                            backboneOps.removeOpEntry(uuid);
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable thrown) {
+                    log.error("Could not remove " + entry + " from the ops", thrown);
+                }
+            });
         }
     }
 
@@ -170,6 +195,6 @@ public class OperatorsProvider {
      * @return
      */
     public String[] getOps() {
-        return ops.toArray(new String[getSize()]);
+        return ops.toArray();
     }
 }
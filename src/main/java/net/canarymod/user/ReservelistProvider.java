@@ -5,8 +5,6 @@ import net.canarymod.ToolBox;
 import net.canarymod.api.PlayerReference;
 import net.canarymod.backbone.BackboneReservelist;
 
-import java.util.List;
-
 /**
  * Reserve List Provider
  *
@@ -14,18 +12,18 @@ import java.util.List;
  */
 public class ReservelistProvider {
     private BackboneReservelist backbonereservelist;
-    private List<String> reservelist;
+    private final SnapshotSet reservelist;
 
     public ReservelistProvider() {
         backbonereservelist = new BackboneReservelist();
-        reservelist = backbonereservelist.loadReservelist();
+        reservelist = new SnapshotSet(backbonereservelist.loadReservelist());
     }
 
     /**
      * Reload the reservelist from database
      */
     public void reload() {
-        reservelist = backbonereservelist.loadReservelist();
+        reservelist.replaceAll(backbonereservelist.loadReservelist());
     }
 
     /**
@@ -72,9 +70,10 @@ public class ReservelistProvider {
      * @param name
      */
     public void addPlayer(String name) {
-        if (!reservelist.contains(name)) {
-            reservelist.add(name);
-            backbonereservelist.addSlotReservation(name);
+        synchronized (reservelist) {
+            if (reservelist.add(name)) {
+                backbonereservelist.addSlotReservation(name);
+            }
         }
     }
 
@@ -84,9 +83,10 @@ public class ReservelistProvider {
      * @param name
      */
     public void removePlayer(String name) {
-        if (reservelist.contains(name)) {
-            reservelist.remove(name);
-            backbonereservelist.removeReservelistEntry(name);
+        synchronized (reservelist) {
+            if (reservelist.remove(name)) {
+                backbonereservelist.removeReservelistEntry(name);
+            }
         }
     }
 
@@ -105,6 +105,6 @@ public class ReservelistProvider {
      * @return
      */
     public String[] getReservations() {
-        return reservelist.toArray(new String[reservelist.size()]);
+        return reservelist.toArray();
     }
 }
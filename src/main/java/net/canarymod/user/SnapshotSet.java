@@ -0,0 +1,72 @@
+package net.canarymod.user;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * A set of names or UUIDs that is read far more often than it changes.
+ * <p/>
+ * Reads look at an immutable hash set and don't lock, so they are safe from login threads.
+ * Changes copy the set and swap it in. They are made while holding the monitor of this set,
+ * so callers can persist a change in the same order the changes happen.
+ *
+ * @author agent
+ */
+final class SnapshotSet {
+    private volatile ImmutableSet<String> entries = ImmutableSet.of();
+
+    SnapshotSet(Collection<String> entries) {
+        replaceAll(entries);
+    }
+
+    boolean contains(String entry) {
+        return entry != null && entries.contains(entry);
+    }
+
+    /**
+     * Adds an entry
+     *
+     * @return true if it was not in the set yet
+     */
+    synchronized boolean add(String entry) {
+        if (contains(entry) || entry == null) {
+            return false;
+        }
+        entries = ImmutableSet.<String>builder().addAll(entries).add(entry).build();
+        return true;
+    }
+
+    /**
+     * Removes an entry
+     *
+     * @return true if it was in the set
+     */
+    synchronized boolean remove(String entry) {
+        if (!contains(entry)) {
+            return false;
+        }
+        entries = ImmutableSet.copyOf(Sets.difference(entries, Collections.singleton(entry)));
+        return true;
+    }
+
+    /**
+     * Replaces all entries at once, readers see either the old or the new entries
+     */
+    synchronized void replaceAll(Collection<String> entries) {
+        this.entries = ImmutableSet.copyOf(Iterables.filter(entries, Predicates.notNull()));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    String[] toArray() {
+        ImmutableSet<String> current = entries;
+        return current.toArray(new String[current.size()]);
+    }
+}
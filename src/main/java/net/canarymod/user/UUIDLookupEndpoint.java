@@ -0,0 +1,35 @@
+package net.canarymod.user;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the UUIDs of user names for the {@link UUIDResolver}.
+ * Replace the default Mojang lookup with {@link UUIDResolver#setEndpoint(UUIDLookupEndpoint)},
+ * for example to use a proxy or a local test server.
+ *
+ * @author agent
+ */
+public interface UUIDLookupEndpoint {
+
+    /**
+     * Gets the maximum number of names a single {@link #lookup(List)} call accepts
+     *
+     * @return the batch size
+     */
+    int getBatchSize();
+
+    /**
+     * Looks up the UUIDs of the given names.
+     * Names that don't exist are left out of the result.
+     *
+     * @param names
+     *         the names, no more than {@link #getBatchSize()}
+     *
+     * @return the UUIDs with hyphens, keyed by the names as the endpoint spells them
+     *
+     * @throws Exception
+     *         if the lookup failed
+     */
+    Map<String, String> lookup(List<String> names) throws Exception;
+}
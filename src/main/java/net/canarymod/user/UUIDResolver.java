@@ -0,0 +1,332 @@
+package net.canarymod.user;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.visualillusionsent.utils.PropertiesFile;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static net.canarymod.Canary.log;
+
+/**
+ * Resolves user names to UUIDs.
+ * <p/>
+ * Known names and UUIDs are cached in memory in both directions and saved to uuidreverselookup.cfg
+ * now and then. Names that are not cached are looked up on a background thread: requests for the
+ * same name share one lookup, and names requested close together are sent to the endpoint in one batch.
+ * <p/>
+ * Use {@link #resolveAsync(String)} where you can, {@link #resolve(String)} blocks until the lookup is done.
+ *
+ * @author agent
+ */
+public class UUIDResolver {
+    private static final long VERIFY_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final long BATCH_DELAY = 50; // ms to wait for more names before a lookup
+    private static final long RESOLVE_TIMEOUT = 10; // s a synchronous lookup waits
+
+    private static UUIDResolver instance;
+    private static PropertiesFile lookupFile;
+
+    /**
+     * A cached name and UUID
+     */
+    private static final class Entry {
+        final String uuid;
+        final String name;
+        final long verified;
+
+        Entry(String uuid, String name, long verified) {
+            this.uuid = uuid;
+            this.name = name;
+            this.verified = verified;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - verified > VERIFY_INTERVAL;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> byName = new ConcurrentHashMap<String, Entry>(); // Keyed by lowercase name
+    private final ConcurrentMap<String, Entry> byUUID = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, SettableFuture<String>> pending = new ConcurrentHashMap<String, SettableFuture<String>>();
+    private final List<String> queued = new ArrayList<String>();
+    private boolean flushScheduled;
+    private volatile boolean dirty;
+    private volatile UUIDLookupEndpoint endpoint;
+    private final PropertiesFile file;
+    private final ScheduledExecutorService worker;
+
+    /**
+     * Creates a resolver. Use {@link #get()} for the resolver of the server.
+     *
+     * @param endpoint
+     *         the endpoint names are looked up with
+     * @param file
+     *         the file to load and save the cache from, null to not save it
+     */
+    public UUIDResolver(UUIDLookupEndpoint endpoint, PropertiesFile file) {
+        this.endpoint = endpoint;
+        this.file = file;
+        worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("UUIDResolver").setDaemon(true).build());
+        if (file != null) {
+            load();
+            worker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            }, 30, 30, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread("UUIDResolver-Save") {
+                @Override
+                public void run() {
+                    save();
+                }
+            });
+        }
+    }
+
+    /**
+     * Gets the resolver of the server, which looks names up with Mojang
+     *
+     * @return the resolver
+     */
+    public static synchronized UUIDResolver get() {
+        if (instance == null) {
+            instance = new UUIDResolver(new MojangUUIDLookup(), getLookupFile());
+        }
+        return instance;
+    }
+
+    /**
+     * Gets uuidreverselookup.cfg, which the resolver of the server saves its cache to.
+     * There is one instance of it, so nothing else writes the file from a copy of its own.
+     *
+     * @return the lookup file
+     */
+    public static synchronized PropertiesFile getLookupFile() {
+        if (lookupFile == null) {
+            lookupFile = new PropertiesFile("uuidreverselookup.cfg");
+        }
+        return lookupFile;
+    }
+
+    /**
+     * Sets the endpoint names are looked up with from now on
+     *
+     * @param endpoint
+     *         the endpoint
+     */
+    public void setEndpoint(UUIDLookupEndpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Gets the UUID of a name if it is cached, without looking it up
+     *
+     * @param name
+     *         the user name
+     *
+     * @return the UUID, or null if it is not cached
+     */
+    public String getCachedUUID(String name) {
+        Entry entry = byName.get(name.toLowerCase(Locale.ENGLISH));
+        return entry == null ? null : entry.uuid;
+    }
+
+    /**
+     * Gets the last known name of a UUID, without looking it up
+     *
+     * @param uuid
+     *         the UUID
+     *
+     * @return the name, or null if it is not cached
+     */
+    public String getCachedName(String uuid) {
+        Entry entry = byUUID.get(uuid.toLowerCase(Locale.ENGLISH));
+        return entry == null ? null : entry.name;
+    }
+
+    /**
+     * Records a name and UUID that are known to belong together, for example of a player who logged in
+     *
+     * @param uuid
+     *         the UUID
+     * @param name
+     *         the user name
+     */
+    public void cache(String uuid, String name) {
+        Entry entry = new Entry(uuid.toLowerCase(Locale.ENGLISH), name, System.currentTimeMillis());
+        Entry old = byUUID.put(entry.uuid, entry);
+        if (old != null && !old.name.equalsIgnoreCase(name)) {
+            // Renamed, the old name may belong to someone else now
+            byName.remove(old.name.toLowerCase(Locale.ENGLISH), old);
+        }
+        byName.put(name.toLowerCase(Locale.ENGLISH), entry);
+        dirty = true;
+    }
+
+    /**
+     * Resolves a name to a UUID.
+     * The future completes right away if the name is cached and
+     * with null if the name does not exist or could not be looked up.
+     *
+     * @param name
+     *         the user name
+     *
+     * @return the future UUID
+     */
+    public ListenableFuture<String> resolveAsync(String name) {
+        String key = name.toLowerCase(Locale.ENGLISH);
+        Entry entry = byName.get(key);
+        if (entry != null && !entry.isExpired()) {
+            return Futures.immediateFuture(entry.uuid);
+        }
+        SettableFuture<String> future = pending.get(key);
+        if (future != null) {
+            return future;
+        }
+        future = SettableFuture.create();
+        SettableFuture<String> existing = pending.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        queue(key);
+        return future;
+    }
+
+    /**
+     * Resolves a name to a UUID, waiting for the lookup if the name is not cached
+     *
+     * @param name
+     *         the user name
+     *
+     * @return the UUID, or null if the name does not exist or could not be looked up
+     */
+    public String resolve(String name) {
+        ListenableFuture<String> future = resolveAsync(name);
+        try {
+            return future.get(RESOLVE_TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e) {
+            log.debug("Timed out looking up the UUID of " + name);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            log.debug("Failed to look up the UUID of " + name, e);
+        }
+        return getCachedUUID(name); // Possibly expired, but better than nothing
+    }
+
+    /**
+     * Adds a name to the next batch
+     */
+    private void queue(String name) {
+        synchronized (queued) {
+            queued.add(name);
+            if (queued.size() >= endpoint.getBatchSize()) {
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+            else if (!flushScheduled) {
+                flushScheduled = true;
+                worker.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, BATCH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Looks up all queued names, runs on the worker thread
+     */
+    private void flush() {
+        List<String> names;
+        synchronized (queued) {
+            names = new ArrayList<String>(queued);
+            queued.clear();
+            flushScheduled = false;
+        }
+        UUIDLookupEndpoint current = endpoint;
+        int batchSize = Math.max(1, current.getBatchSize());
+        for (int start = 0; start < names.size(); start += batchSize) {
+            List<String> batch = names.subList(start, Math.min(names.size(), start + batchSize));
+            Map<String, String> found = new HashMap<String, String>();
+            try {
+                for (Map.Entry<String, String> result : current.lookup(batch).entrySet()) {
+                    cache(result.getValue(), result.getKey());
+                    found.put(result.getKey().toLowerCase(Locale.ENGLISH), result.getValue().toLowerCase(Locale.ENGLISH));
+                }
+            }
+            catch (Exception ex) {
+                log.debug("Failed to translate Usernames into UUIDs.");
+                log.debug("Debugging Stacktrace of failed UUID lookup", ex);
+            }
+            for (String name : batch) {
+                SettableFuture<String> future = pending.remove(name);
+                if (future != null) {
+                    String uuid = found.get(name);
+                    future.set(uuid != null ? uuid : getCachedUUID(name));
+                }
+            }
+        }
+    }
+
+    private void load() {
+        for (Map.Entry<String, String> property : file.getPropertiesMap().entrySet()) {
+            long verified = 0;
+            String[] comments = file.getComments(property.getKey());
+            if (comments != null && comments.length > 0) {
+                try {
+                    verified = Long.parseLong(comments[0].replace(";Verified: ", "").trim());
+                }
+                catch (NumberFormatException nfex) {
+                    // re-verify
+                }
+            }
+            Entry entry = new Entry(property.getKey().toLowerCase(Locale.ENGLISH), property.getValue(), verified);
+            byUUID.put(entry.uuid, entry);
+            Entry other = byName.get(entry.name.toLowerCase(Locale.ENGLISH));
+            if (other == null || other.verified < verified) {
+                byName.put(entry.name.toLowerCase(Locale.ENGLISH), entry);
+            }
+        }
+    }
+
+    /**
+     * Saves the cache if it changed
+     */
+    public void save() {
+        if (file == null || !dirty) {
+            return;
+        }
+        synchronized (file) {
+            dirty = false;
+            for (Entry entry : byUUID.values()) {
+                file.setString(entry.uuid, entry.name);
+                file.setComments(entry.uuid, ";Verified: " + entry.verified);
+            }
+            file.save();
+        }
+    }
+}
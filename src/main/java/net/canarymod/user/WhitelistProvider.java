@@ -1,9 +1,11 @@
 package net.canarymod.user;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import net.canarymod.ToolBox;
 import net.canarymod.backbone.BackboneWhitelist;
 
-import java.util.List;
+import static net.canarymod.Canary.log;
 
 /**
  * Access to the backbone for whitelist
@@ -12,18 +14,18 @@ import java.util.List;
  */
 public class WhitelistProvider {
     private BackboneWhitelist backboneWhitelist;
-    private List<String> whitelist;
+    private final SnapshotSet whitelist;
 
     public WhitelistProvider() {
         backboneWhitelist = new BackboneWhitelist();
-        whitelist = backboneWhitelist.loadWhitelist();
+        whitelist = new SnapshotSet(backboneWhitelist.loadWhitelist());
     }
 
     /**
      * Reload the whitelist from database
      */
     public void reload() {
-        whitelist = backboneWhitelist.loadWhitelist();
+        whitelist.replaceAll(backboneWhitelist.loadWhitelist());
     }
 
     /**
@@ -43,37 +45,57 @@ public class WhitelistProvider {
     }
 
     /**
-     * Adds a new whitelist entry
+     * Adds a new whitelist entry.
+     * A name that has to be looked up is added once the lookup is done, this never waits for it.
      *
      * @param subject
      *         player name or uuid
      */
-    public void addPlayer(String subject) {
-        String uuid = subject;
-        if (!ToolBox.isUUID(uuid)) {
-            uuid = ToolBox.usernameToUUID(uuid);
-        }
-        if (!whitelist.contains(uuid)) {
-            whitelist.add(uuid);
-            backboneWhitelist.addWhitelistEntry(uuid);
-        }
+    public void addPlayer(final String subject) {
+        Futures.addCallback(ToolBox.usernameToUUIDAsync(subject), new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String uuid) {
+                if (uuid == null) {
+                    log.warn("Could not add " + subject + " to the whitelist, no UUID was found");
+                    return;
+                }
+                synchronized (whitelist) {
+                    if (whitelist.add(uuid)) {
+                        backboneWhitelist.addWhitelistEntry(uuid);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable thrown) {
+                log.error("Could not add " + subject + " to the whitelist", thrown);
+            }
+        });
     }
 
     /**
-     * Removes the given player from the whitelist
+     * Removes the given player from the whitelist.
+     * A name that has to be looked up is removed once the lookup is done, this never waits for it.
      *
      * @param subject
      *         player name or uuid
      */
-    public void removePlayer(String subject) {
-        String uuid = subject;
-        if (!ToolBox.isUUID(uuid)) {
-            uuid = ToolBox.usernameToUUID(uuid);
-        }
-        if (whitelist.contains(uuid)) {
-            whitelist.remove(uuid);
-            backboneWhitelist.removeWhitelistEntry(uuid);
-        }
+    public void removePlayer(final String subject) {
+        Futures.addCallback(ToolBox.usernameToUUIDAsync(subject), new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String uuid) {
+                synchronized (whitelist) {
+                    if (uuid != null && whitelist.remove(uuid)) {
+                        backboneWhitelist.removeWhitelistEntry(uuid);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable thrown) {
+                log.error("Could not remove " + subject + " from the whitelist", thrown);
+            }
+        });
     }
 
     /**
@@ -86,6 +108,6 @@ public class WhitelistProvider {
     }
 
     public String[] getWhitelisted() {
-        return whitelist.toArray(new String[getSize()]);
+        return whitelist.toArray();
     }
 }
@@ -5,6 +5,7 @@ import net.canarymod.ToolBox;
 import net.canarymod.api.entity.living.humanoid.Player;
 import net.canarymod.api.world.position.Location;
 import net.canarymod.backbone.BackboneWarps;
+import net.canarymod.commandsys.TabCompleteHelper;
 
 import java.util.Collections;
 import java.util.List;
@@ -36,6 +37,7 @@ public class WarpProvider {
         }
         backbone.addWarp(warp);
         warps.add(warp);
+        TabCompleteHelper.getWarpIndex().add(warp);
     }
 
     /**
@@ -46,6 +48,7 @@ public class WarpProvider {
     public void removeWarp(Warp warp) {
         backbone.removeWarp(warp);
         warps.remove(warp);
+        TabCompleteHelper.getWarpIndex().remove(warp);
     }
 
     /**
@@ -155,5 +158,6 @@ public class WarpProvider {
     public void reload() {
         warps.clear();
         warps = backbone.loadWarps();
+        TabCompleteHelper.getWarpIndex().invalidate();
     }
 }
@@ -0,0 +1,230 @@
+package net.canarymod.bansystem;
+
+import net.canarymod.ToolBox;
+import org.junit.Assert;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class BanIndexTest {
+
+    private static Ban playerBan(String uuid, String name, long expiration) {
+        Ban ban = new Ban();
+        ban.setUUID(uuid);
+        ban.setSubject(name);
+        ban.setExpiration(expiration);
+        return ban;
+    }
+
+    private static Ban ipBan(String uuid, String name, String ip) {
+        Ban ban = playerBan(uuid, name, -1);
+        ban.setIp(ip);
+        ban.setIsIpBan(true);
+        return ban;
+    }
+
+    @org.junit.Test
+    public void testLookupIgnoresCase() {
+        Ban ban = playerBan("F84C6A790A4E45E0879BCD49EBD4C4E2", "Notch", -1);
+        BanIndex index = new BanIndex(Collections.singletonList(ban));
+
+        Assert.assertSame(ban, index.getByUuid("f84c6a790a4e45e0879bcd49ebd4c4e2"));
+        Assert.assertSame(ban, index.getByName("notch"));
+        Assert.assertSame(ban, index.find("f84c6a790a4e45e0879bcd49ebd4c4e2"));
+        Assert.assertSame(ban, index.getPlayerBan("F84C6A790A4E45E0879BCD49EBD4C4E2"));
+        Assert.assertNull(index.getByName("jeb_"));
+        Assert.assertNull(index.getByUuid(null));
+    }
+
+    @org.junit.Test
+    public void testPlayerBanSkipsIpBans() {
+        Ban byIp = ipBan("uuid", "Player", "1.2.3.4");
+        BanIndex index = new BanIndex(Collections.singletonList(byIp));
+        Assert.assertSame(byIp, index.getByUuid("uuid"));
+        Assert.assertNull("An IP ban is no player ban", index.getPlayerBan("uuid"));
+
+        Ban byUuid = playerBan("uuid", "Player", -1);
+        index.add(byUuid);
+        Assert.assertSame(byUuid, index.getPlayerBan("uuid"));
+        Assert.assertSame("First ban issued must win", byIp, index.getByUuid("uuid"));
+    }
+
+    @org.junit.Test
+    public void testExactIp() {
+        Ban ban = ipBan("uuid", "Player", "192.168.1.20");
+        BanIndex index = new BanIndex(Collections.singletonList(ban));
+        Assert.assertSame(ban, index.getByIp("192.168.1.20"));
+        Assert.assertSame(ban, index.find("192.168.1.20"));
+        Assert.assertNull(index.getByIp("192.168.1.21"));
+        Assert.assertNull(index.getByIp("::1"));
+        Assert.assertNull(index.getByIp(null));
+    }
+
+    @org.junit.Test
+    public void testCidrRange() {
+        Ban lan = ipBan("a", "A", "192.168.1.0/24");
+        Ban host = ipBan("b", "B", "172.16.5.4/32");
+        BanIndex index = new BanIndex(Arrays.asList(lan, host));
+
+        Assert.assertSame(lan, index.getByIp("192.168.1.0"));
+        Assert.assertSame(lan, index.getByIp("192.168.1.255"));
+        Assert.assertSame(lan, index.find("192.168.1.77"));
+        Assert.assertNull("Outside of the /24", index.getByIp("192.168.2.0"));
+        Assert.assertNull("Outside of the /24", index.getByIp("192.168.0.255"));
+        Assert.assertSame(host, index.getByIp("172.16.5.4"));
+        Assert.assertNull(index.getByIp("172.16.5.5"));
+        Assert.assertNull("Not an address", index.getByIp("192.168.1"));
+        Assert.assertNull("Not an address", index.getByIp("192.168.1.256"));
+    }
+
+    @org.junit.Test
+    public void testWidestRangeWins() {
+        Ban narrow = ipBan("a", "A", "10.1.0.0/16");
+        Ban wide = ipBan("b", "B", "10.0.0.0/8");
+        BanIndex index = new BanIndex(Arrays.asList(narrow, wide));
+
+        Assert.assertSame(wide, index.getByIp("10.1.2.3"));
+        Assert.assertSame(wide, index.getByIp("10.2.0.1"));
+
+        index.remove(wide);
+        Assert.assertSame(narrow, index.getByIp("10.1.2.3"));
+        Assert.assertNull(index.getByIp("10.2.0.1"));
+
+        Ban all = ipBan("c", "C", "0.0.0.0/0");
+        index.add(all);
+        Assert.assertSame("A /0 range bans every address", all, index.getByIp("8.8.8.8"));
+    }
+
+    @org.junit.Test
+    public void testExactIpBeforeRange() {
+        Ban range = ipBan("a", "A", "10.0.0.0/8");
+        Ban exact = ipBan("b", "B", "10.0.0.1");
+        BanIndex index = new BanIndex(Arrays.asList(range, exact));
+        Assert.assertSame(exact, index.getByIp("10.0.0.1"));
+        Assert.assertSame(range, index.getByIp("10.0.0.2"));
+    }
+
+    @org.junit.Test
+    public void testInvalidRangesAreIgnored() {
+        Ban prefix = ipBan("a", "A", "10.0.0.0/33");
+        Ban address = ipBan("b", "B", "10.0.0/8");
+        Ban player = playerBan("c", "C", -1);
+        player.setIp("10.0.0.0/8"); // Not an IP ban, must not ban the range
+        BanIndex index = new BanIndex(Arrays.asList(prefix, address, player));
+        Assert.assertNull(index.getByIp("10.0.0.1"));
+        Assert.assertSame("Invalid range bans can still be looked up as issued", prefix, index.getByIp("10.0.0.0/33"));
+    }
+
+    @org.junit.Test
+    public void testRemove() {
+        Ban first = playerBan("uuid", "Player", -1);
+        Ban second = ipBan("uuid", "Player", "10.0.0.0/8");
+        BanIndex index = new BanIndex(Arrays.asList(first, second));
+
+        index.remove(first);
+        Assert.assertSame(second, index.getByUuid("uuid"));
+        Assert.assertSame(second, index.getByName("player"));
+        index.remove(second);
+        index.remove(second);
+        Assert.assertNull(index.getByUuid("uuid"));
+        Assert.assertNull(index.getByName("player"));
+        Assert.assertNull(index.getByIp("10.0.0.1"));
+        Assert.assertEquals(0, index.getAll().length);
+    }
+
+    @org.junit.Test
+    public void testGetAllInOrderIssued() {
+        Ban one = playerBan("1", "One", -1);
+        Ban two = playerBan("2", "Two", -1);
+        Ban three = playerBan("3", "Three", -1);
+        BanIndex index = new BanIndex(Arrays.asList(two, one));
+        index.add(three);
+        index.add(one);
+        Assert.assertArrayEquals(new Ban[]{ two, one, three }, index.getAll());
+    }
+
+    @org.junit.Test
+    public void testPollExpired() {
+        long now = ToolBox.getUnixTimestamp();
+        Ban expired = playerBan("1", "Expired", now - 10);
+        Ban later = playerBan("2", "Later", now + 3600);
+        Ban permanent = playerBan("3", "Permanent", -1);
+        Ban lifted = playerBan("4", "Lifted", now - 5);
+        BanIndex index = new BanIndex(Arrays.asList(expired, later, permanent, lifted));
+        index.remove(lifted);
+
+        Assert.assertEquals(Arrays.asList(expired), index.pollExpired());
+        Assert.assertNull("Expired ban is still indexed", index.getByUuid("1"));
+        Assert.assertSame(later, index.getByUuid("2"));
+        Assert.assertSame(permanent, index.getByUuid("3"));
+        Assert.assertTrue("Expired ban was returned twice", index.pollExpired().isEmpty());
+    }
+
+    @org.junit.Test
+    public void testExpirationChangedAfterIssue() {
+        long now = ToolBox.getUnixTimestamp();
+        Ban extended = playerBan("1", "Extended", now - 10);
+        Ban permanent = playerBan("2", "Permanent", now - 10);
+        BanIndex index = new BanIndex(Arrays.asList(extended, permanent));
+        extended.setExpiration(now + 3600);
+        permanent.setExpiration(-1);
+
+        Assert.assertTrue("Bans that no longer expire were lifted", index.pollExpired().isEmpty());
+        Assert.assertSame(extended, index.getByUuid("1"));
+        Assert.assertSame(permanent, index.getByUuid("2"));
+
+        // Shortening a ban takes issuing it again
+        extended.setExpiration(now - 1);
+        index.remove(extended);
+        index.add(extended);
+        Assert.assertEquals(Arrays.asList(extended), index.pollExpired());
+    }
+
+    @org.junit.Test
+    public void testUpdateReindexesChangedBan() {
+        Ban first = playerBan("1", "First", -1);
+        Ban changed = ipBan("uuid", "Player", "10.0.0.0/8");
+        BanIndex index = new BanIndex(Arrays.asList(first, changed));
+        changed.setUUID("new-uuid");
+        changed.setSubject("Renamed");
+        changed.setIp("192.168.0.0/16");
+
+        index.update(changed);
+        Assert.assertNull(index.getByUuid("uuid"));
+        Assert.assertNull(index.getByName("player"));
+        Assert.assertNull("Old range is still banned", index.getByIp("10.1.2.3"));
+        Assert.assertSame(changed, index.getByUuid("NEW-UUID"));
+        Assert.assertSame(changed, index.getByName("renamed"));
+        Assert.assertSame(changed, index.getByIp("192.168.4.5"));
+        Assert.assertArrayEquals("Updating must keep the order bans were issued", new Ban[]{ first, changed }, index.getAll());
+
+        changed.setIsIpBan(false);
+        index.update(changed);
+        Assert.assertNull("A player ban must not ban a range", index.getByIp("192.168.4.5"));
+        Assert.assertSame(changed, index.getPlayerBan("new-uuid"));
+
+        changed.setExpiration(ToolBox.getUnixTimestamp() - 1);
+        index.update(changed);
+        Assert.assertEquals("Shortened ban was not lifted", Arrays.asList(changed), index.pollExpired());
+    }
+
+    @org.junit.Test
+    public void testRemoveChangedBan() {
+        Ban ban = ipBan("uuid", "Player", "10.0.0.0/8");
+        BanIndex index = new BanIndex(Collections.singletonList(ban));
+        ban.setUUID("other");
+        ban.setSubject("Other");
+        ban.setIp("1.2.3.4");
+        ban.setIsIpBan(false);
+
+        Assert.assertSame("Not updated, so still found by the old values", ban, index.getByIp("10.1.2.3"));
+        index.remove(ban);
+        Assert.assertNull(index.getByUuid("uuid"));
+        Assert.assertNull(index.getByName("player"));
+        Assert.assertNull("Removed ban still bans its old range", index.getByIp("10.1.2.3"));
+        Assert.assertEquals(0, index.getAll().length);
+
+        index.update(ban);
+        Assert.assertNull("Updating a ban that is not indexed must not add it", index.getByUuid("other"));
+    }
+}
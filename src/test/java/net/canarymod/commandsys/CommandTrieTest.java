@@ -0,0 +1,212 @@
+package net.canarymod.commandsys;
+
+import net.canarymod.chat.MessageReceiver;
+import org.junit.Assert;
+
+import java.lang.annotation.Annotation;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CommandTrieTest {
+
+    private static Command meta(final String... aliases) {
+        return new Command() {
+            @Override
+            public String[] aliases() {
+                return aliases;
+            }
+
+            @Override
+            public String[] permissions() {
+                return new String[]{ "" };
+            }
+
+            @Override
+            public String description() {
+                return "test command";
+            }
+
+            @Override
+            public String toolTip() {
+                return "/" + aliases[0];
+            }
+
+            @Override
+            public String parent() {
+                return "";
+            }
+
+            @Override
+            public String helpLookup() {
+                return "";
+            }
+
+            @Override
+            public String[] searchTerms() {
+                return new String[]{ " " };
+            }
+
+            @Override
+            public int min() {
+                return 0;
+            }
+
+            @Override
+            public int max() {
+                return -1;
+            }
+
+            @Override
+            public int version() {
+                return 1;
+            }
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return Command.class;
+            }
+        };
+    }
+
+    private static CanaryCommand command(String... aliases) {
+        return new CanaryCommand(meta(aliases), null, null) {
+            @Override
+            protected void execute(MessageReceiver caller, String[] parameters) {
+            }
+        };
+    }
+
+    private static CanaryCommand sub(CanaryCommand parent, String... aliases) {
+        CanaryCommand sub = command(aliases);
+        parent.addSubCommand(sub);
+        return sub;
+    }
+
+    /**
+     * Builds the trie the way CommandManager keys its commands, by every alias
+     */
+    private static CommandTrie trie(CanaryCommand... commands) {
+        Map<String, CanaryCommand> byAlias = new LinkedHashMap<String, CanaryCommand>();
+        for (CanaryCommand command : commands) {
+            for (String alias : command.meta.aliases()) {
+                byAlias.put(alias.toLowerCase(), command);
+            }
+        }
+        return new CommandTrie(byAlias);
+    }
+
+    private static String[] args(String line) {
+        return line.split(" ");
+    }
+
+    @org.junit.Test
+    public void testGetCommand() {
+        CanaryCommand group = command("group", "grp");
+        CanaryCommand kick = command("kick");
+        CommandTrie trie = trie(group, kick);
+
+        Assert.assertSame(group, trie.getCommand("group").command);
+        Assert.assertSame(group, trie.getCommand("GRP").command);
+        Assert.assertSame(kick, trie.getCommand("Kick").command);
+        Assert.assertEquals(0, trie.getCommand("kick").depth);
+        Assert.assertNull(trie.getCommand("ban"));
+        Assert.assertNull(trie.getCommand("kic"));
+        Assert.assertNull(trie.getCommand("kicks"));
+        Assert.assertNull(trie.getCommand(""));
+    }
+
+    @org.junit.Test
+    public void testResolveSubCommands() {
+        CanaryCommand group = command("group");
+        CanaryCommand add = sub(group, "add", "create");
+        CanaryCommand member = sub(add, "member");
+        CanaryCommand list = sub(group, "list");
+        CommandTrie trie = trie(group, command("kick"));
+
+        CommandTrie.Node node = trie.resolve("group", args("group add member Notch"));
+        Assert.assertSame(member, node.command);
+        Assert.assertSame("Base must be the root command", group, node.base);
+        Assert.assertEquals(2, node.depth);
+
+        node = trie.resolve("GROUP", args("GROUP Create Notch"));
+        Assert.assertSame(add, node.command);
+        Assert.assertSame(group, node.base);
+        Assert.assertEquals(1, node.depth);
+
+        node = trie.resolve("group", args("group list"));
+        Assert.assertSame(list, node.command);
+
+        node = trie.resolve("group", args("group"));
+        Assert.assertSame(group, node.command);
+        Assert.assertEquals(0, node.depth);
+
+        node = trie.resolve("group", args("group Notch add"));
+        Assert.assertSame("Sub commands must follow the command directly", group, node.command);
+
+        node = trie.resolve("group", args("group add Notch member"));
+        Assert.assertSame("Resolving must stop at the first argument that is no sub command", add, node.command);
+
+        Assert.assertNull(trie.resolve("ban", args("ban add")));
+    }
+
+    @org.junit.Test
+    public void testFirstSubCommandWithAliasWins() {
+        CanaryCommand root = command("root");
+        CanaryCommand first = sub(root, "first", "shared");
+        sub(root, "second", "SHARED");
+        CommandTrie trie = trie(root);
+
+        Assert.assertSame(root.getSubCommand("shared"), trie.resolve("root", args("root shared")).command);
+        Assert.assertSame(first, trie.resolve("root", args("root Shared")).command);
+    }
+
+    @org.junit.Test
+    public void testSubCommandsMatchCanaryCommandLookup() {
+        CanaryCommand root = command("root");
+        String[] names = { "a", "b", "ab", "B2", "zz", "m" };
+        for (String name : names) {
+            CanaryCommand child = sub(root, name);
+            for (String grandchild : names) {
+                sub(child, grandchild + "x");
+            }
+        }
+        CommandTrie trie = trie(root);
+
+        String[] tried = { "a", "A", "b", "b2", "ab", "aB", "zz", "m", "x", "", "mx", "zzz" };
+        for (String first : tried) {
+            CanaryCommand expected = root.getSubCommand(first);
+            CommandTrie.Node node = trie.resolve("root", new String[]{ "root", first });
+            Assert.assertSame("Sub command " + first, expected == null ? root : expected, node.command);
+            for (String second : tried) {
+                if (expected == null) {
+                    continue;
+                }
+                CanaryCommand expectedSecond = expected.getSubCommand(second + "x");
+                node = trie.resolve("root", new String[]{ "root", first, second + "x" });
+                Assert.assertSame("Sub command " + first + " " + second + "x", expectedSecond == null ? expected : expectedSecond, node.command);
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testSelfContainingSubCommandsTerminate() {
+        CanaryCommand loop = command("loop");
+        CanaryCommand again = sub(loop, "again");
+        again.addSubCommand(loop);
+        CommandTrie trie = trie(loop);
+
+        CommandTrie.Node node = trie.resolve("loop", args("loop again loop again"));
+        Assert.assertSame(again, node.command);
+        Assert.assertEquals(3, node.depth);
+    }
+
+    @org.junit.Test
+    public void testTrieIsASnapshot() {
+        CanaryCommand group = command("group");
+        CommandTrie trie = trie(group);
+        sub(group, "add");
+
+        Assert.assertSame("Sub commands added later must not show up in a built trie", group, trie.resolve("group", args("group add")).command);
+        Assert.assertEquals("add", trie(group).resolve("group", args("group add")).command.meta.aliases()[0]);
+    }
+}
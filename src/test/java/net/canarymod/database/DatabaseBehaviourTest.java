@@ -0,0 +1,374 @@
+package net.canarymod.database;
+
+import net.canarymod.backbone.SchemaVersionDataAccess;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What every file based database must do the same way. Subclasses plug in the backend.
+ */
+public abstract class DatabaseBehaviourTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    protected File directory;
+    protected Database database;
+    private final List<Database> opened = new ArrayList<Database>();
+
+    /**
+     * Opens a database over the given directory, reading whatever is already there
+     */
+    protected abstract Database open(File directory) throws Exception;
+
+    /**
+     * Shuts the database down cleanly
+     */
+    protected abstract void shutdown(Database database) throws Exception;
+
+    /**
+     * Rewrites the storage of all tables right away, regardless of how much there is to reclaim
+     */
+    protected abstract void compact(Database database) throws Exception;
+
+    /**
+     * Appends the first half of a record to the storage of a table, like a crash in the middle of a write would
+     */
+    protected abstract void appendTornRecord(File directory, String table) throws IOException;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("db");
+        database = reopen();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (Database db : opened) {
+            shutdown(db);
+        }
+    }
+
+    /**
+     * Opens another database over the directory, without shutting down the current one
+     */
+    protected Database reopen() throws Exception {
+        Database db = open(directory);
+        opened.add(db);
+        db.updateSchema(new SampleDataAccess());
+        return db;
+    }
+
+    protected static Map<String, Object> filter(Object... keysAndValues) {
+        Map<String, Object> filters = new HashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            filters.put((String)keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return filters;
+    }
+
+    protected SampleDataAccess load(String name) throws Exception {
+        SampleDataAccess data = new SampleDataAccess();
+        database.load(data, filter("name", name));
+        return data.hasData() ? data : null;
+    }
+
+    /**
+     * Gets the score of every row that matches the filters, by name
+     */
+    protected Map<String, Integer> scores(Map<String, Object> filters) throws Exception {
+        List<DataAccess> rows = new ArrayList<DataAccess>();
+        database.loadAll(new SampleDataAccess(), rows, filters);
+        Map<String, Integer> scores = new TreeMap<String, Integer>();
+        for (DataAccess row : rows) {
+            SampleDataAccess sample = (SampleDataAccess)row;
+            scores.put(sample.name, sample.score);
+        }
+        Assert.assertEquals("Rows with the same name were loaded", rows.size(), scores.size());
+        return scores;
+    }
+
+    protected void insertSamples() throws Exception {
+        SampleDataAccess alpha = new SampleDataAccess("alpha", "red", 1);
+        alpha.tags.add("first");
+        alpha.tags.add("line\nbreak");
+        database.insert(alpha);
+        database.insert(new SampleDataAccess("beta", "blue", 2));
+        database.insert(new SampleDataAccess("gamma", "red", 3));
+        database.insert(new SampleDataAccess("delta", "red", 2));
+    }
+
+    @org.junit.Test
+    public void testInsertAndLoad() throws Exception {
+        insertSamples();
+
+        SampleDataAccess alpha = load("alpha");
+        Assert.assertNotNull("Inserted row was not found", alpha);
+        Assert.assertNotNull("Inserted row has no id", alpha.id);
+        Assert.assertEquals("red", alpha.group);
+        Assert.assertEquals(1, alpha.score);
+        Assert.assertEquals(Arrays.asList("first", "line\nbreak"), alpha.tags);
+        Assert.assertNull("Row that was never inserted was found", load("omega"));
+
+        SampleDataAccess beta = load("beta");
+        Assert.assertNotEquals("Rows share an id", alpha.id, beta.id);
+        SampleDataAccess byId = new SampleDataAccess();
+        database.load(byId, filter("id", beta.id));
+        Assert.assertEquals("beta", byId.name);
+
+        Assert.assertEquals(4, scores(filter()).size());
+        Assert.assertEquals("Filtering by an indexed column", Arrays.asList("alpha", "delta", "gamma"), new ArrayList<String>(scores(filter("grp", "red")).keySet()));
+        Assert.assertEquals("Filtering by a plain column", Arrays.asList("beta", "delta"), new ArrayList<String>(scores(filter("score", 2)).keySet()));
+        Assert.assertEquals("Filtering by two columns", Arrays.asList("delta"), new ArrayList<String>(scores(filter("grp", "red", "score", 2)).keySet()));
+        Assert.assertTrue("Filter without matches", scores(filter("grp", "green")).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testInsertAll() throws Exception {
+        database.insertAll(new ArrayList<DataAccess>());
+        Assert.assertTrue("Inserting nothing made rows", scores(filter()).isEmpty());
+
+        List<DataAccess> rows = new ArrayList<DataAccess>();
+        for (int i = 0; i < 50; i++) {
+            rows.add(new SampleDataAccess("row" + i, "bulk", i));
+        }
+        database.insertAll(rows);
+        Map<String, Integer> scores = scores(filter("grp", "bulk"));
+        Assert.assertEquals(50, scores.size());
+        Assert.assertEquals(Integer.valueOf(42), scores.get("row42"));
+    }
+
+    @org.junit.Test
+    public void testUpdate() throws Exception {
+        insertSamples();
+
+        SampleDataAccess gamma = load("gamma");
+        Integer id = gamma.id;
+        gamma.score = 30;
+        gamma.group = "blue";
+        gamma.tags.add("updated");
+        database.update(gamma, filter("name", "gamma"));
+
+        gamma = load("gamma");
+        Assert.assertEquals("Update changed the row id", id, gamma.id);
+        Assert.assertEquals(30, gamma.score);
+        Assert.assertEquals(Arrays.asList("updated"), gamma.tags);
+        Assert.assertEquals("Index was not moved to the new value", Arrays.asList("beta", "gamma"), new ArrayList<String>(scores(filter("grp", "blue")).keySet()));
+        Assert.assertEquals("Index still has the old value", Arrays.asList("alpha", "delta"), new ArrayList<String>(scores(filter("grp", "red")).keySet()));
+        Assert.assertEquals("Other rows were touched", 1, load("alpha").score);
+        Assert.assertEquals(4, scores(filter()).size());
+    }
+
+    @org.junit.Test
+    public void testUpsert() throws Exception {
+        insertSamples();
+
+        database.upsert(new SampleDataAccess("omega", "green", 7), filter("name", "omega"));
+        Assert.assertEquals("Upsert without a match must insert", 7, load("omega").score);
+
+        SampleDataAccess beta = load("beta");
+        beta.score = 20;
+        database.upsert(beta, filter("name", "beta"));
+        Assert.assertEquals("Upsert with a match must update", 20, load("beta").score);
+        Assert.assertEquals("Upsert with a match must not insert", beta.id, load("beta").id);
+        Assert.assertEquals(5, scores(filter()).size());
+    }
+
+    @org.junit.Test
+    public void testRemove() throws Exception {
+        insertSamples();
+
+        database.remove(new SampleDataAccess(), filter("name", "beta"));
+        Assert.assertNull("Removed row is still there", load("beta"));
+        Assert.assertEquals(3, scores(filter()).size());
+
+        database.remove(new SampleDataAccess(), filter("grp", "red"));
+        Assert.assertEquals("Remove must take only the first match", 2, scores(filter("grp", "red")).size());
+
+        database.remove(new SampleDataAccess(), filter("name", "omega"));
+        Assert.assertEquals(2, scores(filter()).size());
+    }
+
+    @org.junit.Test
+    public void testRemoveAll() throws Exception {
+        insertSamples();
+
+        database.removeAll(new SampleDataAccess(), filter("grp", "red"));
+        Assert.assertEquals(Arrays.asList("beta"), new ArrayList<String>(scores(filter()).keySet()));
+
+        database.insert(new SampleDataAccess("alpha", "red", 1));
+        Assert.assertEquals("Removed value is still indexed", Arrays.asList("alpha"), new ArrayList<String>(scores(filter("grp", "red")).keySet()));
+
+        database.removeAll(new SampleDataAccess(), filter());
+        Assert.assertTrue("Removing without filters must empty the table", scores(filter()).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testVisitAll() throws Exception {
+        insertSamples();
+
+        final List<String> visited = new ArrayList<String>();
+        database.visitAll(new SampleDataAccess(), filter("grp", "red"), new RowVisitor<SampleDataAccess>() {
+            @Override
+            public boolean visit(SampleDataAccess data) {
+                visited.add(data.name);
+                return true;
+            }
+        });
+        Assert.assertEquals(Arrays.asList("alpha", "gamma", "delta"), visited);
+
+        visited.clear();
+        database.visitAll(new SampleDataAccess(), filter("score", 2), new RowVisitor<SampleDataAccess>() {
+            @Override
+            public boolean visit(SampleDataAccess data) {
+                visited.add(data.name);
+                return true;
+            }
+        });
+        Assert.assertEquals(Arrays.asList("beta", "delta"), visited);
+
+        visited.clear();
+        database.visitAll(new SampleDataAccess(), filter(), new RowVisitor<SampleDataAccess>() {
+            @Override
+            public boolean visit(SampleDataAccess data) {
+                visited.add(data.name);
+                return false;
+            }
+        });
+        Assert.assertEquals("Visiting must stop when the visitor says so", Arrays.asList("alpha"), visited);
+    }
+
+    @org.junit.Test
+    public void testReopen() throws Exception {
+        insertSamples();
+        database.remove(new SampleDataAccess(), filter("name", "beta"));
+        SampleDataAccess gamma = load("gamma");
+        gamma.score = 30;
+        database.update(gamma, filter("name", "gamma"));
+        shutdown(database);
+
+        database = reopen();
+        Map<String, Integer> expected = new TreeMap<String, Integer>();
+        expected.put("alpha", 1);
+        expected.put("delta", 2);
+        expected.put("gamma", 30);
+        Assert.assertEquals(expected, scores(filter()));
+        Assert.assertEquals("Indexes were not rebuilt", 3, scores(filter("grp", "red")).size());
+        Assert.assertEquals(Arrays.asList("first", "line\nbreak"), load("alpha").tags);
+
+        database.insert(new SampleDataAccess("epsilon", "red", 5));
+        Assert.assertNotEquals("Reopened table hands out used ids", gamma.id, load("epsilon").id);
+    }
+
+    @org.junit.Test
+    public void testTornRecordIsDropped() throws Exception {
+        insertSamples();
+        // Never shut down, like a server that died
+        database = null;
+        appendTornRecord(directory, new SampleDataAccess().getName());
+
+        database = reopen();
+        Assert.assertEquals("Rows before the torn record must survive", 4, scores(filter()).size());
+        Assert.assertEquals(Arrays.asList("first", "line\nbreak"), load("alpha").tags);
+
+        database.insert(new SampleDataAccess("epsilon", "blue", 5));
+        shutdown(database);
+        database = reopen();
+        Assert.assertEquals("Rows written after recovering must be readable", 5, scores(filter()).size());
+        Assert.assertEquals(5, load("epsilon").score);
+    }
+
+    @org.junit.Test
+    public void testCompactionWhileWriting() throws Exception {
+        final int rows = 300;
+        final Database db = database;
+        final Exception[] failure = new Exception[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < rows; i++) {
+                        String name = "row" + i;
+                        db.insert(new SampleDataAccess(name, i % 2 == 0 ? "even" : "odd", i));
+                        if (i % 3 == 0) {
+                            SampleDataAccess data = new SampleDataAccess();
+                            db.load(data, filter("name", name));
+                            data.score = -i;
+                            db.update(data, filter("name", name));
+                        }
+                        if (i % 5 == 4) {
+                            db.remove(new SampleDataAccess(), filter("name", name));
+                        }
+                    }
+                }
+                catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        }, "DatabaseBehaviourTest-Writer");
+        writer.start();
+        int compactions = 0;
+        while (writer.isAlive()) {
+            compact(database);
+            compactions++;
+        }
+        writer.join();
+        compact(database);
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        Assert.assertTrue("Nothing was compacted while writing", compactions > 1);
+
+        Map<String, Integer> expected = new TreeMap<String, Integer>();
+        for (int i = 0; i < rows; i++) {
+            if (i % 5 != 4) {
+                expected.put("row" + i, i % 3 == 0 ? -i : i);
+            }
+        }
+        Assert.assertEquals(expected, scores(filter()));
+        Assert.assertEquals("Indexes are off after compaction", 120, scores(filter("grp", "even")).size());
+
+        shutdown(database);
+        database = reopen();
+        Assert.assertEquals("Compacted table does not read back", expected, scores(filter()));
+    }
+
+    @org.junit.Test
+    public void testSchemaVersionSurvivesRestart() throws Exception {
+        // What BackbonePermissions and SchemaVersions do with the marker of a converted table
+        database.updateSchema(new SchemaVersionDataAccess());
+        SchemaVersionDataAccess marker = new SchemaVersionDataAccess();
+        marker.component = "permissions.player";
+        marker.version = 1;
+        database.upsert(marker, filter("component", "permissions.player"));
+        shutdown(database);
+
+        database = reopen();
+        database.updateSchema(new SchemaVersionDataAccess());
+        SchemaVersionDataAccess loaded = new SchemaVersionDataAccess();
+        database.load(loaded, filter("component", "permissions.player"));
+        Assert.assertTrue("Marker was lost on restart", loaded.hasData());
+        Assert.assertEquals(Integer.valueOf(1), loaded.version);
+
+        marker = new SchemaVersionDataAccess();
+        marker.component = "permissions.player";
+        marker.version = 2;
+        database.upsert(marker, filter("component", "permissions.player"));
+        List<DataAccess> markers = new ArrayList<DataAccess>();
+        database.loadAll(new SchemaVersionDataAccess(), markers, filter());
+        Assert.assertEquals("Setting a marker again must replace it", 1, markers.size());
+        Assert.assertEquals(Integer.valueOf(2), ((SchemaVersionDataAccess)markers.get(0)).version);
+    }
+}
@@ -0,0 +1,38 @@
+package net.canarymod.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A table with one column of each kind the databases treat differently
+ */
+public class SampleDataAccess extends DataAccess {
+
+    public SampleDataAccess() {
+        super("behaviour_sample");
+    }
+
+    public SampleDataAccess(String name, String group, int score) {
+        this();
+        this.name = name;
+        this.group = group;
+        this.score = score;
+    }
+
+    @Column(columnName = "name", dataType = Column.DataType.STRING, columnType = Column.ColumnType.UNIQUE)
+    public String name;
+
+    @Column(columnName = "grp", dataType = Column.DataType.STRING, indexed = true)
+    public String group;
+
+    @Column(columnName = "score", dataType = Column.DataType.INTEGER)
+    public int score;
+
+    @Column(columnName = "tags", dataType = Column.DataType.STRING, isList = true)
+    public List<String> tags = new ArrayList<String>();
+
+    @Override
+    public DataAccess getInstance() {
+        return new SampleDataAccess();
+    }
+}
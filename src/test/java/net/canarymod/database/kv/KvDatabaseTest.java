@@ -0,0 +1,93 @@
+package net.canarymod.database.kv;
+
+import net.canarymod.database.DataAccess;
+import net.canarymod.database.Database;
+import net.canarymod.database.DatabaseBehaviourTest;
+import net.canarymod.database.SampleDataAccess;
+import org.junit.Assert;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class KvDatabaseTest extends DatabaseBehaviourTest {
+
+    @Override
+    protected Database open(File directory) {
+        // Compacted by the tests only
+        return new KvDatabase(directory, 3600);
+    }
+
+    @Override
+    protected void shutdown(Database database) {
+        ((KvDatabase)database).shutdown();
+    }
+
+    @Override
+    protected void compact(Database database) throws IOException {
+        ((KvDatabase)database).compact(new SampleDataAccess().getName());
+    }
+
+    @Override
+    protected void appendTornRecord(File directory, String table) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(directory, table + ".kvs"), true));
+        try {
+            out.writeInt(64); // body length
+            out.writeInt(0); // checksum
+            out.write(new byte[10]); // but only part of the body
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testCompactionReclaimsSpace() throws Exception {
+        insertSamples();
+        for (int i = 0; i < 20; i++) {
+            SampleDataAccess beta = load("beta");
+            beta.score = i;
+            database.update(beta, filter("name", "beta"));
+        }
+        File segment = new File(directory, new SampleDataAccess().getName() + ".kvs");
+        long before = segment.length();
+
+        compact(database);
+        Assert.assertTrue("Compaction did not shrink the segment", segment.length() < before);
+        Assert.assertEquals(19, load("beta").score);
+    }
+
+    @org.junit.Test
+    public void testImportTable() throws Exception {
+        Database source = open(folder.newFolder("source"));
+        try {
+            source.updateSchema(new SampleDataAccess());
+            List<DataAccess> rows = new ArrayList<DataAccess>();
+            rows.add(new SampleDataAccess("alpha", "red", 1));
+            rows.add(new SampleDataAccess("beta", "blue", 2));
+            rows.add(new SampleDataAccess("gamma", "red", 3));
+            source.insertAll(rows);
+            source.remove(new SampleDataAccess(), filter("name", "beta"));
+            SampleDataAccess gamma = new SampleDataAccess();
+            source.load(gamma, filter("name", "gamma"));
+
+            database.insert(new SampleDataAccess("stale", "red", 0));
+            int copied = ((KvDatabase)database).importTable(source, new SampleDataAccess());
+
+            Assert.assertEquals(2, copied);
+            Assert.assertNull("Import must replace what was there", load("stale"));
+            Assert.assertEquals(Arrays.asList("alpha", "gamma"), new ArrayList<String>(scores(filter("grp", "red")).keySet()));
+            Assert.assertEquals("Import must keep the row ids", gamma.id, load("gamma").id);
+
+            database.insert(new SampleDataAccess("delta", "red", 4));
+            Assert.assertTrue("Imported ids were handed out again", load("delta").id > gamma.id);
+        }
+        finally {
+            shutdown(source);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package net.canarymod.database.xml;
+
+import net.canarymod.database.DataAccess;
+import net.canarymod.database.Database;
+import net.canarymod.database.DatabaseBehaviourTest;
+import net.canarymod.database.SampleDataAccess;
+import org.junit.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class XmlDatabaseTest extends DatabaseBehaviourTest {
+
+    @Override
+    protected Database open(File directory) {
+        // Flushed by the tests only
+        return new XmlDatabase(directory, 3600);
+    }
+
+    @Override
+    protected void shutdown(Database database) {
+        ((XmlDatabase)database).shutdown();
+    }
+
+    @Override
+    protected void compact(Database database) {
+        ((XmlDatabase)database).flush();
+    }
+
+    @Override
+    protected void appendTornRecord(File directory, String table) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(directory, table + ".journal"), true);
+        try {
+            out.write("<entry><id>99</id><name>tor".getBytes(Charset.forName("UTF-8")));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testJournalIsClearedByFlush() throws Exception {
+        File journal = new File(directory, new SampleDataAccess().getName() + ".journal");
+        insertSamples();
+        Assert.assertTrue("Writes must go to the journal first", journal.exists());
+
+        compact(database);
+        Assert.assertFalse("Flushed journal was not deleted", journal.exists());
+
+        database = reopen();
+        Assert.assertEquals("Flushed rows are not in the XML file", 4, scores(filter()).size());
+    }
+
+    @org.junit.Test
+    public void testReplayKeepsDocumentOrder() throws Exception {
+        insertSamples();
+        compact(database);
+        database.remove(new SampleDataAccess(), filter("name", "beta"));
+        SampleDataAccess gamma = load("gamma");
+        gamma.score = 30;
+        database.update(gamma, filter("name", "gamma"));
+        database.insert(new SampleDataAccess("epsilon", "blue", 5));
+        // Never shut down, so the journal is replayed over the flushed file
+        database = reopen();
+
+        List<DataAccess> rows = new ArrayList<DataAccess>();
+        database.loadAll(new SampleDataAccess(), rows, filter());
+        List<String> names = new ArrayList<String>();
+        for (DataAccess row : rows) {
+            names.add(((SampleDataAccess)row).name);
+        }
+        Assert.assertEquals("Updated rows must keep their place, new ones go last", Arrays.asList("alpha", "gamma", "delta", "epsilon"), names);
+        Assert.assertEquals(30, load("gamma").score);
+        Assert.assertEquals("Indexes were not rebuilt after replaying", Arrays.asList("alpha", "delta", "gamma"), new ArrayList<String>(scores(filter("grp", "red")).keySet()));
+    }
+}
@@ -0,0 +1,160 @@
+package net.canarymod.permissionsystem;
+
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the compiled index resolves exactly like walking the {@link PermissionNode}s did
+ */
+public class PermissionIndexTest {
+    private static final String[] SEGMENTS = { "canary", "world", "mod", "*" };
+    private static final String[] QUERY_SEGMENTS = { "canary", "world", "mod", "fly", "*" };
+    private static final String[] EDGE_CASES = { "", " ", "canary", "canary.", ".canary", "canary..world", "*", "canary.*", "canary.world.mod.fly.high" };
+
+    // The resolution MultiworldPermissionProvider had before it was compiled into an index
+
+    private static PermissionNode legacyRoot(List<PermissionNode> roots, String name) {
+        for (PermissionNode node : roots) {
+            if (node.getName().equals(name) || node.isWildcard()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static boolean legacyHasPath(MultiworldPermissionProvider provider, String[] path) {
+        PermissionNode node = legacyRoot(provider.getPermissionMap(), path[0]);
+        return node != null && node.resolvePath(path, 1);
+    }
+
+    private static boolean legacyQuery(MultiworldPermissionProvider provider, String permission) {
+        if (permission.isEmpty() || permission.equals(" ")) {
+            return true;
+        }
+        String[] path = permission.split("\\.");
+        if (!legacyHasPath(provider, path) && provider.getParent() != null) {
+            return legacyQuery((MultiworldPermissionProvider)provider.getParent(), permission);
+        }
+        PermissionNode node = legacyRoot(provider.getPermissionMap(), path[0]);
+        return node != null && node.resolveToValue(path, 1);
+    }
+
+    private static boolean legacyPathExists(MultiworldPermissionProvider provider, String permission) {
+        return permission.trim().isEmpty() || legacyHasPath(provider, permission.split("\\."))
+                || (provider.getParent() != null && legacyPathExists((MultiworldPermissionProvider)provider.getParent(), permission));
+    }
+
+    private static String randomPath(Random random, String[] segments, int maxDepth) {
+        StringBuilder path = new StringBuilder(segments[random.nextInt(segments.length)]);
+        int depth = random.nextInt(maxDepth);
+        for (int i = 0; i < depth; i++) {
+            path.append('.').append(segments[random.nextInt(segments.length)]);
+        }
+        return path.toString();
+    }
+
+    private static MultiworldPermissionProvider randomProvider(Random random, MultiworldPermissionProvider parent) {
+        MultiworldPermissionProvider provider = parent == null ? new MultiworldPermissionProvider() : new MultiworldPermissionProvider(parent);
+        int permissions = random.nextInt(10);
+        for (int i = 0; i < permissions; i++) {
+            provider.addPermission(randomPath(random, SEGMENTS, 4), random.nextBoolean(), i);
+        }
+        return provider;
+    }
+
+    private static List<String> queries(Random random) {
+        List<String> queries = new ArrayList<String>(Arrays.asList(EDGE_CASES));
+        for (int i = 0; i < 40; i++) {
+            queries.add(randomPath(random, QUERY_SEGMENTS, 5));
+        }
+        return queries;
+    }
+
+    private static void assertSameResolution(MultiworldPermissionProvider provider, List<String> queries) {
+        PermissionIndex index = PermissionIndex.compile(Collections.<PermissionProvider>singletonList(provider));
+        for (String permission : queries) {
+            boolean expected = legacyQuery(provider, permission);
+            Assert.assertEquals("queryPermission(" + permission + ") of " + provider.getPermissionsAsStringList(), expected, provider.queryPermission(permission));
+            Assert.assertEquals("index query of " + permission, expected, index.queryPermission(permission));
+            // Again, from the result cache
+            Assert.assertEquals("cached query of " + permission, expected, index.queryPermission(permission));
+
+            boolean exists = legacyPathExists(provider, permission);
+            Assert.assertEquals("pathExists(" + permission + ") of " + provider.getPermissionsAsStringList(), exists, provider.pathExists(permission));
+            Assert.assertEquals("index pathExists of " + permission, exists, index.pathExists(permission));
+        }
+    }
+
+    @org.junit.Test
+    public void testResolvesLikePermissionNodes() {
+        Random random = new Random(7);
+        for (int round = 0; round < 300; round++) {
+            MultiworldPermissionProvider provider = null;
+            int chain = 1 + random.nextInt(3);
+            for (int i = 0; i < chain; i++) {
+                provider = randomProvider(random, provider);
+            }
+            assertSameResolution(provider, queries(random));
+        }
+    }
+
+    @org.junit.Test
+    public void testFirstProviderWithPathDecides() {
+        MultiworldPermissionProvider player = new MultiworldPermissionProvider();
+        MultiworldPermissionProvider group = new MultiworldPermissionProvider();
+        MultiworldPermissionProvider parentGroup = new MultiworldPermissionProvider();
+        player.addPermission("canary.world.mod.dig", false, 0);
+        group.addPermission("canary.world.*", true, 0);
+        group.addPermission("canary.commands.tp", false, 1);
+        parentGroup.addPermission("canary.commands.*", true, 0);
+        PermissionIndex index = PermissionIndex.compile(Arrays.<PermissionProvider>asList(player, group, parentGroup));
+
+        Assert.assertFalse("Denied for the player", index.queryPermission("canary.world.mod.dig"));
+        Assert.assertTrue("Granted by the group wildcard", index.queryPermission("canary.world.mod.fly"));
+        Assert.assertFalse("Denied by the group before the parent grants it", index.queryPermission("canary.commands.tp"));
+        Assert.assertTrue("Granted by the parent group", index.queryPermission("canary.commands.help"));
+        Assert.assertFalse("Nobody knows it", index.queryPermission("other.permission"));
+        Assert.assertFalse(index.pathExists("other.permission"));
+        Assert.assertTrue(index.pathExists("canary.commands.kick"));
+    }
+
+    @org.junit.Test
+    public void testChangesOutdateTheIndex() {
+        MultiworldPermissionProvider parent = new MultiworldPermissionProvider();
+        MultiworldPermissionProvider provider = new MultiworldPermissionProvider(parent);
+        parent.addPermission("canary.world.fly", true, 0);
+        PermissionIndex index = PermissionIndex.compile(Collections.<PermissionProvider>singletonList(provider));
+        Assert.assertTrue(index.queryPermission("canary.world.fly"));
+        Assert.assertTrue(provider.queryPermission("canary.world.fly"));
+        Assert.assertTrue(index.isCurrent());
+
+        Assert.assertFalse(provider.queryPermission("canary.world.swim"));
+        parent.addPermission("canary.world.swim", true, 1);
+        Assert.assertFalse("Index over a changed parent is still current", index.isCurrent());
+        Assert.assertTrue("Provider resolved with outdated permissions", provider.queryPermission("canary.world.swim"));
+        Assert.assertTrue(PermissionIndex.compile(Collections.<PermissionProvider>singletonList(provider)).queryPermission("canary.world.swim"));
+
+        PermissionIndex current = PermissionIndex.compile(Collections.<PermissionProvider>singletonList(provider));
+        PermissionIndex.inheritanceChanged();
+        Assert.assertFalse("Inheritance changes must outdate indexes", current.isCurrent());
+    }
+
+    @org.junit.Test
+    public void testUncachedIndexResolvesTheSame() {
+        PermissionIndex.setResultCacheSize(0);
+        try {
+            Random random = new Random(11);
+            for (int round = 0; round < 50; round++) {
+                assertSameResolution(randomProvider(random, randomProvider(random, null)), queries(random));
+            }
+        }
+        finally {
+            PermissionIndex.setResultCacheSize(256);
+        }
+    }
+}
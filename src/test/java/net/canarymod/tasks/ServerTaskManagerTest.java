@@ -0,0 +1,303 @@
+package net.canarymod.tasks;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ServerTaskManagerTest {
+    private final TaskOwner owner = new TaskOwner() {
+    };
+    private final TaskOwner other = new TaskOwner() {
+    };
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Logs its name each time it runs
+     */
+    private class NamedTask extends ServerTask {
+        private final String name;
+
+        NamedTask(TaskOwner owner, String name, long delay, boolean continuous) {
+            super(owner, delay, continuous);
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            ran.add(name);
+        }
+    }
+
+    /**
+     * Logs how it completed, along with the thread it completed on
+     */
+    private class NamedAsyncTask extends AsyncServerTask<String> {
+        private final String result;
+        private volatile Thread completedOn;
+
+        NamedAsyncTask(TaskOwner owner, String result) {
+            super(owner);
+            this.result = result;
+        }
+
+        @Override
+        public String call() throws Exception {
+            if (result == null) {
+                throw new IllegalStateException("no result");
+            }
+            return result;
+        }
+
+        @Override
+        public void onComplete(String result) {
+            completedOn = Thread.currentThread();
+            ran.add("complete " + result);
+        }
+
+        @Override
+        public void onFailure(Throwable thrown) {
+            completedOn = Thread.currentThread();
+            ran.add("failure " + thrown.getMessage());
+        }
+    }
+
+    @Before
+    public void setUp() {
+        // Nothing may be deferred, the tests count ticks
+        ServerTaskManager.setTickBudget(0);
+    }
+
+    @After
+    public void tearDown() {
+        ServerTaskManager.removeTasks(owner);
+        ServerTaskManager.removeTasks(other);
+    }
+
+    private void runTicks(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            ServerTaskManager.runTasks();
+        }
+    }
+
+    /**
+     * Pumps the main thread until an async task has completed, or gives up after a few seconds
+     */
+    private void runUntilCompleted(NamedAsyncTask task) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (task.completedOn == null && System.nanoTime() < deadline) {
+            ServerTaskManager.runTasks();
+            Thread.sleep(1);
+        }
+    }
+
+    @org.junit.Test
+    public void testTasksRunWhenDue() {
+        ServerTaskManager.addTask(new NamedTask(owner, "three", 3, false));
+        ServerTaskManager.addTask(new NamedTask(owner, "one", 1, false));
+        ServerTaskManager.addTask(new NamedTask(owner, "two", 2, false));
+        ServerTaskManager.addTask(new NamedTask(owner, "zero", 0, false));
+
+        runTicks(1);
+        Assert.assertEquals("A delay of 0 must run with the next tick, like a delay of 1", Arrays.asList("one", "zero"), ran);
+        runTicks(1);
+        Assert.assertEquals(Arrays.asList("one", "zero", "two"), ran);
+        runTicks(1);
+        Assert.assertEquals(Arrays.asList("one", "zero", "two", "three"), ran);
+        runTicks(5);
+        Assert.assertEquals("Tasks that are not continuous must run once", 4, ran.size());
+        Assert.assertTrue("Ran tasks are still queued", ServerTaskManager.getServerTasksForTaskOwner(owner).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testTasksDueTogetherRunInOrderAdded() {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            ServerTaskManager.addTask(new NamedTask(i % 2 == 0 ? owner : other, "task" + i, 2, false));
+            expected.add("task" + i);
+        }
+        runTicks(1);
+        Assert.assertTrue("Tasks ran early", ran.isEmpty());
+        runTicks(1);
+        Assert.assertEquals(expected, ran);
+    }
+
+    @org.junit.Test
+    public void testContinuousTaskRepeats() {
+        ServerTaskManager.addTask(new NamedTask(owner, "repeat", 2, true));
+        runTicks(6);
+        Assert.assertEquals(Arrays.asList("repeat", "repeat", "repeat"), ran);
+        Assert.assertEquals(1, ServerTaskManager.getServerTasksForTaskOwner(owner).size());
+    }
+
+    @org.junit.Test
+    public void testRemovedTaskDoesNotRun() {
+        NamedTask task = new NamedTask(owner, "removed", 2, true);
+        ServerTaskManager.addTask(task);
+        runTicks(1);
+        Assert.assertTrue(ServerTaskManager.isQueued(task));
+        Assert.assertTrue(ServerTaskManager.removeTask(task));
+        Assert.assertFalse("Removed twice", ServerTaskManager.removeTask(task));
+        Assert.assertFalse(ServerTaskManager.isQueued(task));
+        runTicks(4);
+        Assert.assertTrue("Removed task ran", ran.isEmpty());
+
+        // Its stale heap entry must not make it run twice per period
+        ServerTaskManager.addTask(task);
+        runTicks(4);
+        Assert.assertEquals(Arrays.asList("removed", "removed"), ran);
+    }
+
+    @org.junit.Test
+    public void testAddingTaskAgainReschedulesIt() {
+        NamedTask task = new NamedTask(owner, "readded", 3, false);
+        ServerTaskManager.addTask(task);
+        runTicks(2);
+        ServerTaskManager.addTask(task);
+        runTicks(1);
+        Assert.assertTrue("Replaced entry ran", ran.isEmpty());
+        runTicks(2);
+        Assert.assertEquals(Arrays.asList("readded"), ran);
+    }
+
+    @org.junit.Test
+    public void testTaskRemovingItselfIsNotRescheduled() {
+        ServerTaskManager.addTask(new ServerTask(owner, 1, true) {
+            @Override
+            public void run() {
+                ran.add("once");
+                ServerTaskManager.removeTask(this);
+            }
+        });
+        runTicks(3);
+        Assert.assertEquals(Arrays.asList("once"), ran);
+    }
+
+    @org.junit.Test
+    public void testFailingTaskIsRemoved() {
+        ServerTask failing = new ServerTask(owner, 1, true) {
+            @Override
+            public void run() {
+                ran.add("failed");
+                throw new IllegalStateException("expected by the test");
+            }
+        };
+        ServerTaskManager.addTask(failing);
+        runTicks(3);
+        Assert.assertEquals(Arrays.asList("failed"), ran);
+        Assert.assertFalse("Failing task is still queued", ServerTaskManager.isQueued(failing));
+    }
+
+    @org.junit.Test
+    public void testRemoveTasksOfOwner() {
+        ServerTaskManager.addTask(new NamedTask(owner, "mine", 1, true));
+        ServerTaskManager.addTask(new NamedTask(owner, "mine too", 2, false));
+        ServerTaskManager.addTask(new NamedTask(other, "theirs", 1, false));
+        Assert.assertEquals(2, ServerTaskManager.getServerTasksForTaskOwner(owner).size());
+
+        ServerTaskManager.removeTasks(owner);
+        Assert.assertTrue(ServerTaskManager.getServerTasksForTaskOwner(owner).isEmpty());
+        Assert.assertEquals(1, ServerTaskManager.getServerTasksForTaskOwner(other).size());
+        runTicks(3);
+        Assert.assertEquals(Arrays.asList("theirs"), ran);
+    }
+
+    @org.junit.Test
+    public void testLowPriorityTaskIsDeferredOverBudget() {
+        ServerTaskManager.setTickBudget(1);
+        ServerTaskManager.addTask(new ServerTask(owner, 1, true) {
+            @Override
+            public void run() {
+                ran.add("slow");
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2);
+                while (System.nanoTime() < end) {
+                    // Use up the budget
+                }
+            }
+        });
+        ServerTaskManager.addTask(new NamedTask(owner, "low", 1, true) {
+            @Override
+            public boolean isLowPriority() {
+                return true;
+            }
+        });
+        runTicks(2);
+        Assert.assertEquals("Low priority task ran over budget", Arrays.asList("slow", "slow"), ran);
+
+        boolean deferred = false;
+        for (TaskOwnerTiming timing : ServerTaskManager.getOwnerTimings()) {
+            if (timing.getOwner() == owner) {
+                deferred = timing.getDeferredCount() == 2;
+            }
+        }
+        Assert.assertTrue("Deferring was not accounted", deferred);
+    }
+
+    @org.junit.Test
+    public void testAsyncContinuationRunsOnMainThread() throws Exception {
+        NamedAsyncTask task = new NamedAsyncTask(owner, "done");
+        AsyncTaskHandle<String> handle = ServerTaskManager.addAsyncTask(task);
+        Assert.assertEquals("done", handle.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue("Continuation ran before the main thread pumped it", ran.isEmpty());
+
+        runUntilCompleted(task);
+        Assert.assertEquals(Arrays.asList("complete done"), ran);
+        Assert.assertSame("Continuation must run on the thread calling runTasks", Thread.currentThread(), task.completedOn);
+
+        runTicks(3);
+        Assert.assertEquals("Continuation ran twice", 1, ran.size());
+    }
+
+    @org.junit.Test
+    public void testFailedAsyncTaskCallsOnFailure() throws Exception {
+        NamedAsyncTask task = new NamedAsyncTask(owner, null);
+        ServerTaskManager.addAsyncTask(task);
+        runUntilCompleted(task);
+        Assert.assertEquals(Arrays.asList("failure no result"), ran);
+        Assert.assertSame(Thread.currentThread(), task.completedOn);
+    }
+
+    @org.junit.Test
+    public void testRemoveTasksDiscardsFinishedContinuation() throws Exception {
+        NamedAsyncTask mine = new NamedAsyncTask(owner, "mine");
+        NamedAsyncTask theirs = new NamedAsyncTask(other, "theirs");
+        AsyncTaskHandle<String> handle = ServerTaskManager.addAsyncTask(mine);
+        ServerTaskManager.addAsyncTask(theirs);
+        handle.get(5, TimeUnit.SECONDS);
+
+        // Finished, but the main thread has not come around to it yet
+        ServerTaskManager.removeTasks(owner);
+        runUntilCompleted(theirs);
+        runTicks(3);
+        Assert.assertEquals(Arrays.asList("complete theirs"), ran);
+        Assert.assertNull("Continuation of a removed owner ran", mine.completedOn);
+    }
+
+    @org.junit.Test
+    public void testRemoveTasksCancelsRunningAsyncTask() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        NamedAsyncTask task = new NamedAsyncTask(owner, "blocked") {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                return super.call();
+            }
+        };
+        AsyncTaskHandle<String> handle = ServerTaskManager.addAsyncTask(task);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        ServerTaskManager.removeTasks(owner);
+        Assert.assertTrue("Running task was not canceled", handle.isCancelled());
+        release.countDown();
+        runTicks(3);
+        Assert.assertTrue("Canceled task completed", ran.isEmpty());
+    }
+}
@@ -0,0 +1,133 @@
+package net.canarymod.user;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the lookup against a local server that answers like the Mojang profile endpoint
+ */
+public class MojangUUIDLookupTest {
+    private HttpServer server;
+    private String url;
+    private final List<List<String>> requests = Collections.synchronizedList(new ArrayList<List<String>>());
+    private final List<String> contentTypes = Collections.synchronizedList(new ArrayList<String>());
+    private volatile String response;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/profiles/minecraft", new HttpHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (!exchange.getRequestMethod().equals("POST")) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+                    JSONArray names = (JSONArray)new JSONParser().parse(new InputStreamReader(exchange.getRequestBody(), "UTF-8"));
+                    requests.add(new ArrayList<String>(names));
+
+                    String body = response;
+                    if (body == null) {
+                        JSONArray profiles = new JSONArray();
+                        for (Object name : names) {
+                            if (((String)name).equalsIgnoreCase("notch")) {
+                                JSONObject profile = new JSONObject();
+                                profile.put("id", "069a79f444e94726a5befca90e38aaf5");
+                                profile.put("name", "Notch");
+                                profiles.add(profile);
+                            }
+                        }
+                        body = profiles.toJSONString();
+                    }
+                    byte[] bytes = body.getBytes("UTF-8");
+                    exchange.getResponseHeaders().add("Content-Type", "application/json");
+                    exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(bytes);
+                    out.close();
+                }
+                catch (Exception e) {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/profiles/minecraft";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @org.junit.Test
+    public void testLookup() throws Exception {
+        MojangUUIDLookup lookup = new MojangUUIDLookup(url);
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("Notch", "069a79f4-44e9-4726-a5be-fca90e38aaf5");
+
+        Assert.assertEquals("UUIDs must get their hyphens, names the spelling of the server", expected, lookup.lookup(Arrays.asList("notch", "nobody")));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("notch", "nobody")), requests);
+        Assert.assertEquals("application/json", contentTypes.get(0));
+    }
+
+    @org.junit.Test
+    public void testEmptyResponse() throws Exception {
+        response = "";
+        Assert.assertTrue(new MojangUUIDLookup(url).lookup(Arrays.asList("notch")).isEmpty());
+        response = "[]";
+        Assert.assertTrue(new MojangUUIDLookup(url).lookup(Arrays.asList("notch")).isEmpty());
+    }
+
+    @org.junit.Test(expected = IOException.class)
+    public void testServerError() throws Exception {
+        server.removeContext("/profiles/minecraft");
+        new MojangUUIDLookup(url).lookup(Arrays.asList("notch"));
+    }
+
+    @org.junit.Test
+    public void testResolverBatchesAtTheApiLimit() throws Exception {
+        UUIDResolver resolver = new UUIDResolver(new MojangUUIDLookup(url), null);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 24; i++) {
+            names.add("player" + i);
+        }
+        names.add("Notch");
+        for (String name : names) {
+            resolver.resolveAsync(name);
+        }
+
+        Assert.assertEquals("069a79f4-44e9-4726-a5be-fca90e38aaf5", resolver.resolve("notch"));
+        Assert.assertNull(resolver.resolve("player3"));
+        int looked = 0;
+        for (List<String> request : requests) {
+            Assert.assertTrue("More names than the API takes: " + request.size(), request.size() <= 10);
+            looked += request.size();
+        }
+        Assert.assertEquals("player3 must have been looked up again", names.size() + 1, looked);
+    }
+}
@@ -0,0 +1,177 @@
+package net.canarymod.user;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class UUIDResolverTest {
+    private static final String NOTCH = "069a79f4-44e9-4726-a5be-fca90e38aaf5";
+    private static final String JEB = "853c80ef-3c37-49fd-aa49-938b674adae6";
+
+    /**
+     * Knows a fixed set of names and records every batch it is asked for
+     */
+    private static class StubEndpoint implements UUIDLookupEndpoint {
+        private final Map<String, String> known = new HashMap<String, String>();
+        private final int batchSize;
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        volatile CountDownLatch blocker;
+        volatile boolean failing;
+
+        StubEndpoint(int batchSize) {
+            this.batchSize = batchSize;
+            known.put("Notch", NOTCH);
+            known.put("jeb_", JEB);
+        }
+
+        @Override
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public Map<String, String> lookup(List<String> names) throws Exception {
+            batches.add(new ArrayList<String>(names));
+            if (blocker != null) {
+                blocker.await(5, TimeUnit.SECONDS);
+            }
+            if (failing) {
+                throw new IllegalStateException("expected by the test");
+            }
+            Map<String, String> result = new HashMap<String, String>();
+            for (String name : names) {
+                for (Map.Entry<String, String> entry : known.entrySet()) {
+                    if (entry.getKey().equalsIgnoreCase(name)) {
+                        result.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    @org.junit.Test
+    public void testResolveCachesBothWays() {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+
+        Assert.assertNull(resolver.getCachedUUID("Notch"));
+        Assert.assertEquals(NOTCH, resolver.resolve("NOTCH"));
+        Assert.assertEquals(NOTCH, resolver.getCachedUUID("notch"));
+        Assert.assertEquals("Name must be cached as the endpoint spells it", "Notch", resolver.getCachedName(NOTCH.toUpperCase()));
+
+        ListenableFuture<String> cached = resolver.resolveAsync("Notch");
+        Assert.assertTrue("Cached name must resolve right away", cached.isDone());
+        Assert.assertEquals(NOTCH, resolver.resolve("Notch"));
+        Assert.assertEquals("Cached name was looked up again", 1, endpoint.batches.size());
+    }
+
+    @org.junit.Test
+    public void testUnknownNameResolvesToNull() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+
+        Assert.assertNull(resolver.resolveAsync("Nobody").get(5, TimeUnit.SECONDS));
+        Assert.assertNull(resolver.getCachedUUID("Nobody"));
+        Assert.assertNull(resolver.resolve("nobody"));
+        Assert.assertEquals("Unknown names are not cached, so they are looked up again", 2, endpoint.batches.size());
+    }
+
+    @org.junit.Test
+    public void testRequestsForOneNameShareLookup() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        endpoint.blocker = new CountDownLatch(1);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+
+        ListenableFuture<String> first = resolver.resolveAsync("jeb_");
+        ListenableFuture<String> second = resolver.resolveAsync("JEB_");
+        Assert.assertSame("Pending lookups must be shared, ignoring case", first, second);
+        endpoint.blocker.countDown();
+
+        Assert.assertEquals(JEB, first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, endpoint.batches.size());
+        Assert.assertEquals(Collections.singletonList("jeb_"), endpoint.batches.get(0));
+        Assert.assertNotSame("Finished lookups must not be handed out again", first, resolver.resolveAsync("jeb_"));
+    }
+
+    @org.junit.Test
+    public void testNamesAreBatched() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(3);
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+
+        List<ListenableFuture<String>> futures = new ArrayList<ListenableFuture<String>>();
+        Set<String> requested = new HashSet<String>();
+        for (int i = 0; i < 7; i++) {
+            futures.add(resolver.resolveAsync("player" + i));
+            requested.add("player" + i);
+        }
+        futures.add(resolver.resolveAsync("Notch"));
+        requested.add("notch");
+        for (ListenableFuture<String> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(NOTCH, futures.get(7).get());
+
+        Set<String> looked = new HashSet<String>();
+        for (List<String> batch : endpoint.batches) {
+            Assert.assertTrue("Batch larger than the endpoint accepts: " + batch, batch.size() <= 3);
+            for (String name : batch) {
+                Assert.assertTrue("Looked up twice: " + name, looked.add(name));
+            }
+        }
+        Assert.assertEquals(requested, looked);
+        Assert.assertTrue("Names were not batched", endpoint.batches.size() < 8);
+    }
+
+    @org.junit.Test
+    public void testFailedLookupCompletes() throws Exception {
+        StubEndpoint endpoint = new StubEndpoint(10);
+        endpoint.failing = true;
+        UUIDResolver resolver = new UUIDResolver(endpoint, null);
+
+        Assert.assertNull(resolver.resolveAsync("Notch").get(5, TimeUnit.SECONDS));
+        Assert.assertNull(resolver.getCachedUUID("Notch"));
+
+        endpoint.failing = false;
+        Assert.assertEquals("A failed lookup must not stick", NOTCH, resolver.resolve("Notch"));
+    }
+
+    @org.junit.Test
+    public void testSetEndpoint() {
+        StubEndpoint first = new StubEndpoint(10);
+        StubEndpoint second = new StubEndpoint(10);
+        UUIDResolver resolver = new UUIDResolver(first, null);
+        resolver.setEndpoint(second);
+
+        Assert.assertEquals(JEB, resolver.resolve("jeb_"));
+        Assert.assertTrue(first.batches.isEmpty());
+        Assert.assertEquals(1, second.batches.size());
+    }
+
+    @org.junit.Test
+    public void testRename() {
+        UUIDResolver resolver = new UUIDResolver(new StubEndpoint(10), null);
+        String other = "61699b2e-d327-4a01-9f1e-0ea8c3f06bc6";
+
+        resolver.cache(NOTCH, "OldName");
+        resolver.cache(NOTCH.toUpperCase(), "NewName");
+        Assert.assertNull("Old name must be dropped on a rename", resolver.getCachedUUID("oldname"));
+        Assert.assertEquals(NOTCH, resolver.getCachedUUID("NEWNAME"));
+        Assert.assertEquals("NewName", resolver.getCachedName(NOTCH));
+
+        resolver.cache(other, "OldName");
+        resolver.cache(NOTCH, "newname");
+        Assert.assertEquals("Someone else took the old name", other, resolver.getCachedUUID("OldName"));
+        Assert.assertEquals("Change of case is no rename", NOTCH, resolver.getCachedUUID("NewName"));
+        Assert.assertEquals("newname", resolver.getCachedName(NOTCH));
+    }
+}